@@ -0,0 +1,134 @@
+package com.github.nikolaybespalov.gtozi;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON result files and exits with 1 if a benchmark got slower than the threshold allows.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.github.nikolaybespalov.gtozi.BenchmarkComparison baseline.json current.json [threshold]},
+ * the threshold is a fraction of the baseline score and defaults to 0.1. Benchmarks are matched by name, mode and
+ * parameters; a higher score is better for throughput, a lower one for every other mode.
+ */
+public final class BenchmarkComparison {
+    private static final double DEFAULT_THRESHOLD = 0.1;
+
+    private BenchmarkComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: BenchmarkComparison <baseline.json> <current.json> [threshold]");
+            System.exit(2);
+        }
+
+        Map<String, Score> baseline = load(args[0]);
+        Map<String, Score> current = load(args[1]);
+
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+
+        int regressions = 0;
+
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score before = baseline.get(entry.getKey());
+            Score after = entry.getValue();
+
+            if (before == null) {
+                System.out.printf(Locale.ROOT, "NEW        %s: %.3f %s%n", entry.getKey(), after.value, after.unit);
+                continue;
+            }
+
+            double change = (after.value - before.value) / before.value;
+
+            // Positive change is always an improvement from here on
+            if (!after.higherIsBetter) {
+                change = -change;
+            }
+
+            String verdict = change < -threshold ? "REGRESSION" : change > threshold ? "IMPROVED" : "OK";
+
+            if (change < -threshold) {
+                ++regressions;
+            }
+
+            System.out.printf(Locale.ROOT, "%-10s %s: %.3f -> %.3f %s (%+.1f%%)%n",
+                    verdict, entry.getKey(), before.value, after.value, after.unit, change * 100);
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) {
+                System.out.printf(Locale.ROOT, "MISSING    %s%n", key);
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.printf(Locale.ROOT, "%d benchmark(s) regressed by more than %.0f%%%n", regressions, threshold * 100);
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Score> load(String file) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+
+        try (Reader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            JsonArray results = new JsonParser().parse(reader).getAsJsonArray();
+
+            for (JsonElement element : results) {
+                JsonObject result = element.getAsJsonObject();
+
+                String mode = result.get("mode").getAsString();
+
+                StringBuilder key = new StringBuilder(result.get("benchmark").getAsString()).append(" [").append(mode);
+
+                JsonObject params = result.getAsJsonObject("params");
+
+                if (params != null) {
+                    // TreeMap keeps the parameters in the same order in both files
+                    Map<String, String> sorted = new TreeMap<>();
+
+                    for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+                        sorted.put(param.getKey(), param.getValue().getAsString());
+                    }
+
+                    for (Map.Entry<String, String> param : sorted.entrySet()) {
+                        key.append(", ").append(param.getKey()).append('=').append(param.getValue());
+                    }
+                }
+
+                key.append(']');
+
+                JsonObject metric = result.getAsJsonObject("primaryMetric");
+
+                scores.put(key.toString(), new Score(
+                        metric.get("score").getAsDouble(),
+                        metric.get("scoreUnit").getAsString(),
+                        "thrpt".equals(mode)));
+            }
+        }
+
+        return scores;
+    }
+
+    private static final class Score {
+        private final double value;
+        private final String unit;
+        private final boolean higherIsBetter;
+
+        private Score(double value, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Locates the maps the benchmarks run on.
+ * <p>
+ * Relative paths are resolved against the test data of gt-ozi, found through the {@code gtozi.testData} system
+ * property or next to the benchmarks module. Absolute paths are used as they are, so a benchmark can be run on
+ * a real map with {@code -p map=/path/to/sheet.map}.
+ */
+final class BenchmarkData {
+    private static final String TEST_DATA = "src/test/resources/com/github/nikolaybespalov/gtozi/test-data";
+
+    private BenchmarkData() {
+    }
+
+    static File file(String path) throws FileNotFoundException {
+        File file = new File(path);
+
+        if (file.isAbsolute()) {
+            return file;
+        }
+
+        File resolved = new File(getTestDataDir(), path);
+
+        if (!resolved.isFile()) {
+            throw new FileNotFoundException(resolved.getAbsolutePath());
+        }
+
+        return resolved;
+    }
+
+    private static File getTestDataDir() throws FileNotFoundException {
+        String property = System.getProperty("gtozi.testData");
+
+        if (property != null) {
+            return new File(property);
+        }
+
+        // Run from the root of the repository or from the benchmarks module
+        for (String candidate : new String[]{TEST_DATA, "../" + TEST_DATA}) {
+            File dir = new File(candidate);
+
+            if (dir.isDirectory()) {
+                return dir;
+            }
+        }
+
+        throw new FileNotFoundException("Test data not found, set -Dgtozi.testData=<gt-ozi>/" + TEST_DATA);
+    }
+
+    /**
+     * Copies a map of the test data into a directory together with a generated raster of the given size, the
+     * calibration points stay as they are.
+     *
+     * @return .map file
+     */
+    static File createSyntheticMap(Path dir, int size) throws IOException {
+        File mapFile = dir.resolve("merc-nad27.map").toFile();
+
+        Files.copy(file("02-merc/merc-nad27.map").toPath(), mapFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+
+        // Gradients and a grid compress about like a scanned sheet
+        Graphics2D graphics = image.createGraphics();
+
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.WHITE, size, size, new Color(0x7b9e5a)));
+            graphics.fillRect(0, 0, size, size);
+            graphics.setColor(Color.DARK_GRAY);
+
+            for (int i = 0; i < size; i += 100) {
+                graphics.drawLine(i, 0, i, size);
+                graphics.drawLine(0, i, size, i);
+                graphics.drawString(Integer.toString(i), i + 2, i + 12);
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        if (!ImageIO.write(image, "jpeg", dir.resolve("merc-nad27.jpg").toFile())) {
+            throw new IOException("No JPEG writer");
+        }
+
+        return mapFile;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        if (dir == null || !Files.exists(dir)) {
+            return;
+        }
+
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
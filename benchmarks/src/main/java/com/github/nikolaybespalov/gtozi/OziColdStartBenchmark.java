@@ -0,0 +1,43 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First map opened in a fresh JVM: class initialization, the datum registry, the EPSG database if the datum
+ * needs it, and the CRS construction. Every fork measures a single invocation.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class OziColdStartBenchmark {
+    @Param({
+            "01-latlon/latlon-wgs84.map",
+            "04-utm/utm11-nad27.map"
+    })
+    public String map;
+
+    private File mapFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        // Resolves the file without touching gt-ozi classes
+        mapFile = BenchmarkData.file(map);
+    }
+
+    @Benchmark
+    public Object firstMapFileReader() throws IOException {
+        return new OziMapFileReader(mapFile);
+    }
+
+    @Benchmark
+    public OziMapReader firstMapReader() throws IOException {
+        return new OziMapReader(mapFile);
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.image.io.ImageIOExt;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random reads of tile sized blocks from a raster file through the stream gt-ozi opens rasters with, its memory
+ * mapped mode, and the stream GeoTools would pick for the file.
+ * <p>
+ * Every invocation opens a stream, as a read of a tile does, and reads {@link #READS} blocks at random offsets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziImageInputStreamBenchmark {
+    private static final int READS = 64;
+
+    @Param({"64"})
+    public int fileSizeMb;
+
+    @Param({"4096", "65536"})
+    public int blockSize;
+
+    @Param({"channel", "mapped", "imageio"})
+    public String stream;
+
+    private File file;
+    private ImageInputStreamSpi spi;
+
+    @State(Scope.Thread)
+    public static class Offsets {
+        private final Random random = new Random(42);
+        private byte[] block;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("gt-ozi-stream", ".raw").toFile();
+
+        byte[] chunk = new byte[1 << 20];
+        new Random(1).nextBytes(chunk);
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            for (int i = 0; i < fileSizeMb; ++i) {
+                out.write(chunk);
+            }
+        }
+
+        switch (stream) {
+            case "channel":
+                spi = new OziFileImageInputStreamSpi(false);
+                break;
+            case "mapped":
+                spi = new OziFileImageInputStreamSpi(true);
+                break;
+            case "imageio":
+                spi = ImageIOExt.getImageInputStreamSPI(file);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown stream: " + stream);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public void randomReads(Offsets offsets, Blackhole blackhole) throws IOException {
+        if (offsets.block == null || offsets.block.length != blockSize) {
+            offsets.block = new byte[blockSize];
+        }
+
+        long maxOffset = file.length() - blockSize;
+
+        try (ImageInputStream in = spi.createInputStreamInstance(file, false, null)) {
+            for (int i = 0; i < READS; ++i) {
+                in.seek((long) (offsets.random.nextDouble() * maxOffset));
+                in.readFully(offsets.block);
+
+                blackhole.consume(offsets.block[0]);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.factory.Hints;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a .map file, construction of {@link OziMapFileReader}, CRS included, and construction of
+ * {@link OziMapReader}, with and without opening the raster, on each projection of the test data. The CRS cache is
+ * warm after the first invocation, as it is on a server that opens many sheets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziMapFileReaderBenchmark {
+    @Param({
+            "01-latlon/latlon-wgs84.map",
+            "02-merc/merc-nad27.map",
+            "03-tmerc/gk5-pul42.map",
+            "04-utm/utm11-nad27.map"
+    })
+    public String map;
+
+    private File mapFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapFile = BenchmarkData.file(map);
+    }
+
+    // Package-private results are returned as Object, the generated benchmark code lives in another package
+    @Benchmark
+    public Object parse() throws IOException {
+        return OziMapFileParser.parse(mapFile.toPath());
+    }
+
+    @Benchmark
+    public Object construct() throws IOException {
+        return new OziMapFileReader(mapFile);
+    }
+
+    @Benchmark
+    public OziMapReader constructMapReader() throws IOException {
+        OziMapReader reader = new OziMapReader(mapFile);
+
+        reader.dispose();
+
+        return reader;
+    }
+
+    @Benchmark
+    public OziMapReader constructMapReaderLazy() throws IOException {
+        OziMapReader reader = new OziMapReader(mapFile, new Hints(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE));
+
+        reader.dispose();
+
+        return reader;
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.GridFormatFinder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Format discovery over a directory of thousands of files, a quarter of them .map files and the rest other
+ * rasters and text files.
+ * <p>
+ * {@code acceptsCold} clears the probe cache before every pass and reads the prefix of every file,
+ * {@code acceptsWarm} answers from the cache. {@code findFormat} goes through {@link GridFormatFinder}, so every
+ * GeoTools format plugin on the classpath probes every file.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziMapFormatBenchmark {
+    @Param({"4000"})
+    public int fileCount;
+
+    private Path dir;
+    private List<File> files;
+    private OziMapFormat format;
+
+    @Setup
+    public void setUp() throws IOException {
+        File map = BenchmarkData.file("02-merc/merc-nad27.map");
+        File raster = BenchmarkData.file("02-merc/merc-nad27.jpg");
+
+        dir = Files.createTempDirectory("gt-ozi-format");
+        files = new ArrayList<>(fileCount);
+
+        for (int i = 0; i < fileCount; ++i) {
+            Path file;
+
+            switch (i % 4) {
+                case 0:
+                    file = Files.copy(map.toPath(), dir.resolve("sheet" + i + ".map"), StandardCopyOption.REPLACE_EXISTING);
+                    break;
+                case 1:
+                    file = Files.copy(raster.toPath(), dir.resolve("sheet" + i + ".jpg"), StandardCopyOption.REPLACE_EXISTING);
+                    break;
+                default:
+                    file = Files.write(dir.resolve("notes" + i + ".txt"), ("Not a map " + i + "\r\n").getBytes(StandardCharsets.US_ASCII));
+                    break;
+            }
+
+            files.add(file.toFile());
+        }
+
+        format = new OziMapFormat();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void acceptsCold(Blackhole blackhole) {
+        OziMapFileProbe.clearCache();
+
+        for (File file : files) {
+            blackhole.consume(format.accepts(file));
+        }
+    }
+
+    @Benchmark
+    public void acceptsWarm(Blackhole blackhole) {
+        for (File file : files) {
+            blackhole.consume(format.accepts(file));
+        }
+    }
+
+    @Benchmark
+    public void findFormat(Blackhole blackhole) {
+        for (File file : files) {
+            AbstractGridFormat found = GridFormatFinder.findFormat(file);
+
+            blackhole.consume(found);
+        }
+    }
+}
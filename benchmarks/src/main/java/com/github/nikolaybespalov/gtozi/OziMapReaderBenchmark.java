@@ -0,0 +1,99 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.geometry.GeneralEnvelope;
+import org.openjdk.jmh.annotations.*;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OziMapReader#read(GeneralParameterValue[])} of a generated raster.
+ * <p>
+ * Reads request the given fraction of the map side, at the center of the map, at full resolution, and touch every
+ * pixel of the result so deferred decoding is measured too. The thread count is set with JMH's {@code -t}, for
+ * example {@code -t 1} and {@code -t 8}; all threads share the reader.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziMapReaderBenchmark {
+    @Param({"4096"})
+    public int rasterSize;
+
+    @Param({"1", "0.25", "0.0625"})
+    public double envelopeFraction;
+
+    // Suggested tile size, 0 for the layout of the decoded image
+    @Param({"0", "256", "512"})
+    public int tileSize;
+
+    private Path dir;
+    private File mapFile;
+    private OziMapReader reader;
+    private GeneralParameterValue[] params;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gt-ozi-reader");
+        mapFile = BenchmarkData.createSyntheticMap(dir, rasterSize);
+        reader = new OziMapReader(mapFile);
+
+        GeneralEnvelope envelope = reader.getOriginalEnvelope();
+
+        double halfWidth = envelope.getSpan(0) * envelopeFraction / 2;
+        double halfHeight = envelope.getSpan(1) * envelopeFraction / 2;
+
+        GeneralEnvelope requested = new GeneralEnvelope(
+                new double[]{envelope.getMedian(0) - halfWidth, envelope.getMedian(1) - halfHeight},
+                new double[]{envelope.getMedian(0) + halfWidth, envelope.getMedian(1) + halfHeight});
+        requested.setCoordinateReferenceSystem(reader.getCoordinateReferenceSystem());
+
+        int pixels = (int) Math.max(1, Math.round(rasterSize * envelopeFraction));
+
+        List<GeneralParameterValue> values = new ArrayList<>();
+
+        ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        gg.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, pixels, pixels), requested));
+        values.add(gg);
+
+        if (tileSize > 0) {
+            ParameterValue<String> suggestedTileSize = AbstractGridFormat.SUGGESTED_TILE_SIZE.createValue();
+            suggestedTileSize.setValue(tileSize + "," + tileSize);
+            values.add(suggestedTileSize);
+        }
+
+        params = values.toArray(new GeneralParameterValue[0]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.dispose();
+
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        GridCoverage2D coverage = reader.read(params);
+
+        try {
+            return coverage.getRenderedImage().getData();
+        } finally {
+            coverage.dispose(true);
+        }
+    }
+}
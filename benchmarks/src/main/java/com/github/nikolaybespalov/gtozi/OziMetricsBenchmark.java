@@ -0,0 +1,65 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link OziMetrics}: construction and an eager read of a test map with metrics disabled and enabled.
+ * The disabled scores must match the scores of the same operations in the other benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziMetricsBenchmark {
+    @Param({"false", "true"})
+    public boolean metrics;
+
+    private File mapFile;
+    private OziMapReader reader;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (metrics) {
+            OziMetrics.enable();
+        } else {
+            OziMetrics.disable();
+        }
+
+        mapFile = BenchmarkData.file("02-merc/merc-nad27.map");
+        reader = new OziMapReader(mapFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        reader.dispose();
+
+        OziMetrics.disable();
+    }
+
+    @Benchmark
+    public Object constructMapFileReader() throws IOException {
+        return new OziMapFileReader(mapFile);
+    }
+
+    @Benchmark
+    public Object read() throws InterruptedException, ExecutionException {
+        return reader.readAsync(null, Runnable::run).get().getRenderedImage();
+    }
+
+    // Cost of an instrumented call site alone
+    @Benchmark
+    public long probe() {
+        long start = OziMetrics.start();
+
+        OziMetrics.read(0, start);
+
+        return start;
+    }
+}
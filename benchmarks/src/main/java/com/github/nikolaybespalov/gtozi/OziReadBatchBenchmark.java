@@ -0,0 +1,101 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.geometry.GeneralEnvelope;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many small neighbouring windows of one map: {@link OziMapReader#readBatch(List)} against
+ * {@link OziMapReader#read(GeneralParameterValue[])} in a loop. The windows overlap by a quarter of their size,
+ * as the metatiles of a renderer do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziReadBatchBenchmark {
+    private static final int RASTER_SIZE = 4096;
+
+    @Param({"32"})
+    public int windowCount;
+
+    @Param({"256"})
+    public int windowSize;
+
+    private Path dir;
+    private OziMapReader reader;
+    private List<GridGeometry2D> requests;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gt-ozi-batch");
+        reader = new OziMapReader(BenchmarkData.createSyntheticMap(dir, RASTER_SIZE));
+
+        GeneralEnvelope envelope = reader.getOriginalEnvelope();
+
+        double pixelWidth = envelope.getSpan(0) / RASTER_SIZE;
+        double pixelHeight = envelope.getSpan(1) / RASTER_SIZE;
+
+        int step = windowSize * 3 / 4;
+        int columns = (int) Math.ceil(Math.sqrt(windowCount));
+
+        requests = new ArrayList<>(windowCount);
+
+        for (int i = 0; i < windowCount; ++i) {
+            int x = RASTER_SIZE / 4 + (i % columns) * step;
+            int y = RASTER_SIZE / 4 + (i / columns) * step;
+
+            GeneralEnvelope window = new GeneralEnvelope(
+                    new double[]{envelope.getMinimum(0) + x * pixelWidth, envelope.getMaximum(1) - (y + windowSize) * pixelHeight},
+                    new double[]{envelope.getMinimum(0) + (x + windowSize) * pixelWidth, envelope.getMaximum(1) - y * pixelHeight});
+            window.setCoordinateReferenceSystem(reader.getCoordinateReferenceSystem());
+
+            requests.add(new GridGeometry2D(new GridEnvelope2D(0, 0, windowSize, windowSize), window));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.dispose();
+
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void readBatch(Blackhole blackhole) throws IOException {
+        for (GridCoverage2D coverage : reader.readBatch(requests)) {
+            blackhole.consume(coverage.getRenderedImage().getData());
+        }
+    }
+
+    @Benchmark
+    public void readLoop(Blackhole blackhole) throws IOException {
+        for (GridGeometry2D request : requests) {
+            ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+            gg.setValue(request);
+
+            GridCoverage2D coverage = reader.read(new GeneralParameterValue[]{gg});
+
+            try {
+                blackhole.consume(coverage.getRenderedImage().getData());
+            } finally {
+                coverage.dispose(true);
+            }
+        }
+    }
+}
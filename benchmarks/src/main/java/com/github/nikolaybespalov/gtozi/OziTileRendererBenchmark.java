@@ -0,0 +1,76 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering and encoding of XYZ tiles of a generated map, the tiles of the zoom level are requested round robin.
+ * <p>
+ * {@code latency} samples the time per tile, JMH reports its percentiles; the target is a p99 below 50 ms for
+ * 256x256 PNG tiles of a JPEG sheet on one core. {@code throughput} reports tiles per second, run it with
+ * {@code -t} to load several cores.
+ */
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziTileRendererBenchmark {
+    private static final int RASTER_SIZE = 4096;
+
+    @Param({"8", "10"})
+    public int zoom;
+
+    @Param({"PNG", "JPEG"})
+    public OziTileRenderer.Format format;
+
+    private Path dir;
+    private OziMapReader reader;
+    private OziTileRenderer renderer;
+    private List<Point> tiles;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gt-ozi-tiles");
+        reader = new OziMapReader(BenchmarkData.createSyntheticMap(dir, RASTER_SIZE));
+        renderer = new OziTileRenderer(reader);
+        tiles = OziTileSeeder.getTiles(reader, zoom);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        reader.dispose();
+
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    private byte[] renderNext(Cursor cursor) throws IOException {
+        Point tile = tiles.get(cursor.next++ % tiles.size());
+
+        return renderer.render(zoom, tile.x, tile.y, format);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public byte[] latency(Cursor cursor) throws IOException {
+        return renderNext(cursor);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public byte[] throughput(Cursor cursor) throws IOException {
+        return renderNext(cursor);
+    }
+}
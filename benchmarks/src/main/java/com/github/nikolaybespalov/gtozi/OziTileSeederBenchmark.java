@@ -0,0 +1,68 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeding of a tile pyramid of a generated map into an empty directory. The score is the time of a whole run,
+ * the tiles per second of every run are printed by the seeder.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OziTileSeederBenchmark {
+    private static final int RASTER_SIZE = 4096;
+
+    @Param({"6"})
+    public int minZoom;
+
+    @Param({"9"})
+    public int maxZoom;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private Path dir;
+    private Path mapFile;
+    private Path outputDir;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("gt-ozi-seed");
+        mapFile = BenchmarkData.createSyntheticMap(dir, RASTER_SIZE).toPath();
+        pool = new ForkJoinPool(threads);
+    }
+
+    @Setup(Level.Iteration)
+    public void createOutputDir() throws IOException {
+        outputDir = Files.createTempDirectory("gt-ozi-tiles");
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutputDir() throws IOException {
+        BenchmarkData.deleteRecursively(outputDir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+
+        BenchmarkData.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public OziTileSeeder.Result seed() throws IOException {
+        return new OziTileSeeder(outputDir, OziTileRenderer.Format.PNG, pool)
+                .seed(Collections.singletonList(mapFile), minZoom, maxZoom);
+    }
+}
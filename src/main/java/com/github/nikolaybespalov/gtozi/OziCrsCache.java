@@ -0,0 +1,152 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.data.DataSourceException;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of coordinate reference systems shared by all {@link OziMapFileReader} instances.
+ * <p>
+ * Sheets of the same series usually have identical datum, projection and 'Projection Setup', so they receive the
+ * same immutable {@link CoordinateReferenceSystem} and world to CRS {@link MathTransform} instances.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziCrsCache {
+    static final int MAX_SIZE = 256;
+
+    private static final Map<Key, Entry> CACHE = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+
+    private OziCrsCache() {
+    }
+
+    /**
+     * @return number of lookups that were served from the cache
+     */
+    public static long getHitCount() {
+        return HITS.get();
+    }
+
+    /**
+     * @return number of lookups that had to build a new CRS
+     */
+    public static long getMissCount() {
+        return MISSES.get();
+    }
+
+    /**
+     * @return number of cached CRSs
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * Removes all cached CRSs and resets the counters.
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+
+        HITS.set(0);
+        MISSES.set(0);
+    }
+
+    static Entry get(Key key, Loader loader) throws DataSourceException, FactoryException {
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(key);
+
+            if (entry != null) {
+                HITS.incrementAndGet();
+                return entry;
+            }
+        }
+
+        MISSES.incrementAndGet();
+
+        // The CRS is built outside of the lock, a concurrent loader of the same key loses the race below
+        Entry entry = loader.load();
+
+        synchronized (CACHE) {
+            Entry existing = CACHE.putIfAbsent(key, entry);
+
+            return existing != null ? existing : entry;
+        }
+    }
+
+    interface Loader {
+        Entry load() throws DataSourceException, FactoryException;
+    }
+
+    static final class Entry {
+        final CoordinateReferenceSystem crs;
+        final MathTransform world2Crs;
+
+        Entry(CoordinateReferenceSystem crs, MathTransform world2Crs) {
+            this.crs = crs;
+            this.world2Crs = world2Crs;
+        }
+    }
+
+    /**
+     * Datum name, projection name and normalized 'Projection Setup' values.
+     */
+    static final class Key {
+        final String datumName;
+        final String projectionName;
+        final String projCsName;
+        final double[] projectionSetup;
+
+        Key(String datumName, String projectionName, String projCsName, double[] projectionSetup) {
+            this.datumName = datumName;
+            this.projectionName = projectionName;
+            this.projCsName = projCsName;
+            this.projectionSetup = projectionSetup;
+
+            // -0.0 and 0.0 describe the same projection
+            for (int i = 0; i < projectionSetup.length; ++i) {
+                projectionSetup[i] += 0.0;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return Objects.equals(datumName, key.datumName) &&
+                    Objects.equals(projectionName, key.projectionName) &&
+                    Objects.equals(projCsName, key.projCsName) &&
+                    Arrays.equals(projectionSetup, key.projectionSetup);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hash(datumName, projectionName, projCsName) + Arrays.hashCode(projectionSetup);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.ReferencingFactoryFinder;
+import org.geotools.referencing.datum.BursaWolfParameters;
+import org.geotools.referencing.datum.DefaultEllipsoid;
+import org.geotools.referencing.datum.DefaultGeodeticDatum;
+import org.geotools.referencing.datum.DefaultPrimeMeridian;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.datum.DatumFactory;
+import org.opengis.referencing.datum.Ellipsoid;
+import org.opengis.referencing.datum.GeodeticDatum;
+
+import javax.measure.unit.SI;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * OziExplorer datums resolved on demand.
+ * <p>
+ * {@code ozi_ellips.csv} and {@code ozi_datum.csv} are read into plain records on the first lookup only, and
+ * a {@link GeodeticDatum} is built the first time its name is requested. The EPSG database is never touched:
+ * WGS 84 is {@link DefaultGeodeticDatum#WGS84} and every other datum is built from its ellipsoid and shift to WGS 84
+ * in the list, whether it has an EPSG code or not.
+ */
+final class OziDatumRegistry {
+    // EPSG code of WGS 84 in ozi_datum.csv
+    private static final String WGS84_CODE = "4326";
+
+    private static final Map<String, GeodeticDatum> RESOLVED = new ConcurrentHashMap<>();
+
+    private OziDatumRegistry() {
+    }
+
+    /**
+     * Returns a datum by its OziExplorer name.
+     *
+     * @param name OziExplorer datum name
+     * @return datum or null if the name is unknown
+     * @throws FactoryException if the datum could not be created
+     */
+    static GeodeticDatum get(String name) throws FactoryException {
+        if (name == null) {
+            return null;
+        }
+
+        GeodeticDatum datum = RESOLVED.get(name);
+
+        if (datum != null) {
+            return datum;
+        }
+
+        DatumRecord record = Records.DATUMS.get(name);
+
+        if (record == null) {
+            return null;
+        }
+
+        datum = record.resolve();
+
+        GeodeticDatum existing = RESOLVED.putIfAbsent(name, datum);
+
+        return existing != null ? existing : datum;
+    }
+
+    /**
+     * Finds the OziExplorer name of a datum: by the name itself, then by the ellipsoid and the shift to WGS 84, then
+     * by the ellipsoid alone. The last match is the first datum of the list on the same ellipsoid.
+     *
+     * @param datum datum
+     * @return OziExplorer datum name or null if no datum of the list uses the same ellipsoid
+     */
+    static String findName(GeodeticDatum datum) {
+        String name = datum.getName().getCode();
+
+        if (Records.DATUMS.containsKey(name)) {
+            return name;
+        }
+
+        double[] shift = getShift(datum);
+
+        for (boolean compareShift : new boolean[]{true, false}) {
+            for (String candidateName : Records.DATUMS.keySet()) {
+                GeodeticDatum candidate;
+
+                try {
+                    candidate = get(candidateName);
+                } catch (FactoryException e) {
+                    // Datums that cannot be created are never written either
+                    continue;
+                }
+
+                if (candidate == null || candidate.getEllipsoid() == null) {
+                    continue;
+                }
+
+                if (isSameEllipsoid(candidate.getEllipsoid(), datum.getEllipsoid()) &&
+                        CRS.equalsIgnoreMetadata(candidate.getPrimeMeridian(), datum.getPrimeMeridian()) &&
+                        (!compareShift || Arrays.equals(getShift(candidate), shift))) {
+                    return candidateName;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isSameEllipsoid(Ellipsoid e1, Ellipsoid e2) {
+        return Math.abs(toMeters(e1, e1.getSemiMajorAxis()) - toMeters(e2, e2.getSemiMajorAxis())) < 1e-3 &&
+                Math.abs(toMeters(e1, e1.getSemiMinorAxis()) - toMeters(e2, e2.getSemiMinorAxis())) < 1e-3;
+    }
+
+    private static double toMeters(Ellipsoid ellipsoid, double value) {
+        return ellipsoid.getAxisUnit().getConverterTo(SI.METER).convert(value);
+    }
+
+    /**
+     * @return dx, dy and dz to WGS 84 or null if the datum does not declare them
+     */
+    static double[] getShift(GeodeticDatum datum) {
+        if (!(datum instanceof DefaultGeodeticDatum)) {
+            return null;
+        }
+
+        BursaWolfParameters parameters = ((DefaultGeodeticDatum) datum).getBursaWolfParameters(DefaultGeodeticDatum.WGS84);
+
+        return parameters != null ? new double[]{parameters.dx, parameters.dy, parameters.dz} : null;
+    }
+
+    private static GeodeticDatum createGeodeticDatum(String name, Ellipsoid ellipsoid, double dx, double dy, double dz) throws FactoryException {
+        Map<String, Object> parameters = new HashMap<>();
+
+        parameters.put("name", name);
+
+        final BursaWolfParameters bursaWolfParameters = new BursaWolfParameters(DefaultGeodeticDatum.WGS84);
+
+        bursaWolfParameters.dx = dx;
+        bursaWolfParameters.dy = dy;
+        bursaWolfParameters.dz = dz;
+
+        parameters.put(DefaultGeodeticDatum.BURSA_WOLF_KEY, bursaWolfParameters);
+
+        DatumFactory datumFactory = ReferencingFactoryFinder.getDatumFactory(null);
+
+        return datumFactory.createGeodeticDatum(parameters, ellipsoid, DefaultPrimeMeridian.GREENWICH);
+    }
+
+    private static final class EllipsoidRecord {
+        private final String name;
+        private final double a;
+        private final double invf;
+
+        EllipsoidRecord(String name, double a, double invf) {
+            this.name = name;
+            this.a = a;
+            this.invf = invf;
+        }
+    }
+
+    private static final class DatumRecord {
+        private final String name;
+        private final String epsgDatumCode;
+        private final EllipsoidRecord ellipsoid;
+        private final double dx;
+        private final double dy;
+        private final double dz;
+
+        DatumRecord(String name, String epsgDatumCode, EllipsoidRecord ellipsoid, double dx, double dy, double dz) {
+            this.name = name;
+            this.epsgDatumCode = epsgDatumCode;
+            this.ellipsoid = ellipsoid;
+            this.dx = dx;
+            this.dy = dy;
+            this.dz = dz;
+        }
+
+        GeodeticDatum resolve() throws FactoryException {
+            if (WGS84_CODE.equals(epsgDatumCode)) {
+                return DefaultGeodeticDatum.WGS84;
+            }
+
+            Ellipsoid e = ellipsoid != null
+                    ? DefaultEllipsoid.createFlattenedSphere(ellipsoid.name, ellipsoid.a, ellipsoid.invf, SI.METER)
+                    : null;
+
+            return createGeodeticDatum(name, e, dx, dy, dz);
+        }
+    }
+
+    /**
+     * Initialization-on-demand holder, the CSV files are read on the first lookup.
+     */
+    private static final class Records {
+        // In the order of the file, so a lookup by parameters finds the most common datum first
+        static final Map<String, DatumRecord> DATUMS = new LinkedHashMap<>();
+
+        static {
+            //
+            // Read ozi_datum.csv and ozi_ellips.csv
+            //
+
+            Map<String, EllipsoidRecord> ellips = new HashMap<>();
+
+            InputStream oziEllipsIs = OziDatumRegistry.class.getClassLoader().getResourceAsStream("com/github/nikolaybespalov/gtozi/data/ozi_ellips.csv");
+
+            if (oziEllipsIs == null) {
+                throw new ExceptionInInitializerError("ozi_ellips.csv not found");
+            }
+
+            try (CSVParser ellipsParser = new CSVParser(new InputStreamReader(oziEllipsIs), CSVFormat.RFC4180.withFirstRecordAsHeader().withCommentMarker('#'))) {
+                for (CSVRecord ellipsRecord : ellipsParser) {
+                    String ellipsoidCode = ellipsRecord.get("ELLIPSOID_CODE");
+                    String name = ellipsRecord.get("NAME");
+                    String a = ellipsRecord.get("A");
+                    String invf = ellipsRecord.get("INVF");
+
+                    ellips.put(ellipsoidCode, new EllipsoidRecord(name, NumberUtils.toDouble(a), NumberUtils.toDouble(invf)));
+                }
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+
+            InputStream oziDatumIs = OziDatumRegistry.class.getClassLoader().getResourceAsStream("com/github/nikolaybespalov/gtozi/data/ozi_datum.csv");
+
+            if (oziDatumIs == null) {
+                throw new ExceptionInInitializerError("ozi_datum.csv not found");
+            }
+
+            try (CSVParser datumParser = new CSVParser(new InputStreamReader(oziDatumIs), CSVFormat.RFC4180.withFirstRecordAsHeader().withCommentMarker('#').withTrim())) {
+                for (CSVRecord datumRecord : datumParser) {
+                    String name = datumRecord.get("NAME");
+                    String epsgDatumCode = datumRecord.get("EPSG_DATUM_CODE");
+                    String ellipsoidCode = datumRecord.get("ELLIPSOID_CODE");
+                    String dx = datumRecord.get("DELTAX");
+                    String dy = datumRecord.get("DELTAY");
+                    String dz = datumRecord.get("DELTAZ");
+
+                    // CSV Parser cannot process a comment that does not start from the beginning.
+                    // Need to trim tail of dz.
+                    if (dz.indexOf('#') != -1) {
+                        dz = dz.substring(0, dz.indexOf('#')).trim();
+                    }
+
+                    DATUMS.put(name, new DatumRecord(name, epsgDatumCode, ellips.get(ellipsoidCode),
+                            NumberUtils.toDouble(dx), NumberUtils.toDouble(dy), NumberUtils.toDouble(dz)));
+                }
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ImageReaderSpi;
+import java.awt.*;
+import java.awt.image.RenderedImage;
+import java.io.File;
+
+/**
+ * Java Flight Recorder events of parsing, CRS resolution, raster opening and reading.
+ * <p>
+ * A phase begins with a {@code begin} call that returns null unless JFR is available and records the event, so
+ * without a recording a phase costs a field read and a null check. JVMs without the {@code jdk.jfr} API, such as Java
+ * 8 before update 262, never load the event classes.
+ */
+final class OziEvents {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private OziEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, OziEvents.class.getClassLoader());
+
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static Object beginMapParse() {
+        return AVAILABLE ? OziJfrEvents.beginMapParse() : null;
+    }
+
+    static void commitMapParse(Object event, File file, int lineCount, int calibrationPointCount) {
+        if (event != null) {
+            OziJfrEvents.commitMapParse(event, file, lineCount, calibrationPointCount);
+        }
+    }
+
+    static Object beginCrs() {
+        return AVAILABLE ? OziJfrEvents.beginCrs() : null;
+    }
+
+    static void commitCrs(Object event, String datum, String projection, boolean cacheHit) {
+        if (event != null) {
+            OziJfrEvents.commitCrs(event, datum, projection, cacheHit);
+        }
+    }
+
+    static Object beginRasterOpen() {
+        return AVAILABLE ? OziJfrEvents.beginRasterOpen() : null;
+    }
+
+    static void commitRasterOpen(Object event, File file, ImageInputStreamSpi inStreamSpi, ImageReaderSpi readerSpi, Dimension size) {
+        if (event != null) {
+            OziJfrEvents.commitRasterOpen(event, file, inStreamSpi, readerSpi, size);
+        }
+    }
+
+    static Object beginRead() {
+        return AVAILABLE ? OziJfrEvents.beginRead() : null;
+    }
+
+    /**
+     * @param envelope     requested envelope or null for the whole map
+     * @param sourceRegion decoded region of the image
+     * @param image        image of the coverage
+     * @param decodeNanos  time spent reading the image, the decoding of deferred reads is not included
+     */
+    static void commitRead(Object event, File file, Object envelope, boolean reprojected, int imageIndex, Rectangle sourceRegion, RenderedImage image, long decodeNanos) {
+        if (event != null) {
+            OziJfrEvents.commitRead(event, file, envelope != null ? envelope.toString() : null, reprojected, imageIndex, sourceRegion, image, decodeNanos);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link javax.imageio.stream.ImageInputStream} over a {@link FileChannel}.
+ * <p>
+ * Reads are positional and go through a direct buffer of {@link #BUFFER_SIZE} bytes taken from a shared pool,
+ * reads larger than the buffer bypass it. In the mapped mode the whole file is mapped into memory instead, files
+ * that do not fit into a single {@link java.nio.MappedByteBuffer} fall back to the buffered mode.
+ * <p>
+ * The ImageIO disk cache is never used, the file itself is random access.
+ */
+final class OziFileImageInputStream extends ImageInputStreamImpl {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final ConcurrentLinkedDeque<ByteBuffer> BUFFERS = new ConcurrentLinkedDeque<>();
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    private final FileChannel channel;
+    private final long length;
+    private final boolean mapped;
+    // Whether the stream is counted by the open streams gauge of OziMetrics
+    private final boolean countedOpen;
+    private ByteBuffer buffer;
+    private long bufferStart;
+
+    OziFileImageInputStream(File file, boolean mapped) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try {
+            length = channel.size();
+
+            this.mapped = mapped && length <= Integer.MAX_VALUE;
+
+            if (this.mapped) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } else {
+                buffer = acquireBuffer();
+                // Empty, the first read fills it
+                buffer.limit(0);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+
+            throw e;
+        }
+
+        countedOpen = OziMetrics.streamOpened();
+    }
+
+    boolean isMapped() {
+        return mapped;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+
+        bitOffset = 0;
+
+        if (!fill()) {
+            return -1;
+        }
+
+        int b = buffer.get((int) (streamPos - bufferStart)) & 0xff;
+
+        ++streamPos;
+
+        if (mapped) {
+            OziMetrics.bytesRead(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        bitOffset = 0;
+
+        if (len == 0) {
+            return 0;
+        }
+
+        if (streamPos >= length) {
+            return -1;
+        }
+
+        if (!mapped && len >= buffer.capacity() && !isBuffered(streamPos)) {
+            return readDirect(b, off, (int) Math.min(len, length - streamPos));
+        }
+
+        if (!fill()) {
+            return -1;
+        }
+
+        int position = (int) (streamPos - bufferStart);
+        int n = Math.min(len, buffer.limit() - position);
+
+        buffer.position(position);
+        buffer.get(b, off, n);
+
+        streamPos += n;
+
+        if (mapped) {
+            OziMetrics.bytesRead(n);
+        }
+
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+
+        if (countedOpen) {
+            OziMetrics.streamClosed();
+        }
+
+        try {
+            channel.close();
+        } finally {
+            if (!mapped) {
+                releaseBuffer(buffer);
+            }
+
+            buffer = null;
+        }
+    }
+
+    private boolean isBuffered(long pos) {
+        return pos >= bufferStart && pos < bufferStart + buffer.limit();
+    }
+
+    /**
+     * Makes sure the byte at the stream position is in the buffer.
+     *
+     * @return false at the end of file
+     */
+    private boolean fill() throws IOException {
+        if (streamPos >= length) {
+            return false;
+        }
+
+        if (mapped || isBuffered(streamPos)) {
+            return true;
+        }
+
+        buffer.clear();
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, streamPos + buffer.position()) < 0) {
+                break;
+            }
+        }
+
+        buffer.flip();
+
+        bufferStart = streamPos;
+
+        OziMetrics.bytesRead(buffer.limit());
+
+        return buffer.limit() > 0;
+    }
+
+    private int readDirect(byte[] b, int off, int len) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(b, off, len);
+
+        int n = 0;
+
+        while (target.hasRemaining()) {
+            int read = channel.read(target, streamPos + n);
+
+            if (read < 0) {
+                break;
+            }
+
+            n += read;
+        }
+
+        if (n == 0) {
+            return -1;
+        }
+
+        streamPos += n;
+
+        OziMetrics.bytesRead(n);
+
+        return n;
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer pooled = BUFFERS.pollFirst();
+
+        if (pooled != null) {
+            POOLED_BUFFERS.decrementAndGet();
+
+            return pooled;
+        }
+
+        return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer released) {
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            released.clear();
+
+            BUFFERS.offerFirst(released);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+}
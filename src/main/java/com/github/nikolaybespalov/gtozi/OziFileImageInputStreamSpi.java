@@ -0,0 +1,44 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Creates {@link ImageInputStream}s over a {@link java.nio.channels.FileChannel} for raster files.
+ * <p>
+ * The SPI is not registered with ImageIO, {@link OziMapReader} uses it for the rasters of .map files only.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziFileImageInputStreamSpi extends ImageInputStreamSpi {
+    private final boolean mapped;
+
+    public OziFileImageInputStreamSpi() {
+        this(false);
+    }
+
+    /**
+     * @param mapped true to map the whole file into memory
+     */
+    public OziFileImageInputStreamSpi(boolean mapped) {
+        super("nikolaybespalov", "1.0", File.class);
+
+        this.mapped = mapped;
+    }
+
+    @Override
+    public String getDescription(Locale locale) {
+        return mapped ? "Memory mapped file image input stream" : "File channel image input stream";
+    }
+
+    @Override
+    public ImageInputStream createInputStreamInstance(Object input, boolean useCache, File cacheDir) throws IOException {
+        if (!(input instanceof File)) {
+            throw new IllegalArgumentException("Input must be a File");
+        }
+
+        return new OziFileImageInputStream((File) input, mapped);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.nikolaybespalov.gtozi;
+
+/**
+ * Model of the raster to map transform fitted to the calibration points of a .map file.
+ *
+ * @see OziMapReader#GCP_MODEL
+ */
+@SuppressWarnings("WeakerAccess")
+public enum OziGcpModel {
+    /**
+     * Least squares affine transform, the default.
+     */
+    AFFINE(2),
+
+    /**
+     * Least squares polynomial of the 2nd order, needs at least 6 calibration points.
+     */
+    POLYNOMIAL_2(6),
+
+    /**
+     * Least squares polynomial of the 3rd order, needs at least 10 calibration points.
+     */
+    POLYNOMIAL_3(10),
+
+    /**
+     * Thin plate spline that passes through every calibration point, needs at least 3 of them.
+     */
+    THIN_PLATE_SPLINE(3);
+
+    private final int minPointCount;
+
+    OziGcpModel(int minPointCount) {
+        this.minPointCount = minPointCount;
+    }
+
+    /**
+     * @return number of calibration points the model needs
+     */
+    public int getMinPointCount() {
+        return minPointCount;
+    }
+}
@@ -0,0 +1,462 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.data.DataSourceException;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.operation.transform.AbstractMathTransform;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.opengis.referencing.operation.MathTransform2D;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Raster to map transform of a higher order {@link OziGcpModel}, fitted to the calibration points.
+ * <p>
+ * The forward and inverse transforms are fitted separately, as the inverse of a polynomial is not a polynomial.
+ * When the raster size is known, both are evaluated through an {@link OziWarpGrid} over the raster and over its
+ * envelope, so a point costs about as much as an affine transform. Points outside of the grids are evaluated
+ * exactly.
+ */
+final class OziGcpTransform extends AbstractMathTransform implements MathTransform2D {
+    // Source units between the exactly evaluated points of the interpolation grids
+    static final int MIN_GRID_STEP = 16;
+
+    // Largest number of cells along a side of an interpolation grid
+    private static final int MAX_GRID_CELLS = 256;
+
+    private static final double EPS = 1.0e-12;
+
+    private interface Function {
+        void evaluate(double x, double y, double[] point);
+    }
+
+    private final Function function;
+    private final OziWarpGrid grid;
+    private final AffineTransform source2Grid;
+    private final int gridWidth;
+    private final int gridHeight;
+    private OziGcpTransform inverse;
+
+    private OziGcpTransform(Function function, OziWarpGrid grid, AffineTransform source2Grid, int gridWidth, int gridHeight) {
+        this.function = function;
+        this.grid = grid;
+        this.source2Grid = source2Grid;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+    }
+
+    /**
+     * Fits the model to the calibration points.
+     *
+     * @param model      polynomial or thin plate spline model
+     * @param pixels     raster coordinates of the calibration points, x and y interleaved
+     * @param points     map coordinates of the calibration points, x and y interleaved
+     * @param rasterSize raster size or null to evaluate the transform exactly
+     * @return raster to map transform
+     * @throws DataSourceException if there are too few calibration points or they are degenerate
+     */
+    static OziGcpTransform create(OziGcpModel model, double[] pixels, double[] points, Dimension rasterSize) throws DataSourceException {
+        int pointCount = pixels.length / 2;
+
+        if (pointCount < model.getMinPointCount()) {
+            throw new DataSourceException(model + " needs at least " + model.getMinPointCount() + " calibration points, " + pointCount + " found");
+        }
+
+        Function forwardFunction;
+        Function inverseFunction;
+
+        switch (model) {
+            case POLYNOMIAL_2:
+                forwardFunction = fitPolynomial(2, pixels, points);
+                inverseFunction = fitPolynomial(2, points, pixels);
+                break;
+            case POLYNOMIAL_3:
+                forwardFunction = fitPolynomial(3, pixels, points);
+                inverseFunction = fitPolynomial(3, points, pixels);
+                break;
+            case THIN_PLATE_SPLINE:
+                forwardFunction = fitThinPlateSpline(pixels, points);
+                inverseFunction = fitThinPlateSpline(points, pixels);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported model: " + model);
+        }
+
+        OziGcpTransform forward = new OziGcpTransform(forwardFunction, null, null, 0, 0);
+        OziGcpTransform inverse = new OziGcpTransform(inverseFunction, null, null, 0, 0);
+
+        if (rasterSize != null) {
+            int step = Math.max(MIN_GRID_STEP, (Math.max(rasterSize.width, rasterSize.height) + MAX_GRID_CELLS - 1) / MAX_GRID_CELLS);
+
+            OziWarpGrid forwardGrid = OziWarpGrid.create(forward, rasterSize.width, rasterSize.height, step);
+
+            GeneralEnvelope envelope = forwardGrid.getEnvelope(null);
+
+            if (envelope != null && envelope.getSpan(0) > EPS && envelope.getSpan(1) > EPS) {
+                // The inverse grid has as many cells as the forward one and covers the envelope of the raster
+                AffineTransform grid2Map = new AffineTransform(
+                        envelope.getSpan(0) / rasterSize.width, 0, 0, envelope.getSpan(1) / rasterSize.height,
+                        envelope.getMinimum(0), envelope.getMinimum(1));
+
+                OziWarpGrid inverseGrid = OziWarpGrid.create(
+                        ConcatenatedTransform.create(ProjectiveTransform.create(grid2Map), inverse),
+                        rasterSize.width, rasterSize.height, step);
+
+                AffineTransform map2Grid;
+
+                try {
+                    map2Grid = grid2Map.createInverse();
+                } catch (NoninvertibleTransformException e) {
+                    throw new DataSourceException(e);
+                }
+
+                forward = new OziGcpTransform(forwardFunction, forwardGrid, new AffineTransform(), rasterSize.width, rasterSize.height);
+                inverse = new OziGcpTransform(inverseFunction, inverseGrid, map2Grid, rasterSize.width, rasterSize.height);
+            }
+        }
+
+        forward.inverse = inverse;
+        inverse.inverse = forward;
+
+        return forward;
+    }
+
+    @Override
+    public int getSourceDimensions() {
+        return 2;
+    }
+
+    @Override
+    public int getTargetDimensions() {
+        return 2;
+    }
+
+    @Override
+    public void transform(double[] srcPts, int srcOff, double[] dstPts, int dstOff, int numPts) {
+        double[] point = new double[2];
+        double[] gridPoint = new double[2];
+
+        // Overlapping arrays are walked backward
+        boolean backward = srcPts == dstPts && srcOff < dstOff;
+
+        for (int i = 0; i < numPts; ++i) {
+            int n = backward ? numPts - 1 - i : i;
+
+            double x = srcPts[srcOff + n * 2];
+            double y = srcPts[srcOff + n * 2 + 1];
+
+            if (!interpolate(x, y, point, gridPoint)) {
+                function.evaluate(x, y, point);
+            }
+
+            dstPts[dstOff + n * 2] = point[0];
+            dstPts[dstOff + n * 2 + 1] = point[1];
+        }
+    }
+
+    private boolean interpolate(double x, double y, double[] point, double[] gridPoint) {
+        if (grid == null) {
+            return false;
+        }
+
+        gridPoint[0] = x;
+        gridPoint[1] = y;
+
+        source2Grid.transform(gridPoint, 0, gridPoint, 0, 1);
+
+        if (gridPoint[0] < 0 || gridPoint[1] < 0 || gridPoint[0] > gridWidth || gridPoint[1] > gridHeight) {
+            return false;
+        }
+
+        return grid.interpolate(gridPoint[0], gridPoint[1], point);
+    }
+
+    @Override
+    public MathTransform2D inverse() {
+        return inverse;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        return this == object;
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(this);
+    }
+
+    @Override
+    public String toString() {
+        return "OziGcpTransform[" + function + "]";
+    }
+
+    /**
+     * Least squares polynomial of the given order, the source coordinates are normalized to [0, 1] and the target
+     * coordinates are fitted relative to their mean.
+     */
+    private static Function fitPolynomial(int order, double[] source, double[] target) throws DataSourceException {
+        Normalization normalization = new Normalization(source);
+
+        List<int[]> terms = new ArrayList<>();
+
+        for (int degree = 0; degree <= order; ++degree) {
+            for (int i = degree; i >= 0; --i) {
+                terms.add(new int[]{i, degree - i});
+            }
+        }
+
+        int pointCount = source.length / 2;
+        int termCount = terms.size();
+
+        double[] targetMean = mean(target);
+
+        double[][] normal = new double[termCount][termCount];
+        double[][] rhs = new double[termCount][2];
+        double[] values = new double[termCount];
+
+        for (int p = 0; p < pointCount; ++p) {
+            double x = normalization.x(source[p * 2]);
+            double y = normalization.y(source[p * 2 + 1]);
+
+            evaluateTerms(terms, x, y, values);
+
+            for (int r = 0; r < termCount; ++r) {
+                for (int c = 0; c < termCount; ++c) {
+                    normal[r][c] += values[r] * values[c];
+                }
+
+                rhs[r][0] += values[r] * (target[p * 2] - targetMean[0]);
+                rhs[r][1] += values[r] * (target[p * 2 + 1] - targetMean[1]);
+            }
+        }
+
+        double[][] coefficients = solve(normal, rhs);
+
+        return new Function() {
+            @Override
+            public void evaluate(double x, double y, double[] point) {
+                double[] termValues = new double[termCount];
+
+                evaluateTerms(terms, normalization.x(x), normalization.y(y), termValues);
+
+                double px = targetMean[0];
+                double py = targetMean[1];
+
+                for (int t = 0; t < termCount; ++t) {
+                    px += coefficients[t][0] * termValues[t];
+                    py += coefficients[t][1] * termValues[t];
+                }
+
+                point[0] = px;
+                point[1] = py;
+            }
+
+            @Override
+            public String toString() {
+                return "POLYNOMIAL_" + order;
+            }
+        };
+    }
+
+    private static void evaluateTerms(List<int[]> terms, double x, double y, double[] values) {
+        for (int t = 0; t < terms.size(); ++t) {
+            int[] term = terms.get(t);
+
+            values[t] = Math.pow(x, term[0]) * Math.pow(y, term[1]);
+        }
+    }
+
+    /**
+     * Thin plate spline through the calibration points, with the radial basis r^2 * ln(r^2) over the normalized
+     * source coordinates.
+     */
+    private static Function fitThinPlateSpline(double[] source, double[] target) throws DataSourceException {
+        Normalization normalization = new Normalization(source);
+
+        int n = source.length / 2;
+
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+
+        for (int p = 0; p < n; ++p) {
+            xs[p] = normalization.x(source[p * 2]);
+            ys[p] = normalization.y(source[p * 2 + 1]);
+        }
+
+        double[] targetMean = mean(target);
+
+        double[][] system = new double[n + 3][n + 3];
+        double[][] rhs = new double[n + 3][2];
+
+        for (int i = 0; i < n; ++i) {
+            for (int j = 0; j < n; ++j) {
+                system[i][j] = basis(xs[i] - xs[j], ys[i] - ys[j]);
+            }
+
+            system[i][n] = system[n][i] = 1;
+            system[i][n + 1] = system[n + 1][i] = xs[i];
+            system[i][n + 2] = system[n + 2][i] = ys[i];
+
+            rhs[i][0] = target[i * 2] - targetMean[0];
+            rhs[i][1] = target[i * 2 + 1] - targetMean[1];
+        }
+
+        double[][] weights = solve(system, rhs);
+
+        return new Function() {
+            @Override
+            public void evaluate(double x, double y, double[] point) {
+                double nx = normalization.x(x);
+                double ny = normalization.y(y);
+
+                double px = targetMean[0] + weights[n][0] + weights[n + 1][0] * nx + weights[n + 2][0] * ny;
+                double py = targetMean[1] + weights[n][1] + weights[n + 1][1] * nx + weights[n + 2][1] * ny;
+
+                for (int i = 0; i < n; ++i) {
+                    double u = basis(nx - xs[i], ny - ys[i]);
+
+                    px += weights[i][0] * u;
+                    py += weights[i][1] * u;
+                }
+
+                point[0] = px;
+                point[1] = py;
+            }
+
+            @Override
+            public String toString() {
+                return "THIN_PLATE_SPLINE";
+            }
+        };
+    }
+
+    private static double basis(double dx, double dy) {
+        double r2 = dx * dx + dy * dy;
+
+        return r2 > 0 ? r2 * Math.log(r2) : 0;
+    }
+
+    private static double[] mean(double[] coordinates) {
+        int n = coordinates.length / 2;
+
+        double[] mean = new double[2];
+
+        for (int p = 0; p < n; ++p) {
+            mean[0] += coordinates[p * 2] / n;
+            mean[1] += coordinates[p * 2 + 1] / n;
+        }
+
+        return mean;
+    }
+
+    /**
+     * Solves a x = b with Gaussian elimination and partial pivoting, a and b are overwritten.
+     *
+     * @return x, a row per unknown and a column per right-hand side
+     * @throws DataSourceException if the system is singular, which means the calibration points are degenerate
+     */
+    static double[][] solve(double[][] a, double[][] b) throws DataSourceException {
+        int n = a.length;
+        int m = b[0].length;
+
+        for (int column = 0; column < n; ++column) {
+            int pivot = column;
+
+            for (int row = column + 1; row < n; ++row) {
+                if (Math.abs(a[row][column]) > Math.abs(a[pivot][column])) {
+                    pivot = row;
+                }
+            }
+
+            if (Math.abs(a[pivot][column]) < EPS) {
+                throw new DataSourceException("Calibration points are degenerate, there is no valid solution");
+            }
+
+            double[] swap = a[column];
+            a[column] = a[pivot];
+            a[pivot] = swap;
+
+            swap = b[column];
+            b[column] = b[pivot];
+            b[pivot] = swap;
+
+            for (int row = column + 1; row < n; ++row) {
+                double factor = a[row][column] / a[column][column];
+
+                if (factor == 0) {
+                    continue;
+                }
+
+                for (int k = column; k < n; ++k) {
+                    a[row][k] -= factor * a[column][k];
+                }
+
+                for (int k = 0; k < m; ++k) {
+                    b[row][k] -= factor * b[column][k];
+                }
+            }
+        }
+
+        double[][] x = new double[n][m];
+
+        for (int row = n - 1; row >= 0; --row) {
+            for (int k = 0; k < m; ++k) {
+                double sum = b[row][k];
+
+                for (int c = row + 1; c < n; ++c) {
+                    sum -= a[row][c] * x[c][k];
+                }
+
+                x[row][k] = sum / a[row][row];
+            }
+        }
+
+        return x;
+    }
+
+    /**
+     * Maps the bounding box of a set of points to [0, 1].
+     */
+    private static final class Normalization {
+        private final double minX;
+        private final double minY;
+        private final double scaleX;
+        private final double scaleY;
+
+        Normalization(double[] coordinates) throws DataSourceException {
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            double x0 = Double.POSITIVE_INFINITY;
+            double y0 = Double.POSITIVE_INFINITY;
+
+            for (int p = 0; p < coordinates.length; p += 2) {
+                x0 = Math.min(x0, coordinates[p]);
+                y0 = Math.min(y0, coordinates[p + 1]);
+                maxX = Math.max(maxX, coordinates[p]);
+                maxY = Math.max(maxY, coordinates[p + 1]);
+            }
+
+            if (maxX - x0 < EPS || maxY - y0 < EPS) {
+                throw new DataSourceException("Degenerate in at least one dimension");
+            }
+
+            minX = x0;
+            minY = y0;
+            scaleX = 1 / (maxX - x0);
+            scaleY = 1 / (maxY - y0);
+        }
+
+        double x(double x) {
+            return (x - minX) * scaleX;
+        }
+
+        double y(double y) {
+            return (y - minY) * scaleY;
+        }
+    }
+}
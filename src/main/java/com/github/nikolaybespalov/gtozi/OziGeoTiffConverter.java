@@ -0,0 +1,405 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.factory.Hints;
+import org.opengis.referencing.datum.PixelInCell;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.geom.AffineTransform;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Converts Ozi maps to tiled GeoTIFFs with internal overviews, {@code <output>/<path of the .map file relative to
+ * its source directory>.tif}.
+ * <p>
+ * Maps are converted in parallel. A conversion reads its raster with a single reader in horizontal strips from top to
+ * bottom, see {@link OziStripImage}, and keeps a strip and two rows of tiles of the full resolution image in memory,
+ * see {@link OziTiffWriter}. It reserves them from the memory budget before it starts, so large maps wait for each
+ * other instead of exhausting the heap. A map larger than the whole budget is converted alone. The GeoTIFF keeps the
+ * CRS and the affine calibration of the .map file, see {@link OziGeoTiffTags}.
+ * <p>
+ * GeoTIFFs are written to a temporary file and moved into place atomically, so a GeoTIFF that exists is complete. A
+ * conversion that was interrupted is resumed by running it again, existing GeoTIFFs are skipped. A map that fails to
+ * convert is logged and counted, the others are still converted.
+ * <p>
+ * Command line: {@code OziGeoTiffConverter [--threads N] [--memory MB] [--no-compression] <output dir>
+ * <.map file or directory>...}
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziGeoTiffConverter {
+    private static final Logger LOGGER = getLogger(OziGeoTiffConverter.class);
+
+    public static final int TILE_SIZE = 256;
+
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final Path outputDir;
+    private final ForkJoinPool pool;
+    private final long memoryBudget;
+    private final boolean deflate;
+
+    /**
+     * Permits are KiB of the memory budget.
+     */
+    private final Semaphore memory;
+
+    /**
+     * @param outputDir    root of the GeoTIFF tree
+     * @param pool         pool the maps are converted on
+     * @param memoryBudget bytes the conversions in flight may use together
+     * @param deflate      true to compress the tiles with Deflate
+     */
+    public OziGeoTiffConverter(Path outputDir, ForkJoinPool pool, long memoryBudget, boolean deflate) {
+        if (memoryBudget < 1024) {
+            throw new IllegalArgumentException("Memory budget is too small: " + memoryBudget);
+        }
+
+        this.outputDir = outputDir;
+        this.pool = pool;
+        this.memoryBudget = Math.min(memoryBudget, Integer.MAX_VALUE * 1024L);
+        this.deflate = deflate;
+
+        memory = new Semaphore((int) (this.memoryBudget / 1024));
+    }
+
+    /**
+     * Converts the maps.
+     *
+     * @param sources .map files and directories that are searched for .map files
+     * @return statistics
+     * @throws IOException if the maps could not be listed or the conversion was interrupted
+     */
+    public Result convert(List<Path> sources) throws IOException {
+        long started = System.nanoTime();
+
+        Map<Path, Path> jobs = findJobs(sources);
+
+        Counters counters = new Counters();
+        AtomicLong lastReport = new AtomicLong(started);
+
+        try {
+            pool.submit(() -> jobs.entrySet().parallelStream().forEach(job -> {
+                try {
+                    convert(job.getKey(), job.getValue(), counters);
+                } catch (IOException | RuntimeException e) {
+                    counters.failed.incrementAndGet();
+
+                    if (LOGGER.isLoggable(Level.WARNING)) {
+                        LOGGER.log(Level.WARNING, job.getKey() + " could not be converted", e);
+                    }
+                }
+
+                long now = System.nanoTime();
+                long last = lastReport.get();
+
+                if (now - last > PROGRESS_INTERVAL_NANOS && lastReport.compareAndSet(last, now)) {
+                    report(counters, jobs.size(), now - started);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Conversion was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        Result result = new Result(counters.converted.get(), counters.skipped.get(), counters.failed.get(),
+                counters.bytesRead.get(), counters.bytesWritten.get(), System.nanoTime() - started);
+
+        report(counters, jobs.size(), result.getElapsedNanos());
+
+        return result;
+    }
+
+    private static final class Counters {
+        private final AtomicLong converted = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+    }
+
+    private static void report(Counters counters, long total, long elapsedNanos) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            long done = counters.converted.get() + counters.skipped.get() + counters.failed.get();
+
+            LOGGER.info(String.format(Locale.ROOT, "%d/%d maps, %.1f files/s, %.1f MB/s",
+                    done, total, counters.converted.get() * 1e9 / Math.max(1, elapsedNanos),
+                    counters.bytesRead.get() * 1e9 / 1e6 / Math.max(1, elapsedNanos)));
+        }
+    }
+
+    private void convert(Path mapFile, Path geoTiffFile, Counters counters) throws IOException {
+        if (Files.exists(geoTiffFile)) {
+            counters.skipped.incrementAndGet();
+            return;
+        }
+
+        // Only the calibration is needed, the raster is read by a single reader below
+        OziMapReader reader = new OziMapReader(mapFile.toFile(), new Hints(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE));
+
+        try {
+            // The grid to world transform is affine whatever calibration point model is selected
+            AffineTransform grid2Crs = (AffineTransform) reader.getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+
+            // Fails before any pixel is read if the CRS can not be written
+            List<OziTiffWriter.Entry> entries = OziGeoTiffTags.create(reader.getCoordinateReferenceSystem(), grid2Crs);
+
+            File rasterFile = reader.getRasterFile();
+
+            try (ImageInputStream inStream = OziRasterFiles.createInputStream(OziRasterFiles.getInputStreamSpi(rasterFile), rasterFile)) {
+                ImageReader imageReader = OziMetrics.listen(OziRasterFiles.getReaderSpi(rasterFile, inStream).createReaderInstance());
+
+                try {
+                    imageReader.setInput(inStream, true, true);
+
+                    // The calibration does not depend on the size declared by the map file
+                    int width = imageReader.getWidth(0);
+                    int height = imageReader.getHeight(0);
+
+                    int stripHeight = OziStripImage.isSequential(imageReader) ? getStripHeight(width, height, memoryBudget / pool.getParallelism()) : TILE_SIZE;
+
+                    int permits = (int) (Math.min(memoryBudget, getWorkingSetSize(width, stripHeight)) / 1024);
+
+                    memory.acquire(permits);
+
+                    try {
+                        write(new OziStripImage(imageReader, stripHeight), getOverviewCount(width, height), entries, geoTiffFile);
+                    } finally {
+                        memory.release(permits);
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } finally {
+                    imageReader.dispose();
+                }
+            }
+
+            counters.converted.incrementAndGet();
+            counters.bytesRead.addAndGet(reader.getRasterFile().length());
+            counters.bytesWritten.addAndGet(Files.size(geoTiffFile));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Conversion was interrupted", e);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private void write(RenderedImage image, int overviews, List<OziTiffWriter.Entry> entries, Path geoTiffFile) throws IOException {
+        Files.createDirectories(geoTiffFile.getParent());
+
+        Path tempFile = Files.createTempFile(geoTiffFile.getParent(), geoTiffFile.getFileName().toString(), ".tmp");
+
+        try {
+            new OziTiffWriter(TILE_SIZE, TILE_SIZE, deflate).write(image, overviews, entries, tempFile.toFile());
+
+            Files.move(tempFile, geoTiffFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return bytes of a strip of the map, the rows of tiles of all the levels and the tile buffers
+     */
+    static long getWorkingSetSize(int width, int stripHeight) {
+        return (long) width * stripHeight * 4 + new OziTiffWriter(TILE_SIZE, TILE_SIZE, false).getWorkingSetSize(width);
+    }
+
+    /**
+     * @param budget bytes a single conversion may use
+     * @return rows of a strip of a sequential raster, see {@link OziStripImage#getStripHeight(int, int, int, long)}
+     */
+    static int getStripHeight(int width, int height, long budget) {
+        return OziStripImage.getStripHeight(width, height, TILE_SIZE, budget - getWorkingSetSize(width, 0));
+    }
+
+    /**
+     * @return number of overviews until the smallest one fits into a single tile
+     */
+    static int getOverviewCount(int width, int height) {
+        int count = 0;
+
+        while (width > TILE_SIZE || height > TILE_SIZE) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+
+            ++count;
+        }
+
+        return count;
+    }
+
+    /**
+     * @return GeoTIFF file of every .map file found in the sources
+     */
+    Map<Path, Path> findJobs(List<Path> sources) throws IOException {
+        Map<Path, Path> jobs = new LinkedHashMap<>();
+
+        for (Path source : sources) {
+            if (Files.isDirectory(source)) {
+                try (Stream<Path> paths = Files.walk(source)) {
+                    for (Path mapFile : paths.filter(p -> p.getFileName() != null && p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".map"))
+                            .filter(Files::isRegularFile)
+                            .sorted()
+                            .collect(Collectors.toList())) {
+                        jobs.put(mapFile, getGeoTiffFile(source.relativize(mapFile)));
+                    }
+                }
+            } else {
+                jobs.put(source, getGeoTiffFile(source.getFileName()));
+            }
+        }
+
+        return jobs;
+    }
+
+    private Path getGeoTiffFile(Path relativeMapFile) {
+        Path parent = relativeMapFile.getParent();
+        String name = FilenameUtils.getBaseName(relativeMapFile.getFileName().toString()) + ".tif";
+
+        return parent != null ? outputDir.resolve(parent.toString()).resolve(name) : outputDir.resolve(name);
+    }
+
+    public static final class Result {
+        private final long convertedFiles;
+        private final long skippedFiles;
+        private final long failedFiles;
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final long elapsedNanos;
+
+        Result(long convertedFiles, long skippedFiles, long failedFiles, long bytesRead, long bytesWritten, long elapsedNanos) {
+            this.convertedFiles = convertedFiles;
+            this.skippedFiles = skippedFiles;
+            this.failedFiles = failedFiles;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of maps converted by this run
+         */
+        public long getConvertedFiles() {
+            return convertedFiles;
+        }
+
+        /**
+         * @return number of maps whose GeoTIFF existed already
+         */
+        public long getSkippedFiles() {
+            return skippedFiles;
+        }
+
+        /**
+         * @return number of maps that could not be converted
+         */
+        public long getFailedFiles() {
+            return failedFiles;
+        }
+
+        /**
+         * @return bytes of the rasters of the converted maps
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return bytes of the GeoTIFFs written by this run
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getFilesPerSecond() {
+            return convertedFiles * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * @return megabytes of the rasters read per second
+         */
+        public double getMegabytesPerSecond() {
+            return bytesRead / 1e6 * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d maps converted, %d skipped, %d failed, %.1f files/s, %.1f MB/s",
+                    convertedFiles, skippedFiles, failedFiles, getFilesPerSecond(), getMegabytesPerSecond());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+        boolean deflate = true;
+
+        List<String> positional = new ArrayList<>();
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--memory":
+                    memoryBudget = Long.parseLong(args[++i]) << 20;
+                    break;
+                case "--no-compression":
+                    deflate = false;
+                    break;
+                default:
+                    positional.add(args[i]);
+                    break;
+            }
+        }
+
+        if (positional.size() < 2) {
+            System.err.println("Usage: OziGeoTiffConverter [--threads N] [--memory MB] [--no-compression] <output dir> <.map file or directory>...");
+            System.exit(2);
+        }
+
+        List<Path> sources = positional.subList(1, positional.size()).stream().map(Paths::get).collect(Collectors.toList());
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            Result result = new OziGeoTiffConverter(Paths.get(positional.get(0)), pool, memoryBudget, deflate).convert(sources);
+
+            System.out.println(result);
+
+            if (result.getFailedFiles() > 0) {
+                System.exit(1);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.data.DataSourceException;
+import org.geotools.referencing.CRS;
+import org.opengis.parameter.ParameterValueGroup;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.crs.ProjectedCRS;
+import org.opengis.referencing.crs.SingleCRS;
+import org.opengis.referencing.datum.Ellipsoid;
+import org.opengis.referencing.datum.GeodeticDatum;
+import org.opengis.referencing.operation.Conversion;
+
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * GeoTIFF tags of the coordinate reference systems that Ozi maps have.
+ * <p>
+ * The CRS is written as user defined GeoKeys: the ellipsoid, the shift to WGS 84 and, for Mercator and Transverse
+ * Mercator, the projection parameters, so nothing depends on the EPSG codes of the reader.
+ */
+final class OziGeoTiffTags {
+    private static final int MODEL_PIXEL_SCALE = 33550;
+    private static final int MODEL_TIEPOINT = 33922;
+    private static final int MODEL_TRANSFORMATION = 34264;
+    private static final int GEO_KEY_DIRECTORY = 34735;
+    private static final int GEO_DOUBLE_PARAMS = 34736;
+    private static final int GEO_ASCII_PARAMS = 34737;
+
+    private static final int USER_DEFINED = 32767;
+
+    private final Map<Integer, Object> keys = new TreeMap<>();
+
+    private OziGeoTiffTags() {
+    }
+
+    /**
+     * @param crs         coordinate reference system of the coverage
+     * @param grid2Crs    transform from the corners of the pixels to the CRS
+     * @return directory entries of the GeoTIFF tags
+     * @throws DataSourceException if the CRS can not be written
+     */
+    static List<OziTiffWriter.Entry> create(CoordinateReferenceSystem crs, AffineTransform grid2Crs) throws DataSourceException {
+        OziGeoTiffTags tags = new OziGeoTiffTags();
+
+        SingleCRS horizontalCrs = CRS.getHorizontalCRS(crs);
+
+        // Pixels are areas
+        tags.keys.put(1025, 1);
+
+        if (horizontalCrs instanceof GeographicCRS) {
+            tags.keys.put(1024, 2);
+            tags.putGeographic((GeographicCRS) horizontalCrs);
+        } else if (horizontalCrs instanceof ProjectedCRS) {
+            tags.keys.put(1024, 1);
+            tags.putProjected((ProjectedCRS) horizontalCrs);
+        } else {
+            throw new DataSourceException("Unsupported coordinate reference system: " + crs);
+        }
+
+        List<OziTiffWriter.Entry> entries = new ArrayList<>();
+
+        if (grid2Crs.getShearX() == 0 && grid2Crs.getShearY() == 0) {
+            entries.add(OziTiffWriter.Entry.ofDoubles(MODEL_PIXEL_SCALE, grid2Crs.getScaleX(), -grid2Crs.getScaleY(), 0));
+            entries.add(OziTiffWriter.Entry.ofDoubles(MODEL_TIEPOINT, 0, 0, 0, grid2Crs.getTranslateX(), grid2Crs.getTranslateY(), 0));
+        } else {
+            entries.add(OziTiffWriter.Entry.ofDoubles(MODEL_TRANSFORMATION,
+                    grid2Crs.getScaleX(), grid2Crs.getShearX(), 0, grid2Crs.getTranslateX(),
+                    grid2Crs.getShearY(), grid2Crs.getScaleY(), 0, grid2Crs.getTranslateY(),
+                    0, 0, 0, 0,
+                    0, 0, 0, 1));
+        }
+
+        tags.addKeyEntries(entries);
+
+        return entries;
+    }
+
+    private void putGeographic(GeographicCRS geoCrs) {
+        GeodeticDatum datum = geoCrs.getDatum();
+        Ellipsoid ellipsoid = datum.getEllipsoid();
+
+        keys.put(2048, USER_DEFINED);
+        keys.put(2049, datum.getName().getCode());
+        keys.put(2050, USER_DEFINED);
+        // Greenwich
+        keys.put(2051, 8901);
+        // Degrees
+        keys.put(2054, 9102);
+        keys.put(2056, USER_DEFINED);
+        keys.put(2057, new double[]{ellipsoid.getAxisUnit().getConverterTo(SI.METER).convert(ellipsoid.getSemiMajorAxis())});
+        keys.put(2058, new double[]{ellipsoid.getAxisUnit().getConverterTo(SI.METER).convert(ellipsoid.getSemiMinorAxis())});
+
+        double[] shift = OziDatumRegistry.getShift(datum);
+
+        if (shift != null) {
+            keys.put(2062, shift);
+        }
+    }
+
+    private void putProjected(ProjectedCRS projectedCrs) throws DataSourceException {
+        Conversion conversion = projectedCrs.getConversionFromBase();
+        ParameterValueGroup parameters = conversion.getParameterValues();
+
+        int coordinateTransformation;
+
+        if (OziMapWriter.isMethod(conversion, parameters, "Mercator_1SP")) {
+            coordinateTransformation = 7;
+        } else if (OziMapWriter.isMethod(conversion, parameters, "Transverse_Mercator")) {
+            coordinateTransformation = 1;
+        } else {
+            throw new DataSourceException("Unsupported projection: " + conversion.getMethod().getName());
+        }
+
+        putGeographic(projectedCrs.getBaseCRS());
+
+        keys.put(3072, USER_DEFINED);
+        keys.put(3073, projectedCrs.getName().getCode());
+        keys.put(3074, USER_DEFINED);
+        keys.put(3075, coordinateTransformation);
+        // Meters
+        keys.put(3076, 9001);
+        keys.put(3080, new double[]{parameters.parameter("central_meridian").doubleValue(NonSI.DEGREE_ANGLE)});
+        keys.put(3081, new double[]{parameters.parameter("latitude_of_origin").doubleValue(NonSI.DEGREE_ANGLE)});
+        keys.put(3082, new double[]{parameters.parameter("false_easting").doubleValue(SI.METER)});
+        keys.put(3083, new double[]{parameters.parameter("false_northing").doubleValue(SI.METER)});
+        keys.put(3092, new double[]{parameters.parameter("scale_factor").doubleValue()});
+    }
+
+    /**
+     * Lays out the key directory, doubles and strings go to their own tags and the keys point into them.
+     */
+    private void addKeyEntries(List<OziTiffWriter.Entry> entries) {
+        List<Double> doubles = new ArrayList<>();
+        StringBuilder ascii = new StringBuilder();
+
+        long[] directory = new long[4 + keys.size() * 4];
+
+        directory[0] = 1;
+        directory[1] = 1;
+        directory[2] = 0;
+        directory[3] = keys.size();
+
+        int i = 4;
+
+        for (Map.Entry<Integer, Object> key : keys.entrySet()) {
+            Object value = key.getValue();
+
+            directory[i++] = key.getKey();
+
+            if (value instanceof Integer) {
+                directory[i++] = 0;
+                directory[i++] = 1;
+                directory[i++] = (Integer) value;
+            } else if (value instanceof double[]) {
+                double[] values = (double[]) value;
+
+                directory[i++] = GEO_DOUBLE_PARAMS;
+                directory[i++] = values.length;
+                directory[i++] = doubles.size();
+
+                for (double v : values) {
+                    doubles.add(v);
+                }
+            } else {
+                // Strings are terminated with '|'
+                String string = value.toString().replace('|', '/') + "|";
+
+                directory[i++] = GEO_ASCII_PARAMS;
+                directory[i++] = string.length();
+                directory[i++] = ascii.length();
+
+                ascii.append(string);
+            }
+        }
+
+        entries.add(new OziTiffWriter.Entry(GEO_KEY_DIRECTORY, OziTiffWriter.SHORT, directory));
+
+        if (!doubles.isEmpty()) {
+            entries.add(OziTiffWriter.Entry.ofDoubles(GEO_DOUBLE_PARAMS, doubles.stream().mapToDouble(Double::doubleValue).toArray()));
+        }
+
+        if (ascii.length() > 0) {
+            entries.add(OziTiffWriter.Entry.ofAscii(GEO_ASCII_PARAMS, ascii.toString()));
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Pool of warmed {@link ImageReader} and {@link ImageInputStream} pairs opened on a single raster file.
+ * <p>
+ * A pair is leased by one thread at a time and returned by closing the {@link Lease}. At most {@code maxSize}
+ * pairs exist at once, further callers wait for a pair to be returned. Pairs that failed while leased are
+ * disposed instead of being returned.
+ */
+final class OziImageReaderPool {
+    private static final Logger LOGGER = getLogger(OziImageReaderPool.class);
+
+    private final File rasterFile;
+    private final ImageInputStreamSpi inStreamSpi;
+    private final ImageReaderSpi readerSpi;
+    private final Semaphore permits;
+    private final int maxSize;
+    private final ConcurrentLinkedDeque<Lease> idle = new ConcurrentLinkedDeque<>();
+
+    OziImageReaderPool(File rasterFile, ImageInputStreamSpi inStreamSpi, ImageReaderSpi readerSpi, int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        this.rasterFile = rasterFile;
+        this.inStreamSpi = inStreamSpi;
+        this.readerSpi = readerSpi;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of pairs that are waiting for a lease
+     */
+    int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Leases a reader, waiting if all of them are in use.
+     *
+     * @return lease, must be closed by the caller
+     * @throws IOException if a new reader could not be opened or the thread was interrupted
+     */
+    Lease lease() throws IOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for an image reader");
+        }
+
+        Lease lease = idle.pollFirst();
+
+        if (lease != null) {
+            lease.returned = false;
+
+            return lease;
+        }
+
+        try {
+            return open();
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+
+            throw e;
+        }
+    }
+
+    /**
+     * Disposes idle pairs. Pairs currently leased are disposed when returned only if they are broken, the pool
+     * itself stays usable.
+     */
+    void clear() {
+        Lease lease;
+
+        while ((lease = idle.pollFirst()) != null) {
+            lease.dispose();
+        }
+    }
+
+    private Lease open() throws IOException {
+        ImageInputStream stream = OziRasterFiles.createInputStream(inStreamSpi, rasterFile);
+
+        try {
+            ImageReader reader = OziMetrics.listen(readerSpi.createReaderInstance());
+
+            reader.setInput(stream, false, true);
+
+            // Warm up, most readers parse the header here
+            reader.getWidth(0);
+
+            return new Lease(reader, stream);
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+
+            throw e;
+        }
+    }
+
+    final class Lease implements AutoCloseable {
+        private final ImageReader reader;
+        private final ImageInputStream stream;
+        private boolean broken;
+        private boolean returned;
+
+        private Lease(ImageReader reader, ImageInputStream stream) {
+            this.reader = reader;
+            this.stream = stream;
+        }
+
+        ImageReader getReader() {
+            return reader;
+        }
+
+        /**
+         * Marks the pair as unusable, it is disposed on {@link #close()}.
+         */
+        void invalidate() {
+            broken = true;
+        }
+
+        @Override
+        public void close() {
+            if (returned) {
+                return;
+            }
+
+            returned = true;
+
+            if (broken) {
+                dispose();
+            } else {
+                idle.offerFirst(this);
+            }
+
+            permits.release();
+        }
+
+        private void dispose() {
+            reader.dispose();
+
+            try {
+                stream.close();
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Stream of " + rasterFile + " could not be closed", e);
+                }
+            }
+        }
+    }
+}
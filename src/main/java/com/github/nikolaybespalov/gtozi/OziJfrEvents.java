@@ -0,0 +1,209 @@
+package com.github.nikolaybespalov.gtozi;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ImageReaderSpi;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.io.File;
+
+/**
+ * Java Flight Recorder events, used through {@link OziEvents} only so that this class is never loaded on a JVM
+ * without JFR. An event is allocated only if its type is enabled in a running recording.
+ */
+final class OziJfrEvents {
+    private static final EventType MAP_PARSE = EventType.getEventType(MapParseEvent.class);
+    private static final EventType CRS = EventType.getEventType(CrsEvent.class);
+    private static final EventType RASTER_OPEN = EventType.getEventType(RasterOpenEvent.class);
+    private static final EventType READ = EventType.getEventType(ReadEvent.class);
+
+    private OziJfrEvents() {
+    }
+
+    static Object beginMapParse() {
+        return MAP_PARSE.isEnabled() ? begin(new MapParseEvent()) : null;
+    }
+
+    static void commitMapParse(Object event, File file, int lineCount, int calibrationPointCount) {
+        MapParseEvent mapParse = (MapParseEvent) event;
+
+        mapParse.end();
+
+        if (mapParse.shouldCommit()) {
+            mapParse.file = file.getPath();
+            mapParse.lineCount = lineCount;
+            mapParse.calibrationPointCount = calibrationPointCount;
+            mapParse.commit();
+        }
+    }
+
+    static Object beginCrs() {
+        return CRS.isEnabled() ? begin(new CrsEvent()) : null;
+    }
+
+    static void commitCrs(Object event, String datum, String projection, boolean cacheHit) {
+        CrsEvent crs = (CrsEvent) event;
+
+        crs.end();
+
+        if (crs.shouldCommit()) {
+            crs.datum = datum;
+            crs.projection = projection;
+            crs.cacheHit = cacheHit;
+            crs.commit();
+        }
+    }
+
+    static Object beginRasterOpen() {
+        return RASTER_OPEN.isEnabled() ? begin(new RasterOpenEvent()) : null;
+    }
+
+    static void commitRasterOpen(Object event, File file, ImageInputStreamSpi inStreamSpi, ImageReaderSpi readerSpi, Dimension size) {
+        RasterOpenEvent rasterOpen = (RasterOpenEvent) event;
+
+        rasterOpen.end();
+
+        if (rasterOpen.shouldCommit()) {
+            rasterOpen.file = file.getPath();
+            rasterOpen.streamSpi = inStreamSpi.getClass().getName();
+            rasterOpen.readerSpi = readerSpi.getClass().getName();
+            rasterOpen.width = size.width;
+            rasterOpen.height = size.height;
+            rasterOpen.commit();
+        }
+    }
+
+    static Object beginRead() {
+        return READ.isEnabled() ? begin(new ReadEvent()) : null;
+    }
+
+    static void commitRead(Object event, File file, String envelope, boolean reprojected, int imageIndex, Rectangle sourceRegion, RenderedImage image, long decodeNanos) {
+        ReadEvent read = (ReadEvent) event;
+
+        read.end();
+
+        if (read.shouldCommit()) {
+            read.file = file.getPath();
+            read.envelope = envelope;
+            read.reprojected = reprojected;
+            read.imageIndex = imageIndex;
+
+            if (sourceRegion != null) {
+                read.sourceX = sourceRegion.x;
+                read.sourceY = sourceRegion.y;
+                read.sourceWidth = sourceRegion.width;
+                read.sourceHeight = sourceRegion.height;
+            }
+
+            read.tileWidth = image.getTileWidth();
+            read.tileHeight = image.getTileHeight();
+            read.decodeTime = decodeNanos;
+            read.commit();
+        }
+    }
+
+    private static Event begin(Event event) {
+        event.begin();
+
+        return event;
+    }
+
+    @Name("com.github.nikolaybespalov.gtozi.MapParse")
+    @Label("Map File Parse")
+    @Description("Parsing of a .map file and construction of its reader")
+    @Category({"GeoTools", "gt-ozi"})
+    static final class MapParseEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Line Count")
+        int lineCount;
+
+        @Label("Calibration Point Count")
+        int calibrationPointCount;
+    }
+
+    @Name("com.github.nikolaybespalov.gtozi.Crs")
+    @Label("CRS Resolution")
+    @Description("Lookup or construction of the coordinate reference system of a .map file")
+    @Category({"GeoTools", "gt-ozi"})
+    static final class CrsEvent extends Event {
+        @Label("Datum")
+        String datum;
+
+        @Label("Projection")
+        String projection;
+
+        @Label("Cache Hit")
+        boolean cacheHit;
+    }
+
+    @Name("com.github.nikolaybespalov.gtozi.RasterOpen")
+    @Label("Raster Open")
+    @Description("Opening of a raster file, its SPIs and size")
+    @Category({"GeoTools", "gt-ozi"})
+    static final class RasterOpenEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Stream SPI")
+        String streamSpi;
+
+        @Label("Reader SPI")
+        String readerSpi;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+    }
+
+    @Name("com.github.nikolaybespalov.gtozi.Read")
+    @Label("Coverage Read")
+    @Description("A read of a coverage, the source region of the chosen image and the time spent decoding it")
+    @Category({"GeoTools", "gt-ozi"})
+    static final class ReadEvent extends Event {
+        @Label("File")
+        String file;
+
+        @Label("Requested Envelope")
+        String envelope;
+
+        @Label("Reprojected")
+        boolean reprojected;
+
+        @Label("Image Index")
+        int imageIndex;
+
+        @Label("Source X")
+        int sourceX;
+
+        @Label("Source Y")
+        int sourceY;
+
+        @Label("Source Width")
+        int sourceWidth;
+
+        @Label("Source Height")
+        int sourceHeight;
+
+        @Label("Tile Width")
+        int tileWidth;
+
+        @Label("Tile Height")
+        int tileHeight;
+
+        @Label("Decode Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long decodeTime;
+    }
+}
@@ -0,0 +1,481 @@
+package com.github.nikolaybespalov.gtozi;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.metadata.iso.spatial.PixelTranslation;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.TransformException;
+
+import java.awt.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Persistent spatial catalog of OziExplorer .map files.
+ * <p>
+ * {@link #scan(Path)} walks a directory tree in parallel and records the envelope, CRS, resolution, raster file and
+ * dimensions of every map. Maps whose modification time and size did not change since the previous scan are not
+ * parsed again. The catalog is kept in an index file and the envelopes are indexed by an R-tree, so
+ * {@link #query(org.opengis.geometry.Envelope)} answers "which maps cover this area" without touching any map file.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziMapCatalog {
+    private static final Logger LOGGER = getLogger(OziMapCatalog.class);
+
+    private static final int MAGIC = 0x4F5A4943; // "OZIC"
+    private static final int VERSION = 3;
+
+    private final Path indexFile;
+    private final Map<Path, Entry> entries = new HashMap<>();
+    private volatile STRtree tree = new STRtree();
+
+    private OziMapCatalog(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Opens a catalog backed by the given index file. A missing or unreadable index results in an empty catalog.
+     *
+     * @param indexFile index file
+     * @return catalog
+     */
+    public static OziMapCatalog open(Path indexFile) {
+        OziMapCatalog catalog = new OziMapCatalog(indexFile);
+
+        if (Files.isReadable(indexFile)) {
+            try {
+                catalog.load();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Index " + indexFile + " could not be read, it will be rebuilt", e);
+
+                catalog.entries.clear();
+            }
+        }
+
+        catalog.rebuildTree();
+
+        return catalog;
+    }
+
+    /**
+     * Brings the catalog up to date with the .map files found under the given directory and saves the index.
+     * <p>
+     * New and changed maps are parsed in parallel, maps that disappeared from the directory are removed.
+     *
+     * @param directory root directory
+     * @throws IOException if the directory could not be walked or the index could not be saved
+     */
+    public void scan(Path directory) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+
+        List<Path> mapFiles;
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            mapFiles = paths
+                    .filter(p -> p.getFileName() != null && p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".map"))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+
+        Map<Path, Entry> current;
+
+        synchronized (entries) {
+            current = new HashMap<>(entries);
+        }
+
+        List<Entry> scanned = mapFiles.parallelStream()
+                .map(mapFile -> scanFile(mapFile, current.get(mapFile)))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+
+        synchronized (entries) {
+            entries.keySet().removeIf(p -> p.startsWith(root));
+
+            for (Entry entry : scanned) {
+                entries.put(entry.mapFile, entry);
+            }
+
+            rebuildTree();
+        }
+
+        save();
+    }
+
+    /**
+     * Returns maps intersecting the given envelope, the best (finest) resolution first.
+     *
+     * @param envelope area of interest, WGS 84 is assumed if the envelope has no CRS
+     * @return matching maps
+     * @throws TransformException if the envelope could not be transformed to WGS 84
+     */
+    public List<Entry> query(org.opengis.geometry.Envelope envelope) throws TransformException {
+        GeneralEnvelope wgs84 = new GeneralEnvelope(envelope);
+
+        if (envelope.getCoordinateReferenceSystem() != null
+                && !CRS.equalsIgnoreMetadata(envelope.getCoordinateReferenceSystem(), DefaultGeographicCRS.WGS84)) {
+            wgs84 = CRS.transform(envelope, DefaultGeographicCRS.WGS84);
+        }
+
+        double[] lon = normalizeLongitudes(wgs84.getMinimum(0), wgs84.getMaximum(0));
+
+        STRtree currentTree = tree;
+
+        // Maps crossing the antimeridian are indexed twice
+        Set<Entry> found = new LinkedHashSet<>();
+
+        for (Envelope searchEnvelope : splitAtAntimeridian(lon[0], wgs84.getMinimum(1), lon[1], wgs84.getMaximum(1))) {
+            @SuppressWarnings("unchecked")
+            List<Entry> matches = currentTree.query(searchEnvelope);
+
+            found.addAll(matches);
+        }
+
+        List<Entry> result = new ArrayList<>(found);
+
+        result.sort(Comparator.comparingDouble(Entry::getWgs84Resolution));
+
+        return result;
+    }
+
+    /**
+     * @return all maps of the catalog
+     */
+    public Collection<Entry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries.values());
+        }
+    }
+
+    /**
+     * @return number of maps in the catalog
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private Entry scanFile(Path mapFile, Entry previous) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(mapFile, BasicFileAttributes.class);
+
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            long size = attributes.size();
+
+            if (previous != null && previous.lastModified == lastModified && previous.size == size) {
+                return previous;
+            }
+
+            return createEntry(mapFile, lastModified, size);
+        } catch (IOException | FactoryException | TransformException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Map file " + mapFile + " skipped", e);
+            }
+
+            return null;
+        }
+    }
+
+    static Entry createEntry(Path mapFile, long lastModified, long size) throws IOException, FactoryException, TransformException {
+        OziMapFileReader oziMapFileReader = new OziMapFileReader(mapFile.toFile());
+
+        File rasterFile = oziMapFileReader.getRasterFile();
+
+        // The 'IWH' line spares opening the raster
+        Dimension rasterSize = oziMapFileReader.getRasterSize();
+
+        if (rasterSize == null) {
+            rasterSize = OziRasterFiles.readSize(rasterFile);
+        }
+
+        GeneralEnvelope envelope = CRS.transform(
+                PixelTranslation.translate(oziMapFileReader.getGrid2Crs(), PixelInCell.CELL_CORNER, PixelInCell.CELL_CENTER),
+                new GeneralEnvelope(new Rectangle(0, 0, rasterSize.width, rasterSize.height)));
+
+        CoordinateReferenceSystem crs = oziMapFileReader.getCoordinateReferenceSystem();
+
+        envelope.setCoordinateReferenceSystem(crs);
+
+        GeneralEnvelope wgs84 = CRS.transform(envelope, DefaultGeographicCRS.WGS84);
+
+        // Maps overlapping the antimeridian come out as e.g. 179..181
+        double[] lon = normalizeLongitudes(wgs84.getMinimum(0), wgs84.getMaximum(0));
+
+        return new Entry(mapFile, lastModified, size, rasterFile.toPath().toAbsolutePath(),
+                rasterSize.width, rasterSize.height, crs.toWKT(), crs,
+                new double[]{envelope.getMinimum(0), envelope.getMinimum(1), envelope.getMaximum(0), envelope.getMaximum(1)},
+                new double[]{lon[0], wgs84.getMinimum(1), lon[1], wgs84.getMaximum(1)});
+    }
+
+    /**
+     * Brings a longitude range into [-180, 180]. A range crossing the antimeridian is returned with the minimum
+     * longitude east of the maximum one.
+     *
+     * @param minLon western longitude
+     * @param maxLon eastern longitude
+     * @return {minLon, maxLon}
+     */
+    static double[] normalizeLongitudes(double minLon, double maxLon) {
+        if (maxLon - minLon >= 360) {
+            return new double[]{-180, 180};
+        }
+
+        double shift = Math.floor((minLon + 180) / 360) * 360;
+
+        minLon -= shift;
+        maxLon -= shift;
+
+        if (maxLon > 180) {
+            maxLon -= 360;
+        }
+
+        return new double[]{minLon, maxLon};
+    }
+
+    private static List<Envelope> splitAtAntimeridian(double minLon, double minLat, double maxLon, double maxLat) {
+        if (minLon <= maxLon) {
+            return Collections.singletonList(new Envelope(minLon, maxLon, minLat, maxLat));
+        }
+
+        return Arrays.asList(new Envelope(minLon, 180, minLat, maxLat), new Envelope(-180, maxLon, minLat, maxLat));
+    }
+
+    private void rebuildTree() {
+        STRtree newTree = new STRtree();
+
+        for (Entry entry : entries.values()) {
+            double[] wgs84 = entry.wgs84Envelope;
+
+            // A map crossing the antimeridian is indexed by both parts
+            for (Envelope part : splitAtAntimeridian(wgs84[0], wgs84[1], wgs84[2], wgs84[3])) {
+                newTree.insert(part, entry);
+            }
+        }
+
+        // Queries never see a half-built tree
+        newTree.build();
+
+        tree = newTree;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported index format");
+            }
+
+            int count = in.readInt();
+
+            for (int i = 0; i < count; ++i) {
+                Path mapFile = Paths.get(readString(in));
+                long lastModified = in.readLong();
+                long size = in.readLong();
+                Path rasterFile = Paths.get(readString(in));
+                int width = in.readInt();
+                int height = in.readInt();
+                String crsWkt = readString(in);
+                double[] envelope = readDoubles(in);
+                double[] wgs84Envelope = readDoubles(in);
+
+                entries.put(mapFile, new Entry(mapFile, lastModified, size, rasterFile, width, height, crsWkt, null, envelope, wgs84Envelope));
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Path parent = indexFile.toAbsolutePath().getParent();
+
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Path tempFile = Files.createTempFile(parent, indexFile.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+
+                synchronized (entries) {
+                    out.writeInt(entries.size());
+
+                    for (Entry entry : entries.values()) {
+                        writeString(out, entry.mapFile.toString());
+                        out.writeLong(entry.lastModified);
+                        out.writeLong(entry.size);
+                        writeString(out, entry.rasterFile.toString());
+                        out.writeInt(entry.width);
+                        out.writeInt(entry.height);
+                        writeString(out, entry.crsWkt);
+                        writeDoubles(out, entry.envelope);
+                        writeDoubles(out, entry.wgs84Envelope);
+                    }
+                }
+            }
+
+            // A crash never leaves a truncated index behind
+            Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Strings are written as length-prefixed UTF-8, {@link DataOutput#writeUTF(String)} is limited to 64 KB and
+     * the WKT of a CRS may be longer.
+     */
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+
+        in.readFully(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static double[] readDoubles(DataInput in) throws IOException {
+        double[] values = new double[4];
+
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = in.readDouble();
+        }
+
+        return values;
+    }
+
+    private static void writeDoubles(DataOutput out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    /**
+     * Catalogued map.
+     */
+    public static final class Entry {
+        private final Path mapFile;
+        private final long lastModified;
+        private final long size;
+        private final Path rasterFile;
+        private final int width;
+        private final int height;
+        private final String crsWkt;
+        private final double[] envelope;
+        private final double[] wgs84Envelope;
+        private volatile CoordinateReferenceSystem crs;
+
+        Entry(Path mapFile, long lastModified, long size, Path rasterFile, int width, int height,
+              String crsWkt, CoordinateReferenceSystem crs, double[] envelope, double[] wgs84Envelope) {
+            this.mapFile = mapFile;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.rasterFile = rasterFile;
+            this.width = width;
+            this.height = height;
+            this.crsWkt = crsWkt;
+            this.crs = crs;
+            this.envelope = envelope;
+            this.wgs84Envelope = wgs84Envelope;
+        }
+
+        public Path getMapFile() {
+            return mapFile;
+        }
+
+        public Path getRasterFile() {
+            return rasterFile;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * The CRS is parsed from the index lazily.
+         *
+         * @return native CRS of the map
+         * @throws FactoryException if the stored CRS could not be parsed
+         */
+        public CoordinateReferenceSystem getCoordinateReferenceSystem() throws FactoryException {
+            CoordinateReferenceSystem result = crs;
+
+            if (result == null) {
+                result = crs = CRS.parseWKT(crsWkt);
+            }
+
+            return result;
+        }
+
+        /**
+         * @return envelope in the native CRS as {minX, minY, maxX, maxY}
+         */
+        public double[] getEnvelope() {
+            return envelope.clone();
+        }
+
+        /**
+         * @return envelope in WGS 84 as {minLon, minLat, maxLon, maxLat}, minLon is greater than maxLon if the map
+         * crosses the antimeridian
+         */
+        public double[] getWgs84Envelope() {
+            return wgs84Envelope.clone();
+        }
+
+        /**
+         * @return pixel size in native CRS units as {x, y}
+         */
+        public double[] getResolution() {
+            return new double[]{(envelope[2] - envelope[0]) / width, (envelope[3] - envelope[1]) / height};
+        }
+
+        /**
+         * @return pixel width in degrees, used to compare maps in different CRSs
+         */
+        public double getWgs84Resolution() {
+            double span = wgs84Envelope[2] - wgs84Envelope[0];
+
+            // The minimum longitude is east of the maximum one if the map crosses the antimeridian
+            if (span < 0) {
+                span += 360;
+            }
+
+            return span / width;
+        }
+
+        @Override
+        public String toString() {
+            return mapFile.toString();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.nikolaybespalov.gtozi;
+
+import java.util.Arrays;
+
+/**
+ * Structured content of an OziExplorer .map file as produced by {@link OziMapFileParser}.
+ * <p>
+ * Calibration points are kept in parallel primitive arrays, one slot per usable {@code PointNN} line.
+ * Missing coordinates are stored as {@link Double#NaN}.
+ */
+@SuppressWarnings("WeakerAccess")
+final class OziMapFileData {
+    int lineCount;
+
+    String header;
+    String title;
+    String rasterFilename;
+    String datumName;
+
+    String projectionName;
+    boolean projectionMalformed;
+    String[] projectionSetup;
+
+    // The first 'Point' line that has both UTM zone and hemisphere
+    boolean utmZoneFound;
+    int utmZone = -1;
+    boolean utmNorth = true;
+
+    // Longitudes of the 'MMPLL' lines
+    final double[] mmpll = new double[4];
+    int mmpllCount;
+
+    // 'IWH' line, zero if absent
+    int imageWidth;
+    int imageHeight;
+
+    // Calibration points
+    int pointCount;
+    int[] pixelX = new int[16];
+    int[] pixelY = new int[16];
+    double[] lat = new double[16];
+    double[] lon = new double[16];
+    boolean[] west = new boolean[16];
+    double[] gridX = new double[16];
+    double[] gridY = new double[16];
+
+    void addPoint(int px, int py, double latitude, double longitude, boolean isWest, double x, double y) {
+        if (pointCount == pixelX.length) {
+            int capacity = pointCount * 2;
+
+            pixelX = Arrays.copyOf(pixelX, capacity);
+            pixelY = Arrays.copyOf(pixelY, capacity);
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+            west = Arrays.copyOf(west, capacity);
+            gridX = Arrays.copyOf(gridX, capacity);
+            gridY = Arrays.copyOf(gridY, capacity);
+        }
+
+        pixelX[pointCount] = px;
+        pixelY[pointCount] = py;
+        lat[pointCount] = latitude;
+        lon[pointCount] = longitude;
+        west[pointCount] = isWest;
+        gridX[pointCount] = x;
+        gridY[pointCount] = y;
+
+        ++pointCount;
+    }
+
+    /**
+     * Whether the map crosses the 180th meridian, judged by the 'MMPLL' corners.
+     *
+     * @return true if western longitudes must be shifted by 360 degrees
+     */
+    boolean isOverlap180() {
+        return mmpllCount != 0 && mmpll[1] < mmpll[0] && mmpll[2] < mmpll[3];
+    }
+
+    boolean hasLatLon(int i) {
+        return !Double.isNaN(lat[i]) && !Double.isNaN(lon[i]);
+    }
+
+    boolean hasGrid(int i) {
+        return !Double.isNaN(gridX[i]) && !Double.isNaN(gridY[i]);
+    }
+}
@@ -0,0 +1,231 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Single-pass parser of OziExplorer .map files.
+ * <p>
+ * The file is read line by line exactly once. Each line is split by a hand-written comma tokenizer that only
+ * records field boundaries, so strings are materialized just for the fields that are actually used.
+ */
+final class OziMapFileParser {
+    static final Charset CHARSET = Charset.forName("windows-1251");
+
+    private OziMapFileParser() {
+    }
+
+    static OziMapFileData parse(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, CHARSET)) {
+            return parse(reader);
+        }
+    }
+
+    static OziMapFileData parse(BufferedReader reader) throws IOException {
+        OziMapFileData data = new OziMapFileData();
+        LineTokenizer tokenizer = new LineTokenizer();
+
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            int lineNumber = data.lineCount++;
+
+            if (lineNumber == 0) {
+                data.header = line;
+            } else if (lineNumber == 1) {
+                data.title = line;
+            } else if (lineNumber == 2) {
+                data.rasterFilename = line;
+            } else if (lineNumber == 4) {
+                data.datumName = tokenizer.reset(line).value(0);
+            }
+
+            if (line.startsWith("Point")) {
+                parsePoint(data, tokenizer.reset(line));
+            } else if (line.startsWith("MMPLL")) {
+                parseMmpll(data, tokenizer.reset(line));
+            } else if (line.startsWith("Map Projection")) {
+                tokenizer.reset(line);
+
+                if (tokenizer.count() < 2) {
+                    data.projectionMalformed = true;
+                } else {
+                    data.projectionName = tokenizer.value(1);
+                }
+            } else if (line.startsWith("Projection Setup")) {
+                data.projectionSetup = tokenizer.reset(line).values();
+            } else if (line.startsWith("IWH")) {
+                parseIwh(data, tokenizer.reset(line));
+            }
+        }
+
+        return data;
+    }
+
+    private static void parsePoint(OziMapFileData data, LineTokenizer tokenizer) {
+        int count = tokenizer.count();
+
+        // Try to guess the UTM zone
+        if (!data.utmZoneFound && count >= 17 && !tokenizer.isEmpty(13) && !tokenizer.isEmpty(16)) {
+            data.utmZoneFound = true;
+            data.utmZone = NumberUtils.toInt(tokenizer.value(13), -1);
+            data.utmNorth = tokenizer.valueEquals(16, "N");
+        }
+
+        if (count < 16) {
+            return;
+        }
+
+        String v2 = tokenizer.value(2);
+        String v3 = tokenizer.value(3);
+
+        if (!NumberUtils.isCreatable(v2) || !NumberUtils.isCreatable(v3)) {
+            return;
+        }
+
+        int px = NumberUtils.toInt(v2);
+        int py = NumberUtils.toInt(v3);
+
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        boolean west = false;
+        double x = Double.NaN;
+        double y = Double.NaN;
+
+        String v6 = tokenizer.value(6);
+        String v7 = tokenizer.value(7);
+        String v9 = tokenizer.value(9);
+        String v10 = tokenizer.value(10);
+
+        if (NumberUtils.isCreatable(v6) && NumberUtils.isCreatable(v7) &&
+                NumberUtils.isCreatable(v9) && NumberUtils.isCreatable(v10)) {
+            latitude = NumberUtils.toDouble(v6) + NumberUtils.toDouble(v7) / 60.0;
+            longitude = NumberUtils.toDouble(v9) + NumberUtils.toDouble(v10) / 60.0;
+
+            if (tokenizer.valueEquals(8, "S")) {
+                latitude = -latitude;
+            }
+
+            if (tokenizer.valueEquals(11, "W")) {
+                longitude = -longitude;
+                west = true;
+            }
+        } else {
+            String v14 = tokenizer.value(14);
+            String v15 = tokenizer.value(15);
+
+            if (NumberUtils.isCreatable(v14) && NumberUtils.isCreatable(v15)) {
+                x = NumberUtils.toDouble(v14);
+                y = NumberUtils.toDouble(v15);
+            } else {
+                return;
+            }
+        }
+
+        data.addPoint(px, py, latitude, longitude, west, x, y);
+    }
+
+    private static void parseMmpll(OziMapFileData data, LineTokenizer tokenizer) {
+        if (tokenizer.count() < 4 || data.mmpllCount == data.mmpll.length) {
+            return;
+        }
+
+        data.mmpll[data.mmpllCount++] = NumberUtils.toDouble(tokenizer.value(2));
+    }
+
+    private static void parseIwh(OziMapFileData data, LineTokenizer tokenizer) {
+        // IWH,Map Image Width/Height,<width>,<height>
+        if (tokenizer.count() < 4) {
+            return;
+        }
+
+        int width = NumberUtils.toInt(tokenizer.value(2));
+        int height = NumberUtils.toInt(tokenizer.value(3));
+
+        if (width > 0 && height > 0) {
+            data.imageWidth = width;
+            data.imageHeight = height;
+        }
+    }
+
+    /**
+     * Splits a line by commas and trims the values without creating intermediate strings.
+     */
+    static final class LineTokenizer {
+        private String line;
+        private int[] starts = new int[32];
+        private int[] ends = new int[32];
+        private int count;
+
+        LineTokenizer reset(String line) {
+            this.line = line;
+            count = 0;
+
+            int length = line.length();
+            int start = 0;
+
+            for (int i = 0; i <= length; ++i) {
+                if (i == length || line.charAt(i) == ',') {
+                    add(start, i);
+                    start = i + 1;
+                }
+            }
+
+            return this;
+        }
+
+        int count() {
+            return count;
+        }
+
+        boolean isEmpty(int index) {
+            return starts[index] == ends[index];
+        }
+
+        boolean valueEquals(int index, String value) {
+            int length = ends[index] - starts[index];
+
+            return length == value.length() && line.regionMatches(starts[index], value, 0, length);
+        }
+
+        String value(int index) {
+            return line.substring(starts[index], ends[index]);
+        }
+
+        String[] values() {
+            String[] values = new String[count];
+
+            for (int i = 0; i < count; ++i) {
+                values[i] = value(i);
+            }
+
+            return values;
+        }
+
+        private void add(int start, int end) {
+            // The same rules as String.trim()
+            while (start < end && line.charAt(start) <= ' ') {
+                ++start;
+            }
+
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                --end;
+            }
+
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+
+            starts[count] = start;
+            ends[count] = end;
+            ++count;
+        }
+    }
+}
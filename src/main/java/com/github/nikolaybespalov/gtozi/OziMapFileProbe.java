@@ -0,0 +1,127 @@
+package com.github.nikolaybespalov.gtozi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cheap check whether a file is an OziExplorer .map file.
+ * <p>
+ * Only a small prefix of the file is read, with a single read call, and compared with the known headers byte by
+ * byte. Results are cached per path, size and modification time, so repeated format discovery over the same tree
+ * costs a {@code stat} per file.
+ */
+final class OziMapFileProbe {
+    static final int CACHE_SIZE = 4096;
+
+    private static final byte[] MAGIC = "OziExplorer Map Data File Version 2.".getBytes(StandardCharsets.US_ASCII);
+
+    // Header + minor version + line terminator
+    private static final int PREFIX_LENGTH = MAGIC.length + 2;
+
+    private static final Map<Path, Result> CACHE = new LinkedHashMap<Path, Result>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, Result> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private OziMapFileProbe() {
+    }
+
+    static boolean isMapFile(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        if (!attributes.isRegularFile()) {
+            return false;
+        }
+
+        long size = attributes.size();
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        Path key = path.toAbsolutePath();
+
+        synchronized (CACHE) {
+            Result result = CACHE.get(key);
+
+            if (result != null && result.size == size && result.lastModified == lastModified) {
+                return result.accepted;
+            }
+        }
+
+        boolean accepted = size >= MAGIC.length + 1 && matches(readPrefix(path));
+
+        synchronized (CACHE) {
+            CACHE.put(key, new Result(size, lastModified, accepted));
+        }
+
+        return accepted;
+    }
+
+    static void clearCache() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static ByteBuffer readPrefix(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PREFIX_LENGTH);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // A short read only means the file is shorter than the prefix
+            channel.read(buffer, 0);
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Accepts "OziExplorer Map Data File Version 2.1" and "...2.2" followed by a line terminator or the end of file.
+     */
+    static boolean matches(ByteBuffer prefix) {
+        if (prefix.remaining() < MAGIC.length + 1) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (prefix.get(i) != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        byte minor = prefix.get(MAGIC.length);
+
+        if (minor != '1' && minor != '2') {
+            return false;
+        }
+
+        if (prefix.remaining() == MAGIC.length + 1) {
+            return true;
+        }
+
+        byte terminator = prefix.get(MAGIC.length + 1);
+
+        return terminator == '\r' || terminator == '\n';
+    }
+
+    private static final class Result {
+        private final long size;
+        private final long lastModified;
+        private final boolean accepted;
+
+        Result(long size, long lastModified, boolean accepted) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.accepted = accepted;
+        }
+    }
+}
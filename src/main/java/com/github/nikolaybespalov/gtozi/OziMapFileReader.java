@@ -1,8 +1,5 @@
 package com.github.nikolaybespalov.gtozi;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
@@ -14,10 +11,6 @@ import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.referencing.cs.DefaultCartesianCS;
 import org.geotools.referencing.cs.DefaultCoordinateSystemAxis;
 import org.geotools.referencing.cs.DefaultEllipsoidalCS;
-import org.geotools.referencing.datum.BursaWolfParameters;
-import org.geotools.referencing.datum.DefaultEllipsoid;
-import org.geotools.referencing.datum.DefaultGeodeticDatum;
-import org.geotools.referencing.datum.DefaultPrimeMeridian;
 import org.geotools.referencing.operation.DefiningConversion;
 import org.geotools.referencing.operation.projection.MapProjection;
 import org.geotools.referencing.operation.transform.AffineTransform2D;
@@ -30,18 +23,12 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
 import org.opengis.referencing.crs.ProjectedCRS;
 import org.opengis.referencing.cs.EllipsoidalCS;
-import org.opengis.referencing.datum.DatumFactory;
-import org.opengis.referencing.datum.Ellipsoid;
 import org.opengis.referencing.datum.GeodeticDatum;
 import org.opengis.referencing.operation.*;
 
-import javax.measure.unit.SI;
 import java.awt.*;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.*;
@@ -55,8 +42,6 @@ final class OziMapFileReader {
     private static final Logger LOGGER = getLogger(OziMapFormat.class);
 
     public static final Map<String, String> OZI_PROJECTION_NAME_TO_GEOTOOLS = new HashMap<>();
-    private static final Map<String, Ellipsoid> ELLIPS = new HashMap<>();
-    private static final Map<String, GeodeticDatum> DATUMS = new HashMap<>();
 
     static {
         System.setProperty("org.geotools.referencing.forceXY", "true");
@@ -70,109 +55,50 @@ final class OziMapFileReader {
         OZI_PROJECTION_NAME_TO_GEOTOOLS.put("Sinusoidal", "Sinusoidal");
         OZI_PROJECTION_NAME_TO_GEOTOOLS.put("Albers Equal Area", "Albers_Conic_Equal_Area");
         OZI_PROJECTION_NAME_TO_GEOTOOLS.put("Van Der Grinten", "Van_der_Grinten_I");
-
-
-        //
-        // Read ozi_datum.csv and ozi_ellips.csv
-        //
-
-        InputStream oziEllipsIs = OziMapFileReader.class.getClassLoader().getResourceAsStream("com/github/nikolaybespalov/gtozi/data/ozi_ellips.csv");
-
-        if (oziEllipsIs == null) {
-            throw new ExceptionInInitializerError("ozi_ellips.csv not found");
-        }
-
-        try (CSVParser ellipsParser = new CSVParser(new InputStreamReader(oziEllipsIs), CSVFormat.RFC4180.withFirstRecordAsHeader().withCommentMarker('#'))) {
-            for (CSVRecord ellipsRecord : ellipsParser) {
-                String ellipsoidCode = ellipsRecord.get("ELLIPSOID_CODE");
-                String name = ellipsRecord.get("NAME");
-                String a = ellipsRecord.get("A");
-                String invf = ellipsRecord.get("INVF");
-
-                Ellipsoid ellipsoid = DefaultEllipsoid.createFlattenedSphere(name, NumberUtils.toDouble(a), NumberUtils.toDouble(invf), SI.METER);
-
-                ELLIPS.put(ellipsoidCode, ellipsoid);
-            }
-        } catch (IOException e) {
-            throw new ExceptionInInitializerError(e);
-        }
-
-
-        InputStream oziDatumIs = OziMapFileReader.class.getClassLoader().getResourceAsStream("com/github/nikolaybespalov/gtozi/data/ozi_datum.csv");
-
-        if (oziDatumIs == null) {
-            throw new ExceptionInInitializerError("ozi_datum.csv not found");
-        }
-
-        try (CSVParser datumParser = new CSVParser(new InputStreamReader(oziDatumIs), CSVFormat.RFC4180.withFirstRecordAsHeader().withCommentMarker('#').withTrim())) {
-            for (CSVRecord datumRecord : datumParser) {
-                String name = datumRecord.get("NAME");
-                String epsgDatumCode = datumRecord.get("EPSG_DATUM_CODE");
-                String ellipsoidCode = datumRecord.get("ELLIPSOID_CODE");
-                String dx = datumRecord.get("DELTAX");
-                String dy = datumRecord.get("DELTAY");
-                String dz = datumRecord.get("DELTAZ");
-
-                // CSV Parser cannot process a comment that does not start from the beginning.
-                // Need to trim tail of dz.
-                if (dz.indexOf('#') != -1) {
-                    dz = dz.substring(0, dz.indexOf('#')).trim();
-                }
-
-                GeodeticDatum datum;
-
-                if (!StringUtils.isEmpty(epsgDatumCode)) {
-                    GeographicCRS geoCrs = ReferencingFactoryFinder.getCRSAuthorityFactory("EPSG", null).createGeographicCRS(epsgDatumCode);
-                    datum = geoCrs.getDatum();
-                } else {
-                    Ellipsoid ellipsoid = ELLIPS.get(ellipsoidCode);
-
-                    datum = createGeodeticDatum(name, ellipsoid, NumberUtils.toDouble(dx), NumberUtils.toDouble(dy), NumberUtils.toDouble(dz));
-                }
-
-                DATUMS.put(name, datum);
-            }
-        } catch (IOException | FactoryException e) {
-            throw new ExceptionInInitializerError(e);
-        }
     }
 
     private String title;
     private CoordinateReferenceSystem crs;
     private MathTransform grid2Crs;
+    private List<CalibrationPoint> calibrationPoints;
     private File rasterFile;
+    private Dimension rasterSize;
 
     public OziMapFileReader(File file) throws DataSourceException {
+        long start = OziMetrics.start();
+
         try {
             if (!Files.isReadable(file.toPath())) {
                 throw new DataSourceException("File " + file.getAbsolutePath() + " can not be read.");
             }
 
             //
-            // Read all lines of the file
+            // Parse the whole file in a single pass
             //
 
-            List<String> lines = Files.readAllLines(file.toPath(), Charset.forName("windows-1251"));
+            Object parseEvent = OziEvents.beginMapParse();
+
+            OziMapFileData data = OziMapFileParser.parse(file.toPath());
+
+            OziEvents.commitMapParse(parseEvent, file, data.lineCount, data.pointCount);
 
-            if (lines.size() < 5) {
+            if (data.lineCount < 5) {
                 throw new DataSourceException("Not enough data");
             }
 
             //
-            // Parse and validate file header
+            // Validate file header
             //
 
-            String header = parseHeader(lines);
-
-            if (!StringUtils.startsWith(header, "OziExplorer Map Data File")) {
+            if (!StringUtils.startsWith(data.header, "OziExplorer Map Data File")) {
                 throw new DataSourceException("File " + file.getAbsolutePath() + " does not a OziExplorer map data file.");
             }
 
             //
-            // Parse and validate file header
+            // Validate title
             //
 
-            title = parseTitle(lines);
+            title = data.title;
 
             if (StringUtils.isEmpty(title)) {
                 LOGGER.warning("File " + file.getAbsolutePath() + " does not contain a title.");
@@ -181,10 +107,10 @@ final class OziMapFileReader {
             }
 
             //
-            // Parse and validate raster filename
+            // Validate raster filename
             //
 
-            String rasterFilename = parseRasterFilename(lines);
+            String rasterFilename = data.rasterFilename;
 
             if (StringUtils.isEmpty(rasterFilename)) {
                 throw new DataSourceException("Map file does not contain an raster filename");
@@ -201,37 +127,62 @@ final class OziMapFileReader {
             }
 
             //
-            // Parse datum
+            // Validate projection
             //
 
-            String datumName = parseDatum(lines);
+            if (data.projectionMalformed) {
+                throw new DataSourceException("Not enough data");
+            }
 
             //
-            // Parse projection
+            // Validate 'Projection Setup'
             //
 
-            String projectionName = parseMapProjection(lines);
+            if (data.projectionSetup == null) {
+                throw new DataSourceException("'Projection Setup' not found");
+            }
 
             //
-            // Parse 'Projection Setup'
+            // Create CRS, sheets of the same series share it
             //
 
-            String[] projectionSetup = parseProjectionSetup(lines);
+            OziCrsCache.Key crsKey = createCrsKey(data);
 
-            GeographicCRS geoCrs = createGeoCrs(datumName);
+            Object crsEvent = OziEvents.beginCrs();
+            boolean[] crsCreated = new boolean[1];
 
-            crs = createCrs(lines, projectionName, projectionSetup, geoCrs);
+            OziCrsCache.Entry crsEntry = OziCrsCache.get(crsKey, () -> {
+                crsCreated[0] = true;
 
-            MathTransform world2Crs = CRS.findMathTransform(geoCrs, crs, true);
+                GeographicCRS geoCrs = createGeoCrs(crsKey.datumName);
 
-            List<CalibrationPoint> calibrationPoints = parseCalibrationPoints(lines, world2Crs);
+                CoordinateReferenceSystem mapCrs = createCrs(crsKey, geoCrs);
+
+                return new OziCrsCache.Entry(mapCrs, CRS.findMathTransform(geoCrs, mapCrs, true));
+            });
+
+            OziEvents.commitCrs(crsEvent, crsKey.datumName, crsKey.projectionName, !crsCreated[0]);
+
+            crs = crsEntry.crs;
+
+            calibrationPoints = createCalibrationPoints(data, crsEntry.world2Crs);
 
             grid2Crs = createGrid2Crs(calibrationPoints);
+
+            if (data.imageWidth > 0 && data.imageHeight > 0) {
+                rasterSize = new Dimension(data.imageWidth, data.imageHeight);
+            }
         } catch (DataSourceException e) {
+            OziMetrics.error(e);
+
             throw e;
         } catch (IOException | FactoryException | TransformException e) {
+            OziMetrics.error(e);
+
             throw new DataSourceException(e);
         }
+
+        OziMetrics.mapFileReaderCreated(start);
     }
 
     public String getTitle() {
@@ -246,74 +197,56 @@ final class OziMapFileReader {
         return grid2Crs;
     }
 
-    public File getRasterFile() {
-        return rasterFile;
-    }
-
-    private String parseHeader(List<String> lines) {
-        return lines.get(0);
-    }
-
-    private String parseTitle(List<String> lines) {
-        return lines.get(1);
-    }
-
-    private String parseRasterFilename(List<String> lines) {
-        return lines.get(2);
-    }
-
-    private String parseDatum(List<String> lines) throws DataSourceException {
-        if (lines.size() < 5) {
-            throw new DataSourceException("Not enough data");
+    /**
+     * Fits a raster to map transform of the given model to the calibration points. The transform maps the same
+     * raster coordinates as {@link #getGrid2Crs()}.
+     *
+     * @param model      model to fit
+     * @param rasterSize raster size, the area where the transform is evaluated through interpolation grids
+     * @return raster to map transform
+     * @throws DataSourceException if the calibration points do not suit the model
+     */
+    public MathTransform createGrid2Crs(OziGcpModel model, Dimension rasterSize) throws DataSourceException {
+        if (model == OziGcpModel.AFFINE) {
+            return grid2Crs;
         }
 
-        String[] values = lineValues(lines.get(4));
-
-        return values[0];
-    }
-
-    private String parseMapProjection(List<String> lines) throws DataSourceException {
-        String projectionName = null;
-
-        for (String line : lines) {
-            if (StringUtils.startsWith(line, "Map Projection")) {
-                String[] values = lineValues(line);
+        double[] pixels = new double[calibrationPoints.size() * 2];
+        double[] points = new double[calibrationPoints.size() * 2];
 
-                if (values.length < 2) {
-                    throw new DataSourceException("Not enough data");
-                }
+        for (int i = 0; i < calibrationPoints.size(); ++i) {
+            CalibrationPoint cp = calibrationPoints.get(i);
 
-                projectionName = values[1];
-            }
+            pixels[i * 2] = cp.pixelLine.x;
+            pixels[i * 2 + 1] = cp.pixelLine.y;
+            points[i * 2] = cp.xy.x;
+            points[i * 2 + 1] = cp.xy.y;
         }
 
-        return projectionName;
+        return OziGcpTransform.create(model, pixels, points, rasterSize);
     }
 
-    private String[] parseProjectionSetup(List<String> lines) throws DataSourceException {
-        String[] values = null;
-
-        for (String line : lines) {
-            if (StringUtils.startsWith(line, "Projection Setup")) {
-                values = lineValues(line);
-            }
-        }
-
-        if (values == null) {
-            throw new DataSourceException("'Projection Setup' not found");
-        }
+    public File getRasterFile() {
+        return rasterFile;
+    }
 
-        return values;
+    /**
+     * Returns the raster size declared by the 'IWH' line.
+     *
+     * @return raster size or null if the file does not declare it
+     */
+    public Dimension getRasterSize() {
+        return rasterSize != null ? new Dimension(rasterSize) : null;
     }
 
-    private GeographicCRS createGeoCrs(String datumName) throws FactoryException {
+    private static GeographicCRS createGeoCrs(String datumName) throws FactoryException {
         CRSFactory crsFactory = ReferencingFactoryFinder.getCRSFactory(null);
 
         Map<String, Object> geoCsProperties = new HashMap<>();
 
         geoCsProperties.put(NAME_KEY, datumName);
 
-        GeodeticDatum geodeticDatum = DATUMS.get(datumName);
+        GeodeticDatum geodeticDatum = OziDatumRegistry.get(datumName);
 
         EllipsoidalCS ellipsoidalCS = new DefaultEllipsoidalCS("",
                 DefaultCoordinateSystemAxis.LONGITUDE,
@@ -322,34 +255,19 @@ final class OziMapFileReader {
         return crsFactory.createGeographicCRS(geoCsProperties, geodeticDatum, ellipsoidalCS);
     }
 
-    private CoordinateReferenceSystem createCrs(List<String> lines, String projectionName, String[] projectionSetup, GeographicCRS geoCrs) throws DataSourceException, FactoryException {
-//        MathTransformFactory mtFactory = ReferencingFactoryFinder.getMathTransformFactory(null);
-//        CRSFactory crsFactory = ReferencingFactoryFinder.getCRSFactory(null);
+    private static OziCrsCache.Key createCrsKey(OziMapFileData data) throws DataSourceException {
+        String projectionName = data.projectionName;
 
         if ("Latitude/Longitude".equals(projectionName)) {
-            return geoCrs;
+            return new OziCrsCache.Key(data.datumName, projectionName, null, new double[0]);
         } else if ("Mercator".equals(projectionName)) {
-            return createProjectedCrs("unnamed", projectionName, projectionSetup, geoCrs);
+            return new OziCrsCache.Key(data.datumName, projectionName, "unnamed", normalizeProjectionSetup(data.projectionSetup));
         } else if ("Transverse Mercator".equals(projectionName)) {
-            return createProjectedCrs("unnamed", projectionName, projectionSetup, geoCrs);
+            return new OziCrsCache.Key(data.datumName, projectionName, "unnamed", normalizeProjectionSetup(data.projectionSetup));
         } else if ("(UTM) Universal Transverse Mercator".equals(projectionName)) {
-            int zone = -1;
-            boolean north = true;
-
-            // Try to guess the UTM zone
-            for (String line : lines) {
-                if (StringUtils.startsWith(line, "Point")) {
-                    String[] values = lineValues(line);
-
-                    if (values.length < 17 || StringUtils.isEmpty(values[13]) || StringUtils.isEmpty(values[16])) {
-                        continue;
-                    }
-
-                    zone = NumberUtils.toInt(values[13], -1);
-                    north = "N".equals(values[16]);
-                    break;
-                }
-            }
+            // The UTM zone is guessed by the parser from the first suitable 'Point' line
+            int zone = data.utmZone;
+            boolean north = data.utmNorth;
 
             if (zone == -1) {
                 throw new DataSourceException("Failed to guess UTM zone");
@@ -361,13 +279,13 @@ final class OziMapFileReader {
 
             String projCsName = "UTM Zone " + zone + ", Northern Hemisphere";
 
-            return createProjectedCrs(projCsName, projectionName, new String[]{"", "0", String.valueOf(zone * 6 - 183), "0.9996", "500000.0", ""}, geoCrs);
+            return new OziCrsCache.Key(data.datumName, projectionName, projCsName, new double[]{0, zone * 6 - 183, 0.9996, 500000.0, Double.NaN});
         } else {
             throw new DataSourceException("Unsupported projection: " + projectionName);
         }
     }
 
-    private ProjectedCRS createProjectedCrs(String name, String projectionName, String[] projectionSetup, GeographicCRS geoCrs) throws FactoryException {
+    private static double[] normalizeProjectionSetup(String[] projectionSetup) {
         //  Projection Setup:
         //    1. Latitude Origin
         //    2. Longitude Origin
@@ -379,7 +297,33 @@ final class OziMapFileReader {
         //    8. Height - used in the Vertical Near-Sided Perspective Projection
         //    9. Sat - not used
         //    10. Path - not used
+        //
+        //  Only the first five are used, absent values are NaN except K Factor which defaults to 1.0
+
+        double[] values = new double[5];
 
+        for (int i = 0; i < values.length; ++i) {
+            String value = i + 1 < projectionSetup.length ? projectionSetup[i + 1] : null;
+
+            if (i == 2) {
+                values[i] = NumberUtils.toDouble(value, 1.0);
+            } else {
+                values[i] = NumberUtils.isCreatable(value) ? NumberUtils.toDouble(value) : Double.NaN;
+            }
+        }
+
+        return values;
+    }
+
+    private static CoordinateReferenceSystem createCrs(OziCrsCache.Key key, GeographicCRS geoCrs) throws FactoryException {
+        if ("Latitude/Longitude".equals(key.projectionName)) {
+            return geoCrs;
+        }
+
+        return createProjectedCrs(key.projCsName, key.projectionName, key.projectionSetup, geoCrs);
+    }
+
+    private static ProjectedCRS createProjectedCrs(String name, String projectionName, double[] projectionSetup, GeographicCRS geoCrs) throws FactoryException {
         MathTransformFactory mtFactory = ReferencingFactoryFinder.getMathTransformFactory(null);
         CRSFactory crsFactory = ReferencingFactoryFinder.getCRSFactory(null);
 
@@ -387,23 +331,22 @@ final class OziMapFileReader {
 
         ParameterValueGroup projectionParameters = mtFactory.getDefaultParameters(geotoolsProjectionName);
 
-        if (NumberUtils.isCreatable(projectionSetup[1])) {
-            projectionParameters.parameter("latitude_of_origin").setValue(NumberUtils.toDouble(projectionSetup[1]));
+        if (!Double.isNaN(projectionSetup[0])) {
+            projectionParameters.parameter("latitude_of_origin").setValue(projectionSetup[0]);
         }
 
-        if (NumberUtils.isCreatable(projectionSetup[2])) {
-            projectionParameters.parameter("central_meridian").setValue(NumberUtils.toDouble(projectionSetup[2]));
+        if (!Double.isNaN(projectionSetup[1])) {
+            projectionParameters.parameter("central_meridian").setValue(projectionSetup[1]);
         }
 
-        double scaleFactor = NumberUtils.toDouble(projectionSetup[3], 1.0);
-        projectionParameters.parameter("scale_factor").setValue(scaleFactor);
+        projectionParameters.parameter("scale_factor").setValue(projectionSetup[2]);
 
-        if (NumberUtils.isCreatable(projectionSetup[4])) {
-            projectionParameters.parameter("false_easting").setValue(NumberUtils.toDouble(projectionSetup[4]));
+        if (!Double.isNaN(projectionSetup[3])) {
+            projectionParameters.parameter("false_easting").setValue(projectionSetup[3]);
         }
 
-        if (NumberUtils.isCreatable(projectionSetup[5])) {
-            projectionParameters.parameter("false_northing").setValue(NumberUtils.toDouble(projectionSetup[5]));
+        if (!Double.isNaN(projectionSetup[4])) {
+            projectionParameters.parameter("false_northing").setValue(projectionSetup[4]);
         }
 
         Map<String, Object> projCsProperties = new HashMap<>();
@@ -415,91 +358,29 @@ final class OziMapFileReader {
         return crsFactory.createProjectedCRS(projCsProperties, geoCrs, conversion, DefaultCartesianCS.GENERIC_2D);
     }
 
-    private List<CalibrationPoint> parseCalibrationPoints(List<String> lines, MathTransform world2Crs) throws TransformException {
+    private List<CalibrationPoint> createCalibrationPoints(OziMapFileData data, MathTransform world2Crs) throws TransformException {
         // calc overlap 180
-        int mpli = 0;
-        double[] mpl = new double[4];
-
-        for (String line : lines) {
-            if (!StringUtils.startsWith(line, "MMPLL")) {
-                continue;
-            }
+        boolean overlap180 = data.isOverlap180();
 
-            String[] values = lineValues(line);
+        List<CalibrationPoint> calibrationPoints = new ArrayList<>(data.pointCount);
 
-            if (values.length < 4) {
-                continue;
-            }
-
-            mpl[mpli++] = NumberUtils.toDouble(values[2]);
-        }
-
-        boolean asd = false;
-
-        if (mpli != 0 && mpl[1] < mpl[0] && mpl[2] < mpl[3]) {
-            asd = true;
-        }
-
-        List<CalibrationPoint> calibrationPoints = new ArrayList<>();
-
-        for (String line : lines) {
-            if (!StringUtils.startsWith(line, "Point")) {
-                continue;
-            }
-
-            String[] values = lineValues(line);
-
-            if (values.length < 16) {
-                continue;
-            }
-
-            String v2 = values[2];
-            String v3 = values[3];
-            String v6 = values[6];
-            String v7 = values[7];
-            String v8 = values[8];
-            String v9 = values[9];
-            String v10 = values[10];
-            String v11 = values[11];
-            String v14 = values[14];
-            String v15 = values[15];
-
-            Point pixelLine;
-
-            if (NumberUtils.isCreatable(v2) && NumberUtils.isCreatable(v3)) {
-                pixelLine = new Point(NumberUtils.toInt(v2), NumberUtils.toInt(v3));
-            } else {
-                continue;
-            }
+        for (int i = 0; i < data.pointCount; ++i) {
+            Point pixelLine = new Point(data.pixelX[i], data.pixelY[i]);
 
             DirectPosition2D xy = new DirectPosition2D();
-            DirectPosition2D latLon;
 
-            if (NumberUtils.isCreatable(v6) && NumberUtils.isCreatable(v7) &&
-                    NumberUtils.isCreatable(v9) && NumberUtils.isCreatable(v10)) {
-                latLon = new DirectPosition2D(DefaultGeographicCRS.WGS84,
-                        NumberUtils.toDouble(v9) + NumberUtils.toDouble(v10) / 60.0,
-                        NumberUtils.toDouble(v6) + NumberUtils.toDouble(v7) / 60.0);
+            if (data.hasLatLon(i)) {
+                DirectPosition2D latLon = new DirectPosition2D(DefaultGeographicCRS.WGS84, data.lon[i], data.lat[i]);
 
-                if ("W".equals(v11)) {
-                    latLon.x = -latLon.x;
-
-                    if (asd) {
-                        latLon.x = 360 + latLon.x;
-                    }
-                }
-
-                if ("S".equals(v8)) {
-                    latLon.y = -latLon.y;
+                if (data.west[i] && overlap180) {
+                    latLon.x = 360 + latLon.x;
                 }
 
                 MapProjection.SKIP_SANITY_CHECKS = true;
 
                 world2Crs.transform(latLon, xy);
-            } else if (NumberUtils.isCreatable(v14) && NumberUtils.isCreatable(v15)) {
-                xy = new DirectPosition2D(crs, NumberUtils.toDouble(v14), NumberUtils.toDouble(v15));
             } else {
-                continue;
+                xy = new DirectPosition2D(crs, data.gridX[i], data.gridY[i]);
             }
 
             calibrationPoints.add(new CalibrationPoint(pixelLine, xy));
@@ -508,25 +389,6 @@ final class OziMapFileReader {
         return calibrationPoints;
     }
 
-    private static GeodeticDatum createGeodeticDatum(String name, Ellipsoid ellipsoid, double dx, double dy, double dz) throws FactoryException {
-        Map<String, Object> parameters = new HashMap<>();
-
-        parameters.put("name", name);
-
-        final BursaWolfParameters bursaWolfParameters = new BursaWolfParameters(DefaultGeodeticDatum.WGS84);
-
-        bursaWolfParameters.dx = dx;
-        bursaWolfParameters.dy = dy;
-        bursaWolfParameters.dz = dz;
-
-        parameters.put(DefaultGeodeticDatum.BURSA_WOLF_KEY, bursaWolfParameters);
-
-        DatumFactory datumFactory = ReferencingFactoryFinder.getDatumFactory(null);
-
-
-        return datumFactory.createGeodeticDatum(parameters, ellipsoid, DefaultPrimeMeridian.GREENWICH);
-    }
-
     private static final class CalibrationPoint {
         private final Point pixelLine;
         private final Point.Double xy;
@@ -537,16 +399,6 @@ final class OziMapFileReader {
         }
     }
 
-    /**
-     * Parse line values.
-     *
-     * @param line line of .MAP file
-     * @return non empty array
-     */
-    private static String[] lineValues(String line) {
-        return Arrays.stream(line.split(",", -1)).map(String::trim).toArray(String[]::new);
-    }
-
     private MathTransform createGrid2Crs(List<CalibrationPoint> calibrationPoints) throws DataSourceException, NoninvertibleTransformException {
         if (calibrationPoints.size() < 2) {
             throw new DataSourceException("Too few calibration points!");
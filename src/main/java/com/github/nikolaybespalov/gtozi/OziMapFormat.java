@@ -6,6 +6,7 @@ import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
 import org.geotools.data.DataSourceException;
 import org.geotools.factory.GeoTools;
 import org.geotools.factory.Hints;
+import org.geotools.parameter.DefaultParameterDescriptor;
 import org.geotools.parameter.DefaultParameterDescriptorGroup;
 import org.geotools.parameter.ParameterGroup;
 import org.geotools.util.URLs;
@@ -13,9 +14,7 @@ import org.opengis.coverage.grid.Format;
 import org.opengis.coverage.grid.GridCoverageWriter;
 import org.opengis.parameter.GeneralParameterDescriptor;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.file.Path;
@@ -29,6 +28,31 @@ import static org.geotools.util.logging.Logging.getLogger;
 public final class OziMapFormat extends AbstractGridFormat implements Format {
     private static final Logger LOGGER = getLogger(OziMapFormat.class);
 
+    /**
+     * Largest error, in source pixels, of the approximate transform that warps the map when the requested grid
+     * geometry is in another coordinate reference system than the map.
+     */
+    public static final DefaultParameterDescriptor<Double> WARP_TOLERANCE =
+            new DefaultParameterDescriptor<>("WarpTolerance", Double.class, null, 0.25);
+
+    /**
+     * When {@link Boolean#TRUE}, the map is rectified through the {@link OziMapReader#GCP_MODEL} onto the requested
+     * grid geometry. Otherwise reads use the affine calibration of the map.
+     */
+    public static final DefaultParameterDescriptor<Boolean> RECTIFY =
+            new DefaultParameterDescriptor<>("Rectify", Boolean.class, new Boolean[]{Boolean.TRUE, Boolean.FALSE}, Boolean.FALSE);
+
+    private static volatile OziMapReaderCache readerCache;
+
+    /**
+     * Makes {@link #getReader(Object, Hints)} share readers through the given cache.
+     *
+     * @param cache reader cache or null to create a new reader on every call
+     */
+    public static void setReaderCache(OziMapReaderCache cache) {
+        readerCache = cache;
+    }
+
     public OziMapFormat() {
         mInfo = new HashMap<>();
         mInfo.put("name", "Ozi");
@@ -40,7 +64,15 @@ public final class OziMapFormat extends AbstractGridFormat implements Format {
         readParameters = new ParameterGroup(new DefaultParameterDescriptorGroup(mInfo,
                 new GeneralParameterDescriptor[]{
                         READ_GRIDGEOMETRY2D,
-                        SUGGESTED_TILE_SIZE
+                        SUGGESTED_TILE_SIZE,
+                        OVERVIEW_POLICY,
+                        WARP_TOLERANCE,
+                        RECTIFY
+                }));
+
+        writeParameters = new ParameterGroup(new DefaultParameterDescriptorGroup(mInfo,
+                new GeneralParameterDescriptor[]{
+                        GEOTOOLS_WRITE_PARAMS
                 }));
     }
 
@@ -58,14 +90,12 @@ public final class OziMapFormat extends AbstractGridFormat implements Format {
             return false;
         }
 
-        try (BufferedReader brTest = new BufferedReader(new FileReader(f))) {
-            switch (brTest.readLine()) {
-                case "OziExplorer Map Data File Version 2.1":
-                case "OziExplorer Map Data File Version 2.2":
-                    return true;
-                default:
-                    return false;
-            }
+        if (f == null) {
+            return false;
+        }
+
+        try {
+            return OziMapFileProbe.isMapFile(f.toPath());
         } catch (IOException e) {
             if (LOGGER.isLoggable(Level.SEVERE)) {
                 LOGGER.log(Level.SEVERE, "First line could not be read", e);
@@ -87,8 +117,20 @@ public final class OziMapFormat extends AbstractGridFormat implements Format {
             return null;
         }
 
+        Hints readerHints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+
+        if (hints != null) {
+            readerHints.add(hints);
+        }
+
         try {
-            return new OziMapReader(source);
+            OziMapReaderCache cache = readerCache;
+
+            if (cache != null) {
+                return cache.get(source, readerHints);
+            }
+
+            return new OziMapReader(source, readerHints);
         } catch (DataSourceException e) {
             LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
         }
@@ -102,12 +144,23 @@ public final class OziMapFormat extends AbstractGridFormat implements Format {
     }
 
     @Override
-    public GridCoverageWriter getWriter(Object o, Hints hints) {
+    public GridCoverageWriter getWriter(Object destination, Hints hints) {
+        if (destination == null) {
+            LOGGER.severe("destination should not be null");
+            return null;
+        }
+
+        try {
+            return new OziMapWriter(destination, hints);
+        } catch (DataSourceException e) {
+            LOGGER.log(Level.SEVERE, e.getLocalizedMessage(), e);
+        }
+
         return null;
     }
 
     @Override
     public GeoToolsWriteParams getDefaultImageIOWriteParameters() {
-        return null;
+        return new OziMapWriteParams();
     }
 }
@@ -5,37 +5,62 @@ import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.OverviewPolicy;
 import org.geotools.data.DataSourceException;
 import org.geotools.data.FileGroupProvider;
 import org.geotools.factory.Hints;
 import org.geotools.geometry.GeneralEnvelope;
-import org.geotools.image.io.ImageIOExt;
 import org.geotools.metadata.iso.spatial.PixelTranslation;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.matrix.XAffineTransform;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
 import org.geotools.referencing.operation.transform.ProjectiveTransform;
 import org.opengis.coverage.grid.Format;
 import org.opengis.geometry.Envelope;
+import org.opengis.metadata.spatial.PixelOrientation;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 
-import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageInputStreamSpi;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
 import javax.media.jai.ImageLayout;
 import javax.media.jai.JAI;
-import javax.media.jai.RenderedOp;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.ROI;
 import java.awt.*;
 import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.awt.image.renderable.ParameterBlock;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static org.geotools.util.logging.Logging.getLogger;
@@ -44,8 +69,85 @@ import static org.geotools.util.logging.Logging.getLogger;
 public final class OziMapReader extends AbstractGridCoverage2DReader {
     private static final Logger LOGGER = getLogger(OziMapReader.class);
 
+    /**
+     * When {@link Boolean#TRUE}, the raster is not opened by the constructor if the .map file declares the image
+     * size in its 'IWH' line. The raster is opened by the first {@link #read(GeneralParameterValue[])} instead, which
+     * fails if the raster is not of the declared size.
+     */
+    public static final Hints.Key LAZY_RASTER_OPEN = new Hints.Key(Boolean.class);
+
+    /**
+     * Number of warmed image readers kept per {@link OziMapReader} for concurrent reads. When positive, each
+     * {@link #read(GeneralParameterValue[])} leases a reader and stream from the pool and decodes the requested
+     * region before returning, instead of creating a new reader and stream for a deferred JAI operation.
+     */
+    public static final Hints.Key READER_POOL_SIZE = new Hints.Key(Integer.class);
+
+    /**
+     * When {@link Boolean#TRUE}, overviews of single level rasters are built next to the raster when it is opened,
+     * see {@link #buildOverviews()}. Without this hint overviews that were built before are still used.
+     */
+    public static final Hints.Key BUILD_OVERVIEWS = new Hints.Key(Boolean.class);
+
+    /**
+     * {@link OziTileCache} to read the raster through. Tiles are decoded once and shared by all readers that use
+     * the same cache.
+     */
+    public static final Hints.Key TILE_CACHE = new Hints.Key(OziTileCache.class);
+
+    /**
+     * When {@link Boolean#TRUE}, the raster file is mapped into memory instead of being read through a buffer.
+     * Rasters larger than 2 GB are read through a buffer anyway.
+     */
+    public static final Hints.Key MEMORY_MAPPED_RASTER = new Hints.Key(Boolean.class);
+
+    /**
+     * {@link ForkJoinPool} to decode large requests on. The requested region is split into blocks aligned to the
+     * raster tiles and the blocks are decoded concurrently, each by its own image reader and stream.
+     */
+    public static final Hints.Key PARALLEL_READ_POOL = new Hints.Key(ForkJoinPool.class);
+
+    /**
+     * {@link OziGcpModel} fitted to the calibration points, returned by {@link #getCalibrationTransform(PixelInCell)}.
+     * The envelope, resolution and overviews of the map stay on its affine grid, reads rectify the raster through the
+     * model only if {@link OziMapFormat#RECTIFY} is set. The affine model is used if the map has too few calibration
+     * points.
+     */
+    public static final Hints.Key GCP_MODEL = new Hints.Key(OziGcpModel.class);
+
+    /**
+     * Property of a reprojected coverage, the {@link ROI} of its pixels that the map covers.
+     */
+    static final String ROI_PROPERTY = "GC_ROI";
+
+    // Overview levels may be rounded to whole pixels, a larger difference means a thumbnail
+    private static final double MAX_OVERVIEW_ASPECT_DIFFERENCE = 0.05;
+
+    // Warp grids kept per reader for reprojected reads
+    private static final int WARP_CACHE_SIZE = 64;
+    // Largest size of a warp grid in its pixels, levels larger than that are warped through coarser grid pixels
+    private static final int MAX_WARP_GRID_SIZE = 4096;
+    // Points per side of the raster that the envelope of the map in another coordinate reference system is taken of
+    private static final int BORDER_SAMPLES = 64;
+
     private final OziMapFileReader oziMapFileReader;
-    private final ImageReaderSpi imageReaderSpi;
+    private final int readerPoolSize;
+    private final MathTransform gcpTransform;
+    // Whether the reader is counted by the open readers gauge of OziMetrics
+    private final AtomicBoolean countedOpen = new AtomicBoolean();
+    private volatile ImageReaderSpi imageReaderSpi;
+    private volatile OziImageReaderPool readerPool;
+    private volatile OziImageReaderPool parallelReaderPool;
+    private volatile OziOverviewPyramid overviewPyramid;
+    private Dimension[] rasterLevels;
+    private volatile Dimension[] levelSizes;
+
+    private final Map<WarpKey, WarpModel> warpModels = new LinkedHashMap<WarpKey, WarpModel>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<WarpKey, WarpModel> eldest) {
+            return size() > WARP_CACHE_SIZE;
+        }
+    };
 
     public OziMapReader(Object input) throws DataSourceException {
         this(input, new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE));
@@ -54,6 +156,10 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
     public OziMapReader(Object input, Hints uHints) throws DataSourceException {
         super(input, uHints);
 
+        long start = OziMetrics.start();
+        // Errors of the map file are counted by OziMapFileReader itself
+        boolean parsed = false;
+
         try {
             File inputFile = getSourceAsFile();
 
@@ -63,48 +169,279 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
 
             oziMapFileReader = new OziMapFileReader(inputFile);
 
+            parsed = true;
+
             coverageName = oziMapFileReader.getTitle();
 
             crs = oziMapFileReader.getCoordinateReferenceSystem();
             raster2Model = oziMapFileReader.getGrid2Crs();
 
-            File imageFile = oziMapFileReader.getRasterFile();
+            Object poolSize = hints.get(READER_POOL_SIZE);
 
-            inStreamSPI = ImageIOExt.getImageInputStreamSPI(imageFile);
+            readerPoolSize = poolSize instanceof Integer ? (Integer) poolSize : 0;
 
-            try (ImageInputStream inStream = inStreamSPI.createInputStreamInstance(
-                    imageFile, ImageIO.getUseCache(), ImageIO.getCacheDirectory())) {
-                ImageReader imageReader = ImageIOExt.getImageioReader(inStream);
-                imageReader.setInput(inStream);
+            final AffineTransform tempTransform =
+                    new AffineTransform((AffineTransform) raster2Model);
+            tempTransform.translate(-0.5, -0.5);
 
-                imageReaderSpi = imageReader.getOriginatingProvider();
+            highestRes = new double[2];
+            highestRes[0] = XAffineTransform.getScaleX0(tempTransform);
+            highestRes[1] = XAffineTransform.getScaleY0(tempTransform);
 
-                int hrWidth = imageReader.getWidth(0);
-                int hrHeight = imageReader.getHeight(0);
-                final Rectangle actualDim = new Rectangle(0, 0, hrWidth, hrHeight);
+            Dimension rasterSize = null;
 
-                originalGridRange = new GridEnvelope2D(actualDim);
+            if (Boolean.TRUE.equals(hints.get(LAZY_RASTER_OPEN))) {
+                rasterSize = oziMapFileReader.getRasterSize();
+            }
 
-                originalEnvelope =
-                        CRS.transform(
-                                PixelTranslation.translate(oziMapFileReader.getGrid2Crs(),
-                                        PixelInCell.CELL_CORNER, PixelInCell.CELL_CENTER),
-                                new GeneralEnvelope(actualDim));
-                originalEnvelope.setCoordinateReferenceSystem(crs);
+            if (rasterSize == null) {
+                rasterSize = openRaster(null);
+            }
 
-                final AffineTransform tempTransform =
-                        new AffineTransform((AffineTransform) raster2Model);
-                tempTransform.translate(-0.5, -0.5);
+            final Rectangle actualDim = new Rectangle(0, 0, rasterSize.width, rasterSize.height);
 
-                highestRes = new double[2];
-                highestRes[0] = XAffineTransform.getScaleX0(tempTransform);
-                highestRes[1] = XAffineTransform.getScaleY0(tempTransform);
-            }
+            originalGridRange = new GridEnvelope2D(actualDim);
+
+            originalEnvelope =
+                    CRS.transform(
+                            PixelTranslation.translate(oziMapFileReader.getGrid2Crs(),
+                                    PixelInCell.CELL_CORNER, PixelInCell.CELL_CENTER),
+                            new GeneralEnvelope(actualDim));
+            originalEnvelope.setCoordinateReferenceSystem(crs);
+
+            gcpTransform = createGcpTransform(rasterSize);
         } catch (DataSourceException e) {
+            if (parsed) {
+                OziMetrics.error(e);
+            }
+
             throw e;
         } catch (IOException | TransformException e) {
+            OziMetrics.error(e);
+
             throw new DataSourceException(e);
         }
+
+        countedOpen.set(OziMetrics.mapReaderCreated(start));
+    }
+
+    /**
+     * @return transform of the {@link #GCP_MODEL} or null for the affine model
+     */
+    private MathTransform createGcpTransform(Dimension rasterSize) {
+        Object gcpModel = hints.get(GCP_MODEL);
+
+        if (!(gcpModel instanceof OziGcpModel) || gcpModel == OziGcpModel.AFFINE) {
+            return null;
+        }
+
+        try {
+            return oziMapFileReader.createGrid2Crs((OziGcpModel) gcpModel, rasterSize);
+        } catch (DataSourceException e) {
+            LOGGER.warning(gcpModel + " could not be fitted to the calibration points, the affine model is used: " + e.getLocalizedMessage());
+
+            return null;
+        }
+    }
+
+    /**
+     * @param pixInCell pixel orientation of the grid
+     * @return raster to map transform of the {@link #GCP_MODEL}, the affine one if no higher order model is selected
+     */
+    public MathTransform getCalibrationTransform(PixelInCell pixInCell) {
+        if (gcpTransform == null) {
+            return getOriginalGridToWorld(pixInCell);
+        }
+
+        return PixelTranslation.translate(gcpTransform, PixelInCell.CELL_CENTER, pixInCell);
+    }
+
+    /**
+     * Opens the raster, resolves the stream and reader SPIs, reads the raster size and declares the overviews.
+     *
+     * @param declaredSize size the grid range was taken from or null
+     * @throws DataSourceException if the raster is not of the declared size, nothing is opened then
+     */
+    private Dimension openRaster(Dimension declaredSize) throws IOException {
+        Object openEvent = OziEvents.beginRasterOpen();
+
+        File imageFile = oziMapFileReader.getRasterFile();
+
+        ImageInputStreamSpi rasterInStreamSPI = OziRasterFiles.getInputStreamSpi(imageFile,
+                Boolean.TRUE.equals(hints.get(MEMORY_MAPPED_RASTER)));
+
+        try (ImageInputStream inStream = OziRasterFiles.createInputStream(rasterInStreamSPI, imageFile)) {
+            ImageReaderSpi rasterReaderSpi = OziRasterFiles.getReaderSpi(imageFile, inStream);
+
+            ImageReader imageReader = rasterReaderSpi.createReaderInstance();
+
+            try {
+                imageReader.setInput(inStream);
+
+                Dimension[] levels = readLevels(imageReader);
+
+                if (declaredSize != null && !declaredSize.equals(levels[0])) {
+                    throw new DataSourceException("Raster size " + levels[0].width + "x" + levels[0].height + " of " +
+                            imageFile + " differs from the size " + declaredSize.width + "x" + declaredSize.height +
+                            " declared by the map file");
+                }
+
+                OziEvents.commitRasterOpen(openEvent, imageFile, rasterInStreamSPI, rasterReaderSpi, levels[0]);
+
+                rasterLevels = levels;
+
+                OziOverviewPyramid pyramid = null;
+
+                if (levels.length == 1) {
+                    pyramid = openOverviewPyramid(imageFile, Boolean.TRUE.equals(hints.get(BUILD_OVERVIEWS)));
+                }
+
+                setOverviews(pyramid != null ? pyramid.getLevels() : levels);
+
+                overviewPyramid = pyramid;
+
+                inStreamSPI = rasterInStreamSPI;
+                imageReaderSpi = rasterReaderSpi;
+
+                return levels[0];
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Reads the sizes of the image indices that are downscaled copies of the first one, such as the zoom levels of
+     * OZF2/OZF3 rasters.
+     * <p>
+     * Only readers that already know the number of images are asked, so single image formats are not scanned.
+     * Levels stop at the first image that is not smaller than the previous one or does not keep the aspect ratio,
+     * which drops the thumbnails stored at the end of OZF files.
+     */
+    private static Dimension[] readLevels(ImageReader imageReader) throws IOException {
+        List<Dimension> levels = new ArrayList<>();
+
+        levels.add(new Dimension(imageReader.getWidth(0), imageReader.getHeight(0)));
+
+        int numImages = imageReader.getNumImages(false);
+
+        for (int i = 1; i < numImages; ++i) {
+            Dimension full = levels.get(0);
+            Dimension previous = levels.get(i - 1);
+            Dimension level = new Dimension(imageReader.getWidth(i), imageReader.getHeight(i));
+
+            if (level.width <= 0 || level.height <= 0 || level.width >= previous.width || level.height >= previous.height) {
+                break;
+            }
+
+            double scaleX = (double) full.width / level.width;
+            double scaleY = (double) full.height / level.height;
+
+            if (Math.abs(scaleX / scaleY - 1.0) > MAX_OVERVIEW_ASPECT_DIFFERENCE) {
+                break;
+            }
+
+            levels.add(level);
+        }
+
+        return levels.toArray(new Dimension[0]);
+    }
+
+    /**
+     * Declares the levels after the first one as overviews, image index {@code i} is overview {@code i}.
+     */
+    private void setOverviews(Dimension[] levels) {
+        levelSizes = levels;
+
+        if (levels.length < 2) {
+            overViewResolutions = null;
+            numOverviews = 0;
+            return;
+        }
+
+        double[][] resolutions = new double[levels.length - 1][2];
+
+        for (int i = 1; i < levels.length; ++i) {
+            resolutions[i - 1][0] = highestRes[0] * levels[0].width / levels[i].width;
+            resolutions[i - 1][1] = highestRes[1] * levels[0].height / levels[i].height;
+        }
+
+        overViewResolutions = resolutions;
+        numOverviews = resolutions.length;
+    }
+
+    private static OziOverviewPyramid openOverviewPyramid(File rasterFile, boolean build) {
+        try {
+            return build ? OziOverviewPyramid.build(rasterFile) : OziOverviewPyramid.open(rasterFile);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Overviews of " + rasterFile + " could not be used", e);
+            return null;
+        }
+    }
+
+    /**
+     * Builds the missing overviews of a single level raster and serves low resolution reads from them.
+     * <p>
+     * Levels are stored in the {@code <raster>.ovr} directory next to the raster and reused by later readers
+     * until the raster changes. Rasters with their own levels, such as OZF, are left as is.
+     *
+     * @throws IOException if the overviews could not be built
+     */
+    public void buildOverviews() throws IOException {
+        ensureRasterOpen();
+
+        synchronized (this) {
+            if (rasterLevels.length > 1) {
+                return;
+            }
+
+            OziOverviewPyramid pyramid = OziOverviewPyramid.build(oziMapFileReader.getRasterFile());
+
+            if (pyramid != null) {
+                setOverviews(pyramid.getLevels());
+
+                overviewPyramid = pyramid;
+            }
+        }
+    }
+
+    /**
+     * Drops the overviews if the raster has changed since they were built.
+     */
+    private void checkOverviews() {
+        OziOverviewPyramid pyramid = overviewPyramid;
+
+        if (pyramid == null || pyramid.isUpToDate()) {
+            return;
+        }
+
+        synchronized (this) {
+            if (overviewPyramid == pyramid) {
+                LOGGER.warning("Overviews of " + oziMapFileReader.getRasterFile() + " are out of date and not used");
+
+                overviewPyramid = null;
+
+                setOverviews(rasterLevels);
+            }
+        }
+    }
+
+    /**
+     * Opens the raster on the first read when the constructor took its size from the .map file.
+     */
+    private void ensureRasterOpen() throws IOException {
+        if (imageReaderSpi != null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (imageReaderSpi != null) {
+                return;
+            }
+
+            // The envelope and the grid range are already published with the declared size
+            openRaster(new Dimension(originalGridRange.getSpan(0), originalGridRange.getSpan(1)));
+        }
     }
 
     @Override
@@ -114,10 +451,52 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
 
     @Override
     public GridCoverage2D read(GeneralParameterValue[] params) throws IllegalArgumentException, IOException {
+        return read(params, false);
+    }
+
+    /**
+     * Reads the coverage on the executor. Unlike {@link #read(GeneralParameterValue[])}, the requested pixels are
+     * decoded before the future completes, so the caller never decodes them when touching the image.
+     *
+     * @param params   read parameters
+     * @param executor executor that parses the parameters and decodes the pixels
+     * @return future completed with the coverage, or exceptionally with the error of the read
+     */
+    public CompletableFuture<GridCoverage2D> readAsync(GeneralParameterValue[] params, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(params, true);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * @param eager true to decode the pixels before returning instead of through a deferred JAI operation
+     */
+    private GridCoverage2D read(GeneralParameterValue[] params, boolean eager) throws IllegalArgumentException, IOException {
+        try {
+            return readCoverage(params, eager);
+        } catch (IOException | RuntimeException e) {
+            OziMetrics.error(e);
+
+            throw e;
+        }
+    }
+
+    private GridCoverage2D readCoverage(GeneralParameterValue[] params, boolean eager) throws IOException {
+        long start = OziMetrics.start();
+        Object readEvent = OziEvents.beginRead();
+
         Hints readHints = new Hints();
 
+        OverviewPolicy overviewPolicy = null;
+        GridGeometry2D requestedGridGeometry = null;
         GeneralEnvelope requestedEnvelope = null;
         Rectangle dim = null;
+        double warpTolerance = OziMapFormat.WARP_TOLERANCE.getDefaultValue();
+        boolean rectify = false;
 
         if (params != null) {
             for (GeneralParameterValue param : params) {
@@ -127,6 +506,7 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
                 switch (name) {
                     case "ReadGridGeometry2D":
                         final GridGeometry2D gg = (GridGeometry2D) value;
+                        requestedGridGeometry = gg;
                         requestedEnvelope = new GeneralEnvelope((Envelope) gg.getEnvelope2D());
                         dim = gg.getGridRange2D().getBounds();
                         break;
@@ -155,6 +535,17 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
                         layout.setTileHeight(tileHeight);
                         readHints.add(new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout));
                         break;
+                    case "OverviewPolicy":
+                        overviewPolicy = (OverviewPolicy) value;
+                        break;
+                    case "WarpTolerance":
+                        if (value != null) {
+                            warpTolerance = ((Number) value).doubleValue();
+                        }
+                        break;
+                    case "Rectify":
+                        rectify = Boolean.TRUE.equals(value);
+                        break;
                     default:
                         LOGGER.warning("Unsupported read parameter: " + name);
                         break;
@@ -162,19 +553,463 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
             }
         }
 
+        ensureRasterOpen();
+        checkOverviews();
+
+        if (rectify && gcpTransform != null) {
+            return readReprojected(requestedGridGeometry != null ? requestedGridGeometry : new GridGeometry2D(originalGridRange, originalEnvelope),
+                    overviewPolicy, warpTolerance, true, readHints);
+        }
+
+        if (requestedGridGeometry != null && requestedGridGeometry.isDefined(GridGeometry2D.CRS_BITMASK) &&
+                !CRS.equalsIgnoreMetadata(requestedGridGeometry.getCoordinateReferenceSystem2D(), crs)) {
+            return readReprojected(requestedGridGeometry, overviewPolicy, warpTolerance, false, readHints);
+        }
+
         Integer imageChoice;
+        Rectangle sourceRegion;
         final ImageReadParam readP = new ImageReadParam();
         try {
-            imageChoice = setReadParams(null, readP, requestedEnvelope, dim);
+            imageChoice = setReadParams(overviewPolicy, readP, requestedEnvelope, dim);
+            sourceRegion = getSourceRegion(imageChoice, readP, requestedEnvelope);
         } catch (TransformException e) {
             throw new DataSourceException(e);
         }
 
+        if (sourceRegion == null) {
+            return null;
+        }
+
+        readP.setSourceRegion(sourceRegion);
+
+        long decodeStart = readEvent != null ? System.nanoTime() : 0;
+
+        final PlanarImage coverageRaster = readRaster(imageChoice, readP, readHints, eager);
+
+        long decodeNanos = readEvent != null ? System.nanoTime() - decodeStart : 0;
+
+        GridCoverage2D coverage = createImageCoverage(coverageRaster, getRegionToModel(imageChoice, readP));
+
+        OziMetrics.read(imageChoice, start);
+
+        if (readEvent != null) {
+            OziEvents.commitRead(readEvent, oziMapFileReader.getRasterFile(), requestedEnvelope, false, imageChoice, sourceRegion, coverageRaster, decodeNanos);
+        }
+
+        return coverage;
+    }
+
+    /**
+     * Computes the region of an image level that covers the requested envelope, with a pixel of margin. The origin
+     * is aligned to the subsampling, so the pixels of overlapping requests are sampled at the same positions.
+     *
+     * @param requestedEnvelope envelope in the coordinate reference system of the map, null for the whole level
+     * @return source region or null if the envelope does not intersect the raster
+     */
+    private Rectangle getSourceRegion(int imageChoice, ImageReadParam readP, GeneralEnvelope requestedEnvelope) throws TransformException {
+        Dimension[] levels = levelSizes;
+        Rectangle levelBounds = new Rectangle(levels[imageChoice]);
+
+        if (requestedEnvelope == null) {
+            return levelBounds;
+        }
+
+        GeneralEnvelope rasterEnvelope = CRS.transform(getOriginalGridToWorld(PixelInCell.CELL_CORNER).inverse(), requestedEnvelope);
+
+        double scaleX = levels[imageChoice].getWidth() / levels[0].getWidth();
+        double scaleY = levels[imageChoice].getHeight() / levels[0].getHeight();
+
+        int xSubsampling = readP.getSourceXSubsampling();
+        int ySubsampling = readP.getSourceYSubsampling();
+
+        int minX = Math.max((int) Math.floor(rasterEnvelope.getMinimum(0) * scaleX) - 1, 0) / xSubsampling * xSubsampling;
+        int minY = Math.max((int) Math.floor(rasterEnvelope.getMinimum(1) * scaleY) - 1, 0) / ySubsampling * ySubsampling;
+        int maxX = (int) Math.ceil(rasterEnvelope.getMaximum(0) * scaleX) + 1;
+        int maxY = (int) Math.ceil(rasterEnvelope.getMaximum(1) * scaleY) + 1;
+
+        Rectangle region = new Rectangle(minX, minY, maxX - minX, maxY - minY).intersection(levelBounds);
+
+        return region.isEmpty() ? null : region;
+    }
+
+    /**
+     * @return grid to world transform of the pixel centers of the source region read at the level and subsampling
+     */
+    private MathTransform getRegionToModel(int imageChoice, ImageReadParam readP) {
+        Dimension[] levels = levelSizes;
+        Rectangle region = readP.getSourceRegion() != null ? readP.getSourceRegion() : new Rectangle(levels[imageChoice]);
+
+        AffineTransform regionToModel = new AffineTransform((AffineTransform) raster2Model);
+        // Level pixels are scaled around the corners of the raster pixels
+        regionToModel.translate(-0.5, -0.5);
+        regionToModel.scale(levels[0].getWidth() / levels[imageChoice].getWidth(), levels[0].getHeight() / levels[imageChoice].getHeight());
+        regionToModel.translate(region.x, region.y);
+        regionToModel.scale(readP.getSourceXSubsampling(), readP.getSourceYSubsampling());
+        regionToModel.translate(0.5, 0.5);
+
+        return ProjectiveTransform.create(regionToModel);
+    }
+
+    /**
+     * Reads the source region of an image level through the tile cache, the pools or a deferred JAI operation.
+     */
+    private PlanarImage readRaster(int imageChoice, ImageReadParam readP, Hints readHints, boolean eager) throws IOException {
+        OziOverviewPyramid pyramid = overviewPyramid;
+        OziImageReaderPool pool = getReaderPool();
+        Object tileCache = hints.get(TILE_CACHE);
+        Object parallelReadPool = hints.get(PARALLEL_READ_POOL);
+
+        if (tileCache instanceof OziTileCache) {
+            return PlanarImage.wrapRenderedImage(applyLayout(readCached((OziTileCache) tileCache, pyramid, imageChoice, readP), readHints));
+        } else if (pyramid != null && imageChoice > 0 && eager) {
+            return PlanarImage.wrapRenderedImage(applyLayout(decodeFile(pyramid.getLevelFile(imageChoice), 0, readP), readHints));
+        } else if (pyramid != null && imageChoice > 0) {
+            return readImage(pyramid.getLevelFile(imageChoice), 0, readP, readHints);
+        } else if (parallelReadPool instanceof ForkJoinPool) {
+            ForkJoinPool forkJoinPool = (ForkJoinPool) parallelReadPool;
+
+            BufferedImage image = OziParallelDecoder.read(forkJoinPool, getParallelReaderPool(forkJoinPool), imageChoice, readP);
+
+            return PlanarImage.wrapRenderedImage(applyLayout(image, readHints));
+        } else if (pool != null) {
+            return PlanarImage.wrapRenderedImage(applyLayout(readPooled(pool, imageChoice, readP), readHints));
+        } else if (eager) {
+            BufferedImage image;
+
+            try (ImageInputStream inStream = OziRasterFiles.createInputStream(inStreamSPI, oziMapFileReader.getRasterFile())) {
+                image = decodeImage(imageReaderSpi, inStream, imageChoice, readP);
+            }
+
+            return PlanarImage.wrapRenderedImage(applyLayout(image, readHints));
+        }
+
+        return readImage(inStreamSPI, imageReaderSpi, oziMapFileReader.getRasterFile(), imageChoice, readP, readHints);
+    }
+
+    /**
+     * Warps the map into a grid geometry of another coordinate reference system, or rectifies it through the
+     * {@link #GCP_MODEL}.
+     * <p>
+     * Raster coordinates of the requested pixels come from a {@link WarpModel} that is cached per target coordinate
+     * reference system, image level and calibration model. Its {@link OziWarpGrid} covers the envelope of the whole map in the target
+     * coordinate reference system and every request is offset and scaled into it, so requests of any window and size
+     * share the grid. Only the part of the level that the request covers is decoded and the pixels are resampled with
+     * the nearest neighbour, pixels outside of the map are 0 and left out of the {@link #ROI_PROPERTY} of the coverage.
+     *
+     * @return warped coverage or null if the requested envelope does not intersect the map
+     */
+    private GridCoverage2D readReprojected(GridGeometry2D target, OverviewPolicy overviewPolicy, double tolerance, boolean rectify,
+                                           Hints readHints) throws IOException {
+        long start = OziMetrics.start();
+        Object readEvent = OziEvents.beginRead();
+
+        CoordinateReferenceSystem targetCrs = target.isDefined(GridGeometry2D.CRS_BITMASK) ? target.getCoordinateReferenceSystem2D() : crs;
+        GridEnvelope2D targetRange = target.getGridRange2D();
+
+        MathTransform gridToCrs = ConcatenatedTransform.create(
+                ProjectiveTransform.create(AffineTransform.getTranslateInstance(targetRange.x, targetRange.y)),
+                target.getGridToCRS2D(PixelOrientation.UPPER_LEFT));
+
+        if (!(gridToCrs instanceof AffineTransform)) {
+            throw new DataSourceException("Requested grid to CRS transform is not affine");
+        }
+
+        GeneralEnvelope nativeEnvelope;
+
+        try {
+            if (CRS.equalsIgnoreMetadata(targetCrs, crs)) {
+                nativeEnvelope = new GeneralEnvelope((Envelope) target.getEnvelope2D());
+            } else {
+                nativeEnvelope = CRS.transform(new GeneralEnvelope((Envelope) target.getEnvelope2D()), crs);
+            }
+        } catch (TransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        nativeEnvelope.setCoordinateReferenceSystem(crs);
+
+        if (!nativeEnvelope.intersects(originalEnvelope, true)) {
+            return null;
+        }
+
+        final ImageReadParam readP = new ImageReadParam();
+
+        int imageChoice;
+
+        try {
+            imageChoice = setReadParams(overviewPolicy, readP, nativeEnvelope, new Rectangle(targetRange.width, targetRange.height));
+        } catch (TransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        Dimension[] levels = levelSizes;
+        Dimension levelSize = levels[imageChoice];
+
+        AffineTransform raster2Level = AffineTransform.getScaleInstance(
+                levelSize.getWidth() / levels[0].getWidth(),
+                levelSize.getHeight() / levels[0].getHeight());
+
+        WarpModel warpModel = getWarpModel(new WarpKey(targetCrs, imageChoice, tolerance, rectify), raster2Level);
+
+        if (warpModel == null) {
+            return null;
+        }
+
+        AffineTransform pixel2Grid = new AffineTransform(warpModel.crs2Grid);
+        pixel2Grid.concatenate((AffineTransform) gridToCrs);
+
+        Rectangle2D window = pixel2Grid.createTransformedShape(new Rectangle(targetRange.width, targetRange.height)).getBounds2D();
+
+        GeneralEnvelope gridEnvelope = warpModel.warpGrid.getEnvelope(
+                Math.max(window.getMinX(), 0), Math.max(window.getMinY(), 0),
+                Math.min(window.getMaxX(), warpModel.width), Math.min(window.getMaxY(), warpModel.height), null);
+
+        if (gridEnvelope == null) {
+            return null;
+        }
+
+        int xSubsampling = readP.getSourceXSubsampling();
+        int ySubsampling = readP.getSourceYSubsampling();
+
+        // Level pixels the grid covers, with a pixel of margin for the interpolation error
+        Rectangle2D levelBounds = raster2Level.createTransformedShape(
+                new Rectangle2D.Double(gridEnvelope.getMinimum(0), gridEnvelope.getMinimum(1), gridEnvelope.getSpan(0), gridEnvelope.getSpan(1))).getBounds2D();
+
+        // The origin is aligned to the subsampling, as for reads in the coordinate reference system of the map
+        int minX = Math.max((int) Math.floor(levelBounds.getMinX() - tolerance) - 1, 0) / xSubsampling * xSubsampling;
+        int minY = Math.max((int) Math.floor(levelBounds.getMinY() - tolerance) - 1, 0) / ySubsampling * ySubsampling;
+        int maxX = (int) Math.ceil(levelBounds.getMaxX() + tolerance) + 1;
+        int maxY = (int) Math.ceil(levelBounds.getMaxY() + tolerance) + 1;
+
+        Rectangle region = new Rectangle(minX, minY, maxX - minX, maxY - minY).intersection(new Rectangle(levelSize));
+
+        if (region.isEmpty()) {
+            return null;
+        }
+
+        readP.setSourceRegion(region);
+
+        long decodeStart = readEvent != null ? System.nanoTime() : 0;
+
+        RenderedImage sourceImage = readRaster(imageChoice, readP, new Hints(), true);
+
+        long decodeNanos = readEvent != null ? System.nanoTime() - decodeStart : 0;
+
+        Raster source = sourceImage instanceof BufferedImage ? ((BufferedImage) sourceImage).getRaster() : sourceImage.getData();
+
+        ColorModel colorModel = sourceImage.getColorModel();
+        WritableRaster raster = Raster.createWritableRaster(source.getSampleModel().createCompatibleSampleModel(targetRange.width, targetRange.height), null);
+        BufferedImage mask = new BufferedImage(targetRange.width, targetRange.height, BufferedImage.TYPE_BYTE_BINARY);
+        WritableRaster maskRaster = mask.getRaster();
+
+        double[] point = new double[2];
+        Object pixel = null;
+
+        for (int y = 0; y < targetRange.height; ++y) {
+            for (int x = 0; x < targetRange.width; ++x) {
+                point[0] = x + 0.5;
+                point[1] = y + 0.5;
+
+                pixel2Grid.transform(point, 0, point, 0, 1);
+
+                // Outside of the envelope of the map
+                if (point[0] < 0 || point[1] < 0 || point[0] > warpModel.width || point[1] > warpModel.height ||
+                        !warpModel.warpGrid.interpolate(point[0], point[1], point)) {
+                    continue;
+                }
+
+                raster2Level.transform(point, 0, point, 0, 1);
+
+                int sx = (int) Math.floor((point[0] - region.x) / xSubsampling) + source.getMinX();
+                int sy = (int) Math.floor((point[1] - region.y) / ySubsampling) + source.getMinY();
+
+                if (sx >= source.getMinX() && sy >= source.getMinY() &&
+                        sx < source.getMinX() + source.getWidth() && sy < source.getMinY() + source.getHeight()) {
+                    pixel = source.getDataElements(sx, sy, pixel);
+                    raster.setDataElements(x, y, pixel);
+                    maskRaster.setSample(x, y, 0, 1);
+                }
+            }
+        }
+
+        BufferedImage image = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+
+        GridCoverage2D coverage = coverageFactory.create(coverageName, applyLayout(image, readHints),
+                new GridGeometry2D(new GridEnvelope2D(0, 0, targetRange.width, targetRange.height), PixelInCell.CELL_CORNER, gridToCrs, targetCrs, null),
+                null, null, Collections.singletonMap(ROI_PROPERTY, new ROI(mask, 1)));
+
+        OziMetrics.read(imageChoice, start);
+        OziEvents.commitRead(readEvent, oziMapFileReader.getRasterFile(), target.getEnvelope2D(), true, imageChoice, region, sourceImage, decodeNanos);
+
+        return coverage;
+    }
+
+    /**
+     * @return warp model of the target coordinate reference system and level or null if the map has no envelope in
+     * the target coordinate reference system
+     */
+    private WarpModel getWarpModel(WarpKey key, AffineTransform raster2Level) throws DataSourceException {
+        synchronized (warpModels) {
+            WarpModel warpModel = warpModels.get(key);
+
+            if (warpModel != null) {
+                return warpModel;
+            }
+        }
+
+        Dimension[] levels = levelSizes;
+
+        MathTransform crs2Raster;
+        double[] bounds;
+
+        try {
+            // Corner based raster coordinates, through the calibration point model if the read rectifies
+            MathTransform raster2Crs = key.rectify ? getCalibrationTransform(PixelInCell.CELL_CORNER) : getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+
+            crs2Raster = ConcatenatedTransform.create(CRS.findMathTransform(key.crs, crs, true), raster2Crs.inverse());
+            bounds = getBorderBounds(ConcatenatedTransform.create(raster2Crs, CRS.findMathTransform(crs, key.crs, true)), levels[0]);
+        } catch (FactoryException | TransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        if (bounds == null || bounds[2] <= bounds[0] || bounds[3] <= bounds[1]) {
+            return null;
+        }
+
+        // About the resolution of the level, with a pixel of margin around the map
+        int width = Math.min(levels[key.level].width, MAX_WARP_GRID_SIZE);
+        int height = Math.min(levels[key.level].height, MAX_WARP_GRID_SIZE);
+
+        double resX = (bounds[2] - bounds[0]) / width;
+        double resY = (bounds[3] - bounds[1]) / height;
+
+        AffineTransform grid2Crs = new AffineTransform(resX, 0, 0, -resY, bounds[0] - resX, bounds[3] + resY);
+
+        AffineTransform crs2Grid;
+
+        try {
+            crs2Grid = grid2Crs.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        OziWarpGrid warpGrid = OziWarpGrid.create(ConcatenatedTransform.create(ProjectiveTransform.create(grid2Crs), crs2Raster),
+                width + 2, height + 2, raster2Level, key.tolerance);
+
+        WarpModel warpModel = new WarpModel(warpGrid, crs2Grid, width + 2, height + 2);
+
+        synchronized (warpModels) {
+            warpModels.put(key, warpModel);
+        }
+
+        return warpModel;
+    }
+
+    /**
+     * @return minimum x, minimum y, maximum x and maximum y of points along the border of the raster or null if none
+     * of them could be transformed
+     */
+    private static double[] getBorderBounds(MathTransform raster2Crs, Dimension rasterSize) {
+        double[] bounds = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        double[] point = new double[2];
+
+        for (int k = 0; k <= BORDER_SAMPLES; ++k) {
+            double x = rasterSize.getWidth() * k / BORDER_SAMPLES;
+            double y = rasterSize.getHeight() * k / BORDER_SAMPLES;
+
+            for (double[] border : new double[][]{{x, 0}, {x, rasterSize.getHeight()}, {0, y}, {rasterSize.getWidth(), y}}) {
+                try {
+                    raster2Crs.transform(border, 0, point, 0, 1);
+                } catch (TransformException e) {
+                    continue;
+                }
+
+                if (Double.isNaN(point[0]) || Double.isNaN(point[1])) {
+                    continue;
+                }
+
+                bounds[0] = Math.min(bounds[0], point[0]);
+                bounds[1] = Math.min(bounds[1], point[1]);
+                bounds[2] = Math.max(bounds[2], point[0]);
+                bounds[3] = Math.max(bounds[3], point[1]);
+            }
+        }
+
+        return bounds[0] <= bounds[2] ? bounds : null;
+    }
+
+    /**
+     * Warp grid from the pixels of a grid over the envelope of the map in a target coordinate reference system to
+     * corner based raster coordinates.
+     */
+    private static final class WarpModel {
+        private final OziWarpGrid warpGrid;
+        private final AffineTransform crs2Grid;
+        private final int width;
+        private final int height;
+
+        WarpModel(OziWarpGrid warpGrid, AffineTransform crs2Grid, int width, int height) {
+            this.warpGrid = warpGrid;
+            this.crs2Grid = crs2Grid;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static final class WarpKey {
+        private final CoordinateReferenceSystem crs;
+        private final int level;
+        private final double tolerance;
+        private final boolean rectify;
+
+        WarpKey(CoordinateReferenceSystem crs, int level, double tolerance, boolean rectify) {
+            this.crs = crs;
+            this.level = level;
+            this.tolerance = tolerance;
+            this.rectify = rectify;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof WarpKey)) {
+                return false;
+            }
+
+            WarpKey warpKey = (WarpKey) o;
+
+            return level == warpKey.level && Double.compare(tolerance, warpKey.tolerance) == 0 && rectify == warpKey.rectify &&
+                    crs.equals(warpKey.crs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(crs, level, tolerance, rectify);
+        }
+    }
+
+    /**
+     * Reads an image of an overview file with a deferred JAI operation.
+     */
+    private static PlanarImage readImage(File imageFile, int imageChoice, ImageReadParam readP, Hints readHints) throws IOException {
+        ImageInputStreamSpi levelInStreamSPI = OziRasterFiles.getInputStreamSpi(imageFile);
+
+        ImageReaderSpi levelReaderSpi;
+
+        try (ImageInputStream inStream = OziRasterFiles.createInputStream(levelInStreamSPI, imageFile)) {
+            levelReaderSpi = OziRasterFiles.getReaderSpi(imageFile, inStream);
+        }
+
+        return readImage(levelInStreamSPI, levelReaderSpi, imageFile, imageChoice, readP, readHints);
+    }
+
+    private static PlanarImage readImage(ImageInputStreamSpi inStreamSPI, ImageReaderSpi readerSpi, File imageFile, int imageChoice, ImageReadParam readP, Hints readHints) throws IOException {
         final ParameterBlock pbjRead = new ParameterBlock();
 
-        pbjRead.add(
-                inStreamSPI.createInputStreamInstance(
-                        oziMapFileReader.getRasterFile(), ImageIO.getUseCache(), ImageIO.getCacheDirectory()));
+        pbjRead.add(OziRasterFiles.createInputStream(inStreamSPI, imageFile));
 
         pbjRead.add(imageChoice);
         pbjRead.add(Boolean.FALSE);
@@ -183,12 +1018,311 @@ public final class OziMapReader extends AbstractGridCoverage2DReader {
         pbjRead.add(null);
         pbjRead.add(null);
         pbjRead.add(readP);
-        pbjRead.add(imageReaderSpi.createReaderInstance());
-        final RenderedOp coverageRaster = JAI.create("ImageRead", pbjRead, readHints);
+        pbjRead.add(OziMetrics.listen(readerSpi.createReaderInstance()));
+
+        return JAI.create("ImageRead", pbjRead, readHints);
+    }
+
+    @Override
+    public void dispose() {
+        super.dispose();
+
+        if (countedOpen.compareAndSet(true, false)) {
+            OziMetrics.mapReaderDisposed();
+        }
+
+        // Only idle readers are released, the reader may be shared and stays usable
+        for (OziImageReaderPool pool : new OziImageReaderPool[]{readerPool, parallelReaderPool}) {
+            if (pool != null) {
+                pool.clear();
+            }
+        }
+    }
+
+    private OziImageReaderPool getReaderPool() {
+        if (readerPoolSize <= 0) {
+            return null;
+        }
+
+        OziImageReaderPool pool = readerPool;
+
+        if (pool == null) {
+            synchronized (this) {
+                pool = readerPool;
+
+                if (pool == null) {
+                    pool = readerPool = new OziImageReaderPool(oziMapFileReader.getRasterFile(), inStreamSPI, imageReaderSpi, readerPoolSize);
+                }
+            }
+        }
+
+        return pool;
+    }
+
+    /**
+     * Readers for parallel reads, the pool of {@link #READER_POOL_SIZE} if any, otherwise a reader per worker.
+     */
+    private OziImageReaderPool getParallelReaderPool(ForkJoinPool forkJoinPool) {
+        OziImageReaderPool pool = getReaderPool();
+
+        if (pool != null) {
+            return pool;
+        }
+
+        pool = parallelReaderPool;
+
+        if (pool == null) {
+            synchronized (this) {
+                pool = parallelReaderPool;
+
+                if (pool == null) {
+                    pool = parallelReaderPool = new OziImageReaderPool(oziMapFileReader.getRasterFile(), inStreamSPI, imageReaderSpi, forkJoinPool.getParallelism());
+                }
+            }
+        }
 
-        AffineTransform rescaledRaster2Model = getRescaledRasterToModel(coverageRaster);
+        return pool;
+    }
+
+    /**
+     * Reads the requested region from the tile cache, missing tiles are decoded from the raster or its overview.
+     */
+    private BufferedImage readCached(OziTileCache tileCache, OziOverviewPyramid pyramid, int imageChoice, ImageReadParam readP) throws IOException {
+        try (LevelDecoder decoder = createDecoder(pyramid, imageChoice)) {
+            return tileCache.read(OziTileCache.getRasterId(oziMapFileReader.getRasterFile()), imageChoice, levelSizes[imageChoice], readP, decoder);
+        }
+    }
+
+    /**
+     * Reads several grid geometries at once.
+     * <p>
+     * The source regions of all requests are collected first, tiles they share are decoded once and the tiles are
+     * decoded row by row in the order of the file, with a single reader and stream per image level. Tiles go through
+     * the {@link #TILE_CACHE} if set, otherwise they are kept on the heap for this call only. Requests in another
+     * coordinate reference system are warped one by one, as {@link #read(GeneralParameterValue[])} does. Batch reads
+     * use the affine calibration, they are not rectified through the {@link #GCP_MODEL}.
+     *
+     * @param requests grid geometries to read
+     * @return coverage per request, in the order of the requests, null for requests that do not intersect the raster
+     * @throws IOException if the raster could not be read
+     */
+    public List<GridCoverage2D> readBatch(List<GridGeometry2D> requests) throws IOException {
+        OziTileCache tileCache = getTileCache();
+
+        return readBatch(requests, tileCache != null ? tileCache : OziTileCache.heap());
+    }
+
+    /**
+     * Reads several grid geometries at once through the given tile cache instead of the {@link #TILE_CACHE}.
+     */
+    List<GridCoverage2D> readBatch(List<GridGeometry2D> requests, OziTileCache tileCache) throws IOException {
+        try {
+            return readCoverages(requests, tileCache);
+        } catch (IOException | RuntimeException e) {
+            OziMetrics.error(e);
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return the {@link #TILE_CACHE} or null
+     */
+    OziTileCache getTileCache() {
+        Object tileCache = hints.get(TILE_CACHE);
+
+        return tileCache instanceof OziTileCache ? (OziTileCache) tileCache : null;
+    }
+
+    private List<GridCoverage2D> readCoverages(List<GridGeometry2D> requests, OziTileCache tileCache) throws IOException {
+        ensureRasterOpen();
+        checkOverviews();
+
+        OziOverviewPyramid pyramid = overviewPyramid;
+        Dimension[] levels = levelSizes;
+
+        String rasterId = OziTileCache.getRasterId(oziMapFileReader.getRasterFile());
+
+        int[] imageChoices = new int[requests.size()];
+        ImageReadParam[] readPs = new ImageReadParam[requests.size()];
+        GridCoverage2D[] reprojected = new GridCoverage2D[requests.size()];
+        Map<Integer, List<ImageReadParam>> levelReads = new TreeMap<>();
+
+        for (int i = 0; i < requests.size(); ++i) {
+            GridGeometry2D gg = requests.get(i);
+
+            if (gg.isDefined(GridGeometry2D.CRS_BITMASK) && !CRS.equalsIgnoreMetadata(gg.getCoordinateReferenceSystem2D(), crs)) {
+                reprojected[i] = readReprojected(gg, null, OziMapFormat.WARP_TOLERANCE.getDefaultValue(), false, new Hints());
+                continue;
+            }
+
+            readPs[i] = new ImageReadParam();
+
+            GeneralEnvelope requestedEnvelope = new GeneralEnvelope((Envelope) gg.getEnvelope2D());
+            Rectangle region;
+
+            try {
+                imageChoices[i] = setReadParams(null, readPs[i], requestedEnvelope, gg.getGridRange2D().getBounds());
+                region = getSourceRegion(imageChoices[i], readPs[i], requestedEnvelope);
+            } catch (TransformException e) {
+                throw new DataSourceException(e);
+            }
+
+            if (region == null) {
+                readPs[i] = null;
+                continue;
+            }
+
+            readPs[i].setSourceRegion(region);
+
+            levelReads.computeIfAbsent(imageChoices[i], level -> new ArrayList<>()).add(readPs[i]);
+        }
+
+        BufferedImage[] images = new BufferedImage[requests.size()];
+
+        for (Map.Entry<Integer, List<ImageReadParam>> level : levelReads.entrySet()) {
+            int imageChoice = level.getKey();
+
+            try (LevelDecoder decoder = createDecoder(pyramid, imageChoice)) {
+                tileCache.prefetch(rasterId, imageChoice, levels[imageChoice], level.getValue(), decoder);
+
+                for (int i = 0; i < requests.size(); ++i) {
+                    if (readPs[i] != null && imageChoices[i] == imageChoice) {
+                        images[i] = tileCache.read(rasterId, imageChoice, levels[imageChoice], readPs[i], decoder);
+                    }
+                }
+            }
+        }
+
+        List<GridCoverage2D> coverages = new ArrayList<>(requests.size());
+
+        for (int i = 0; i < requests.size(); ++i) {
+            if (readPs[i] == null) {
+                // Warped, or null if the request does not intersect the raster, as read returns
+                coverages.add(reprojected[i]);
+                continue;
+            }
+
+            coverages.add(createImageCoverage(PlanarImage.wrapRenderedImage(images[i]), getRegionToModel(imageChoices[i], readPs[i])));
+        }
+
+        return coverages;
+    }
+
+    private LevelDecoder createDecoder(OziOverviewPyramid pyramid, int imageChoice) {
+        if (pyramid != null && imageChoice > 0) {
+            return new LevelDecoder(pyramid.getLevelFile(imageChoice), 0, null, null, null);
+        }
+
+        return new LevelDecoder(oziMapFileReader.getRasterFile(), imageChoice, inStreamSPI, imageReaderSpi, getReaderPool());
+    }
+
+    /**
+     * Decodes regions of an image with a leased reader, or with a reader and stream opened on the first region.
+     */
+    private static final class LevelDecoder implements OziTileCache.Decoder, Closeable {
+        private final File imageFile;
+        private final int imageIndex;
+        private final ImageInputStreamSpi inStreamSpi;
+        private final ImageReaderSpi readerSpi;
+        private final OziImageReaderPool pool;
+        private ImageInputStream inStream;
+        private ImageReader imageReader;
+
+        LevelDecoder(File imageFile, int imageIndex, ImageInputStreamSpi inStreamSpi, ImageReaderSpi readerSpi, OziImageReaderPool pool) {
+            this.imageFile = imageFile;
+            this.imageIndex = imageIndex;
+            this.inStreamSpi = inStreamSpi;
+            this.readerSpi = readerSpi;
+            this.pool = pool;
+        }
+
+        @Override
+        public BufferedImage decode(Rectangle region, int xSubsampling, int ySubsampling) throws IOException {
+            ImageReadParam regionP = new ImageReadParam();
+            regionP.setSourceRegion(region);
+            regionP.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+
+            if (pool != null) {
+                return readPooled(pool, imageIndex, regionP);
+            }
+
+            if (imageReader == null) {
+                inStream = OziRasterFiles.createInputStream(
+                        inStreamSpi != null ? inStreamSpi : OziRasterFiles.getInputStreamSpi(imageFile), imageFile);
+
+                imageReader = OziMetrics.listen((readerSpi != null ? readerSpi : OziRasterFiles.getReaderSpi(imageFile, inStream)).createReaderInstance());
+                imageReader.setInput(inStream, false, true);
+            }
+
+            return imageReader.read(imageIndex, regionP);
+        }
+
+        @Override
+        public void close() {
+            if (imageReader != null) {
+                imageReader.dispose();
+            }
+
+            if (inStream != null) {
+                try {
+                    inStream.close();
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Stream of " + imageFile + " could not be closed", e);
+                }
+            }
+        }
+    }
+
+    private static BufferedImage decodeFile(File imageFile, int imageChoice, ImageReadParam readP) throws IOException {
+        try (ImageInputStream inStream = OziRasterFiles.createInputStream(OziRasterFiles.getInputStreamSpi(imageFile), imageFile)) {
+            return decodeImage(OziRasterFiles.getReaderSpi(imageFile, inStream), inStream, imageChoice, readP);
+        }
+    }
+
+    private static BufferedImage decodeImage(ImageReaderSpi readerSpi, ImageInputStream inStream, int imageChoice, ImageReadParam readP) throws IOException {
+        ImageReader imageReader = OziMetrics.listen(readerSpi.createReaderInstance());
+
+        try {
+            imageReader.setInput(inStream, false, true);
+
+            return imageReader.read(imageChoice, readP);
+        } finally {
+            imageReader.dispose();
+        }
+    }
+
+    /**
+     * Decodes the requested region with a leased reader.
+     */
+    private static BufferedImage readPooled(OziImageReaderPool pool, int imageChoice, ImageReadParam readP) throws IOException {
+        try (OziImageReaderPool.Lease lease = pool.lease()) {
+            try {
+                return lease.getReader().read(imageChoice, readP);
+            } catch (IOException | RuntimeException e) {
+                lease.invalidate();
+
+                throw e;
+            }
+        }
+    }
+
+    private static RenderedImage applyLayout(BufferedImage image, Hints readHints) {
+        if (readHints.containsKey(JAI.KEY_IMAGE_LAYOUT)) {
+            // Apply the tile layout requested by SUGGESTED_TILE_SIZE
+            final ParameterBlock pbjFormat = new ParameterBlock();
+
+            pbjFormat.addSource(image);
+            pbjFormat.add(image.getSampleModel().getDataType());
+
+            return JAI.create("Format", pbjFormat, readHints);
+        }
+
+        return image;
+    }
 
-        return createImageCoverage(coverageRaster, ProjectiveTransform.create(rescaledRaster2Model));
+    File getRasterFile() {
+        return oziMapFileReader.getRasterFile();
     }
 
     @Override
@@ -0,0 +1,433 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.data.DataSourceException;
+import org.geotools.factory.Hints;
+import org.geotools.util.URLs;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Cache of {@link OziMapReader} instances shared by {@link OziMapFormat#getReader(Object, Hints)} callers.
+ * <p>
+ * Readers are keyed by the canonical path of the .map file and the hints, and evicted when the cache is full or
+ * when they were not requested for the idle timeout. A {@link WatchService} invalidates a reader as soon as its
+ * .map file or raster file changes on disk.
+ * <p>
+ * {@link OziMapReader} keeps no open streams between reads, so a shared instance can be used concurrently and
+ * {@link OziMapReader#dispose()} by one of the callers does not affect the others.
+ *
+ * @see OziMapFormat#setReaderCache(OziMapReaderCache)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziMapReaderCache implements Closeable {
+    private static final Logger LOGGER = getLogger(OziMapReaderCache.class);
+
+    private final int maxSize;
+    private final long maxIdleNanos;
+    private final Map<Key, Entry> entries;
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+    private final Map<Path, Integer> watchCounts = new HashMap<>();
+    // Invalidation count per invalidated path, kept while readers are being created
+    private final Map<Path, Long> invalidations = new HashMap<>();
+    private long invalidationCount;
+    private int pendingReaders;
+    private final WatchService watchService;
+    private final Thread watcher;
+
+    /**
+     * @param maxSize  maximum number of cached readers
+     * @param maxIdle  readers that were not requested for this time are evicted
+     * @param timeUnit unit of maxIdle
+     * @throws IOException if the file watcher could not be started
+     */
+    public OziMapReaderCache(int maxSize, long maxIdle, TimeUnit timeUnit) throws IOException {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+
+        this.maxSize = maxSize;
+        this.maxIdleNanos = timeUnit.toNanos(maxIdle);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.watchService = FileSystems.getDefault().newWatchService();
+
+        watcher = new Thread(this::processEvents, "gt-ozi reader cache watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Returns a cached reader or creates a new one.
+     *
+     * @param source .map file as {@link File}, {@link Path} or {@link URL}
+     * @param hints  reader hints
+     * @return reader
+     * @throws DataSourceException if the reader could not be created
+     */
+    public OziMapReader get(Object source, Hints hints) throws DataSourceException {
+        File mapFile = toCanonicalFile(source);
+
+        if (mapFile == null) {
+            // Not a file, nothing to key on
+            return new OziMapReader(source, hints);
+        }
+
+        Key key = new Key(mapFile.toPath(), hints);
+
+        while (true) {
+            long stamp;
+
+            synchronized (entries) {
+                evictIdle();
+
+                Entry entry = entries.get(key);
+
+                if (entry != null) {
+                    entry.lastAccess = System.nanoTime();
+                    return entry.reader;
+                }
+
+                stamp = invalidationCount;
+
+                ++pendingReaders;
+            }
+
+            OziMapReader reader = null;
+
+            try {
+                reader = new OziMapReader(mapFile, hints);
+
+                Path rasterFile = toRealPath(reader.getRasterFile().toPath());
+
+                synchronized (entries) {
+                    Entry existing = entries.get(key);
+
+                    if (existing != null) {
+                        // Another caller was faster
+                        reader.dispose();
+
+                        return existing.reader;
+                    }
+
+                    if (isInvalidatedSince(stamp, key.mapFile, rasterFile)) {
+                        // A file changed while the reader was being created, it may have seen the old content
+                        reader.dispose();
+
+                        continue;
+                    }
+
+                    entries.put(key, new Entry(reader, key.mapFile, rasterFile));
+
+                    watch(key.mapFile);
+                    watch(rasterFile);
+
+                    while (entries.size() > maxSize) {
+                        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+
+                        remove(it, it.next().getValue());
+                    }
+                }
+
+                return reader;
+            } catch (RuntimeException e) {
+                if (reader != null) {
+                    reader.dispose();
+                }
+
+                throw e;
+            } finally {
+                synchronized (entries) {
+                    if (--pendingReaders == 0) {
+                        // Only readers being created need to know what was invalidated
+                        invalidations.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if one of the files or their directories was invalidated after the given stamp
+     */
+    private boolean isInvalidatedSince(long stamp, Path mapFile, Path rasterFile) {
+        for (Path path : new Path[]{mapFile, rasterFile, mapFile.getParent(), rasterFile.getParent()}) {
+            Long invalidated = path != null ? invalidations.get(path) : null;
+
+            if (invalidated != null && invalidated > stamp) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void recordInvalidation(Path path) {
+        if (pendingReaders > 0) {
+            invalidations.put(path, ++invalidationCount);
+        }
+    }
+
+    /**
+     * Removes all readers of the given .map or raster file.
+     *
+     * @param file .map or raster file
+     */
+    public void invalidate(Path file) {
+        Path changed = toRealPath(file);
+
+        synchronized (entries) {
+            recordInvalidation(changed);
+
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+
+                if (entry.mapFile.equals(changed) || entry.rasterFile.equals(changed)) {
+                    remove(it, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of cached readers
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.interrupt();
+
+        synchronized (entries) {
+            for (Entry entry : entries.values()) {
+                entry.reader.dispose();
+            }
+
+            entries.clear();
+            watchKeys.clear();
+            watchCounts.clear();
+        }
+
+        watchService.close();
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Entry entry = it.next().getValue();
+
+            if (now - entry.lastAccess > maxIdleNanos) {
+                remove(it, entry);
+            }
+        }
+    }
+
+    private void remove(Iterator<Map.Entry<Key, Entry>> it, Entry entry) {
+        it.remove();
+
+        // Callers that still hold the reader can go on using it
+        entry.reader.dispose();
+
+        unwatch(entry.mapFile);
+        unwatch(entry.rasterFile);
+    }
+
+    private void watch(Path file) {
+        Path dir = file.getParent();
+
+        if (dir == null) {
+            return;
+        }
+
+        Integer count = watchCounts.get(dir);
+
+        if (count == null) {
+            try {
+                watchKeys.put(dir, dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+            } catch (IOException | ClosedWatchServiceException e) {
+                LOGGER.log(Level.WARNING, "Directory " + dir + " could not be watched", e);
+            }
+
+            count = 0;
+        }
+
+        watchCounts.put(dir, count + 1);
+    }
+
+    private void unwatch(Path file) {
+        Path dir = file.getParent();
+
+        Integer count = dir != null ? watchCounts.get(dir) : null;
+
+        if (count == null) {
+            return;
+        }
+
+        if (count > 1) {
+            watchCounts.put(dir, count - 1);
+        } else {
+            watchCounts.remove(dir);
+
+            WatchKey watchKey = watchKeys.remove(dir);
+
+            if (watchKey != null) {
+                watchKey.cancel();
+            }
+        }
+    }
+
+    private void processEvents() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey watchKey = watchService.poll(1, TimeUnit.SECONDS);
+
+                if (watchKey == null) {
+                    synchronized (entries) {
+                        evictIdle();
+                    }
+
+                    continue;
+                }
+
+                Path dir = (Path) watchKey.watchable();
+
+                for (WatchEvent<?> event : watchKey.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        // Events were lost, nothing in this directory can be trusted
+                        invalidateDirectory(dir);
+                    } else {
+                        invalidate(dir.resolve((Path) event.context()));
+                    }
+                }
+
+                watchKey.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The cache is closed
+        }
+    }
+
+    private void invalidateDirectory(Path dir) {
+        synchronized (entries) {
+            recordInvalidation(dir);
+
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+
+                if (dir.equals(entry.mapFile.getParent()) || dir.equals(entry.rasterFile.getParent())) {
+                    remove(it, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves symbolic links, so a change of the link target invalidates the readers. A file that does not exist,
+     * such as a deleted one, is resolved through its directory.
+     */
+    private static Path toRealPath(Path file) {
+        try {
+            return file.toRealPath();
+        } catch (IOException e) {
+            Path absolute = file.toAbsolutePath().normalize();
+            Path dir = absolute.getParent();
+
+            if (dir != null && absolute.getFileName() != null) {
+                try {
+                    return dir.toRealPath().resolve(absolute.getFileName());
+                } catch (IOException ignored) {
+                    // The directory does not exist either
+                }
+            }
+
+            return absolute;
+        }
+    }
+
+    private static File toCanonicalFile(Object source) {
+        File file;
+
+        if (source instanceof File) {
+            file = (File) source;
+        } else if (source instanceof Path) {
+            file = ((Path) source).toFile();
+        } else if (source instanceof URL) {
+            file = URLs.urlToFile((URL) source);
+        } else {
+            return null;
+        }
+
+        if (file == null) {
+            return null;
+        }
+
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final class Key {
+        private final Path mapFile;
+        private final Hints hints;
+
+        Key(Path mapFile, Hints hints) {
+            this.mapFile = mapFile;
+            this.hints = hints != null ? new Hints(hints) : new Hints();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+
+            return mapFile.equals(key.mapFile) && hints.equals(key.hints);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mapFile, hints);
+        }
+    }
+
+    private static final class Entry {
+        private final OziMapReader reader;
+        private final Path mapFile;
+        private final Path rasterFile;
+        private long lastAccess = System.nanoTime();
+
+        Entry(OziMapReader reader, Path mapFile, Path rasterFile) {
+            this.reader = reader;
+            this.mapFile = mapFile;
+            this.rasterFile = rasterFile;
+        }
+    }
+}
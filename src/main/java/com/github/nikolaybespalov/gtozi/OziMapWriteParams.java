@@ -0,0 +1,33 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+
+import javax.imageio.ImageWriteParam;
+import java.util.Locale;
+
+/**
+ * Write parameters of {@link OziMapWriter}: the tile size and the compression of the raster.
+ * <p>
+ * Tiles are {@value OziMapWriter#DEFAULT_TILE_SIZE} pixels square and Deflate compressed unless set explicitly,
+ * the compression types are {@value #DEFLATE} and {@value #NONE}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziMapWriteParams extends GeoToolsWriteParams {
+    public static final String DEFLATE = "Deflate";
+    public static final String NONE = "None";
+
+    public OziMapWriteParams() {
+        super(new RasterWriteParam());
+    }
+
+    private static final class RasterWriteParam extends ImageWriteParam {
+        RasterWriteParam() {
+            super(Locale.getDefault());
+
+            canWriteTiles = true;
+            canWriteCompressed = true;
+            compressionTypes = new String[]{DEFLATE, NONE};
+            compressionType = DEFLATE;
+        }
+    }
+}
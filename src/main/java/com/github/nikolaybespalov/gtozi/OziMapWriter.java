@@ -0,0 +1,340 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverageWriter;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.data.DataSourceException;
+import org.geotools.factory.Hints;
+import org.geotools.referencing.AbstractIdentifiedObject;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.GeodeticCalculator;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.referencing.cs.DefaultEllipsoidalCS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.geotools.util.URLs;
+import org.opengis.coverage.grid.Format;
+import org.opengis.coverage.grid.GridCoverage;
+import org.opengis.coverage.grid.GridCoverageWriter;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.parameter.ParameterValueGroup;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.crs.ProjectedCRS;
+import org.opengis.referencing.crs.SingleCRS;
+import org.opengis.referencing.operation.Conversion;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import javax.imageio.ImageWriteParam;
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import java.awt.geom.AffineTransform;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes a coverage as a .map file and a tiled TIFF raster next to it.
+ * <p>
+ * The .map file declares the datum and the projection of the coverage CRS, Latitude/Longitude, Mercator and
+ * Transverse Mercator on any datum of the OziExplorer list, and calibrates the raster with a grid of 3x3 points and
+ * the MMPLL corners in latitude and longitude of that datum. The raster is written one row of tiles at a time from
+ * the rendered image of the coverage, see {@link OziTiffWriter}, so a deferred coverage with a tiled image, such as
+ * one read with {@link AbstractGridFormat#SUGGESTED_TILE_SIZE}, is exported with a constant amount of memory.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziMapWriter extends AbstractGridCoverageWriter implements GridCoverageWriter {
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private static final int MAX_POINT_COUNT = 30;
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final File mapFile;
+
+    public OziMapWriter(Object destination) throws DataSourceException {
+        this(destination, null);
+    }
+
+    public OziMapWriter(Object destination, Hints hints) throws DataSourceException {
+        if (destination instanceof Path) {
+            mapFile = ((Path) destination).toFile();
+        } else if (destination instanceof File) {
+            mapFile = (File) destination;
+        } else if (destination instanceof URL) {
+            mapFile = URLs.urlToFile((URL) destination);
+        } else if (destination instanceof String) {
+            mapFile = new File((String) destination);
+        } else {
+            throw new DataSourceException("Unsupported destination: " + destination);
+        }
+
+        if (mapFile == null) {
+            throw new DataSourceException("Destination is not a file: " + destination);
+        }
+
+        this.destination = destination;
+        this.hints = hints != null ? new Hints(hints) : new Hints();
+    }
+
+    @Override
+    public Format getFormat() {
+        return new OziMapFormat();
+    }
+
+    /**
+     * @return raster file written next to the .map file
+     */
+    public File getRasterFile() {
+        return new File(mapFile.getAbsoluteFile().getParentFile(), FilenameUtils.getBaseName(mapFile.getName()) + ".tif");
+    }
+
+    @Override
+    public void write(GridCoverage coverage, GeneralParameterValue[] parameters) throws IllegalArgumentException, IOException {
+        if (!(coverage instanceof GridCoverage2D)) {
+            throw new IllegalArgumentException("Only GridCoverage2D can be written");
+        }
+
+        GridCoverage2D coverage2D = (GridCoverage2D) coverage;
+
+        int tileWidth = DEFAULT_TILE_SIZE;
+        int tileHeight = DEFAULT_TILE_SIZE;
+        boolean deflate = true;
+
+        if (parameters != null) {
+            for (GeneralParameterValue parameter : parameters) {
+                if (!parameter.getDescriptor().getName().equals(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName())) {
+                    continue;
+                }
+
+                GeoToolsWriteParams writeParams = (GeoToolsWriteParams) ((ParameterValue) parameter).getValue();
+
+                if (writeParams == null) {
+                    continue;
+                }
+
+                if (writeParams.getTilingMode() == ImageWriteParam.MODE_EXPLICIT) {
+                    tileWidth = writeParams.getTileWidth();
+                    tileHeight = writeParams.getTileHeight();
+                }
+
+                if (writeParams.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+                    deflate = !OziMapWriteParams.NONE.equals(writeParams.getCompressionType());
+                } else if (writeParams.getCompressionMode() == ImageWriteParam.MODE_DISABLED) {
+                    deflate = false;
+                }
+            }
+        }
+
+        RenderedImage image = coverage2D.getRenderedImage();
+
+        GridGeometry2D gridGeometry = coverage2D.getGridGeometry();
+        GridEnvelope2D gridRange = gridGeometry.getGridRange2D();
+
+        // The reader treats the pixel coordinates of the calibration points as pixel centers
+        MathTransform raster2Crs = ConcatenatedTransform.create(
+                ProjectiveTransform.create(AffineTransform.getTranslateInstance(gridRange.x, gridRange.y)),
+                gridGeometry.getGridToCRS2D(PixelOrientation.CENTER));
+
+        File rasterFile = getRasterFile();
+
+        String title = coverage2D.getName() != null ? coverage2D.getName().toString() : FilenameUtils.getBaseName(mapFile.getName());
+
+        // The .map file is built first, so an unsupported CRS fails before the raster is written
+        String map = createMap(title.replaceAll("[\\r\\n]+", " "), rasterFile.getName(),
+                coverage2D.getCoordinateReferenceSystem2D(), raster2Crs, image.getWidth(), image.getHeight());
+
+        new OziTiffWriter(tileWidth, tileHeight, deflate).write(image, rasterFile);
+
+        try (Writer writer = Files.newBufferedWriter(mapFile.toPath(), OziMapFileParser.CHARSET)) {
+            writer.write(map);
+        }
+    }
+
+    private static String createMap(String title, String rasterName, CoordinateReferenceSystem crs, MathTransform raster2Crs, int width, int height) throws DataSourceException {
+        SingleCRS horizontalCrs = CRS.getHorizontalCRS(crs);
+
+        GeographicCRS geoCrs;
+        String projectionName;
+        String projectionSetup;
+
+        if (horizontalCrs instanceof GeographicCRS) {
+            geoCrs = (GeographicCRS) horizontalCrs;
+            projectionName = "Latitude/Longitude";
+            projectionSetup = "Projection Setup,,,,,,,,,,";
+        } else if (horizontalCrs instanceof ProjectedCRS) {
+            ProjectedCRS projectedCrs = (ProjectedCRS) horizontalCrs;
+            Conversion conversion = projectedCrs.getConversionFromBase();
+            ParameterValueGroup parameters = conversion.getParameterValues();
+
+            geoCrs = projectedCrs.getBaseCRS();
+
+            if (isMethod(conversion, parameters, "Mercator_1SP")) {
+                projectionName = "Mercator";
+            } else if (isMethod(conversion, parameters, "Transverse_Mercator")) {
+                projectionName = "Transverse Mercator";
+            } else {
+                throw new DataSourceException("Unsupported projection: " + conversion.getMethod().getName());
+            }
+
+            projectionSetup = "Projection Setup," +
+                    format(parameters.parameter("latitude_of_origin").doubleValue(NonSI.DEGREE_ANGLE)) + "," +
+                    format(parameters.parameter("central_meridian").doubleValue(NonSI.DEGREE_ANGLE)) + "," +
+                    format(parameters.parameter("scale_factor").doubleValue()) + "," +
+                    format(parameters.parameter("false_easting").doubleValue(SI.METER)) + "," +
+                    format(parameters.parameter("false_northing").doubleValue(SI.METER)) + ",,,,,";
+        } else {
+            throw new DataSourceException("Unsupported coordinate reference system: " + crs);
+        }
+
+        String datumName = OziDatumRegistry.findName(geoCrs.getDatum());
+
+        if (datumName == null) {
+            throw new DataSourceException("Unsupported datum: " + geoCrs.getDatum().getName());
+        }
+
+        MathTransform raster2LonLat;
+
+        try {
+            raster2LonLat = ConcatenatedTransform.create(raster2Crs,
+                    CRS.findMathTransform(horizontalCrs, new DefaultGeographicCRS(datumName, geoCrs.getDatum(), DefaultEllipsoidalCS.GEODETIC_2D), true));
+        } catch (FactoryException e) {
+            throw new DataSourceException(e);
+        }
+
+        StringBuilder map = new StringBuilder();
+
+        line(map, "OziExplorer Map Data File Version 2.2");
+        line(map, title);
+        line(map, rasterName);
+        line(map, "1 ,Map Code,");
+        line(map, datumName + ",WGS 84,   0.0000,   0.0000,WGS 84");
+        line(map, "Reserved 1");
+        line(map, "Reserved 2");
+        line(map, "Magnetic Variation,,,E");
+        line(map, "Map Projection," + projectionName + ",PolyCal,No,AutoCalOnly,No,BSBUseWPX,No");
+
+        int pointCount = 0;
+
+        try {
+            for (int y : getPointPositions(height)) {
+                for (int x : getPointPositions(width)) {
+                    double[] lonLat = transform(raster2LonLat, x, y);
+
+                    line(map, String.format(Locale.ROOT, "Point%02d,xy,%5d,%5d,in, deg,%s,%s, grid,   ,           ,           ,N",
+                            ++pointCount, x, y, formatDegrees(lonLat[1], 'N', 'S'), formatDegrees(normalizeLongitude(lonLat[0]), 'E', 'W')));
+                }
+            }
+
+            while (pointCount < MAX_POINT_COUNT) {
+                line(map, String.format(Locale.ROOT, "Point%02d,xy,     ,     ,in, deg,    ,        ,N,    ,        ,W, grid,   ,           ,           ,N", ++pointCount));
+            }
+
+            line(map, projectionSetup);
+            line(map, "Map Feature = MF ; Map Comment = MC     These follow if they exist");
+            line(map, "Track File = TF      These follow if they exist");
+            line(map, "Moving Map Parameters = MM?    These follow if they exist");
+            line(map, "MM0,Yes");
+            line(map, "MMPNUM,4");
+
+            int[][] corners = {{0, 0}, {width, 0}, {width, height}, {0, height}};
+
+            for (int i = 0; i < corners.length; ++i) {
+                line(map, "MMPXY," + (i + 1) + "," + corners[i][0] + "," + corners[i][1]);
+            }
+
+            for (int i = 0; i < corners.length; ++i) {
+                double[] lonLat = transform(raster2LonLat, corners[i][0], corners[i][1]);
+
+                line(map, String.format(Locale.ROOT, "MMPLL,%2d,%12.6f,%11.6f", i + 1, normalizeLongitude(lonLat[0]), lonLat[1]));
+            }
+
+            // Meters per pixel at the center of the map
+            double[] center = transform(raster2LonLat, width / 2, height / 2);
+            double[] next = transform(raster2LonLat, width / 2 + 1, height / 2);
+
+            GeodeticCalculator calculator = new GeodeticCalculator(geoCrs.getDatum().getEllipsoid());
+            calculator.setStartingGeographicPoint(normalizeLongitude(center[0]), center[1]);
+            calculator.setDestinationGeographicPoint(normalizeLongitude(next[0]), next[1]);
+
+            line(map, String.format(Locale.ROOT, "MM1B,%.6f", calculator.getOrthodromicDistance()));
+        } catch (TransformException | IllegalArgumentException e) {
+            throw new DataSourceException(e);
+        }
+
+        line(map, "MOP,Map Open Position,0,0");
+        line(map, "IWH,Map Image Width/Height," + width + "," + height);
+
+        return map.toString();
+    }
+
+    static boolean isMethod(Conversion conversion, ParameterValueGroup parameters, String name) {
+        return AbstractIdentifiedObject.nameMatches(conversion.getMethod(), name) ||
+                AbstractIdentifiedObject.nameMatches(parameters.getDescriptor(), name);
+    }
+
+    /**
+     * @return first, middle and last pixel of a side
+     */
+    private static Set<Integer> getPointPositions(int size) {
+        Set<Integer> positions = new TreeSet<>();
+
+        positions.add(0);
+        positions.add((size - 1) / 2);
+        positions.add(size - 1);
+
+        return positions;
+    }
+
+    private static double[] transform(MathTransform transform, double x, double y) throws TransformException {
+        double[] point = {x, y};
+
+        transform.transform(point, 0, point, 0, 1);
+
+        return point;
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        return longitude - 360 * Math.floor((longitude + 180) / 360);
+    }
+
+    /**
+     * @return degrees, minutes and hemisphere as the 'Point' lines have them
+     */
+    private static String formatDegrees(double value, char positive, char negative) {
+        double abs = Math.abs(value);
+
+        int degrees = (int) Math.floor(abs);
+        double minutes = Math.round((abs - degrees) * 60 * 1e6) / 1e6;
+
+        if (minutes >= 60) {
+            ++degrees;
+            minutes = 0;
+        }
+
+        return String.format(Locale.ROOT, "%4d,%11.6f,%c", degrees, minutes, value < 0 ? negative : positive);
+    }
+
+    private static String format(double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static void line(StringBuilder map, String line) {
+        map.append(line).append(LINE_SEPARATOR);
+    }
+}
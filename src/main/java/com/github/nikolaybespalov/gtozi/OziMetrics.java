@@ -0,0 +1,326 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Opt-in JMX metrics of parsing, opening and reading.
+ * <p>
+ * Metrics are disabled by default and cost a single field read per instrumented call while disabled. They are
+ * enabled by {@link #enable()} or by the {@code gtozi.metrics} system property, which registers the MBeans under the
+ * {@value #DOMAIN} domain:
+ * <ul>
+ * <li>{@code type=Metrics} - bytes read, tiles decoded, open streams and readers, errors by cause, see {@link OziMetricsMXBean}</li>
+ * <li>{@code type=Timer,name=MapFileReader} - construction of {@link OziMapFileReader}</li>
+ * <li>{@code type=Timer,name=MapReader} - construction of {@link OziMapReader}</li>
+ * <li>{@code type=Timer,name=Read,level=N} - reads of the image level N, see {@link OziTimerMXBean}</li>
+ * </ul>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziMetrics {
+    public static final String DOMAIN = "com.github.nikolaybespalov.gtozi";
+
+    private static final Logger LOGGER = getLogger(OziMetrics.class);
+
+    private static final OziTimer MAP_FILE_READER = new OziTimer();
+    private static final OziTimer MAP_READER = new OziTimer();
+    private static final Map<Integer, OziTimer> READS = new ConcurrentHashMap<>();
+    private static final LongAdder BYTES_READ = new LongAdder();
+    private static final LongAdder TILES_DECODED = new LongAdder();
+    private static final LongAdder OPEN_STREAMS = new LongAdder();
+    private static final LongAdder OPEN_READERS = new LongAdder();
+    private static final Map<String, LongAdder> ERRORS = new ConcurrentHashMap<>();
+
+    private static final IIOReadProgressListener TILE_LISTENER = new TileListener();
+
+    private static volatile boolean enabled;
+
+    static {
+        if (Boolean.getBoolean("gtozi.metrics")) {
+            enable();
+        }
+    }
+
+    private OziMetrics() {
+    }
+
+    /**
+     * Starts recording and registers the MBeans with the platform MBean server.
+     */
+    public static synchronized void enable() {
+        if (enabled) {
+            return;
+        }
+
+        register(new Metrics(), "type=Metrics");
+        register(MAP_FILE_READER, "type=Timer,name=MapFileReader");
+        register(MAP_READER, "type=Timer,name=MapReader");
+
+        for (Map.Entry<Integer, OziTimer> read : READS.entrySet()) {
+            register(read.getValue(), getReadName(read.getKey()));
+        }
+
+        enabled = true;
+    }
+
+    /**
+     * Stops recording and unregisters the MBeans. Recorded values are kept until the next {@link #enable()}.
+     */
+    public static synchronized void disable() {
+        if (!enabled) {
+            return;
+        }
+
+        enabled = false;
+
+        unregister("type=Metrics");
+        unregister("type=Timer,name=MapFileReader");
+        unregister("type=Timer,name=MapReader");
+
+        for (Integer level : READS.keySet()) {
+            unregister(getReadName(level));
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return start time of a timed operation, or 0 if metrics are disabled
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    static void mapFileReaderCreated(long start) {
+        if (start != 0) {
+            MAP_FILE_READER.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return true if the reader is counted as open and has to be passed to {@link #mapReaderDisposed()}
+     */
+    static boolean mapReaderCreated(long start) {
+        if (start == 0 || !enabled) {
+            return false;
+        }
+
+        MAP_READER.record(System.nanoTime() - start);
+        OPEN_READERS.increment();
+
+        return true;
+    }
+
+    static void mapReaderDisposed() {
+        OPEN_READERS.decrement();
+    }
+
+    static void read(int level, long start) {
+        if (start == 0) {
+            return;
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        OziTimer timer = READS.get(level);
+
+        if (timer == null) {
+            synchronized (OziMetrics.class) {
+                timer = READS.get(level);
+
+                if (timer == null) {
+                    timer = new OziTimer();
+
+                    READS.put(level, timer);
+
+                    if (enabled) {
+                        register(timer, getReadName(level));
+                    }
+                }
+            }
+        }
+
+        timer.record(nanos);
+    }
+
+    static void bytesRead(long n) {
+        if (enabled && n > 0) {
+            BYTES_READ.add(n);
+        }
+    }
+
+    /**
+     * @return true if the stream is counted as open and has to be passed to {@link #streamClosed()}
+     */
+    static boolean streamOpened() {
+        if (!enabled) {
+            return false;
+        }
+
+        OPEN_STREAMS.increment();
+
+        return true;
+    }
+
+    static void streamClosed() {
+        OPEN_STREAMS.decrement();
+    }
+
+    /**
+     * Counts the images and tiles the reader decodes.
+     */
+    static ImageReader listen(ImageReader reader) {
+        if (enabled) {
+            reader.addIIOReadProgressListener(TILE_LISTENER);
+        }
+
+        return reader;
+    }
+
+    static void error(Throwable e) {
+        if (!enabled) {
+            return;
+        }
+
+        Throwable cause = e;
+
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+
+        ERRORS.computeIfAbsent(cause.getClass().getSimpleName(), name -> new LongAdder()).increment();
+    }
+
+    private static String getReadName(int level) {
+        return "type=Timer,name=Read,level=" + level;
+    }
+
+    private static void register(Object mbean, String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "MBean " + name + " could not be registered", e);
+        }
+    }
+
+    private static void unregister(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + name);
+
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "MBean " + name + " could not be unregistered", e);
+        }
+    }
+
+    private static final class Metrics implements OziMetricsMXBean {
+        @Override
+        public long getBytesRead() {
+            return BYTES_READ.sum();
+        }
+
+        @Override
+        public long getTilesDecoded() {
+            return TILES_DECODED.sum();
+        }
+
+        @Override
+        public long getOpenStreams() {
+            return OPEN_STREAMS.sum();
+        }
+
+        @Override
+        public long getOpenReaders() {
+            return OPEN_READERS.sum();
+        }
+
+        @Override
+        public Map<String, Long> getErrors() {
+            Map<String, Long> errors = new TreeMap<>();
+
+            for (Map.Entry<String, LongAdder> error : ERRORS.entrySet()) {
+                errors.put(error.getKey(), error.getValue().sum());
+            }
+
+            return errors;
+        }
+
+        @Override
+        public void reset() {
+            BYTES_READ.reset();
+            TILES_DECODED.reset();
+            ERRORS.clear();
+            MAP_FILE_READER.reset();
+            MAP_READER.reset();
+
+            for (OziTimer timer : READS.values()) {
+                timer.reset();
+            }
+        }
+    }
+
+    private static final class TileListener implements IIOReadProgressListener {
+        @Override
+        public void imageComplete(ImageReader source) {
+            if (enabled) {
+                TILES_DECODED.increment();
+            }
+        }
+
+        @Override
+        public void sequenceStarted(ImageReader source, int minIndex) {
+        }
+
+        @Override
+        public void sequenceComplete(ImageReader source) {
+        }
+
+        @Override
+        public void imageStarted(ImageReader source, int imageIndex) {
+        }
+
+        @Override
+        public void imageProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageReader source, float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageReader source) {
+        }
+
+        @Override
+        public void readAborted(ImageReader source) {
+        }
+    }
+}
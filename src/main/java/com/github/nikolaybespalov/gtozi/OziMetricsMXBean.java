@@ -0,0 +1,39 @@
+package com.github.nikolaybespalov.gtozi;
+
+import java.util.Map;
+
+/**
+ * Counters and gauges of gt-ozi, registered by {@link OziMetrics}.
+ */
+@SuppressWarnings("unused")
+public interface OziMetricsMXBean {
+    /**
+     * @return bytes read from raster files
+     */
+    long getBytesRead();
+
+    /**
+     * @return regions and tiles decoded by image readers
+     */
+    long getTilesDecoded();
+
+    /**
+     * @return raster file streams that are open
+     */
+    long getOpenStreams();
+
+    /**
+     * @return {@link OziMapReader} instances that are not disposed
+     */
+    long getOpenReaders();
+
+    /**
+     * @return number of errors by the simple class name of their root cause
+     */
+    Map<String, Long> getErrors();
+
+    /**
+     * Resets the counters and the timers, the gauges keep their values.
+     */
+    void reset();
+}
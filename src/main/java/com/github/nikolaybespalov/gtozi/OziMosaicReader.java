@@ -0,0 +1,517 @@
+package com.github.nikolaybespalov.gtozi;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.data.DataSourceException;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.AffineTransform2D;
+import org.geotools.util.URLs;
+import org.opengis.coverage.grid.Format;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import javax.media.jai.ROI;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Serves a directory of adjacent .map files, the sheets, as one coverage.
+ * <p>
+ * The sheets are parsed once, in parallel, and their envelopes are indexed by an in-memory R-tree in the CRS of the
+ * first sheet, the CRS of the mosaic. The resolution of the mosaic is the finest resolution of its sheets. A read
+ * queries the tree and opens only the sheets that intersect the request, through {@link OziMapReader}, so a request
+ * outside the sheets touches no raster. Every sheet reads only the cells of the requested grid that its envelope
+ * intersects, picks its own overview level for them and reprojects itself if its CRS differs from the requested one.
+ * Pixels of a reprojected sheet outside of the sheet are masked by its ROI and do not cover the other sheets. The
+ * sheets are read in parallel and drawn over each other, the finest one on top, by horizontal stripes of the result
+ * in parallel as well.
+ * <p>
+ * Areas that no sheet covers are transparent.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziMosaicReader extends AbstractGridCoverage2DReader implements GridCoverageReader {
+    private static final Logger LOGGER = getLogger(OziMosaicReader.class);
+
+    private static final int MIN_STRIPE_HEIGHT = 64;
+
+    private final STRtree tree = new STRtree();
+    private final int sheetCount;
+    private final Executor executor;
+    private final ConcurrentMap<Path, OziMapReader> sheetReaders = new ConcurrentHashMap<>();
+
+    public OziMosaicReader(Object input) throws DataSourceException {
+        this(input, new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE));
+    }
+
+    /**
+     * @param input directory of the sheets as a {@link File}, {@link Path}, {@link URL} or path string
+     * @param hints hints, {@link OziMapReader#PARALLEL_READ_POOL} is the pool the sheets are read on
+     * @throws DataSourceException if the directory contains no usable sheet
+     */
+    public OziMosaicReader(Object input, Hints hints) throws DataSourceException {
+        super(input, hints);
+
+        Path directory = toDirectory(input);
+
+        Object pool = this.hints.get(OziMapReader.PARALLEL_READ_POOL);
+
+        executor = pool instanceof Executor ? (Executor) pool : ForkJoinPool.commonPool();
+
+        List<OziMapCatalog.Entry> entries = scan(directory);
+
+        if (entries.isEmpty()) {
+            throw new DataSourceException("No map found in " + directory);
+        }
+
+        coverageName = directory.getFileName() != null ? directory.getFileName().toString() : directory.toString();
+
+        try {
+            crs = entries.get(0).getCoordinateReferenceSystem();
+
+            GeneralEnvelope union = null;
+            double resX = Double.POSITIVE_INFINITY;
+            double resY = Double.POSITIVE_INFINITY;
+
+            for (OziMapCatalog.Entry entry : entries) {
+                GeneralEnvelope envelope = getEnvelope(entry);
+
+                resX = Math.min(resX, envelope.getSpan(0) / entry.getWidth());
+                resY = Math.min(resY, envelope.getSpan(1) / entry.getHeight());
+
+                if (union == null) {
+                    union = new GeneralEnvelope(envelope);
+                } else {
+                    union.add(envelope);
+                }
+
+                tree.insert(new Envelope(envelope.getMinimum(0), envelope.getMaximum(0), envelope.getMinimum(1), envelope.getMaximum(1)),
+                        new Sheet(entry.getMapFile(), envelope, Math.min(envelope.getSpan(0) / entry.getWidth(), envelope.getSpan(1) / entry.getHeight())));
+            }
+
+            tree.build();
+
+            int width = (int) Math.min(Integer.MAX_VALUE, Math.ceil(union.getSpan(0) / resX));
+            int height = (int) Math.min(Integer.MAX_VALUE, Math.ceil(union.getSpan(1) / resY));
+
+            originalGridRange = new GridEnvelope2D(0, 0, width, height);
+
+            originalEnvelope = new GeneralEnvelope(new double[]{union.getMinimum(0), union.getMaximum(1) - height * resY},
+                    new double[]{union.getMinimum(0) + width * resX, union.getMaximum(1)});
+            originalEnvelope.setCoordinateReferenceSystem(crs);
+
+            // Pixel centers, like every AbstractGridCoverage2DReader
+            raster2Model = new AffineTransform2D(resX, 0, 0, -resY, originalEnvelope.getMinimum(0) + resX / 2, originalEnvelope.getMaximum(1) - resY / 2);
+
+            highestRes = new double[]{resX, resY};
+        } catch (FactoryException | TransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        sheetCount = entries.size();
+    }
+
+    private static Path toDirectory(Object input) throws DataSourceException {
+        File directory;
+
+        if (input instanceof Path) {
+            directory = ((Path) input).toFile();
+        } else if (input instanceof File) {
+            directory = (File) input;
+        } else if (input instanceof URL) {
+            directory = URLs.urlToFile((URL) input);
+        } else if (input instanceof String) {
+            directory = new File((String) input);
+        } else {
+            throw new DataSourceException("Unsupported input: " + input);
+        }
+
+        if (directory == null || !directory.isDirectory()) {
+            throw new DataSourceException("Input is not a directory: " + input);
+        }
+
+        return directory.toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * Parses the .map files of the directory in parallel, the rasters are not opened if the maps know their size.
+     */
+    private static List<OziMapCatalog.Entry> scan(Path directory) throws DataSourceException {
+        List<Path> mapFiles;
+
+        try (Stream<Path> paths = Files.walk(directory)) {
+            mapFiles = paths
+                    .filter(p -> p.getFileName() != null && p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".map"))
+                    .filter(Files::isRegularFile)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new DataSourceException(e);
+        }
+
+        return mapFiles.parallelStream()
+                .map(mapFile -> {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(mapFile, BasicFileAttributes.class);
+
+                        return OziMapCatalog.createEntry(mapFile, attributes.lastModifiedTime().toMillis(), attributes.size());
+                    } catch (IOException | FactoryException | TransformException e) {
+                        if (LOGGER.isLoggable(Level.WARNING)) {
+                            LOGGER.log(Level.WARNING, "Map file " + mapFile + " skipped", e);
+                        }
+
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return envelope of the sheet in the CRS of the mosaic
+     */
+    private GeneralEnvelope getEnvelope(OziMapCatalog.Entry entry) throws FactoryException, TransformException {
+        double[] bounds = entry.getEnvelope();
+
+        GeneralEnvelope envelope = new GeneralEnvelope(new double[]{bounds[0], bounds[1]}, new double[]{bounds[2], bounds[3]});
+        envelope.setCoordinateReferenceSystem(entry.getCoordinateReferenceSystem());
+
+        if (CRS.equalsIgnoreMetadata(entry.getCoordinateReferenceSystem(), crs)) {
+            return envelope;
+        }
+
+        return CRS.transform(envelope, crs);
+    }
+
+    @Override
+    public Format getFormat() {
+        // The sheets are read by the Ozi format
+        return new OziMapFormat();
+    }
+
+    /**
+     * @return number of sheets of the mosaic
+     */
+    public int getSheetCount() {
+        return sheetCount;
+    }
+
+    /**
+     * @return number of sheets opened by the reads so far
+     */
+    int getOpenSheetCount() {
+        return sheetReaders.size();
+    }
+
+    @Override
+    public GridCoverage2D read(GeneralParameterValue[] params) throws IllegalArgumentException, IOException {
+        GridGeometry2D requested = null;
+        List<GeneralParameterValue> sheetParams = new ArrayList<>();
+
+        if (params != null) {
+            for (GeneralParameterValue param : params) {
+                if (param.getDescriptor().getName().equals(AbstractGridFormat.READ_GRIDGEOMETRY2D.getName())) {
+                    requested = (GridGeometry2D) ((ParameterValue) param).getValue();
+                } else {
+                    sheetParams.add(param);
+                }
+            }
+        }
+
+        if (requested == null) {
+            requested = new GridGeometry2D(originalGridRange, raster2Model, crs);
+        }
+
+        if (!requested.isDefined(GridGeometry2D.CRS_BITMASK)) {
+            requested = new GridGeometry2D(requested.getGridRange(), requested.getGridToCRS(), crs);
+        }
+
+        List<Sheet> sheets = query(new GeneralEnvelope(requested.getEnvelope()));
+
+        if (sheets.isEmpty()) {
+            // Nothing to read, no raster is touched
+            return null;
+        }
+
+        List<CompletableFuture<GridCoverage2D>> futures = new ArrayList<>();
+
+        for (Sheet sheet : sheets) {
+            // Every sheet reads only the part of the requested grid that it covers
+            GridGeometry2D sheetGeometry = clip(requested, sheet);
+
+            if (sheetGeometry == null) {
+                continue;
+            }
+
+            ParameterValue<GridGeometry2D> gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+            gridGeometry.setValue(sheetGeometry);
+
+            GeneralParameterValue[] sheetParamArray = sheetParams.toArray(new GeneralParameterValue[sheetParams.size() + 1]);
+            sheetParamArray[sheetParams.size()] = gridGeometry;
+
+            futures.add(getSheetReader(sheet).readAsync(sheetParamArray, executor));
+        }
+
+        List<GridCoverage2D> coverages = new ArrayList<>();
+
+        for (CompletableFuture<GridCoverage2D> future : futures) {
+            try {
+                coverages.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+
+                throw new DataSourceException(e.getCause());
+            }
+        }
+
+        return composite(requested, coverages);
+    }
+
+    /**
+     * @return sheets that intersect the envelope, the coarsest first
+     */
+    private List<Sheet> query(GeneralEnvelope envelope) throws DataSourceException {
+        if (!CRS.equalsIgnoreMetadata(envelope.getCoordinateReferenceSystem(), crs)) {
+            try {
+                envelope = CRS.transform(envelope, crs);
+            } catch (TransformException e) {
+                throw new DataSourceException(e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Sheet> sheets = new ArrayList<>(tree.query(new Envelope(envelope.getMinimum(0), envelope.getMaximum(0), envelope.getMinimum(1), envelope.getMaximum(1))));
+
+        sheets.sort(Comparator.comparingDouble((Sheet sheet) -> sheet.resolution).reversed());
+
+        return sheets;
+    }
+
+    /**
+     * @return cells of the requested grid that the envelope of the sheet intersects or null if there are none
+     */
+    private static GridGeometry2D clip(GridGeometry2D requested, Sheet sheet) throws DataSourceException {
+        MathTransform gridToCrs = requested.getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+
+        if (!(gridToCrs instanceof AffineTransform)) {
+            throw new DataSourceException("Requested grid to CRS transform is not affine");
+        }
+
+        GeneralEnvelope envelope = sheet.envelope;
+
+        try {
+            if (!CRS.equalsIgnoreMetadata(envelope.getCoordinateReferenceSystem(), requested.getCoordinateReferenceSystem2D())) {
+                envelope = CRS.transform(envelope, requested.getCoordinateReferenceSystem2D());
+            }
+
+            Rectangle2D bounds = ((AffineTransform) gridToCrs).createInverse().createTransformedShape(new Rectangle2D.Double(
+                    envelope.getMinimum(0), envelope.getMinimum(1), envelope.getSpan(0), envelope.getSpan(1))).getBounds2D();
+
+            int minX = (int) Math.floor(bounds.getMinX());
+            int minY = (int) Math.floor(bounds.getMinY());
+
+            Rectangle window = new Rectangle(minX, minY, (int) Math.ceil(bounds.getMaxX()) - minX, (int) Math.ceil(bounds.getMaxY()) - minY)
+                    .intersection(requested.getGridRange2D());
+
+            if (window.isEmpty()) {
+                return null;
+            }
+
+            return new GridGeometry2D(new GridEnvelope2D(window), PixelInCell.CELL_CORNER, new AffineTransform2D((AffineTransform) gridToCrs),
+                    requested.getCoordinateReferenceSystem2D(), null);
+        } catch (TransformException | NoninvertibleTransformException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    private OziMapReader getSheetReader(Sheet sheet) throws DataSourceException {
+        try {
+            return sheetReaders.computeIfAbsent(sheet.mapFile, mapFile -> {
+                Hints sheetHints = new Hints(hints);
+
+                sheetHints.put(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE);
+
+                try {
+                    return new OziMapReader(mapFile.toFile(), sheetHints);
+                } catch (DataSourceException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw (DataSourceException) e.getCause();
+        }
+    }
+
+    /**
+     * Draws the coverages of the sheets into the requested grid, each horizontal stripe of the result on its own
+     * thread.
+     */
+    private GridCoverage2D composite(GridGeometry2D requested, List<GridCoverage2D> coverages) throws IOException {
+        GridEnvelope2D range = requested.getGridRange2D();
+
+        MathTransform gridToCrs = requested.getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+
+        if (!(gridToCrs instanceof AffineTransform)) {
+            throw new DataSourceException("Requested grid to CRS transform is not affine");
+        }
+
+        AffineTransform crsToGrid;
+
+        try {
+            crsToGrid = ((AffineTransform) gridToCrs).createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        // Pixel (0, 0) of the result is the lowest cell of the requested grid
+        crsToGrid.preConcatenate(AffineTransform.getTranslateInstance(-range.x, -range.y));
+
+        List<AffineTransform> transforms = new ArrayList<>();
+        List<RenderedImage> drawn = new ArrayList<>();
+
+        for (GridCoverage2D coverage : coverages) {
+            if (coverage == null) {
+                continue;
+            }
+
+            MathTransform coverageGridToCrs = coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT);
+
+            if (!(coverageGridToCrs instanceof AffineTransform)) {
+                LOGGER.warning("Coverage " + coverage.getName() + " is skipped, its grid to CRS transform is not affine");
+                continue;
+            }
+
+            AffineTransform transform = new AffineTransform((AffineTransform) coverageGridToCrs);
+            transform.preConcatenate(crsToGrid);
+
+            Object roi = coverage.getProperty(OziMapReader.ROI_PROPERTY);
+
+            transforms.add(transform);
+            drawn.add(roi instanceof ROI ? mask(coverage.getRenderedImage(), (ROI) roi) : coverage.getRenderedImage());
+        }
+
+        BufferedImage image = new BufferedImage(range.width, range.height, BufferedImage.TYPE_INT_ARGB);
+
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism() : ForkJoinPool.getCommonPoolParallelism();
+        int stripeCount = Math.max(1, Math.min(parallelism, range.height / MIN_STRIPE_HEIGHT));
+        int stripeHeight = (range.height + stripeCount - 1) / stripeCount;
+
+        try {
+            CompletableFuture.allOf(IntStream.range(0, stripeCount)
+                    .mapToObj(i -> CompletableFuture.runAsync(() -> drawStripe(image, i * stripeHeight, stripeHeight, drawn, transforms), executor))
+                    .toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw new DataSourceException(e.getCause());
+        }
+
+        AffineTransform imageToCrs = new AffineTransform((AffineTransform) gridToCrs);
+        imageToCrs.translate(range.x, range.y);
+
+        GridGeometry2D gridGeometry = new GridGeometry2D(new GridEnvelope2D(0, 0, range.width, range.height), PixelInCell.CELL_CORNER,
+                new AffineTransform2D(imageToCrs), requested.getCoordinateReferenceSystem2D(), null);
+
+        return coverageFactory.create(coverageName, image, gridGeometry, null, null, null);
+    }
+
+    /**
+     * @return image with the pixels outside of the ROI transparent, so that they do not cover the sheets drawn before
+     */
+    private static BufferedImage mask(RenderedImage image, ROI roi) {
+        Raster data = image.getData();
+        Raster mask = roi.getAsImage().getData();
+        ColorModel colorModel = image.getColorModel();
+
+        BufferedImage masked = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+
+        Object pixel = null;
+
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                if (mask.getSample(mask.getMinX() + x, mask.getMinY() + y, 0) != 0) {
+                    pixel = data.getDataElements(data.getMinX() + x, data.getMinY() + y, pixel);
+                    masked.setRGB(x, y, colorModel.getRGB(pixel));
+                }
+            }
+        }
+
+        return masked;
+    }
+
+    private static void drawStripe(BufferedImage image, int y, int height, List<RenderedImage> images, List<AffineTransform> transforms) {
+        Graphics2D graphics = image.createGraphics();
+
+        try {
+            graphics.setClip(0, y, image.getWidth(), height);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+
+            for (int i = 0; i < images.size(); ++i) {
+                graphics.drawRenderedImage(images.get(i), transforms.get(i));
+            }
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        for (OziMapReader reader : sheetReaders.values()) {
+            reader.dispose();
+        }
+
+        sheetReaders.clear();
+
+        super.dispose();
+    }
+
+    /**
+     * Sheet of the R-tree.
+     */
+    private static final class Sheet {
+        private final Path mapFile;
+        private final GeneralEnvelope envelope;
+        private final double resolution;
+
+        Sheet(Path mapFile, GeneralEnvelope envelope, double resolution) {
+            this.mapFile = mapFile;
+            this.envelope = envelope;
+            this.resolution = resolution;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * External overviews of a single level raster, stored next to it in the {@code <raster>.ovr} directory.
+ * <p>
+ * Every level halves the previous one with a 2x2 box filter and is written by {@link OziTiffWriter} as a tiled TIFF,
+ * so a read decodes only the tiles it needs. The raster is read once, from top to bottom, for the first level, every
+ * other level is read from the tiles of the level above. Sequential rasters such as JPEG are read in strips as high as
+ * the memory budget allows, see {@link OziStripImage#getStripHeight(int, int, int, long)}. Levels stop once they get
+ * smaller than {@link #MIN_LEVEL_SIZE}.
+ * <p>
+ * The manifest records the size and modification time of the raster together with the levels written so far. A level
+ * is moved into place before the manifest is replaced, so an interrupted build leaves a valid prefix of levels that
+ * the next build continues from. A manifest of another version of the raster is discarded with its levels. Builds of
+ * the same raster are serialized by a lock file, so other threads and processes wait for the levels instead of
+ * building them again.
+ */
+final class OziOverviewPyramid {
+    static final int MIN_LEVEL_SIZE = 256;
+
+    private static final int TILE_SIZE = 256;
+
+    private static final String MANIFEST = "pyramid.properties";
+    private static final String MANIFEST_VERSION = "3";
+    private static final String LOCK = "pyramid.lock";
+
+    // A file lock is held by the whole JVM, threads building the same raster wait on the monitor of its directory
+    private static final ConcurrentMap<Path, Object> DIRECTORY_MONITORS = new ConcurrentHashMap<>();
+
+    private final File rasterFile;
+    private final Path dir;
+    private final Manifest manifest;
+
+    private OziOverviewPyramid(File rasterFile, Path dir, Manifest manifest) {
+        this.rasterFile = rasterFile;
+        this.dir = dir;
+        this.manifest = manifest;
+    }
+
+    static Path getDirectory(File rasterFile) {
+        return rasterFile.toPath().resolveSibling(rasterFile.getName() + ".ovr");
+    }
+
+    /**
+     * Opens the overviews built for the current version of the raster.
+     *
+     * @param rasterFile raster file
+     * @return overviews or null if they were not built or the raster has changed since
+     * @throws IOException if the manifest could not be read
+     */
+    static OziOverviewPyramid open(File rasterFile) throws IOException {
+        Path dir = getDirectory(rasterFile);
+
+        Manifest manifest = Manifest.read(dir);
+
+        if (manifest == null || manifest.levels.isEmpty() || !manifest.matches(rasterFile)) {
+            return null;
+        }
+
+        return new OziOverviewPyramid(rasterFile, dir, manifest);
+    }
+
+    /**
+     * Builds the missing overviews of the raster, levels built for the current version of the raster are reused.
+     * <p>
+     * Strips of sequential rasters may use a quarter of the maximum heap size.
+     *
+     * @param rasterFile raster file
+     * @return overviews or null if the raster is too small to need them
+     * @throws IOException if the overviews could not be built
+     */
+    static OziOverviewPyramid build(File rasterFile) throws IOException {
+        return build(rasterFile, Runtime.getRuntime().maxMemory() / 4);
+    }
+
+    /**
+     * @param rasterFile   raster file
+     * @param memoryBudget bytes a strip of the level above and the rows of tiles of the written level may use
+     * @return overviews or null if the raster is too small to need them
+     * @throws IOException if the overviews could not be built
+     */
+    static OziOverviewPyramid build(File rasterFile, long memoryBudget) throws IOException {
+        Path dir = getDirectory(rasterFile);
+
+        Files.createDirectories(dir);
+
+        Object monitor = DIRECTORY_MONITORS.computeIfAbsent(dir.toRealPath(), key -> new Object());
+
+        synchronized (monitor) {
+            try (FileChannel lockChannel = FileChannel.open(dir.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                Manifest manifest = Manifest.read(dir);
+
+                if (manifest == null || !manifest.matches(rasterFile)) {
+                    // Taken before the raster is read, a raster changed meanwhile does not match the manifest
+                    long length = rasterFile.length();
+                    long lastModified = rasterFile.lastModified();
+
+                    manifest = new Manifest(length, lastModified, OziRasterFiles.readSize(rasterFile));
+
+                    // Written before any level, so levels of the previous raster are never trusted
+                    manifest.write(dir);
+                }
+
+                Dimension previous = manifest.getLevelSize(manifest.levels.size());
+
+                while (Math.min(previous.width, previous.height) / 2 >= MIN_LEVEL_SIZE) {
+                    int level = manifest.levels.size() + 1;
+
+                    File source = level == 1 ? rasterFile : getLevelFile(dir, level - 1);
+
+                    previous = writeLevel(source, getLevelFile(dir, level).toPath(), memoryBudget);
+
+                    manifest.levels.add(previous);
+                    // Replaced after every level, an interrupted build continues from the last level written
+                    manifest.write(dir);
+                }
+
+                return manifest.levels.isEmpty() ? null : new OziOverviewPyramid(rasterFile, dir, manifest);
+            }
+        }
+    }
+
+    /**
+     * @return true if the raster has not changed since the overviews were built
+     */
+    boolean isUpToDate() {
+        return manifest.matches(rasterFile);
+    }
+
+    /**
+     * @return size of the raster followed by the sizes of the overview levels
+     */
+    Dimension[] getLevels() {
+        Dimension[] levels = new Dimension[manifest.levels.size() + 1];
+
+        for (int i = 0; i < levels.length; ++i) {
+            levels[i] = manifest.getLevelSize(i);
+        }
+
+        return levels;
+    }
+
+    /**
+     * @param level overview level, starting from 1
+     * @return tiled TIFF of the level
+     */
+    File getLevelFile(int level) {
+        return getLevelFile(dir, level);
+    }
+
+    private static File getLevelFile(Path dir, int level) {
+        return dir.resolve(level + ".tif").toFile();
+    }
+
+    /**
+     * Streams the level above through {@link OziTiffWriter}, which averages every row of tiles into the level.
+     *
+     * @return size of the level
+     */
+    private static Dimension writeLevel(File source, Path levelFile, long memoryBudget) throws IOException {
+        Path tempFile = Files.createTempFile(levelFile.getParent(), levelFile.getFileName().toString(), ".tmp");
+
+        try {
+            ImageInputStreamSpi inStreamSPI = OziRasterFiles.getInputStreamSpi(source);
+
+            Dimension size;
+
+            try (ImageInputStream inStream = OziRasterFiles.createInputStream(inStreamSPI, source)) {
+                ImageReader imageReader = OziMetrics.listen(OziRasterFiles.getReaderSpi(source, inStream).createReaderInstance());
+
+                try {
+                    imageReader.setInput(inStream, true, true);
+
+                    int width = imageReader.getWidth(0);
+                    int height = imageReader.getHeight(0);
+
+                    OziTiffWriter writer = new OziTiffWriter(TILE_SIZE, TILE_SIZE, true);
+
+                    // The levels are tiled TIFFs, only a sequential raster is read in strips sized from the budget
+                    int stripHeight = OziStripImage.isSequential(imageReader) ?
+                            OziStripImage.getStripHeight(width, height, TILE_SIZE, memoryBudget - writer.getWorkingSetSize(width)) : TILE_SIZE;
+
+                    writer.writeOverviews(new OziStripImage(imageReader, stripHeight), 1, tempFile.toFile());
+
+                    size = new Dimension((width + 1) / 2, (height + 1) / 2);
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                } finally {
+                    imageReader.dispose();
+                }
+            }
+
+            Files.move(tempFile, levelFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return size;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static final class Manifest {
+        private final long sourceLength;
+        private final long sourceLastModified;
+        private final Dimension sourceSize;
+        private final List<Dimension> levels = new ArrayList<>();
+
+        Manifest(long sourceLength, long sourceLastModified, Dimension sourceSize) {
+            this.sourceLength = sourceLength;
+            this.sourceLastModified = sourceLastModified;
+            this.sourceSize = sourceSize;
+        }
+
+        boolean matches(File rasterFile) {
+            return rasterFile.length() == sourceLength && rasterFile.lastModified() == sourceLastModified;
+        }
+
+        Dimension getLevelSize(int level) {
+            return level == 0 ? sourceSize : levels.get(level - 1);
+        }
+
+        static Manifest read(Path dir) throws IOException {
+            Path manifestFile = dir.resolve(MANIFEST);
+
+            if (!Files.isRegularFile(manifestFile)) {
+                return null;
+            }
+
+            Properties properties = new Properties();
+
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                properties.load(in);
+            }
+
+            if (!MANIFEST_VERSION.equals(properties.getProperty("version"))) {
+                // Levels of an older layout, they are rebuilt
+                return null;
+            }
+
+            try {
+                Manifest manifest = new Manifest(
+                        Long.parseLong(properties.getProperty("source.length")),
+                        Long.parseLong(properties.getProperty("source.lastModified")),
+                        new Dimension(
+                                Integer.parseInt(properties.getProperty("source.width")),
+                                Integer.parseInt(properties.getProperty("source.height"))));
+
+                int levelCount = Integer.parseInt(properties.getProperty("levels"));
+
+                for (int i = 1; i <= levelCount; ++i) {
+                    manifest.levels.add(new Dimension(
+                            Integer.parseInt(properties.getProperty("level." + i + ".width")),
+                            Integer.parseInt(properties.getProperty("level." + i + ".height"))));
+                }
+
+                return manifest;
+            } catch (NumberFormatException e) {
+                // Treated as missing, the overviews are rebuilt
+                return null;
+            }
+        }
+
+        void write(Path dir) throws IOException {
+            Properties properties = new Properties();
+
+            properties.setProperty("version", MANIFEST_VERSION);
+            properties.setProperty("source.length", Long.toString(sourceLength));
+            properties.setProperty("source.lastModified", Long.toString(sourceLastModified));
+            properties.setProperty("source.width", Integer.toString(sourceSize.width));
+            properties.setProperty("source.height", Integer.toString(sourceSize.height));
+            properties.setProperty("levels", Integer.toString(levels.size()));
+
+            for (int i = 1; i <= levels.size(); ++i) {
+                properties.setProperty("level." + i + ".width", Integer.toString(levels.get(i - 1).width));
+                properties.setProperty("level." + i + ".height", Integer.toString(levels.get(i - 1).height));
+            }
+
+            Path manifestFile = dir.resolve(MANIFEST);
+            Path tempFile = Files.createTempFile(dir, MANIFEST, ".tmp");
+
+            try {
+                try (OutputStream out = Files.newOutputStream(tempFile)) {
+                    properties.store(out, null);
+                }
+
+                Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes a region of an image as blocks aligned to the tiles of the image, concurrently.
+ * <p>
+ * Every block is decoded by a reader leased from the pool straight into its place in the destination image, so
+ * the result is not copied. Untiled images, such as JPEG, are a single block. Images of several pixels per byte are
+ * split into rows only, as blocks side by side would write into the same bytes.
+ */
+final class OziParallelDecoder {
+    // Tiles are grouped into blocks of at least this many pixels per side
+    static final int MIN_BLOCK_SIZE = 512;
+
+    private OziParallelDecoder() {
+    }
+
+    /**
+     * Reads a region of an image, as {@link ImageReader#read(int, ImageReadParam)} would.
+     *
+     * @param forkJoinPool pool that decodes the blocks
+     * @param readerPool   readers of the raster
+     * @param imageIndex   image index
+     * @param readP        source region and subsampling
+     * @return decoded region
+     * @throws IOException if a block could not be decoded
+     */
+    static BufferedImage read(ForkJoinPool forkJoinPool, OziImageReaderPool readerPool, int imageIndex, ImageReadParam readP) throws IOException {
+        Rectangle imageBounds;
+        int tileWidth;
+        int tileHeight;
+        ImageTypeSpecifier imageType;
+
+        try (OziImageReaderPool.Lease lease = readerPool.lease()) {
+            ImageReader imageReader = lease.getReader();
+
+            imageBounds = new Rectangle(imageReader.getWidth(imageIndex), imageReader.getHeight(imageIndex));
+            tileWidth = imageReader.getTileWidth(imageIndex);
+            tileHeight = imageReader.getTileHeight(imageIndex);
+            imageType = imageReader.getImageTypes(imageIndex).next();
+        }
+
+        Rectangle region = readP.getSourceRegion() != null ? readP.getSourceRegion().intersection(imageBounds) : imageBounds;
+
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException("Source region is outside of the image");
+        }
+
+        int xSubsampling = readP.getSourceXSubsampling();
+        int ySubsampling = readP.getSourceYSubsampling();
+
+        int width = (region.width + xSubsampling - 1) / xSubsampling;
+
+        // Packed pixels of neighbouring columns share bytes, a row of them is decoded by a single reader
+        int[] columns = imageType.getSampleModel() instanceof MultiPixelPackedSampleModel ?
+                new int[]{0, width} : split(region.x, width, xSubsampling, tileWidth);
+        int[] rows = split(region.y, (region.height + ySubsampling - 1) / ySubsampling, ySubsampling, tileHeight);
+
+        BufferedImage destination = imageType.createBufferedImage(columns[columns.length - 1], rows[rows.length - 1]);
+
+        List<Future<?>> blocks = new ArrayList<>();
+
+        for (int row = 0; row < rows.length - 1; ++row) {
+            for (int column = 0; column < columns.length - 1; ++column) {
+                ImageReadParam blockP = new ImageReadParam();
+
+                blockP.setSourceRegion(new Rectangle(
+                        region.x + columns[column] * xSubsampling,
+                        region.y + rows[row] * ySubsampling,
+                        (columns[column + 1] - columns[column] - 1) * xSubsampling + 1,
+                        (rows[row + 1] - rows[row] - 1) * ySubsampling + 1));
+                blockP.setSourceSubsampling(xSubsampling, ySubsampling, 0, 0);
+                blockP.setDestination(destination);
+                blockP.setDestinationOffset(new Point(columns[column], rows[row]));
+
+                blocks.add(forkJoinPool.submit(() -> {
+                    decode(readerPool, imageIndex, blockP);
+                    return null;
+                }));
+            }
+        }
+
+        try {
+            for (Future<?> block : blocks) {
+                block.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for the image blocks");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException(e.getCause());
+        } finally {
+            // Blocks that have not started are skipped once the read has failed
+            for (Future<?> block : blocks) {
+                block.cancel(false);
+            }
+        }
+
+        return destination;
+    }
+
+    private static void decode(OziImageReaderPool readerPool, int imageIndex, ImageReadParam blockP) throws IOException {
+        try (OziImageReaderPool.Lease lease = readerPool.lease()) {
+            try {
+                lease.getReader().read(imageIndex, blockP);
+            } catch (IOException | RuntimeException e) {
+                lease.invalidate();
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Splits the destination along one axis at the destination positions of the tile boundaries.
+     *
+     * @param origin      first source pixel
+     * @param length      number of destination pixels
+     * @param subsampling source pixels per destination pixel
+     * @param tileSize    tile size of the source
+     * @return block boundaries in destination pixels, from 0 to length
+     */
+    static int[] split(int origin, int length, int subsampling, int tileSize) {
+        int step = tileSize * Math.max(1, (MIN_BLOCK_SIZE + tileSize - 1) / tileSize);
+
+        List<Integer> bounds = new ArrayList<>();
+
+        bounds.add(0);
+
+        for (long boundary = ((long) origin / step + 1) * step; ; boundary += step) {
+            long position = (boundary - origin + subsampling - 1) / subsampling;
+
+            if (position >= length) {
+                break;
+            }
+
+            if (position > bounds.get(bounds.size() - 1)) {
+                bounds.add((int) position);
+            }
+        }
+
+        bounds.add(length);
+
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
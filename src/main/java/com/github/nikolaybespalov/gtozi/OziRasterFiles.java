@@ -0,0 +1,119 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FilenameUtils;
+import org.geotools.data.DataSourceException;
+import org.geotools.image.io.ImageIOExt;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helpers to open the raster files that .map files refer to.
+ * <p>
+ * The ImageIO reader SPI is remembered per file extension, so the full SPI lookup of
+ * {@link ImageIOExt#getImageioReader(ImageInputStream)} runs once per extension instead of once per raster.
+ * <p>
+ * Regular files are read through {@link OziFileImageInputStreamSpi} rather than the stream SPI picked by ImageIO.
+ */
+final class OziRasterFiles {
+    private static final Map<String, ImageReaderSpi> READER_SPIS = new ConcurrentHashMap<>();
+    private static final ImageInputStreamSpi CHANNEL_SPI = new OziFileImageInputStreamSpi(false);
+    private static final ImageInputStreamSpi MAPPED_SPI = new OziFileImageInputStreamSpi(true);
+
+    private OziRasterFiles() {
+    }
+
+    static ImageInputStreamSpi getInputStreamSpi(File rasterFile) throws DataSourceException {
+        return getInputStreamSpi(rasterFile, false);
+    }
+
+    /**
+     * @param rasterFile raster file
+     * @param mapped     true to map regular files into memory
+     * @return stream SPI for the raster file
+     * @throws DataSourceException if there is no stream SPI for the file
+     */
+    static ImageInputStreamSpi getInputStreamSpi(File rasterFile, boolean mapped) throws DataSourceException {
+        if (rasterFile.isFile()) {
+            return mapped ? MAPPED_SPI : CHANNEL_SPI;
+        }
+
+        ImageInputStreamSpi inStreamSPI = ImageIOExt.getImageInputStreamSPI(rasterFile);
+
+        if (inStreamSPI == null) {
+            throw new DataSourceException("No input stream for the raster file " + rasterFile.getAbsolutePath());
+        }
+
+        return inStreamSPI;
+    }
+
+    static ImageInputStream createInputStream(ImageInputStreamSpi inStreamSPI, File rasterFile) throws IOException {
+        return inStreamSPI.createInputStreamInstance(rasterFile, ImageIO.getUseCache(), ImageIO.getCacheDirectory());
+    }
+
+    /**
+     * Finds a reader SPI that can decode the stream, trying the one cached for the file extension first.
+     *
+     * @param rasterFile raster file
+     * @param inStream   stream opened on the raster file
+     * @return reader SPI
+     * @throws IOException if no reader can decode the stream
+     */
+    static ImageReaderSpi getReaderSpi(File rasterFile, ImageInputStream inStream) throws IOException {
+        String extension = FilenameUtils.getExtension(rasterFile.getName()).toLowerCase(Locale.ROOT);
+
+        ImageReaderSpi spi = READER_SPIS.get(extension);
+
+        if (spi != null && spi.canDecodeInput(inStream)) {
+            return spi;
+        }
+
+        ImageReader imageReader = ImageIOExt.getImageioReader(inStream);
+
+        if (imageReader == null) {
+            throw new DataSourceException("No image reader for the raster file " + rasterFile.getAbsolutePath());
+        }
+
+        try {
+            spi = imageReader.getOriginatingProvider();
+        } finally {
+            imageReader.dispose();
+        }
+
+        READER_SPIS.put(extension, spi);
+
+        return spi;
+    }
+
+    /**
+     * Reads the size of the first image of the raster file.
+     *
+     * @param rasterFile raster file
+     * @return raster size
+     * @throws IOException if the raster could not be read
+     */
+    static Dimension readSize(File rasterFile) throws IOException {
+        ImageInputStreamSpi inStreamSPI = getInputStreamSpi(rasterFile);
+
+        try (ImageInputStream inStream = createInputStream(inStreamSPI, rasterFile)) {
+            ImageReader imageReader = getReaderSpi(rasterFile, inStream).createReaderInstance();
+
+            try {
+                imageReader.setInput(inStream);
+
+                return new Dimension(imageReader.getWidth(0), imageReader.getHeight(0));
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+}
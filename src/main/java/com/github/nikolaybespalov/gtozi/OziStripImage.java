@@ -0,0 +1,81 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import java.awt.*;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * First image of a reader as horizontal strips, decoded on demand and read from top to bottom.
+ * <p>
+ * Only the last strip is kept, a strip is decoded once as long as the image is read from top to bottom. Sequential
+ * formats such as JPEG and PNG restart from the top of the image for every region, so they should be read in as few
+ * strips as the memory allows, see {@link #isSequential(ImageReader)}.
+ */
+final class OziStripImage extends PlanarImage {
+    private final ImageReader imageReader;
+    private final ImageTypeSpecifier imageType;
+    private int stripY = -1;
+    private Raster strip;
+
+    /**
+     * @param imageReader reader of the image, its input is set
+     * @param stripHeight rows of a strip
+     */
+    OziStripImage(ImageReader imageReader, int stripHeight) throws IOException {
+        this(imageReader, imageReader.getImageTypes(0).next(), stripHeight);
+    }
+
+    private OziStripImage(ImageReader imageReader, ImageTypeSpecifier imageType, int stripHeight) throws IOException {
+        super(new ImageLayout(0, 0, imageReader.getWidth(0), imageReader.getHeight(0), 0, 0, imageReader.getWidth(0),
+                Math.min(stripHeight, imageReader.getHeight(0)), imageType.getSampleModel(), imageType.getColorModel()), null, null);
+
+        this.imageReader = imageReader;
+        this.imageType = imageType;
+    }
+
+    /**
+     * @return true if the reader decodes the image from the top for every region
+     */
+    static boolean isSequential(ImageReader imageReader) throws IOException {
+        return !imageReader.isImageTiled(0) && !imageReader.isRandomAccessEasy(0);
+    }
+
+    /**
+     * Sequential formats decode the image from the top for every strip, so their strips are made as high as the
+     * budget allows, the whole image if it fits.
+     *
+     * @param rowHeight rows the strip height is a multiple of
+     * @param budget    bytes a strip may use
+     * @return rows of a strip, a multiple of the row height unless it is the whole image
+     */
+    static int getStripHeight(int width, int height, int rowHeight, long budget) {
+        long rows = budget / (width * 4L) / rowHeight * rowHeight;
+
+        return (int) Math.min(height, Math.max(rowHeight, rows));
+    }
+
+    @Override
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileY != stripY) {
+            ImageReadParam readP = imageReader.getDefaultReadParam();
+            readP.setDestinationType(imageType);
+            readP.setSourceRegion(new Rectangle(0, tileYToY(tileY), getWidth(), Math.min(getTileHeight(), getHeight() - tileYToY(tileY))));
+
+            try {
+                strip = imageReader.read(0, readP).getRaster().createTranslatedChild(0, tileYToY(tileY));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            stripY = tileY;
+        }
+
+        return strip;
+    }
+}
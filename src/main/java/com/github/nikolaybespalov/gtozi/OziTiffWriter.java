@@ -0,0 +1,623 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.data.DataSourceException;
+
+import java.awt.*;
+import java.awt.color.ColorSpace;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a {@link RenderedImage} as a tiled 8-bit TIFF, one row of tiles at a time.
+ * <p>
+ * Each row of tiles is pulled from the image with {@link RenderedImage#getData(Rectangle)} and its tiles are written
+ * at the end of the file, only the row and the tile offsets are kept in memory, so deferred images far larger than
+ * the heap are written with a constant amount of memory. Byte images with a gray or sRGB {@link ComponentColorModel}
+ * keep their samples, every other image is written as RGB or RGBA. Files that may exceed 4 GB are written as BigTIFF.
+ * <p>
+ * Overviews are written as reduced resolution subfiles of the same file. Every overview is averaged from the rows of
+ * the level above it while they are written, so the image is read once whatever the number of overviews. The
+ * directories of all the levels follow the header, a reader gets them with the first request. The overviews can also be
+ * written without the image, see {@link #writeOverviews(RenderedImage, int, File)}.
+ */
+final class OziTiffWriter {
+    static final int ASCII = 2;
+    static final int SHORT = 3;
+    static final int LONG = 4;
+    static final int DOUBLE = 12;
+    static final int LONG8 = 16;
+
+    private static final int COMPRESSION_NONE = 1;
+    private static final int COMPRESSION_DEFLATE = 8;
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final boolean deflate;
+
+    /**
+     * @param tileWidth  tile width, a multiple of 16
+     * @param tileHeight tile height, a multiple of 16
+     * @param deflate    true to compress the tiles with Deflate
+     */
+    OziTiffWriter(int tileWidth, int tileHeight, boolean deflate) {
+        if (tileWidth <= 0 || tileHeight <= 0 || tileWidth % 16 != 0 || tileHeight % 16 != 0) {
+            throw new IllegalArgumentException("Tile size must be a positive multiple of 16: " + tileWidth + "x" + tileHeight);
+        }
+
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.deflate = deflate;
+    }
+
+    void write(RenderedImage image, File file) throws IOException {
+        write(image, 0, Collections.emptyList(), file);
+    }
+
+    /**
+     * @param image     full resolution image
+     * @param overviews number of overviews, each half the size of the previous level
+     * @param entries   additional entries of the full resolution directory, such as the GeoTIFF tags
+     * @param file      file to write
+     */
+    void write(RenderedImage image, int overviews, List<Entry> entries, File file) throws IOException {
+        write(image, 0, overviews, entries, file);
+    }
+
+    /**
+     * Writes the overviews of the image without the image itself, the first overview is the first image of the file.
+     *
+     * @param image     full resolution image, read once
+     * @param overviews number of overviews, each half the size of the previous level
+     * @param file      file to write
+     */
+    void writeOverviews(RenderedImage image, int overviews, File file) throws IOException {
+        if (overviews < 1) {
+            throw new IllegalArgumentException("No overview to write");
+        }
+
+        write(image, 1, overviews, Collections.emptyList(), file);
+    }
+
+    /**
+     * @param width width of the full resolution image
+     * @return bytes of the rows of tiles of all the levels and of the tile buffers
+     */
+    long getWorkingSetSize(int width) {
+        long row = ((width + tileWidth - 1) / tileWidth) * (long) tileWidth * tileHeight * 4;
+
+        // The overview rows add up to less than another row
+        return 2 * row + 4L * tileWidth * tileHeight * 4;
+    }
+
+    /**
+     * @param first levels before this one are only averaged into the next level, not written
+     */
+    private void write(RenderedImage image, int first, int overviews, List<Entry> entries, File file) throws IOException {
+        ColorModel colorModel = image.getColorModel();
+
+        if (colorModel == null) {
+            throw new DataSourceException("Image without a color model can not be written");
+        }
+
+        int samples = getSamples(image);
+
+        List<Level> levels = new ArrayList<>();
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        for (int i = 0; i <= overviews && width > 0 && height > 0; ++i) {
+            levels.add(new Level(width, height, samples));
+
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+
+        if (first >= levels.size()) {
+            throw new DataSourceException("Image is too small for " + overviews + " overviews");
+        }
+
+        long tileSize = (long) tileWidth * tileHeight * samples;
+        long tileCount = 0;
+
+        for (Level level : levels.subList(first, levels.size())) {
+            tileCount += level.offsets.length;
+        }
+
+        // Deflate adds a few bytes per block in the worst case
+        boolean bigTiff = tileCount * (tileSize + tileSize / 100 + 64) + (1 << 20) > 0xFFFFFFFFL;
+
+        List<List<Entry>> directories = new ArrayList<>();
+        long[] directoryOffsets = new long[levels.size()];
+
+        long position = bigTiff ? 16 : 8;
+
+        for (int i = first; i < levels.size(); ++i) {
+            List<Entry> directory = createEntries(levels.get(i), samples, bigTiff, i > first);
+
+            if (i == first) {
+                directory.addAll(entries);
+            }
+
+            directory.sort(Comparator.comparingInt(entry -> entry.tag));
+
+            directories.add(directory);
+            directoryOffsets[i] = position;
+
+            position += getDirectorySize(directory, bigTiff);
+            // Every directory starts on a word boundary
+            position += position & 1;
+        }
+
+        TileBuffers buffers = new TileBuffers((int) tileSize, deflate);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer writer = new Writer(channel, levels, first, buffers, position);
+
+            boolean component = isComponentByteModel(image);
+            Level top = levels.get(0);
+
+            for (int ty = 0; ty < top.tilesDown; ++ty) {
+                Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY() + ty * tileHeight,
+                        top.width, top.getRowHeight(ty));
+
+                toBytes(image.getData(bounds), colorModel, component, samples, top.row, top.rowStride);
+
+                writer.flushRow(0);
+            }
+
+            writeFully(channel, createHeader(bigTiff, directoryOffsets[first]), 0);
+
+            for (int i = first; i < levels.size(); ++i) {
+                long next = i + 1 < levels.size() ? directoryOffsets[i + 1] : 0;
+
+                writeFully(channel, createDirectory(directories.get(i - first), bigTiff, directoryOffsets[i], next), directoryOffsets[i]);
+            }
+        } finally {
+            buffers.end();
+        }
+    }
+
+    private List<Entry> createEntries(Level level, int samples, boolean bigTiff, boolean overview) {
+        List<Entry> entries = new ArrayList<>();
+
+        if (overview) {
+            // Reduced resolution version of the first image
+            entries.add(new Entry(254, LONG, 1));
+        }
+
+        entries.add(new Entry(256, LONG, level.width));
+        entries.add(new Entry(257, LONG, level.height));
+        entries.add(new Entry(258, SHORT, filled(samples, 8)));
+        entries.add(new Entry(259, SHORT, deflate ? COMPRESSION_DEFLATE : COMPRESSION_NONE));
+        // BlackIsZero or RGB
+        entries.add(new Entry(262, SHORT, samples < 3 ? 1 : 2));
+        entries.add(new Entry(277, SHORT, samples));
+        // Chunky
+        entries.add(new Entry(284, SHORT, 1));
+        entries.add(new Entry(322, LONG, tileWidth));
+        entries.add(new Entry(323, LONG, tileHeight));
+        // Offsets and byte counts are filled in as the tiles are written
+        entries.add(new Entry(324, bigTiff ? LONG8 : LONG, level.offsets));
+        entries.add(new Entry(325, bigTiff ? LONG8 : LONG, level.byteCounts));
+
+        if (samples == 2 || samples == 4) {
+            // Unassociated alpha
+            entries.add(new Entry(338, SHORT, 2));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Row of tiles of one level of the pyramid and the offsets of the tiles written so far.
+     */
+    private final class Level {
+        private final int width;
+        private final int height;
+        private final int samples;
+        private final int tilesAcross;
+        private final int tilesDown;
+        private final int rowStride;
+        private final byte[] row;
+        private final long[] offsets;
+        private final long[] byteCounts;
+
+        Level(int width, int height, int samples) {
+            this.width = width;
+            this.height = height;
+            this.samples = samples;
+
+            tilesAcross = (width + tileWidth - 1) / tileWidth;
+            tilesDown = (height + tileHeight - 1) / tileHeight;
+            rowStride = tilesAcross * tileWidth * samples;
+            row = new byte[rowStride * tileHeight];
+            offsets = new long[tilesAcross * tilesDown];
+            byteCounts = new long[offsets.length];
+        }
+
+        int getRowHeight(int ty) {
+            return Math.min(tileHeight, height - ty * tileHeight);
+        }
+    }
+
+    /**
+     * Writes the rows of the levels and averages every row into the next level.
+     */
+    private final class Writer {
+        private final FileChannel channel;
+        private final List<Level> levels;
+        private final int first;
+        private final TileBuffers buffers;
+        private final int[] rowIndices;
+        private long position;
+
+        Writer(FileChannel channel, List<Level> levels, int first, TileBuffers buffers, long position) {
+            this.channel = channel;
+            this.levels = levels;
+            this.first = first;
+            this.buffers = buffers;
+            this.position = position;
+
+            rowIndices = new int[levels.size()];
+        }
+
+        void flushRow(int index) throws IOException {
+            Level level = levels.get(index);
+            int ty = rowIndices[index]++;
+            int tileStride = tileWidth * level.samples;
+
+            for (int tx = 0; tx < level.tilesAcross && index >= first; ++tx) {
+                for (int y = 0; y < tileHeight; ++y) {
+                    System.arraycopy(level.row, y * level.rowStride + tx * tileStride, buffers.tile, y * tileStride, tileStride);
+                }
+
+                ByteBuffer data = buffers.encode();
+
+                int tile = ty * level.tilesAcross + tx;
+
+                level.offsets[tile] = position;
+                level.byteCounts[tile] = data.remaining();
+
+                position += writeFully(channel, data, position);
+            }
+
+            if (index + 1 < levels.size()) {
+                Level next = levels.get(index + 1);
+
+                downsample(level, level.getRowHeight(ty), next, (ty % 2) * tileHeight / 2);
+
+                if (ty % 2 == 1 || ty == level.tilesDown - 1) {
+                    flushRow(index + 1);
+                }
+            }
+
+            // Rows are padded with zeros
+            Arrays.fill(level.row, (byte) 0);
+        }
+    }
+
+    /**
+     * Averages the valid pixels of the row into half of the row of the next level.
+     */
+    private static void downsample(Level level, int rowHeight, Level next, int offsetY) {
+        int samples = level.samples;
+
+        for (int y = 0; y < (rowHeight + 1) / 2; ++y) {
+            int sy0 = 2 * y;
+            int sy1 = Math.min(2 * y + 1, rowHeight - 1);
+
+            for (int x = 0; x < next.width; ++x) {
+                int sx0 = 2 * x;
+                int sx1 = Math.min(2 * x + 1, level.width - 1);
+
+                int count = (sx1 - sx0 + 1) * (sy1 - sy0 + 1);
+
+                for (int b = 0; b < samples; ++b) {
+                    int sum = 0;
+
+                    for (int sy = sy0; sy <= sy1; ++sy) {
+                        for (int sx = sx0; sx <= sx1; ++sx) {
+                            sum += level.row[sy * level.rowStride + sx * samples + b] & 0xFF;
+                        }
+                    }
+
+                    next.row[(offsetY + y) * next.rowStride + x * samples + b] = (byte) ((sum + count / 2) / count);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of 8-bit samples per pixel written for the image
+     */
+    static int getSamples(RenderedImage image) {
+        ColorModel colorModel = image.getColorModel();
+
+        if (isComponentByteModel(image)) {
+            return colorModel.getNumComponents();
+        }
+
+        return colorModel.hasAlpha() ? 4 : 3;
+    }
+
+    /**
+     * @return true if the samples of the image can be written as they are
+     */
+    private static boolean isComponentByteModel(RenderedImage image) {
+        ColorModel colorModel = image.getColorModel();
+
+        if (!(colorModel instanceof ComponentColorModel) || colorModel.getTransferType() != DataBuffer.TYPE_BYTE ||
+                colorModel.isAlphaPremultiplied() || image.getSampleModel().getNumBands() != colorModel.getNumComponents()) {
+            return false;
+        }
+
+        ColorSpace colorSpace = colorModel.getColorSpace();
+
+        return colorSpace.isCS_sRGB() || colorSpace.getType() == ColorSpace.TYPE_GRAY;
+    }
+
+    /**
+     * Copies the pixels of the raster into the top left corner of the buffer, rows of the buffer are stride bytes long.
+     */
+    private static void toBytes(Raster raster, ColorModel colorModel, boolean component, int samples, byte[] buffer, int stride) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int rowLength = width * samples;
+
+        if (component) {
+            int[] row = new int[rowLength];
+
+            for (int y = 0; y < height; ++y) {
+                raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, row);
+
+                int offset = y * stride;
+
+                for (int i = 0; i < rowLength; ++i) {
+                    buffer[offset + i] = (byte) row[i];
+                }
+            }
+
+            return;
+        }
+
+        Object pixel = null;
+
+        for (int y = 0; y < height; ++y) {
+            int offset = y * stride;
+
+            for (int x = 0; x < width; ++x) {
+                pixel = raster.getDataElements(raster.getMinX() + x, raster.getMinY() + y, pixel);
+
+                int argb = colorModel.getRGB(pixel);
+
+                buffer[offset++] = (byte) (argb >> 16);
+                buffer[offset++] = (byte) (argb >> 8);
+                buffer[offset++] = (byte) argb;
+
+                if (samples == 4) {
+                    buffer[offset++] = (byte) (argb >>> 24);
+                }
+            }
+        }
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        long written = 0;
+
+        while (data.hasRemaining()) {
+            written += channel.write(data, position + written);
+        }
+
+        return written;
+    }
+
+    private static ByteBuffer createHeader(boolean bigTiff, long directoryOffset) {
+        ByteBuffer header = ByteBuffer.allocate(bigTiff ? 16 : 8).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.put((byte) 'I').put((byte) 'I');
+
+        if (bigTiff) {
+            header.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(directoryOffset);
+        } else {
+            header.putShort((short) 42).putInt((int) directoryOffset);
+        }
+
+        header.flip();
+
+        return header;
+    }
+
+    private static int getDirectorySize(List<Entry> entries, boolean bigTiff) {
+        int valueSize = bigTiff ? 8 : 4;
+        int size = (bigTiff ? 8 : 2) + entries.size() * (bigTiff ? 20 : 12) + valueSize;
+
+        for (Entry entry : entries) {
+            long entrySize = entry.getSize();
+
+            if (entrySize > valueSize) {
+                size += entrySize + (entrySize & 1);
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Lays out the directory at the given offset, values that do not fit into an entry follow the directory.
+     */
+    private static ByteBuffer createDirectory(List<Entry> entries, boolean bigTiff, long offset, long nextOffset) {
+        int valueSize = bigTiff ? 8 : 4;
+        int directorySize = (bigTiff ? 8 : 2) + entries.size() * (bigTiff ? 20 : 12) + valueSize;
+
+        ByteBuffer directory = ByteBuffer.allocate(getDirectorySize(entries, bigTiff)).order(ByteOrder.LITTLE_ENDIAN);
+
+        long extraOffset = offset + directorySize;
+        int extraPosition = directorySize;
+
+        if (bigTiff) {
+            directory.putLong(entries.size());
+        } else {
+            directory.putShort((short) entries.size());
+        }
+
+        for (Entry entry : entries) {
+            directory.putShort((short) entry.tag).putShort((short) entry.type);
+
+            if (bigTiff) {
+                directory.putLong(entry.values.length);
+            } else {
+                directory.putInt(entry.values.length);
+            }
+
+            long size = entry.getSize();
+
+            if (size > valueSize) {
+                if (bigTiff) {
+                    directory.putLong(extraOffset);
+                } else {
+                    directory.putInt((int) extraOffset);
+                }
+
+                int entryPosition = directory.position();
+
+                directory.position(extraPosition);
+                entry.putValues(directory);
+                directory.position(entryPosition);
+
+                extraOffset += size + (size & 1);
+                extraPosition += size + (size & 1);
+            } else {
+                int entryPosition = directory.position();
+
+                entry.putValues(directory);
+                directory.position(entryPosition + valueSize);
+            }
+        }
+
+        if (bigTiff) {
+            directory.putLong(nextOffset);
+        } else {
+            directory.putInt((int) nextOffset);
+        }
+
+        directory.position(0);
+
+        return directory;
+    }
+
+    private static long[] filled(int count, long value) {
+        long[] values = new long[count];
+
+        Arrays.fill(values, value);
+
+        return values;
+    }
+
+    /**
+     * Tag of a directory, doubles are kept as their bits and ASCII values as one character per value.
+     */
+    static final class Entry {
+        private final int tag;
+        private final int type;
+        private final long[] values;
+
+        Entry(int tag, int type, long... values) {
+            this.tag = tag;
+            this.type = type;
+            this.values = values;
+        }
+
+        static Entry ofDoubles(int tag, double... values) {
+            long[] bits = new long[values.length];
+
+            for (int i = 0; i < values.length; ++i) {
+                bits[i] = Double.doubleToLongBits(values[i]);
+            }
+
+            return new Entry(tag, DOUBLE, bits);
+        }
+
+        static Entry ofAscii(int tag, String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+            // NUL terminated
+            long[] values = new long[bytes.length + 1];
+
+            for (int i = 0; i < bytes.length; ++i) {
+                values[i] = bytes[i];
+            }
+
+            return new Entry(tag, ASCII, values);
+        }
+
+        long getSize() {
+            return (long) values.length * (type == ASCII ? 1 : type == SHORT ? 2 : type == LONG ? 4 : 8);
+        }
+
+        void putValues(ByteBuffer buffer) {
+            for (long value : values) {
+                if (type == ASCII) {
+                    buffer.put((byte) value);
+                } else if (type == SHORT) {
+                    buffer.putShort((short) value);
+                } else if (type == LONG) {
+                    buffer.putInt((int) value);
+                } else {
+                    buffer.putLong(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tile and compression buffers reused by all the tiles of a file.
+     */
+    private static final class TileBuffers {
+        private final byte[] tile;
+        private final Deflater deflater;
+        private byte[] compressed;
+
+        TileBuffers(int tileSize, boolean deflate) {
+            tile = new byte[tileSize];
+            deflater = deflate ? new Deflater() : null;
+            compressed = deflate ? new byte[tileSize + tileSize / 100 + 64] : null;
+        }
+
+        ByteBuffer encode() {
+            if (deflater == null) {
+                return ByteBuffer.wrap(tile);
+            }
+
+            deflater.reset();
+            deflater.setInput(tile);
+            deflater.finish();
+
+            int length = 0;
+
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+
+            return ByteBuffer.wrap(compressed, 0, length);
+        }
+
+        void end() {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package com.github.nikolaybespalov.gtozi;
+
+import javax.imageio.ImageReadParam;
+import java.awt.*;
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Cache of decoded raster tiles shared by {@link OziMapReader} instances, see {@link OziMapReader#TILE_CACHE}.
+ * <p>
+ * Tiles are {@link #TILE_SIZE} pixels square cells of an image level, subsampled as the read that decoded them, and
+ * are keyed by the raster file, its size and modification time, the level, the subsampling and the tile position. Several .map files that refer to the same raster share
+ * tiles, and tiles of a raster that changed on disk are never returned.
+ * <p>
+ * Pixels are kept in direct buffers outside the Java heap. The budget is reserved before a buffer is allocated and the
+ * least recently used tiles are evicted to make room. The buffer of an evicted tile is freed right away, or once the
+ * reads that copy it are done, without waiting for a garbage collection. Its bytes count against the budget until then.
+ * <p>
+ * A cache created with {@link #heap()} keeps the tiles on the heap without a budget instead, for tiles shared by the
+ * requests of a single call, see {@link OziMapReader#readBatch(List)}.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziTileCache {
+    public static final int TILE_SIZE = 256;
+
+    private final long maxBytes;
+    private final Map<TileKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<TileKey, BufferedImage> heapTiles;
+    private long sizeInBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes maximum number of bytes of cached pixels
+     */
+    public OziTileCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive");
+        }
+
+        this.maxBytes = maxBytes;
+        this.heapTiles = null;
+    }
+
+    private OziTileCache() {
+        this.maxBytes = Long.MAX_VALUE;
+        this.heapTiles = new HashMap<>();
+    }
+
+    /**
+     * @return cache that keeps the tiles on the heap until it is no longer referenced
+     */
+    static OziTileCache heap() {
+        return new OziTileCache();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int size() {
+        return heapTiles != null ? heapTiles.size() : entries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized void clear() {
+        for (Entry entry : entries.values()) {
+            evict(entry);
+        }
+
+        entries.clear();
+
+        if (heapTiles != null) {
+            heapTiles.clear();
+        }
+    }
+
+    /**
+     * @return identity of the current version of the raster file, used in tile keys
+     */
+    static String getRasterId(File rasterFile) throws IOException {
+        return rasterFile.getCanonicalPath() + '@' + rasterFile.length() + ':' + rasterFile.lastModified();
+    }
+
+    /**
+     * Reads a region of an image level, as {@link javax.imageio.ImageReader#read(int, ImageReadParam)} would, from
+     * the cached tiles. Missing tiles are decoded with a single call to the decoder and cached.
+     * <p>
+     * A subsampled read is served from the tiles of the subsampled level, which are decoded with the same subsampling,
+     * so a zoomed out read never decodes the full resolution pixels. A region whose origin is not a multiple of the
+     * subsampling is off the grid of those tiles and is decoded without the cache.
+     *
+     * @param rasterId  raster identity, see {@link #getRasterId(File)}
+     * @param level     image level
+     * @param levelSize size of the image level
+     * @param readP     source region and subsampling
+     * @param decoder   decodes a region of the image level
+     * @return decoded region
+     * @throws IOException if the missing tiles could not be decoded
+     */
+    BufferedImage read(String rasterId, int level, Dimension levelSize, ImageReadParam readP, Decoder decoder) throws IOException {
+        Rectangle region = readP.getSourceRegion() != null ? readP.getSourceRegion().intersection(new Rectangle(levelSize)) : new Rectangle(levelSize);
+
+        if (region.isEmpty()) {
+            throw new IllegalArgumentException("Source region is outside of the image");
+        }
+
+        int xSubsampling = readP.getSourceXSubsampling();
+        int ySubsampling = readP.getSourceYSubsampling();
+
+        if (!isOnGrid(region, xSubsampling, ySubsampling)) {
+            return decoder.decode(region, xSubsampling, ySubsampling);
+        }
+
+        Rectangle gridBounds = getGridBounds(levelSize, xSubsampling, ySubsampling);
+        Rectangle gridRegion = toGrid(region, xSubsampling, ySubsampling);
+
+        Map<Point, BufferedImage> tiles = new LinkedHashMap<>();
+        List<Point> missing = new ArrayList<>();
+
+        for (int tileY = gridRegion.y / TILE_SIZE; tileY <= (gridRegion.y + gridRegion.height - 1) / TILE_SIZE; ++tileY) {
+            for (int tileX = gridRegion.x / TILE_SIZE; tileX <= (gridRegion.x + gridRegion.width - 1) / TILE_SIZE; ++tileX) {
+                Point position = new Point(tileX, tileY);
+
+                BufferedImage tile = get(new TileKey(rasterId, level, xSubsampling, ySubsampling, tileX, tileY));
+
+                if (tile != null) {
+                    tiles.put(position, tile);
+                } else {
+                    missing.add(position);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            tiles.putAll(decode(rasterId, level, xSubsampling, ySubsampling, gridBounds, missing, decoder));
+        }
+
+        BufferedImage first = tiles.values().iterator().next();
+
+        WritableRaster raster = first.getRaster().createCompatibleWritableRaster(gridRegion.width, gridRegion.height);
+
+        for (Map.Entry<Point, BufferedImage> tile : tiles.entrySet()) {
+            Rectangle tileBounds = getTileBounds(tile.getKey(), gridBounds);
+            Rectangle copy = tileBounds.intersection(gridRegion);
+
+            Raster source = tile.getValue().getRaster().createChild(
+                    copy.x - tileBounds.x, copy.y - tileBounds.y, copy.width, copy.height, 0, 0, null);
+
+            raster.setDataElements(copy.x - gridRegion.x, copy.y - gridRegion.y, source);
+        }
+
+        return new BufferedImage(first.getColorModel(), raster, first.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Decodes and caches the tiles of several reads of an image level that are not cached yet. Tiles shared by the
+     * reads are decoded once. Tiles are decoded row by row, a run of adjacent tiles with a single call to the decoder.
+     *
+     * @param rasterId  raster identity, see {@link #getRasterId(File)}
+     * @param level     image level
+     * @param levelSize size of the image level
+     * @param readPs    source regions and subsamplings of the reads
+     * @param decoder   decodes a region of the image level
+     * @throws IOException if the tiles could not be decoded
+     */
+    void prefetch(String rasterId, int level, Dimension levelSize, Collection<ImageReadParam> readPs, Decoder decoder) throws IOException {
+        // Per subsampling, then rows first, the order most rasters are stored in
+        SortedSet<TileKey> missing = new TreeSet<>(Comparator.comparingInt((TileKey key) -> key.xSubsampling)
+                .thenComparingInt(key -> key.ySubsampling)
+                .thenComparingInt(key -> key.tileY)
+                .thenComparingInt(key -> key.tileX));
+
+        for (ImageReadParam readP : readPs) {
+            Rectangle region = readP.getSourceRegion() != null ? readP.getSourceRegion().intersection(new Rectangle(levelSize)) : new Rectangle(levelSize);
+
+            int xSubsampling = readP.getSourceXSubsampling();
+            int ySubsampling = readP.getSourceYSubsampling();
+
+            if (region.isEmpty() || !isOnGrid(region, xSubsampling, ySubsampling)) {
+                continue;
+            }
+
+            Rectangle gridRegion = toGrid(region, xSubsampling, ySubsampling);
+
+            for (int tileY = gridRegion.y / TILE_SIZE; tileY <= (gridRegion.y + gridRegion.height - 1) / TILE_SIZE; ++tileY) {
+                for (int tileX = gridRegion.x / TILE_SIZE; tileX <= (gridRegion.x + gridRegion.width - 1) / TILE_SIZE; ++tileX) {
+                    TileKey key = new TileKey(rasterId, level, xSubsampling, ySubsampling, tileX, tileY);
+
+                    if (!contains(key)) {
+                        missing.add(key);
+                    }
+                }
+            }
+        }
+
+        List<Point> run = new ArrayList<>();
+        TileKey runKey = null;
+
+        for (TileKey key : missing) {
+            if (runKey != null && (runKey.xSubsampling != key.xSubsampling || runKey.ySubsampling != key.ySubsampling ||
+                    runKey.tileY != key.tileY || runKey.tileX + 1 != key.tileX)) {
+                decode(rasterId, level, runKey.xSubsampling, runKey.ySubsampling,
+                        getGridBounds(levelSize, runKey.xSubsampling, runKey.ySubsampling), run, decoder);
+
+                run.clear();
+            }
+
+            run.add(new Point(key.tileX, key.tileY));
+            runKey = key;
+        }
+
+        if (runKey != null) {
+            decode(rasterId, level, runKey.xSubsampling, runKey.ySubsampling,
+                    getGridBounds(levelSize, runKey.xSubsampling, runKey.ySubsampling), run, decoder);
+        }
+    }
+
+    private synchronized boolean contains(TileKey key) {
+        return heapTiles != null ? heapTiles.containsKey(key) : entries.containsKey(key);
+    }
+
+    /**
+     * Decodes the bounding box of the tiles with a single call to the decoder and caches the tiles.
+     */
+    private Map<Point, BufferedImage> decode(String rasterId, int level, int xSubsampling, int ySubsampling, Rectangle gridBounds,
+                                             List<Point> positions, Decoder decoder) throws IOException {
+        Rectangle bounds = null;
+
+        for (Point position : positions) {
+            Rectangle tileBounds = getTileBounds(position, gridBounds);
+
+            bounds = bounds == null ? tileBounds : bounds.union(tileBounds);
+        }
+
+        // The level pixels of the grid cells, the decoder keeps every xSubsampling-th column and ySubsampling-th row
+        BufferedImage decoded = decoder.decode(new Rectangle(bounds.x * xSubsampling, bounds.y * ySubsampling,
+                (bounds.width - 1) * xSubsampling + 1, (bounds.height - 1) * ySubsampling + 1), xSubsampling, ySubsampling);
+
+        Map<Point, BufferedImage> tiles = new LinkedHashMap<>();
+
+        for (Point position : positions) {
+            Rectangle tileBounds = getTileBounds(position, gridBounds);
+
+            BufferedImage tile = decoded.getSubimage(
+                    tileBounds.x - bounds.x, tileBounds.y - bounds.y, tileBounds.width, tileBounds.height);
+
+            put(new TileKey(rasterId, level, xSubsampling, ySubsampling, position.x, position.y), tile);
+
+            tiles.put(position, tile);
+        }
+
+        return tiles;
+    }
+
+    private static Rectangle getTileBounds(Point position, Rectangle gridBounds) {
+        return new Rectangle(position.x * TILE_SIZE, position.y * TILE_SIZE, TILE_SIZE, TILE_SIZE).intersection(gridBounds);
+    }
+
+    /**
+     * @return true if the region starts on a pixel that the subsampled level keeps
+     */
+    private static boolean isOnGrid(Rectangle region, int xSubsampling, int ySubsampling) {
+        return region.x % xSubsampling == 0 && region.y % ySubsampling == 0;
+    }
+
+    /**
+     * @return bounds of the subsampled level, the grid its tiles are cut from
+     */
+    private static Rectangle getGridBounds(Dimension levelSize, int xSubsampling, int ySubsampling) {
+        return new Rectangle((levelSize.width + xSubsampling - 1) / xSubsampling, (levelSize.height + ySubsampling - 1) / ySubsampling);
+    }
+
+    /**
+     * @return cells of the subsampled level that a region on its grid is read into
+     */
+    private static Rectangle toGrid(Rectangle region, int xSubsampling, int ySubsampling) {
+        return new Rectangle(region.x / xSubsampling, region.y / ySubsampling,
+                (region.width + xSubsampling - 1) / xSubsampling, (region.height + ySubsampling - 1) / ySubsampling);
+    }
+
+    /**
+     * @return copy of the cached tile, the tile itself for a heap cache, or null
+     */
+    BufferedImage get(TileKey key) {
+        Entry entry;
+
+        synchronized (this) {
+            if (heapTiles != null) {
+                BufferedImage tile = heapTiles.get(key);
+
+                if (tile != null) {
+                    ++hits;
+                } else {
+                    ++misses;
+                }
+
+                // Read only, regions are copied out of the tiles
+                return tile;
+            }
+
+            entry = entries.get(key);
+
+            if (entry == null) {
+                ++misses;
+                return null;
+            }
+
+            ++hits;
+
+            // The buffer is not freed while it is copied
+            ++entry.readers;
+        }
+
+        try {
+            return entry.toImage();
+        } finally {
+            synchronized (this) {
+                if (--entry.readers == 0 && entry.evicted) {
+                    free(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the tile pixels out of the heap. Tiles with a transfer type that can not be stored and tiles larger than
+     * the whole budget are ignored. A heap cache keeps the tile itself.
+     */
+    void put(TileKey key, BufferedImage tile) {
+        if (heapTiles != null) {
+            synchronized (this) {
+                heapTiles.put(key, tile);
+            }
+
+            return;
+        }
+
+        long bytes = Entry.getByteCount(tile);
+
+        if (bytes < 0 || bytes > maxBytes) {
+            return;
+        }
+
+        synchronized (this) {
+            // Reserved before the buffer is allocated
+            sizeInBytes += bytes;
+
+            evictEldest();
+        }
+
+        Entry entry;
+
+        try {
+            entry = Entry.of(tile, (int) bytes);
+        } catch (RuntimeException | Error e) {
+            synchronized (this) {
+                sizeInBytes -= bytes;
+            }
+
+            throw e;
+        }
+
+        synchronized (this) {
+            Entry previous = entries.put(key, entry);
+
+            if (previous != null) {
+                evict(previous);
+            }
+
+            evictEldest();
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<Entry> it = entries.values().iterator();
+
+        while (sizeInBytes > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+
+            it.remove();
+
+            evict(eldest);
+        }
+    }
+
+    private void evict(Entry entry) {
+        ++evictions;
+
+        entry.evicted = true;
+
+        if (entry.readers == 0) {
+            free(entry);
+        }
+    }
+
+    private void free(Entry entry) {
+        sizeInBytes -= entry.data.capacity();
+
+        DirectBuffers.free(entry.data);
+    }
+
+    interface Decoder {
+        /**
+         * @param region       region of the image level
+         * @param xSubsampling columns of the region kept, every xSubsampling-th from the first
+         * @param ySubsampling rows of the region kept, every ySubsampling-th from the first
+         * @return decoded region
+         */
+        BufferedImage decode(Rectangle region, int xSubsampling, int ySubsampling) throws IOException;
+    }
+
+    static final class TileKey {
+        private final String rasterId;
+        private final int level;
+        private final int xSubsampling;
+        private final int ySubsampling;
+        private final int tileX;
+        private final int tileY;
+
+        TileKey(String rasterId, int level, int xSubsampling, int ySubsampling, int tileX, int tileY) {
+            this.rasterId = rasterId;
+            this.level = level;
+            this.xSubsampling = xSubsampling;
+            this.ySubsampling = ySubsampling;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof TileKey)) {
+                return false;
+            }
+
+            TileKey tileKey = (TileKey) o;
+
+            return level == tileKey.level && xSubsampling == tileKey.xSubsampling && ySubsampling == tileKey.ySubsampling &&
+                    tileX == tileKey.tileX && tileY == tileKey.tileY && rasterId.equals(tileKey.rasterId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(rasterId, level, xSubsampling, ySubsampling, tileX, tileY);
+        }
+    }
+
+    private static final class Entry {
+        private final ColorModel colorModel;
+        private final SampleModel sampleModel;
+        private final ByteBuffer data;
+        // Guarded by the cache
+        private int readers;
+        private boolean evicted;
+
+        private Entry(ColorModel colorModel, SampleModel sampleModel, ByteBuffer data) {
+            this.colorModel = colorModel;
+            this.sampleModel = sampleModel;
+            this.data = data;
+        }
+
+        /**
+         * @return bytes of the buffer of the tile or -1 if its transfer type can not be stored
+         */
+        static long getByteCount(BufferedImage tile) {
+            Raster raster = tile.getRaster();
+            SampleModel sampleModel = raster.getSampleModel();
+
+            long elements = (long) raster.getWidth() * raster.getHeight() * sampleModel.getNumDataElements();
+
+            switch (sampleModel.getTransferType()) {
+                case DataBuffer.TYPE_BYTE:
+                    return elements;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    return elements * 2;
+                case DataBuffer.TYPE_INT:
+                case DataBuffer.TYPE_FLOAT:
+                    return elements * 4;
+                case DataBuffer.TYPE_DOUBLE:
+                    return elements * 8;
+                default:
+                    return -1;
+            }
+        }
+
+        static Entry of(BufferedImage tile, int bytes) {
+            Raster raster = tile.getRaster();
+            SampleModel sampleModel = raster.getSampleModel();
+
+            int width = raster.getWidth();
+            int height = raster.getHeight();
+
+            Object pixels = raster.getDataElements(raster.getMinX(), raster.getMinY(), width, height, null);
+
+            ByteBuffer data = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+
+            switch (sampleModel.getTransferType()) {
+                case DataBuffer.TYPE_BYTE:
+                    data.put((byte[]) pixels);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    data.asShortBuffer().put((short[]) pixels);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    data.asIntBuffer().put((int[]) pixels);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    data.asFloatBuffer().put((float[]) pixels);
+                    break;
+                default:
+                    data.asDoubleBuffer().put((double[]) pixels);
+                    break;
+            }
+
+            return new Entry(tile.getColorModel(), sampleModel.createCompatibleSampleModel(width, height), data);
+        }
+
+        BufferedImage toImage() {
+            int elements = sampleModel.getWidth() * sampleModel.getHeight() * sampleModel.getNumDataElements();
+
+            // Views of a duplicate, the buffer is read by several threads
+            ByteBuffer buffer = data.duplicate();
+            buffer.clear();
+            buffer.order(ByteOrder.nativeOrder());
+
+            Object pixels;
+
+            switch (sampleModel.getTransferType()) {
+                case DataBuffer.TYPE_BYTE:
+                    pixels = new byte[elements];
+                    buffer.get((byte[]) pixels);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                case DataBuffer.TYPE_SHORT:
+                    pixels = new short[elements];
+                    buffer.asShortBuffer().get((short[]) pixels);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    pixels = new int[elements];
+                    buffer.asIntBuffer().get((int[]) pixels);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    pixels = new float[elements];
+                    buffer.asFloatBuffer().get((float[]) pixels);
+                    break;
+                default:
+                    pixels = new double[elements];
+                    buffer.asDoubleBuffer().get((double[]) pixels);
+                    break;
+            }
+
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, null);
+
+            raster.setDataElements(0, 0, sampleModel.getWidth(), sampleModel.getHeight(), pixels);
+
+            return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+        }
+    }
+
+    /**
+     * Frees direct buffers without waiting for the garbage collector, through {@code Unsafe.invokeCleaner} on Java 9
+     * and later or the cleaner of the buffer on Java 8. Buffers are left to the collector if neither is accessible.
+     */
+    static final class DirectBuffers {
+        private static final Logger LOGGER = getLogger(DirectBuffers.class);
+
+        private static final Consumer<ByteBuffer> FREE = findFree();
+
+        private DirectBuffers() {
+        }
+
+        static void free(ByteBuffer buffer) {
+            if (FREE != null && buffer.isDirect()) {
+                FREE.accept(buffer);
+            }
+        }
+
+        private static Consumer<ByteBuffer> findFree() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+
+                Object unsafe = theUnsafe.get(null);
+
+                return buffer -> invoke(invokeCleaner, unsafe, buffer);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Java 8
+            }
+
+            try {
+                Method cleaner = ByteBuffer.allocateDirect(1).getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+
+                Method clean = cleaner.getReturnType().getMethod("clean");
+                clean.setAccessible(true);
+
+                return buffer -> invoke(clean, invoke(cleaner, buffer));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Direct buffers can not be freed explicitly, they are freed by the garbage collector", e);
+
+                return null;
+            }
+        }
+
+        private static Object invoke(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.data.DataSourceException;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import javax.media.jai.PlanarImage;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Renders XYZ (Web Mercator, EPSG:3857) tiles of an Ozi map.
+ * <p>
+ * Every tile is warped from the map through an approximate warp: Web Mercator to map coordinates are computed
+ * exactly on a grid of {@link #WARP_STEP} pixels and interpolated between. Warp grids are cached per map
+ * coordinate reference system and tile. Only the source window of the tile is read, at the closest overview, through
+ * a tile cache that neighbouring tiles share: the {@link OziMapReader#TILE_CACHE} of the reader, the cache given to
+ * the renderer or a cache of {@link #DEFAULT_TILE_CACHE_BYTES} shared by all renderers.
+ * <p>
+ * Pixels outside of the map are transparent in PNG tiles and white in JPEG tiles. Palette rasters, such as most
+ * OZF maps, are rendered to palette PNG tiles, outside pixels take a palette entry that no pixel of the window uses.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziTileRenderer {
+    public static final int TILE_SIZE = 256;
+    public static final long DEFAULT_TILE_CACHE_BYTES = 64L << 20;
+
+    // Pixels between the exactly transformed points of the warp grid
+    static final int WARP_STEP = 16;
+
+    private static final int WARP_CACHE_SIZE = 1024;
+    private static final double WEB_MERCATOR_ORIGIN = 20037508.342789244;
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private static final Map<WarpKey, OziWarpGrid> WARP_GRIDS = new LinkedHashMap<WarpKey, OziWarpGrid>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<WarpKey, OziWarpGrid> eldest) {
+            return size() > WARP_CACHE_SIZE;
+        }
+    };
+
+    private static final OziTileCache SHARED_TILE_CACHE = new OziTileCache(DEFAULT_TILE_CACHE_BYTES);
+
+    private static final Map<Format, Deque<ImageWriter>> WRITERS = new EnumMap<>(Format.class);
+
+    static {
+        for (Format format : Format.values()) {
+            WRITERS.put(format, new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    public enum Format {
+        PNG("png", "png"),
+        JPEG("jpeg", "jpg");
+
+        private final String formatName;
+        private final String extension;
+
+        Format(String formatName, String extension) {
+            this.formatName = formatName;
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private final OziMapReader reader;
+    private final OziTileCache tileCache;
+    private final MathTransform webMercator2Crs;
+
+    /**
+     * @param reader reader of the map
+     * @throws DataSourceException if the map can not be reprojected to Web Mercator
+     */
+    public OziTileRenderer(OziMapReader reader) throws DataSourceException {
+        this(reader, reader.getTileCache() != null ? reader.getTileCache() : SHARED_TILE_CACHE);
+    }
+
+    /**
+     * @param reader    reader of the map
+     * @param tileCache cache of the decoded tiles of the map
+     * @throws DataSourceException if the map can not be reprojected to Web Mercator
+     */
+    public OziTileRenderer(OziMapReader reader, OziTileCache tileCache) throws DataSourceException {
+        this.reader = reader;
+        this.tileCache = tileCache;
+
+        try {
+            webMercator2Crs = CRS.findMathTransform(CRS.decode("EPSG:3857", true), reader.getCoordinateReferenceSystem(), true);
+        } catch (FactoryException e) {
+            throw new DataSourceException(e);
+        }
+    }
+
+    /**
+     * Renders and encodes a tile.
+     *
+     * @param z      zoom level
+     * @param x      tile column, from the west
+     * @param y      tile row, from the north
+     * @param format image format
+     * @return encoded tile or null if the tile does not intersect the map
+     * @throws IOException if the map could not be read or the tile could not be encoded
+     */
+    public byte[] render(int z, int x, int y, Format format) throws IOException {
+        BufferedImage tile = renderImage(z, x, y, format);
+
+        return tile != null ? encode(tile, format) : null;
+    }
+
+    /**
+     * @return tile or null if the tile does not intersect the map
+     */
+    BufferedImage renderImage(int z, int x, int y, Format format) throws IOException {
+        if (z < 0 || z > 30 || x < 0 || y < 0 || x >= 1 << z || y >= 1 << z) {
+            throw new IllegalArgumentException("Invalid tile " + z + "/" + x + "/" + y);
+        }
+
+        OziWarpGrid warpGrid = getWarpGrid(z, x, y);
+
+        GeneralEnvelope tileEnvelope = warpGrid.getEnvelope(reader.getCoordinateReferenceSystem());
+
+        if (tileEnvelope == null) {
+            return null;
+        }
+
+        GeneralEnvelope window = new GeneralEnvelope(tileEnvelope);
+        window.intersect(reader.getOriginalEnvelope());
+
+        if (window.isEmpty()) {
+            return null;
+        }
+
+        // About the resolution of the tile
+        double resolution = Math.max(tileEnvelope.getSpan(0), tileEnvelope.getSpan(1)) / TILE_SIZE;
+
+        GridEnvelope2D range = new GridEnvelope2D(0, 0,
+                (int) Math.max(1, Math.ceil(window.getSpan(0) / resolution)),
+                (int) Math.max(1, Math.ceil(window.getSpan(1) / resolution)));
+
+        GridCoverage2D coverage = reader.readBatch(Collections.singletonList(new GridGeometry2D(range, window)), tileCache).get(0);
+
+        BufferedImage source = toBufferedImage(coverage.getRenderedImage());
+
+        AffineTransform crs2Grid;
+
+        try {
+            crs2Grid = ((AffineTransform) coverage.getGridGeometry().getGridToCRS2D(PixelOrientation.UPPER_LEFT)).createInverse();
+        } catch (NoninvertibleTransformException e) {
+            throw new DataSourceException(e);
+        }
+
+        return warp(source, warpGrid, crs2Grid, format);
+    }
+
+    /**
+     * Map coordinates of the grid points of the tile, NaN where the transform failed.
+     */
+    private OziWarpGrid getWarpGrid(int z, int x, int y) {
+        WarpKey key = new WarpKey(reader.getCoordinateReferenceSystem(), z, x, y);
+
+        synchronized (WARP_GRIDS) {
+            OziWarpGrid warpGrid = WARP_GRIDS.get(key);
+
+            if (warpGrid != null) {
+                return warpGrid;
+            }
+        }
+
+        double tileSize = 2 * WEB_MERCATOR_ORIGIN / (1 << z);
+        double pixelSize = tileSize / TILE_SIZE;
+        double minX = -WEB_MERCATOR_ORIGIN + x * tileSize;
+        double maxY = WEB_MERCATOR_ORIGIN - y * tileSize;
+
+        MathTransform pixel2Crs = ConcatenatedTransform.create(
+                ProjectiveTransform.create(new AffineTransform(pixelSize, 0, 0, -pixelSize, minX, maxY)), webMercator2Crs);
+
+        OziWarpGrid warpGrid = OziWarpGrid.create(pixel2Crs, TILE_SIZE, TILE_SIZE, WARP_STEP);
+
+        synchronized (WARP_GRIDS) {
+            WARP_GRIDS.put(key, warpGrid);
+        }
+
+        return warpGrid;
+    }
+
+    private static BufferedImage toBufferedImage(RenderedImage image) {
+        if (image instanceof BufferedImage) {
+            return (BufferedImage) image;
+        }
+
+        return PlanarImage.wrapRenderedImage(image).getAsBufferedImage();
+    }
+
+    private static BufferedImage warp(BufferedImage source, OziWarpGrid warpGrid, AffineTransform crs2Grid, Format format) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+
+        int[] sourcePixels;
+        BufferedImage tile;
+        int outside;
+
+        IndexColorModel palette = format == Format.PNG && source.getColorModel() instanceof IndexColorModel &&
+                ((IndexColorModel) source.getColorModel()).getMapSize() <= 256 ? (IndexColorModel) source.getColorModel() : null;
+
+        if (palette != null) {
+            sourcePixels = source.getRaster().getSamples(0, 0, sourceWidth, sourceHeight, 0, (int[]) null);
+            outside = getUnusedIndex(palette, sourcePixels);
+        } else {
+            sourcePixels = null;
+            outside = -1;
+        }
+
+        if (outside >= 0) {
+            tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_BYTE_INDEXED, withTransparentIndex(palette, outside));
+        } else if (format == Format.PNG) {
+            // Every entry of the palette is used, if any
+            sourcePixels = source.getRGB(0, 0, sourceWidth, sourceHeight, null, 0, sourceWidth);
+            tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+            outside = 0;
+        } else {
+            sourcePixels = source.getRGB(0, 0, sourceWidth, sourceHeight, null, 0, sourceWidth);
+            tile = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+            outside = 0xffffffff;
+        }
+
+        DataBuffer tileBuffer = tile.getRaster().getDataBuffer();
+
+        byte[] tileIndices = tileBuffer instanceof DataBufferByte ? ((DataBufferByte) tileBuffer).getData() : null;
+        int[] tilePixels = tileBuffer instanceof DataBufferInt ? ((DataBufferInt) tileBuffer).getData() : null;
+
+        double[] point = new double[2];
+
+        for (int y = 0; y < TILE_SIZE; ++y) {
+            for (int x = 0; x < TILE_SIZE; ++x) {
+                int value = outside;
+
+                if (warpGrid.interpolate(x + 0.5, y + 0.5, point)) {
+                    crs2Grid.transform(point, 0, point, 0, 1);
+
+                    int sx = (int) Math.floor(point[0]);
+                    int sy = (int) Math.floor(point[1]);
+
+                    if (sx >= 0 && sy >= 0 && sx < sourceWidth && sy < sourceHeight) {
+                        value = sourcePixels[sy * sourceWidth + sx];
+                    }
+                }
+
+                if (tileIndices != null) {
+                    tileIndices[y * TILE_SIZE + x] = (byte) value;
+                } else {
+                    tilePixels[y * TILE_SIZE + x] = value;
+                }
+            }
+        }
+
+        return tile;
+    }
+
+    /**
+     * @return palette entry that none of the pixels use or -1 if all 256 entries are used
+     */
+    private static int getUnusedIndex(IndexColorModel palette, int[] indices) {
+        if (palette.getMapSize() < 256) {
+            return palette.getMapSize();
+        }
+
+        boolean[] used = new boolean[256];
+
+        for (int index : indices) {
+            used[index] = true;
+        }
+
+        for (int index = 0; index < used.length; ++index) {
+            if (!used[index]) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * @return 256 entry palette with a transparent entry at the index
+     */
+    private static IndexColorModel withTransparentIndex(IndexColorModel palette, int index) {
+        byte[] r = new byte[256];
+        byte[] g = new byte[256];
+        byte[] b = new byte[256];
+        byte[] a = new byte[256];
+
+        palette.getReds(r);
+        palette.getGreens(g);
+        palette.getBlues(b);
+        palette.getAlphas(a);
+
+        r[index] = g[index] = b[index] = a[index] = 0;
+
+        return new IndexColorModel(8, 256, r, g, b, a);
+    }
+
+    /**
+     * Encodes a tile, a tile with alpha is drawn over white for JPEG.
+     */
+    static byte[] encode(BufferedImage tile, Format format) throws IOException {
+        if (format == Format.JPEG && tile.getColorModel().hasAlpha()) {
+            tile = flatten(tile);
+        }
+
+        Deque<ImageWriter> writers = WRITERS.get(format);
+
+        ImageWriter writer = writers.pollFirst();
+
+        if (writer == null) {
+            Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(format.formatName);
+
+            if (!it.hasNext()) {
+                throw new IOException("No image writer for " + format.formatName);
+            }
+
+            writer = it.next();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try {
+            ImageWriteParam writeP = writer.getDefaultWriteParam();
+
+            if (format == Format.JPEG) {
+                writeP.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                writeP.setCompressionQuality(JPEG_QUALITY);
+            }
+
+            try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+                writer.setOutput(out);
+                writer.write(null, new IIOImage(tile, null, null), writeP);
+            }
+
+            writer.reset();
+
+            writers.offerFirst(writer);
+        } catch (IOException | RuntimeException e) {
+            writer.dispose();
+
+            throw e;
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static BufferedImage flatten(BufferedImage tile) {
+        BufferedImage flat = new BufferedImage(tile.getWidth(), tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = flat.createGraphics();
+
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, flat.getWidth(), flat.getHeight());
+            graphics.drawImage(tile, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return flat;
+    }
+
+    private static final class WarpKey {
+        private final CoordinateReferenceSystem crs;
+        private final int z;
+        private final int x;
+        private final int y;
+
+        WarpKey(CoordinateReferenceSystem crs, int z, int x, int y) {
+            this.crs = crs;
+            this.z = z;
+            this.x = x;
+            this.y = y;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof WarpKey)) {
+                return false;
+            }
+
+            WarpKey warpKey = (WarpKey) o;
+
+            return z == warpKey.z && x == warpKey.x && y == warpKey.y && crs.equals(warpKey.crs);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(crs, z, x, y);
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.factory.Hints;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.operation.TransformException;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.geotools.util.logging.Logging.getLogger;
+
+/**
+ * Seeds a z/x/y tile pyramid of a set of Ozi maps into a directory tree, {@code <output>/z/x/y.png}.
+ * <p>
+ * Tiles of the highest zoom level are rendered from the maps with {@link OziTileRenderer}, maps that share a tile
+ * are drawn over each other in the order they were given, pixels outside of a map are transparent until the tile is
+ * encoded. Every lower level is built by downsampling the four child tiles that were already written, the maps are
+ * not read again.
+ * <p>
+ * Rasters are opened by the first tile that needs them and decoded tiles of the rasters go through a single bounded
+ * {@link OziTileCache}.
+ * <p>
+ * Tiles are written to a temporary file and moved into place atomically, so a tile that exists is complete. A
+ * seeding that was interrupted is resumed by running it again, existing tiles are skipped.
+ * <p>
+ * Command line: {@code OziTileSeeder [--format png|jpeg] [--threads N] <output dir> <min zoom> <max zoom>
+ * <.map file or directory>...}
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OziTileSeeder {
+    private static final Logger LOGGER = getLogger(OziTileSeeder.class);
+
+    private static final double MAX_LATITUDE = 85.0511287798066;
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final Path outputDir;
+    private final OziTileRenderer.Format format;
+    private final ForkJoinPool pool;
+    private final OziTileCache tileCache;
+
+    /**
+     * @param outputDir root of the tile tree
+     * @param format    tile format
+     * @param pool      pool the tiles are rendered on
+     */
+    public OziTileSeeder(Path outputDir, OziTileRenderer.Format format, ForkJoinPool pool) {
+        this(outputDir, format, pool, null);
+    }
+
+    /**
+     * @param outputDir root of the tile tree
+     * @param format    tile format
+     * @param pool      pool the tiles are rendered on
+     * @param tileCache cache of decoded raster tiles, null for a cache of
+     *                  {@link OziTileRenderer#DEFAULT_TILE_CACHE_BYTES} that lives for a single seeding
+     */
+    public OziTileSeeder(Path outputDir, OziTileRenderer.Format format, ForkJoinPool pool, OziTileCache tileCache) {
+        this.outputDir = outputDir;
+        this.format = format;
+        this.pool = pool;
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Seeds the tiles of the maps.
+     *
+     * @param sources .map files and directories that are searched for .map files
+     * @param minZoom lowest zoom level
+     * @param maxZoom highest zoom level, rendered from the maps
+     * @return statistics
+     * @throws IOException if a map or tile could not be read or written
+     */
+    public Result seed(List<Path> sources, int minZoom, int maxZoom) throws IOException {
+        if (minZoom < 0 || maxZoom < minZoom || maxZoom > 30) {
+            throw new IllegalArgumentException("Invalid zoom range " + minZoom + ".." + maxZoom);
+        }
+
+        long started = System.nanoTime();
+
+        List<OziMapReader> readers = new ArrayList<>();
+        OziTileCache cache = tileCache != null ? tileCache : new OziTileCache(OziTileRenderer.DEFAULT_TILE_CACHE_BYTES);
+
+        try {
+            Hints hints = new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE);
+            // Only the .map files are parsed to plan the tiles
+            hints.put(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE);
+            hints.put(OziMapReader.TILE_CACHE, cache);
+
+            for (Path mapFile : findMapFiles(sources)) {
+                readers.add(new OziMapReader(mapFile.toFile(), hints));
+            }
+
+            // Tiles of the highest level and the maps that cover them
+            Map<Point, List<OziTileRenderer>> plan = new LinkedHashMap<>();
+
+            for (OziMapReader reader : readers) {
+                OziTileRenderer renderer = new OziTileRenderer(reader);
+
+                for (Point tile : getTiles(reader, maxZoom)) {
+                    plan.computeIfAbsent(tile, key -> new ArrayList<>()).add(renderer);
+                }
+            }
+
+            Counters counters = new Counters();
+
+            Set<Point> tiles = plan.keySet();
+
+            runLevel(maxZoom, tiles, counters, tile -> renderTile(maxZoom, tile, plan.get(tile)));
+
+            for (int z = maxZoom - 1; z >= minZoom; --z) {
+                final int zoom = z;
+
+                tiles = tiles.stream().map(tile -> new Point(tile.x / 2, tile.y / 2)).collect(Collectors.toCollection(LinkedHashSet::new));
+
+                runLevel(zoom, tiles, counters, tile -> downsampleTile(zoom, tile));
+            }
+
+            return new Result(counters.written.get(), counters.skipped.get(), counters.empty.get(), System.nanoTime() - started);
+        } finally {
+            for (OziMapReader reader : readers) {
+                reader.dispose();
+            }
+
+            if (cache != tileCache) {
+                cache.clear();
+            }
+        }
+    }
+
+    private interface TileJob {
+        BufferedImage render(Point tile) throws IOException;
+    }
+
+    private static final class Counters {
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong empty = new AtomicLong();
+    }
+
+    private void runLevel(int zoom, Collection<Point> tiles, Counters counters, TileJob job) throws IOException {
+        long started = System.nanoTime();
+        AtomicLong done = new AtomicLong();
+        AtomicLong lastReport = new AtomicLong(started);
+
+        try {
+            pool.submit(() -> tiles.parallelStream().forEach(tile -> {
+                try {
+                    Path tileFile = getTileFile(zoom, tile);
+
+                    if (Files.exists(tileFile)) {
+                        counters.skipped.incrementAndGet();
+                    } else {
+                        BufferedImage image = job.render(tile);
+
+                        if (image != null) {
+                            writeTile(image, tileFile);
+
+                            counters.written.incrementAndGet();
+                        } else {
+                            counters.empty.incrementAndGet();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                long count = done.incrementAndGet();
+                long now = System.nanoTime();
+                long last = lastReport.get();
+
+                if (now - last > PROGRESS_INTERVAL_NANOS && lastReport.compareAndSet(last, now)) {
+                    report(zoom, count, tiles.size(), now - started);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Seeding was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+
+            throw new IOException(e.getCause());
+        }
+
+        report(zoom, done.get(), tiles.size(), System.nanoTime() - started);
+    }
+
+    private static void report(int zoom, long done, long total, long elapsedNanos) {
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info(String.format(Locale.ROOT, "Zoom %d: %d/%d tiles, %.1f tiles/s",
+                    zoom, done, total, done * 1e9 / Math.max(1, elapsedNanos)));
+        }
+    }
+
+    private BufferedImage renderTile(int zoom, Point tile, List<OziTileRenderer> renderers) throws IOException {
+        // Transparent outside of the maps, JPEG tiles are flattened when they are encoded
+        if (renderers.size() == 1) {
+            return renderers.get(0).renderImage(zoom, tile.x, tile.y, OziTileRenderer.Format.PNG);
+        }
+
+        BufferedImage composite = null;
+
+        for (OziTileRenderer renderer : renderers) {
+            BufferedImage image = renderer.renderImage(zoom, tile.x, tile.y, OziTileRenderer.Format.PNG);
+
+            if (image == null) {
+                continue;
+            }
+
+            if (composite == null) {
+                composite = createTile();
+            }
+
+            Graphics2D graphics = composite.createGraphics();
+
+            try {
+                graphics.drawImage(image, 0, 0, null);
+            } finally {
+                graphics.dispose();
+            }
+        }
+
+        return composite;
+    }
+
+    /**
+     * Builds a tile from its four children, null if none of them exists.
+     */
+    private BufferedImage downsampleTile(int zoom, Point tile) throws IOException {
+        BufferedImage parent = null;
+
+        int half = OziTileRenderer.TILE_SIZE / 2;
+
+        for (int dy = 0; dy < 2; ++dy) {
+            for (int dx = 0; dx < 2; ++dx) {
+                Path childFile = getTileFile(zoom + 1, new Point(tile.x * 2 + dx, tile.y * 2 + dy));
+
+                if (!Files.exists(childFile)) {
+                    continue;
+                }
+
+                BufferedImage child = ImageIO.read(new ByteArrayInputStream(Files.readAllBytes(childFile)));
+
+                if (child == null) {
+                    throw new IOException("Tile " + childFile + " could not be decoded");
+                }
+
+                if (parent == null) {
+                    parent = createTile();
+                }
+
+                Graphics2D graphics = parent.createGraphics();
+
+                try {
+                    graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    graphics.drawImage(child, dx * half, dy * half, half, half, null);
+                } finally {
+                    graphics.dispose();
+                }
+            }
+        }
+
+        return parent;
+    }
+
+    private static BufferedImage createTile() {
+        return new BufferedImage(OziTileRenderer.TILE_SIZE, OziTileRenderer.TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    Path getTileFile(int zoom, Point tile) {
+        return outputDir.resolve(Integer.toString(zoom)).resolve(Integer.toString(tile.x)).resolve(tile.y + "." + format.getExtension());
+    }
+
+    private void writeTile(BufferedImage image, Path tileFile) throws IOException {
+        Files.createDirectories(tileFile.getParent());
+
+        Path tempFile = Files.createTempFile(tileFile.getParent(), tileFile.getFileName().toString(), ".tmp");
+
+        try {
+            Files.write(tempFile, OziTileRenderer.encode(image, format));
+
+            Files.move(tempFile, tileFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static List<Path> findMapFiles(List<Path> sources) throws IOException {
+        List<Path> mapFiles = new ArrayList<>();
+
+        for (Path source : sources) {
+            if (Files.isDirectory(source)) {
+                try (Stream<Path> paths = Files.walk(source)) {
+                    paths.filter(p -> p.getFileName() != null && p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".map"))
+                            .filter(Files::isRegularFile)
+                            .sorted()
+                            .forEach(mapFiles::add);
+                }
+            } else {
+                mapFiles.add(source);
+            }
+        }
+
+        return mapFiles;
+    }
+
+    /**
+     * Tiles of a zoom level that intersect the map.
+     */
+    static List<Point> getTiles(OziMapReader reader, int zoom) throws IOException {
+        GeneralEnvelope envelope;
+
+        try {
+            envelope = CRS.transform(reader.getOriginalEnvelope(), DefaultGeographicCRS.WGS84);
+        } catch (TransformException e) {
+            throw new IOException(e);
+        }
+
+        int n = 1 << zoom;
+
+        int minX = toTileX(envelope.getMinimum(0), n);
+        int maxX = toTileX(envelope.getMaximum(0), n);
+        int minY = toTileY(envelope.getMaximum(1), n);
+        int maxY = toTileY(envelope.getMinimum(1), n);
+
+        List<Point> tiles = new ArrayList<>();
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int x = minX; x <= maxX; ++x) {
+                tiles.add(new Point(x, y));
+            }
+        }
+
+        return tiles;
+    }
+
+    private static int toTileX(double lon, int n) {
+        return Math.max(0, Math.min(n - 1, (int) Math.floor((lon + 180) / 360 * n)));
+    }
+
+    private static int toTileY(double lat, int n) {
+        double phi = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+
+        double y = (1 - Math.log(Math.tan(phi) + 1 / Math.cos(phi)) / Math.PI) / 2 * n;
+
+        return Math.max(0, Math.min(n - 1, (int) Math.floor(y)));
+    }
+
+    public static final class Result {
+        private final long writtenTiles;
+        private final long skippedTiles;
+        private final long emptyTiles;
+        private final long elapsedNanos;
+
+        Result(long writtenTiles, long skippedTiles, long emptyTiles, long elapsedNanos) {
+            this.writtenTiles = writtenTiles;
+            this.skippedTiles = skippedTiles;
+            this.emptyTiles = emptyTiles;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of tiles written by this run
+         */
+        public long getWrittenTiles() {
+            return writtenTiles;
+        }
+
+        /**
+         * @return number of tiles that existed already
+         */
+        public long getSkippedTiles() {
+            return skippedTiles;
+        }
+
+        /**
+         * @return number of planned tiles that turned out to have no pixels of any map
+         */
+        public long getEmptyTiles() {
+            return emptyTiles;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getTilesPerSecond() {
+            return writtenTiles * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d tiles written, %d skipped, %d empty, %.1f tiles/s",
+                    writtenTiles, skippedTiles, emptyTiles, getTilesPerSecond());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        OziTileRenderer.Format format = OziTileRenderer.Format.PNG;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        List<String> positional = new ArrayList<>();
+
+        for (int i = 0; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--format":
+                    format = OziTileRenderer.Format.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    positional.add(args[i]);
+                    break;
+            }
+        }
+
+        if (positional.size() < 4) {
+            System.err.println("Usage: OziTileSeeder [--format png|jpeg] [--threads N] <output dir> <min zoom> <max zoom> <.map file or directory>...");
+            System.exit(2);
+        }
+
+        List<Path> sources = positional.subList(3, positional.size()).stream().map(Paths::get).collect(Collectors.toList());
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try {
+            Result result = new OziTileSeeder(Paths.get(positional.get(0)), format, pool)
+                    .seed(sources, Integer.parseInt(positional.get(1)), Integer.parseInt(positional.get(2)));
+
+            System.out.println(result);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
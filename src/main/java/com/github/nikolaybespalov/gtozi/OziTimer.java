@@ -0,0 +1,129 @@
+package com.github.nikolaybespalov.gtozi;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free count and latency histogram with power of two buckets.
+ */
+final class OziTimer implements OziTimerMXBean {
+    // 2^31 microseconds is about 36 minutes, the last bucket counts everything slower
+    static final int BUCKET_COUNT = 33;
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+    void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+
+        // Smallest i such that micros < 2^i
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+
+        return n > 0 ? toMillis(totalNanos.sum()) / n : 0;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    @Override
+    public double getPercentile50Millis() {
+        return getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getPercentile95Millis() {
+        return getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getPercentile99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    double getPercentileMillis(double quantile) {
+        long[] histogram = getHistogram();
+
+        long total = 0;
+
+        for (long n : histogram) {
+            total += n;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+
+        for (int i = 0; i < BUCKET_COUNT - 1; ++i) {
+            seen += histogram[i];
+
+            if (seen >= rank) {
+                return (1L << i) / 1000.0;
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    @Override
+    public long[] getHistogram() {
+        long[] histogram = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            histogram[i] = buckets.get(i);
+        }
+
+        return histogram;
+    }
+
+    @Override
+    public long[] getHistogramBoundsMicros() {
+        long[] bounds = new long[BUCKET_COUNT];
+
+        for (int i = 0; i < BUCKET_COUNT - 1; ++i) {
+            bounds[i] = 1L << i;
+        }
+
+        bounds[BUCKET_COUNT - 1] = Long.MAX_VALUE;
+
+        return bounds;
+    }
+
+    @Override
+    public void reset() {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets.set(i, 0);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.nikolaybespalov.gtozi;
+
+/**
+ * Count and latency histogram of an operation, registered by {@link OziMetrics}.
+ * <p>
+ * Bucket i of the histogram counts the operations that took less than 2^i microseconds and at least 2^(i-1), the
+ * last bucket counts everything slower. Percentiles are the upper bounds of the buckets they fall into.
+ */
+@SuppressWarnings("unused")
+public interface OziTimerMXBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getPercentile50Millis();
+
+    double getPercentile95Millis();
+
+    double getPercentile99Millis();
+
+    long[] getHistogram();
+
+    long[] getHistogramBoundsMicros();
+
+    void reset();
+}
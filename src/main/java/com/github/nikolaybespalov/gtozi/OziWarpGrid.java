@@ -0,0 +1,221 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.geometry.GeneralEnvelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import java.awt.geom.AffineTransform;
+
+/**
+ * Piecewise-linear approximation of a transform from the pixels of a destination image to map coordinates.
+ * <p>
+ * The transform is computed exactly at the corners of square cells and interpolated bilinearly inside of them,
+ * so a destination pixel costs about as much as an affine transform. Points where the transform fails are NaN,
+ * pixels next to them have no map coordinates.
+ */
+final class OziWarpGrid {
+    // Largest cell tried by the tolerance driven grid
+    static final int MAX_STEP = 64;
+
+    private final int step;
+    private final int columns;
+    private final int rows;
+    private final double[] points;
+
+    private OziWarpGrid(int step, int columns, int rows, double[] points) {
+        this.step = step;
+        this.columns = columns;
+        this.rows = rows;
+        this.points = points;
+    }
+
+    /**
+     * Creates a grid with cells of a fixed size.
+     *
+     * @param pixel2Map destination pixel corners to map coordinates
+     * @param width     destination width
+     * @param height    destination height
+     * @param step      cell size in destination pixels
+     */
+    static OziWarpGrid create(MathTransform pixel2Map, int width, int height, int step) {
+        int columns = (width + step - 1) / step + 1;
+        int rows = (height + step - 1) / step + 1;
+
+        return new OziWarpGrid(step, columns, rows, transform(pixel2Map, step, columns, rows));
+    }
+
+    /**
+     * Creates a grid with the largest cells that keep the error within the tolerance. The error is measured at the
+     * cell centers and is converted to source pixels by the linear part of map2Source.
+     *
+     * @param pixel2Map  destination pixel corners to map coordinates
+     * @param width      destination width
+     * @param height     destination height
+     * @param map2Source map coordinates to source pixels
+     * @param tolerance  largest error in source pixels
+     */
+    static OziWarpGrid create(MathTransform pixel2Map, int width, int height, AffineTransform map2Source, double tolerance) {
+        for (int step = MAX_STEP; ; step /= 2) {
+            OziWarpGrid grid = create(pixel2Map, width, height, step);
+
+            if (step == 1 || grid.getError(pixel2Map, map2Source) <= tolerance) {
+                return grid;
+            }
+        }
+    }
+
+    private static double[] transform(MathTransform pixel2Map, int step, int columns, int rows) {
+        double[] pixels = new double[columns * rows * 2];
+
+        for (int j = 0; j < rows; ++j) {
+            for (int i = 0; i < columns; ++i) {
+                int index = (j * columns + i) * 2;
+
+                pixels[index] = i * step;
+                pixels[index + 1] = j * step;
+            }
+        }
+
+        double[] points = new double[pixels.length];
+
+        try {
+            pixel2Map.transform(pixels, 0, points, 0, columns * rows);
+        } catch (TransformException e) {
+            // Some points are out of the domain of the transform, transform them one by one
+            for (int p = 0; p < pixels.length; p += 2) {
+                try {
+                    pixel2Map.transform(pixels, p, points, p, 1);
+                } catch (TransformException pointError) {
+                    points[p] = points[p + 1] = Double.NaN;
+                }
+            }
+        }
+
+        return points;
+    }
+
+    /**
+     * @return largest distance in source pixels between the exact and interpolated cell centers
+     */
+    private double getError(MathTransform pixel2Map, AffineTransform map2Source) {
+        double[] exact = new double[2];
+        double[] approximate = new double[2];
+        double[] delta = new double[2];
+
+        double error = 0;
+
+        for (int j = 0; j < rows - 1; ++j) {
+            for (int i = 0; i < columns - 1; ++i) {
+                double x = (i + 0.5) * step;
+                double y = (j + 0.5) * step;
+
+                if (!interpolate(x, y, approximate)) {
+                    continue;
+                }
+
+                try {
+                    pixel2Map.transform(new double[]{x, y}, 0, exact, 0, 1);
+                } catch (TransformException e) {
+                    continue;
+                }
+
+                delta[0] = exact[0] - approximate[0];
+                delta[1] = exact[1] - approximate[1];
+
+                map2Source.deltaTransform(delta, 0, delta, 0, 1);
+
+                error = Math.max(error, Math.hypot(delta[0], delta[1]));
+            }
+        }
+
+        return error;
+    }
+
+    int getStep() {
+        return step;
+    }
+
+    /**
+     * Bilinear interpolation of the grid at a destination position.
+     *
+     * @return false if a surrounding grid point could not be transformed
+     */
+    boolean interpolate(double x, double y, double[] point) {
+        double gx = x / step;
+        double gy = y / step;
+
+        int i = Math.max(0, Math.min((int) gx, columns - 2));
+        int j = Math.max(0, Math.min((int) gy, rows - 2));
+
+        double fx = gx - i;
+        double fy = gy - j;
+
+        int p00 = (j * columns + i) * 2;
+        int p10 = p00 + 2;
+        int p01 = p00 + columns * 2;
+        int p11 = p01 + 2;
+
+        for (int c = 0; c < 2; ++c) {
+            double v00 = points[p00 + c];
+            double v10 = points[p10 + c];
+            double v01 = points[p01 + c];
+            double v11 = points[p11 + c];
+
+            double value = (v00 * (1 - fx) + v10 * fx) * (1 - fy) + (v01 * (1 - fx) + v11 * fx) * fy;
+
+            if (Double.isNaN(value)) {
+                return false;
+            }
+
+            point[c] = value;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return bounding box of the grid points or null if no point could be transformed
+     */
+    GeneralEnvelope getEnvelope(CoordinateReferenceSystem crs) {
+        return getEnvelope(0, 0, (columns - 1) * step, (rows - 1) * step, crs);
+    }
+
+    /**
+     * @return bounding box of the grid points of the cells that intersect a window of destination pixels or null if
+     * no such point could be transformed
+     */
+    GeneralEnvelope getEnvelope(double minX, double minY, double maxX, double maxY, CoordinateReferenceSystem crs) {
+        int minI = Math.max(0, (int) Math.floor(minX / step));
+        int minJ = Math.max(0, (int) Math.floor(minY / step));
+        int maxI = Math.min(columns - 1, (int) Math.ceil(maxX / step));
+        int maxJ = Math.min(rows - 1, (int) Math.ceil(maxY / step));
+
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (int j = minJ; j <= maxJ; ++j) {
+            for (int i = minI; i <= maxI; ++i) {
+                int p = (j * columns + i) * 2;
+
+                if (Double.isNaN(points[p]) || Double.isNaN(points[p + 1])) {
+                    continue;
+                }
+
+                for (int c = 0; c < 2; ++c) {
+                    min[c] = Math.min(min[c], points[p + c]);
+                    max[c] = Math.max(max[c], points[p + c]);
+                }
+            }
+        }
+
+        if (min[0] > max[0] || min[1] > max[1]) {
+            return null;
+        }
+
+        GeneralEnvelope envelope = new GeneralEnvelope(min, max);
+        envelope.setCoordinateReferenceSystem(crs);
+
+        return envelope;
+    }
+}
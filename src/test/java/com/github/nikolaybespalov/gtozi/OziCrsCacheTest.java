@@ -0,0 +1,35 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OziCrsCacheTest {
+    @Before
+    public void setUp() {
+        OziCrsCache.clear();
+    }
+
+    @Test
+    public void readersOfTheSameMapShouldShareCrs() throws Exception {
+        OziMapFileReader r1 = new OziMapFileReader(TestData.file(OziCrsCacheTest.class, "04-utm/utm11-nad27.map"));
+        OziMapFileReader r2 = new OziMapFileReader(TestData.file(OziCrsCacheTest.class, "04-utm/utm11-nad27.map"));
+
+        assertSame(r1.getCoordinateReferenceSystem(), r2.getCoordinateReferenceSystem());
+        assertEquals(1, OziCrsCache.getMissCount());
+        assertEquals(1, OziCrsCache.getHitCount());
+        assertEquals(1, OziCrsCache.size());
+    }
+
+    @Test
+    public void readersOfDifferentDatumsShouldNotShareCrs() throws Exception {
+        OziMapFileReader r1 = new OziMapFileReader(TestData.file(OziCrsCacheTest.class, "02-merc/merc-nad27.map"));
+        OziMapFileReader r2 = new OziMapFileReader(TestData.file(OziCrsCacheTest.class, "02-merc/merc-wgs84.map"));
+
+        assertNotSame(r1.getCoordinateReferenceSystem(), r2.getCoordinateReferenceSystem());
+        assertEquals(2, OziCrsCache.getMissCount());
+        assertEquals(0, OziCrsCache.getHitCount());
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.referencing.datum.DefaultGeodeticDatum;
+import org.junit.Test;
+import org.opengis.referencing.datum.GeodeticDatum;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OziDatumRegistryTest {
+    @Test
+    public void getWithUnknownNameShouldReturnNull() throws Exception {
+        assertNull(OziDatumRegistry.get(null));
+        assertNull(OziDatumRegistry.get("YAD2018"));
+    }
+
+    @Test
+    public void getShouldResolveDatumFromEllipsoid() throws Exception {
+        GeodeticDatum datum = OziDatumRegistry.get("NAD27 Central");
+
+        assertNotNull(datum);
+        assertEquals("NAD27 Central", datum.getName().getCode());
+        assertEquals(6378206.4, datum.getEllipsoid().getSemiMajorAxis(), 1e-6);
+        assertSame(datum, OziDatumRegistry.get("NAD27 Central"));
+    }
+
+    @Test
+    public void getShouldResolveWgs84WithoutEpsgDatabase() throws Exception {
+        assertSame(DefaultGeodeticDatum.WGS84, OziDatumRegistry.get("WGS 84"));
+    }
+
+    @Test
+    public void getShouldResolveDatumWithEpsgCodeFromEllipsoidAndShift() throws Exception {
+        GeodeticDatum datum = OziDatumRegistry.get("Adindan");
+
+        assertNotNull(datum);
+        assertEquals("Adindan", datum.getName().getCode());
+        assertEquals(6378249.145, datum.getEllipsoid().getSemiMajorAxis(), 1e-3);
+        assertArrayEquals(new double[]{-162, -12, 206}, OziDatumRegistry.getShift(datum), 1e-9);
+    }
+
+    @Test
+    public void findNameShouldReturnOziName() throws Exception {
+        DefaultGeodeticDatum datum = (DefaultGeodeticDatum) OziDatumRegistry.get("NAD27 Central");
+
+        assertEquals("NAD27 Central", OziDatumRegistry.findName(datum));
+
+        Map<String, Object> properties = new HashMap<>();
+
+        properties.put("name", "Renamed");
+        properties.put(DefaultGeodeticDatum.BURSA_WOLF_KEY, datum.getBursaWolfParameters(DefaultGeodeticDatum.WGS84));
+
+        assertEquals("NAD27 Central", OziDatumRegistry.findName(new DefaultGeodeticDatum(properties, datum.getEllipsoid(), datum.getPrimeMeridian())));
+    }
+}
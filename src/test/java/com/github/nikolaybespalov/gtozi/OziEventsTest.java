@@ -0,0 +1,91 @@
+package com.github.nikolaybespalov.gtozi;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.geotools.TestData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class OziEventsTest {
+    private static final String[] EVENTS = {
+            "com.github.nikolaybespalov.gtozi.MapParse",
+            "com.github.nikolaybespalov.gtozi.Crs",
+            "com.github.nikolaybespalov.gtozi.RasterOpen",
+            "com.github.nikolaybespalov.gtozi.Read"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void eventsShouldNotBeCreatedWithoutRecording() {
+        assertNull(OziEvents.beginMapParse());
+        assertNull(OziEvents.beginRead());
+    }
+
+    @Test
+    public void readShouldEmitEvents() throws Exception {
+        Path dump = folder.newFile("gt-ozi.jfr").toPath();
+
+        try (Recording recording = new Recording()) {
+            for (String event : EVENTS) {
+                recording.enable(event);
+            }
+
+            recording.start();
+
+            OziMapReader reader = new OziMapReader(TestData.file(OziEventsTest.class, "02-merc/merc-nad27.map"));
+
+            try {
+                assertNotNull(reader.read(null));
+            } finally {
+                reader.dispose();
+            }
+
+            recording.stop();
+            recording.dump(dump);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+
+        RecordedEvent mapParse = getEvent(events, EVENTS[0]);
+
+        assertTrue(mapParse.getString("file").endsWith("merc-nad27.map"));
+        assertTrue(mapParse.getInt("lineCount") > 0);
+        assertTrue(mapParse.getInt("calibrationPointCount") > 0);
+
+        RecordedEvent crs = getEvent(events, EVENTS[1]);
+
+        assertEquals("Mercator", crs.getString("projection"));
+
+        RecordedEvent rasterOpen = getEvent(events, EVENTS[2]);
+
+        assertTrue(rasterOpen.getInt("width") > 0);
+        assertTrue(rasterOpen.getInt("height") > 0);
+        assertNotNull(rasterOpen.getString("readerSpi"));
+
+        RecordedEvent read = getEvent(events, EVENTS[3]);
+
+        assertEquals(0, read.getInt("imageIndex"));
+        assertEquals(rasterOpen.getInt("width"), read.getInt("sourceWidth"));
+        assertFalse(read.getBoolean("reprojected"));
+    }
+
+    private static RecordedEvent getEvent(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .collect(Collectors.toList());
+
+        assertEquals(name, 1, matching.size());
+
+        return matching.get(0);
+    }
+}
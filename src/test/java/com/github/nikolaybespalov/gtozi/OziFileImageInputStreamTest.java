@@ -0,0 +1,117 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.factory.Hints;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.Raster;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OziFileImageInputStreamTest {
+    private static final int FILE_SIZE = 3 * OziFileImageInputStream.BUFFER_SIZE + 123;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] data = new byte[FILE_SIZE];
+
+        new Random(42).nextBytes(data);
+
+        file = temporaryFolder.newFile("data.bin");
+
+        Files.write(file.toPath(), data);
+    }
+
+    private void assertSameAsFileImageInputStream(boolean mapped) throws Exception {
+        Random random = new Random(7);
+
+        try (ImageInputStream expected = new FileImageInputStream(file);
+             OziFileImageInputStream actual = new OziFileImageInputStream(file, mapped)) {
+            assertEquals(mapped, actual.isMapped());
+            assertEquals(expected.length(), actual.length());
+
+            for (int i = 0; i < 500; ++i) {
+                long pos = random.nextInt(FILE_SIZE);
+
+                expected.seek(pos);
+                actual.seek(pos);
+
+                switch (i % 4) {
+                    case 0:
+                        assertEquals(expected.read(), actual.read());
+                        break;
+                    case 1:
+                        byte[] expectedBytes = new byte[random.nextInt(2 * OziFileImageInputStream.BUFFER_SIZE)];
+                        byte[] actualBytes = new byte[expectedBytes.length];
+
+                        expected.readFully(expectedBytes, 0, (int) Math.min(expectedBytes.length, FILE_SIZE - pos));
+                        actual.readFully(actualBytes, 0, (int) Math.min(actualBytes.length, FILE_SIZE - pos));
+
+                        assertArrayEquals(expectedBytes, actualBytes);
+                        break;
+                    case 2:
+                        if (pos + 4 <= FILE_SIZE) {
+                            assertEquals(expected.readInt(), actual.readInt());
+                        }
+                        break;
+                    default:
+                        if (pos + 2 <= FILE_SIZE) {
+                            assertEquals(expected.readBits(13), actual.readBits(13));
+                        }
+                        break;
+                }
+
+                assertEquals(expected.getStreamPosition(), actual.getStreamPosition());
+            }
+
+            expected.seek(FILE_SIZE);
+            actual.seek(FILE_SIZE);
+
+            assertEquals(-1, actual.read());
+            assertEquals(-1, actual.read(new byte[10], 0, 10));
+        }
+    }
+
+    @Test
+    public void bufferedStreamShouldReadTheSameBytes() throws Exception {
+        assertSameAsFileImageInputStream(false);
+    }
+
+    @Test
+    public void mappedStreamShouldReadTheSameBytes() throws Exception {
+        assertSameAsFileImageInputStream(true);
+    }
+
+    @Test
+    public void mappedReaderShouldReturnTheSamePixels() throws Exception {
+        File mapFile = TestData.file(OziFileImageInputStreamTest.class, "02-merc/merc-nad27.map");
+
+        OziMapReader buffered = new OziMapReader(mapFile);
+        OziMapReader mapped = new OziMapReader(mapFile, new Hints(OziMapReader.MEMORY_MAPPED_RASTER, Boolean.TRUE));
+
+        try {
+            Raster expected = buffered.read(null).getRenderedImage().getData();
+            Raster actual = mapped.read(null).getRenderedImage().getData();
+
+            assertArrayEquals(
+                    expected.getPixels(0, 0, expected.getWidth(), expected.getHeight(), (int[]) null),
+                    actual.getPixels(0, 0, actual.getWidth(), actual.getHeight(), (int[]) null));
+        } finally {
+            buffered.dispose();
+            mapped.dispose();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.data.DataSourceException;
+import org.junit.Test;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.awt.*;
+
+import static org.junit.Assert.*;
+
+public class OziGcpTransformTest {
+    /**
+     * Raster coordinates of a 4x4 lattice of calibration points over a 1000x800 raster.
+     */
+    private static double[] pixels() {
+        double[] pixels = new double[32];
+
+        for (int j = 0; j < 4; ++j) {
+            for (int i = 0; i < 4; ++i) {
+                pixels[(j * 4 + i) * 2] = i * 333 + j * 7;
+                pixels[(j * 4 + i) * 2 + 1] = j * 266 + i * 5;
+            }
+        }
+
+        return pixels;
+    }
+
+    private static double[] quadratic(double x, double y) {
+        return new double[]{
+                500000 + 10 * x + 0.5 * y + 0.0001 * x * x,
+                6000000 - 10 * y + 0.3 * x + 0.0002 * x * y};
+    }
+
+    private static double[] points(double[] pixels) {
+        double[] points = new double[pixels.length];
+
+        for (int p = 0; p < pixels.length; p += 2) {
+            double[] point = quadratic(pixels[p], pixels[p + 1]);
+
+            points[p] = point[0];
+            points[p + 1] = point[1];
+        }
+
+        return points;
+    }
+
+    @Test
+    public void polynomialShouldReproduceQuadraticMapping() throws Exception {
+        double[] pixels = pixels();
+
+        MathTransform transform = OziGcpTransform.create(OziGcpModel.POLYNOMIAL_2, pixels, points(pixels), new Dimension(1000, 800));
+
+        double[] actual = new double[2];
+
+        for (double[] pixel : new double[][]{{0, 0}, {123.5, 456.5}, {999, 799}, {1500, -200}}) {
+            transform.transform(pixel, 0, actual, 0, 1);
+
+            double[] expected = quadratic(pixel[0], pixel[1]);
+
+            // Inside of the raster the interpolation grid is used, outside the polynomial itself
+            assertEquals(expected[0], actual[0], 0.1);
+            assertEquals(expected[1], actual[1], 0.1);
+        }
+    }
+
+    @Test
+    public void inverseShouldReturnToTheRaster() throws Exception {
+        double[] pixels = pixels();
+
+        for (OziGcpModel model : new OziGcpModel[]{OziGcpModel.POLYNOMIAL_2, OziGcpModel.POLYNOMIAL_3, OziGcpModel.THIN_PLATE_SPLINE}) {
+            MathTransform transform = OziGcpTransform.create(model, pixels, points(pixels), new Dimension(1000, 800));
+
+            double[] point = new double[2];
+            double[] pixel = new double[2];
+
+            transform.transform(new double[]{400, 300}, 0, point, 0, 1);
+            transform.inverse().transform(point, 0, pixel, 0, 1);
+
+            assertEquals(model.toString(), 400, pixel[0], 0.5);
+            assertEquals(model.toString(), 300, pixel[1], 0.5);
+        }
+    }
+
+    @Test
+    public void thinPlateSplineShouldPassThroughCalibrationPoints() throws Exception {
+        double[] pixels = pixels();
+        double[] points = points(pixels);
+
+        // Exact evaluation without interpolation grids
+        MathTransform transform = OziGcpTransform.create(OziGcpModel.THIN_PLATE_SPLINE, pixels, points, null);
+
+        double[] actual = new double[pixels.length];
+
+        transform.transform(pixels, 0, actual, 0, pixels.length / 2);
+
+        assertArrayEquals(points, actual, 1e-4);
+    }
+
+    @Test(expected = DataSourceException.class)
+    public void tooFewCalibrationPointsShouldBeRejected() throws Exception {
+        double[] pixels = {0, 0, 100, 0, 0, 100, 100, 100};
+
+        OziGcpTransform.create(OziGcpModel.POLYNOMIAL_2, pixels, points(pixels), null);
+    }
+}
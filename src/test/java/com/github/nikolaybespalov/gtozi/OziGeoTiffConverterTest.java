@@ -0,0 +1,176 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.parameter.ParameterValueGroup;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.crs.GeographicCRS;
+import org.opengis.referencing.crs.ProjectedCRS;
+
+import java.awt.image.Raster;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class OziGeoTiffConverterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void convertShouldWriteGeoTiffsAndResume() throws Exception {
+        Path mapDir = TestData.file(OziGeoTiffConverterTest.class, "01-latlon/latlon-wgs84.map").toPath().getParent();
+        Path outputDir = folder.newFolder().toPath();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        try {
+            // Less than two maps at a time fit into the budget
+            OziGeoTiffConverter converter = new OziGeoTiffConverter(outputDir, pool, 4 << 20, true);
+
+            OziGeoTiffConverter.Result result = converter.convert(Collections.singletonList(mapDir));
+
+            assertEquals(2, result.getConvertedFiles());
+            assertEquals(0, result.getSkippedFiles());
+            assertEquals(0, result.getFailedFiles());
+            assertTrue(result.getBytesRead() > 0);
+            assertTrue(result.getBytesWritten() > 0);
+
+            OziGeoTiffConverter.Result resumed = converter.convert(Collections.singletonList(mapDir));
+
+            assertEquals(0, resumed.getConvertedFiles());
+            assertEquals(2, resumed.getSkippedFiles());
+        } finally {
+            pool.shutdown();
+        }
+
+        OziMapReader oziReader = new OziMapReader(mapDir.resolve("latlon-wgs84.map").toFile());
+        GeoTiffReader geoTiffReader = new GeoTiffReader(outputDir.resolve("latlon-wgs84.tif").toFile());
+
+        try {
+            assertEquals(oziReader.getOriginalGridRange(), geoTiffReader.getOriginalGridRange());
+            assertEquals(OziGeoTiffConverter.getOverviewCount(720, 360), geoTiffReader.getDatasetLayout().getNumInternalOverviews());
+            assertTrue(CRS.getHorizontalCRS(geoTiffReader.getCoordinateReferenceSystem()) instanceof GeographicCRS);
+
+            GeneralEnvelope expected = oziReader.getOriginalEnvelope();
+            GeneralEnvelope actual = geoTiffReader.getOriginalEnvelope();
+
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(expected.getMinimum(i), actual.getMinimum(i), 1e-6);
+                assertEquals(expected.getMaximum(i), actual.getMaximum(i), 1e-6);
+            }
+        } finally {
+            geoTiffReader.dispose();
+            oziReader.dispose();
+        }
+    }
+
+    @Test
+    public void projectedMapsShouldKeepTheirProjection() throws Exception {
+        Path outputDir = folder.newFolder().toPath();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        try {
+            OziGeoTiffConverter.Result result = new OziGeoTiffConverter(outputDir, pool, 4 << 20, true).convert(Arrays.asList(
+                    TestData.file(OziGeoTiffConverterTest.class, "02-merc/merc-nad27.map").toPath(),
+                    TestData.file(OziGeoTiffConverterTest.class, "03-tmerc/gk5-pul42.map").toPath()));
+
+            assertEquals(2, result.getConvertedFiles());
+            assertEquals(0, result.getFailedFiles());
+        } finally {
+            pool.shutdown();
+        }
+
+        assertProjection("02-merc/merc-nad27.map", outputDir.resolve("merc-nad27.tif"), "Mercator_1SP");
+        assertProjection("03-tmerc/gk5-pul42.map", outputDir.resolve("gk5-pul42.tif"), "Transverse_Mercator");
+    }
+
+    private static void assertProjection(String mapFile, Path geoTiffFile, String method) throws Exception {
+        OziMapReader oziReader = new OziMapReader(TestData.file(OziGeoTiffConverterTest.class, mapFile));
+        GeoTiffReader geoTiffReader = new GeoTiffReader(geoTiffFile.toFile());
+
+        try {
+            CoordinateReferenceSystem crs = CRS.getHorizontalCRS(geoTiffReader.getCoordinateReferenceSystem());
+
+            assertTrue(crs instanceof ProjectedCRS);
+
+            ParameterValueGroup expected = ((ProjectedCRS) CRS.getHorizontalCRS(oziReader.getCoordinateReferenceSystem())).getConversionFromBase().getParameterValues();
+            ParameterValueGroup actual = ((ProjectedCRS) crs).getConversionFromBase().getParameterValues();
+
+            assertTrue(OziMapWriter.isMethod(((ProjectedCRS) crs).getConversionFromBase(), actual, method));
+
+            for (String parameter : new String[]{"central_meridian", "latitude_of_origin", "false_easting", "false_northing", "scale_factor"}) {
+                assertEquals(parameter, expected.parameter(parameter).doubleValue(), actual.parameter(parameter).doubleValue(), 1e-9);
+            }
+
+            GeneralEnvelope expectedEnvelope = oziReader.getOriginalEnvelope();
+            GeneralEnvelope actualEnvelope = geoTiffReader.getOriginalEnvelope();
+
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(expectedEnvelope.getMinimum(i), actualEnvelope.getMinimum(i), 1e-3);
+                assertEquals(expectedEnvelope.getMaximum(i), actualEnvelope.getMaximum(i), 1e-3);
+            }
+
+            Raster expectedRaster = oziReader.read(null).getRenderedImage().getData();
+            Raster actualRaster = geoTiffReader.read(null).getRenderedImage().getData();
+
+            assertArrayEquals(
+                    expectedRaster.getPixels(0, 0, expectedRaster.getWidth(), expectedRaster.getHeight(), (int[]) null),
+                    actualRaster.getPixels(0, 0, actualRaster.getWidth(), actualRaster.getHeight(), (int[]) null));
+        } finally {
+            geoTiffReader.dispose();
+            oziReader.dispose();
+        }
+    }
+
+    @Test
+    public void failedMapShouldBeCounted() throws Exception {
+        Path outputDir = folder.newFolder().toPath();
+
+        ForkJoinPool pool = new ForkJoinPool(1);
+
+        try {
+            OziGeoTiffConverter converter = new OziGeoTiffConverter(outputDir, pool, 1 << 20, false);
+
+            OziGeoTiffConverter.Result result = converter.convert(Collections.singletonList(
+                    TestData.file(OziGeoTiffConverterTest.class, "bad/nodatum1.map").toPath()));
+
+            assertEquals(0, result.getConvertedFiles());
+            assertEquals(1, result.getFailedFiles());
+            assertFalse(Files.exists(outputDir.resolve("nodatum1.tif")));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void overviewsShouldShrinkToOneTile() {
+        assertEquals(0, OziGeoTiffConverter.getOverviewCount(256, 100));
+        assertEquals(1, OziGeoTiffConverter.getOverviewCount(257, 100));
+        assertEquals(3, OziGeoTiffConverter.getOverviewCount(100, 2048));
+    }
+
+    @Test
+    public void stripsShouldFitIntoTheBudget() {
+        // The whole map fits
+        assertEquals(1000, OziGeoTiffConverter.getStripHeight(1000, 1000, 64 << 20));
+
+        long budget = OziGeoTiffConverter.getWorkingSetSize(1000, 600);
+        int stripHeight = OziGeoTiffConverter.getStripHeight(1000, 10000, budget);
+
+        assertEquals(512, stripHeight);
+        assertTrue(OziGeoTiffConverter.getWorkingSetSize(1000, stripHeight) <= budget);
+
+        // At least a row of tiles whatever the budget
+        assertEquals(OziGeoTiffConverter.TILE_SIZE, OziGeoTiffConverter.getStripHeight(1000, 10000, 1024));
+    }
+}
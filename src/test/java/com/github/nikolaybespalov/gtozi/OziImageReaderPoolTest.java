@@ -0,0 +1,124 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.factory.Hints;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class OziImageReaderPoolTest {
+    private static final String MAP_FILE_PATH = "02-merc/merc-nad27.map";
+    private static final int POOL_SIZE = 2;
+    private static final int THREADS = 8;
+    private static final int READS_PER_THREAD = 25;
+
+    private OziMapReader reference;
+    private OziMapReader pooled;
+
+    @Before
+    public void setUp() throws Exception {
+        reference = new OziMapReader(TestData.file(OziImageReaderPoolTest.class, MAP_FILE_PATH));
+        pooled = new OziMapReader(TestData.file(OziImageReaderPoolTest.class, MAP_FILE_PATH),
+                new Hints(OziMapReader.READER_POOL_SIZE, POOL_SIZE));
+    }
+
+    @After
+    public void tearDown() {
+        reference.dispose();
+        pooled.dispose();
+    }
+
+    private static int[] pixels(GridCoverage2D coverage) {
+        Raster raster = coverage.getRenderedImage().getData();
+
+        return raster.getPixels(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), (int[]) null);
+    }
+
+    private GeneralParameterValue[] quarterRequest() {
+        final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        final Rectangle rasterArea = ((GridEnvelope2D) reference.getOriginalGridRange());
+        rasterArea.setSize(rasterArea.width / 4, rasterArea.height / 4);
+        gg.setValue(new GridGeometry2D(new GridEnvelope2D(rasterArea), reference.getOriginalEnvelope()));
+
+        return new GeneralParameterValue[]{gg};
+    }
+
+    @Test
+    public void pooledReadShouldReturnTheSamePixels() throws Exception {
+        assertArrayEquals(pixels(reference.read(null)), pixels(pooled.read(null)));
+        assertArrayEquals(pixels(reference.read(quarterRequest())), pixels(pooled.read(quarterRequest())));
+    }
+
+    @Test
+    public void concurrentReadsShouldReturnTheSamePixels() throws Exception {
+        final int[] full = pixels(reference.read(null));
+        final int[] quarter = pixels(reference.read(quarterRequest()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+
+            for (int t = 0; t < THREADS; ++t) {
+                final boolean useQuarter = t % 2 == 1;
+
+                futures.add(executor.submit((Callable<Void>) () -> {
+                    for (int i = 0; i < READS_PER_THREAD; ++i) {
+                        if (useQuarter) {
+                            assertArrayEquals(quarter, pixels(pooled.read(quarterRequest())));
+                        } else {
+                            assertArrayEquals(full, pixels(pooled.read(null)));
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leaseShouldReuseReturnedReaders() throws Exception {
+        OziImageReaderPool pool = new OziImageReaderPool(pooled.getRasterFile(),
+                OziRasterFiles.getInputStreamSpi(pooled.getRasterFile()),
+                ImageIO.getImageReadersBySuffix("jpg").next().getOriginatingProvider(), 1);
+
+        OziImageReaderPool.Lease lease = pool.lease();
+        Object reader = lease.getReader();
+        lease.close();
+
+        assertEquals(1, pool.getIdleCount());
+
+        lease = pool.lease();
+        assertSame(reader, lease.getReader());
+
+        lease.invalidate();
+        lease.close();
+
+        assertEquals(0, pool.getIdleCount());
+    }
+}
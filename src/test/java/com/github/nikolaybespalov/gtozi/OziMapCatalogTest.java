@@ -0,0 +1,163 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.TestData;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OziMapCatalogTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File mapsDir;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mapsDir = temporaryFolder.newFolder("maps");
+        indexFile = temporaryFolder.getRoot().toPath().resolve("catalog.idx");
+
+        FileUtils.copyDirectory(TestData.file(OziMapCatalogTest.class, "04-utm"), mapsDir);
+    }
+
+    @Test
+    public void scanShouldCatalogAllMaps() throws Exception {
+        OziMapCatalog catalog = OziMapCatalog.open(indexFile);
+
+        catalog.scan(mapsDir.toPath());
+
+        assertEquals(3, catalog.size());
+    }
+
+    @Test
+    public void queryShouldReturnOnlyIntersectingMaps() throws Exception {
+        OziMapCatalog catalog = OziMapCatalog.open(indexFile);
+
+        catalog.scan(mapsDir.toPath());
+
+        List<OziMapCatalog.Entry> entries = catalog.query(new ReferencedEnvelope(-117.5, -117.4, 33.7, 33.8, DefaultGeographicCRS.WGS84));
+
+        assertEquals(1, entries.size());
+        assertEquals("utm11-nad27.map", entries.get(0).getMapFile().getFileName().toString());
+        assertEquals(120, entries.get(0).getWidth());
+
+        assertTrue(catalog.query(new ReferencedEnvelope(10, 11, 10, 11, DefaultGeographicCRS.WGS84)).isEmpty());
+    }
+
+    @Test
+    public void openShouldRestoreSavedIndex() throws Exception {
+        OziMapCatalog.open(indexFile).scan(mapsDir.toPath());
+
+        OziMapCatalog catalog = OziMapCatalog.open(indexFile);
+
+        assertEquals(3, catalog.size());
+        assertEquals(1, catalog.query(new ReferencedEnvelope(-117.5, -117.4, 33.7, 33.8, DefaultGeographicCRS.WGS84)).size());
+        assertNotNull(catalog.getEntries().iterator().next().getCoordinateReferenceSystem());
+    }
+
+    @Test
+    public void scanShouldDropDeletedMaps() throws Exception {
+        OziMapCatalog catalog = OziMapCatalog.open(indexFile);
+
+        catalog.scan(mapsDir.toPath());
+
+        assertTrue(new File(mapsDir, "utm11-nad27.map").delete());
+
+        catalog.scan(mapsDir.toPath());
+
+        assertEquals(2, catalog.size());
+    }
+
+    @Test
+    public void stringsLongerThan64KbShouldBeStored() throws Exception {
+        char[] chars = new char[100_000];
+        Arrays.fill(chars, 'Ж');
+
+        String wkt = new String(chars);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            OziMapCatalog.writeString(out, wkt);
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals(wkt, OziMapCatalog.readString(in));
+        }
+    }
+
+    @Test
+    public void mapsOverlappingTheAntimeridianShouldBeNormalizedAndFoundOnBothSides() throws Exception {
+        File chukotkaDir = temporaryFolder.newFolder("chukotka");
+
+        FileUtils.copyFile(TestData.file(OziMapCatalogTest.class, "01-latlon/latlon-wgs84.jpg"), new File(chukotkaDir, "chukotka.jpg"));
+
+        // The eastern corners are west of Greenwich, the MMPLL lines mark the map as overlapping 180
+        Path mapFile = chukotkaDir.toPath().resolve("chukotka.map");
+
+        Files.write(mapFile, Arrays.asList(
+                "OziExplorer Map Data File Version 2.1",
+                "chukotka",
+                "chukotka.jpg",
+                "1 ,Map Code,",
+                "WGS 84,WGS 84,   0.0000,   0.0000,WGS 84",
+                "Reserved 1",
+                "Reserved 2",
+                "Magnetic Variation,,,E",
+                "Map Projection,Latitude/Longitude,PolyCal,No,AutoCalOnly,No,BSBUseWPX,No",
+                "Point01,xy,    0,    0,in, deg,  62,  0.0000,N, 179,  0.0000,E, grid,   ,           ,           ,N",
+                "Point02,xy,  720,    0,in, deg,  62,  0.0000,N, 179,  0.0000,W, grid,   ,           ,           ,N",
+                "Point03,xy,    0,  360,in, deg,  60,  0.0000,N, 179,  0.0000,E, grid,   ,           ,           ,N",
+                "Point04,xy,  720,  360,in, deg,  60,  0.0000,N, 179,  0.0000,W, grid,   ,           ,           ,N",
+                "Projection Setup,,,,,,,,,",
+                "MM0,Yes",
+                "MMPNUM,4",
+                "MMPXY,1,0,0",
+                "MMPXY,2,720,0",
+                "MMPXY,3,720,360",
+                "MMPXY,4,0,360",
+                "MMPLL, 1, 179.000000,  62.000000",
+                "MMPLL, 2, -179.000000,  62.000000",
+                "MMPLL, 3, -179.000000, 60.000000",
+                "MMPLL, 4, 179.000000, 60.000000",
+                "IWH,Map Image Width/Height,720,360"), StandardCharsets.ISO_8859_1);
+
+        OziMapCatalog.Entry entry = OziMapCatalog.createEntry(mapFile, 0, 0);
+
+        double[] wgs84 = entry.getWgs84Envelope();
+
+        assertEquals(179, wgs84[0], 0.01);
+        assertEquals(-179, wgs84[2], 0.01);
+        assertEquals(2.0 / 720, entry.getWgs84Resolution(), 1e-4);
+
+        OziMapCatalog catalog = OziMapCatalog.open(indexFile);
+
+        catalog.scan(chukotkaDir.toPath());
+
+        assertEquals(1, catalog.query(new ReferencedEnvelope(179.4, 179.6, 60.5, 61.5, DefaultGeographicCRS.WGS84)).size());
+        assertEquals(1, catalog.query(new ReferencedEnvelope(-179.6, -179.4, 60.5, 61.5, DefaultGeographicCRS.WGS84)).size());
+        assertEquals(1, catalog.query(new ReferencedEnvelope(180.4, 180.6, 60.5, 61.5, DefaultGeographicCRS.WGS84)).size());
+        assertTrue(catalog.query(new ReferencedEnvelope(170, 171, 60.5, 61.5, DefaultGeographicCRS.WGS84)).isEmpty());
+    }
+
+    @Test
+    public void longitudesShouldBeNormalized() {
+        assertArrayEquals(new double[]{179, -179}, OziMapCatalog.normalizeLongitudes(179, 181), 1e-9);
+        assertArrayEquals(new double[]{179, -179}, OziMapCatalog.normalizeLongitudes(-181, -179), 1e-9);
+        assertArrayEquals(new double[]{-180, 180}, OziMapCatalog.normalizeLongitudes(-180, 180), 1e-9);
+        assertArrayEquals(new double[]{10, 20}, OziMapCatalog.normalizeLongitudes(370, 380), 1e-9);
+    }
+}
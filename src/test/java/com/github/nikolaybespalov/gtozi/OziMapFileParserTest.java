@@ -0,0 +1,55 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+public class OziMapFileParserTest {
+    @Test
+    public void parseShouldReadHeaderAndCalibrationPoints() throws Exception {
+        OziMapFileData data = OziMapFileParser.parse(TestData.file(OziMapFileParserTest.class, "04-utm/utm11-nad27.map").toPath());
+
+        assertEquals("OziExplorer Map Data File Version 2.1", data.header);
+        assertEquals("utm11-nad27", data.title);
+        assertEquals("utm11-nad27.jpg", data.rasterFilename);
+        assertEquals("NAD27 Central", data.datumName);
+        assertEquals("(UTM) Universal Transverse Mercator", data.projectionName);
+        assertNotNull(data.projectionSetup);
+        assertEquals(11, data.utmZone);
+        assertTrue(data.utmNorth);
+        assertEquals(4, data.mmpllCount);
+        assertEquals(9, data.pointCount);
+        assertEquals(60, data.pixelX[1]);
+        assertEquals(33 + 54.1335 / 60.0, data.lat[1], 1e-12);
+        assertEquals(-(117 + 28.4386 / 60.0), data.lon[1], 1e-12);
+        assertTrue(data.west[1]);
+        assertEquals(120, data.imageWidth);
+        assertEquals(120, data.imageHeight);
+    }
+
+    @Test
+    public void parseShouldFallBackToGridCoordinates() throws Exception {
+        OziMapFileData data = OziMapFileParser.parse(new BufferedReader(new StringReader(
+                "Point01,xy,    0,    0,in, deg,    ,        ,N,    ,        ,W, grid,   ,     440818,    3751222,N\n")));
+
+        assertEquals(1, data.pointCount);
+        assertFalse(data.hasLatLon(0));
+        assertTrue(data.hasGrid(0));
+        assertEquals(440818, data.gridX[0], 0);
+        assertEquals(3751222, data.gridY[0], 0);
+        assertFalse(data.utmZoneFound);
+    }
+
+    @Test
+    public void tokenizerShouldTrimValuesAndKeepEmptyOnes() {
+        OziMapFileParser.LineTokenizer tokenizer = new OziMapFileParser.LineTokenizer().reset(" a , b,, c ,");
+
+        assertArrayEquals(new String[]{"a", "b", "", "c", ""}, tokenizer.values());
+        assertTrue(tokenizer.isEmpty(2));
+        assertTrue(tokenizer.valueEquals(3, "c"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class OziMapFileProbeTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static ByteBuffer bytes(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    public void matchesShouldAcceptKnownVersions() {
+        assertTrue(OziMapFileProbe.matches(bytes("OziExplorer Map Data File Version 2.1\r\n")));
+        assertTrue(OziMapFileProbe.matches(bytes("OziExplorer Map Data File Version 2.2\n")));
+        assertTrue(OziMapFileProbe.matches(bytes("OziExplorer Map Data File Version 2.2")));
+    }
+
+    @Test
+    public void matchesShouldRejectUnknownHeaders() {
+        assertFalse(OziMapFileProbe.matches(bytes("OziExplorer Map Data File Version 2.3\r\n")));
+        assertFalse(OziMapFileProbe.matches(bytes("OziExplorer Map Data File Version 2.10")));
+        assertFalse(OziMapFileProbe.matches(bytes("OziExplorer Map Da")));
+        assertFalse(OziMapFileProbe.matches(bytes("")));
+    }
+
+    @Test
+    public void isMapFileShouldNoticeChangedFiles() throws Exception {
+        Path file = temporaryFolder.newFile("test.map").toPath();
+
+        assertFalse(OziMapFileProbe.isMapFile(file));
+
+        Files.write(file, "OziExplorer Map Data File Version 2.1\r\n".getBytes(StandardCharsets.US_ASCII));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+
+        assertTrue(OziMapFileProbe.isMapFile(file));
+    }
+
+    @Test
+    public void isMapFileShouldRejectDirectories() throws Exception {
+        assertFalse(OziMapFileProbe.isMapFile(temporaryFolder.getRoot().toPath()));
+    }
+}
@@ -2,6 +2,7 @@ package com.github.nikolaybespalov.gtozi;
 
 import org.geotools.TestData;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
 import org.geotools.factory.GeoTools;
 import org.junit.Test;
 import org.opengis.parameter.ParameterValueGroup;
@@ -66,23 +67,43 @@ public class OziMapFormatTest {
     }
 
     @Test
-    public void getWriterShouldReturnNull() throws Exception {
-        assertNull(format.getWriter(TestData.file(OziMapFormatTest.class, "02-merc/merc-nad27.map")));
-        assertNull(format.getWriter(TestData.file(OziMapFormatTest.class, "02-merc/merc-nad27.map"), GeoTools.getDefaultHints()));
+    public void getWriterWithNullShouldReturnNull() {
+        assertNull(format.getWriter(null));
     }
 
     @Test
-    public void getDefaultImageIOWriteParametersShouldReturnNull() {
-        assertNull(format.getDefaultImageIOWriteParameters());
+    public void getWriterWithFileShouldReturnWriter() throws Exception {
+        assertNotNull(format.getWriter(TestData.file(OziMapFormatTest.class, "02-merc/merc-nad27.map")));
+        assertNotNull(format.getWriter(TestData.file(OziMapFormatTest.class, "02-merc/merc-nad27.map"), GeoTools.getDefaultHints()));
     }
 
     @Test
-    public void getReadParametersShouldReturnTwoParameters() {
+    public void getDefaultImageIOWriteParametersShouldReturnDeflateTiling() {
+        GeoToolsWriteParams writeParams = format.getDefaultImageIOWriteParameters();
+
+        assertNotNull(writeParams);
+        assertTrue(writeParams.canWriteTiles());
+        assertTrue(writeParams.canWriteCompressed());
+    }
+
+    @Test
+    public void getWriteParametersShouldReturnWriteParams() {
+        ParameterValueGroup writeParameters = format.getWriteParameters();
+
+        assertEquals(1, writeParameters.values().size());
+        assertEquals(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName(), writeParameters.values().get(0).getDescriptor().getName());
+    }
+
+    @Test
+    public void getReadParametersShouldReturnFiveParameters() {
         ParameterValueGroup readParameters = format.getReadParameters();
 
-        assertEquals(2, readParameters.values().size());
+        assertEquals(5, readParameters.values().size());
 
         assertEquals(AbstractGridFormat.READ_GRIDGEOMETRY2D.getName(), readParameters.values().get(0).getDescriptor().getName());
         assertEquals(AbstractGridFormat.SUGGESTED_TILE_SIZE.getName(), readParameters.values().get(1).getDescriptor().getName());
+        assertEquals(AbstractGridFormat.OVERVIEW_POLICY.getName(), readParameters.values().get(2).getDescriptor().getName());
+        assertEquals(OziMapFormat.WARP_TOLERANCE.getName(), readParameters.values().get(3).getDescriptor().getName());
+        assertEquals(OziMapFormat.RECTIFY.getName(), readParameters.values().get(4).getDescriptor().getName());
     }
 }
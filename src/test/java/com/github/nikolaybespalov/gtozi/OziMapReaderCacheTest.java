@@ -0,0 +1,106 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.TestData;
+import org.geotools.factory.Hints;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNoException;
+
+public class OziMapReaderCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OziMapReaderCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new OziMapReaderCache(1, 1, TimeUnit.HOURS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        OziMapFormat.setReaderCache(null);
+        cache.close();
+    }
+
+    @Test
+    public void getShouldReturnTheSameReader() throws Exception {
+        File mapFile = TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.map");
+
+        assertSame(cache.get(mapFile, new Hints()), cache.get(mapFile.toPath(), new Hints()));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void getWithDifferentHintsShouldReturnDifferentReaders() throws Exception {
+        File mapFile = TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.map");
+
+        assertNotSame(cache.get(mapFile, new Hints()), cache.get(mapFile, new Hints(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE)));
+    }
+
+    @Test
+    public void getShouldEvictEldestReaders() throws Exception {
+        cache.get(TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.map"), new Hints());
+        cache.get(TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-wgs84.map"), new Hints());
+
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void invalidateShouldRemoveReadersOfRasterFile() throws Exception {
+        File mapFile = TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.map");
+
+        OziMapReader reader = cache.get(mapFile, new Hints());
+
+        cache.invalidate(TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.jpg").getCanonicalFile().toPath());
+
+        assertEquals(0, cache.size());
+        assertNotSame(reader, cache.get(mapFile, new Hints()));
+    }
+
+    @Test
+    public void formatShouldUseReaderCache() throws Exception {
+        OziMapFormat.setReaderCache(cache);
+
+        File mapFile = TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.map");
+
+        OziMapFormat format = new OziMapFormat();
+
+        assertSame(format.getReader(mapFile), format.getReader(mapFile));
+    }
+
+    @Test
+    public void invalidateShouldFollowSymbolicLinksOfRasterFile() throws Exception {
+        File mapsDir = folder.newFolder("maps");
+        File rastersDir = folder.newFolder("rasters");
+
+        FileUtils.copyFileToDirectory(TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.map"), mapsDir);
+        FileUtils.copyFileToDirectory(TestData.file(OziMapReaderCacheTest.class, "02-merc/merc-nad27.jpg"), rastersDir);
+
+        Path rasterFile = new File(rastersDir, "merc-nad27.jpg").toPath();
+
+        try {
+            Files.createSymbolicLink(new File(mapsDir, "merc-nad27.jpg").toPath(), rasterFile);
+        } catch (IOException | UnsupportedOperationException e) {
+            assumeNoException(e);
+        }
+
+        cache.get(new File(mapsDir, "merc-nad27.map"), new Hints());
+
+        cache.invalidate(rasterFile);
+
+        assertEquals(0, cache.size());
+    }
+}
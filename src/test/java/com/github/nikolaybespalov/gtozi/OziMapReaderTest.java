@@ -1,21 +1,40 @@
 package com.github.nikolaybespalov.gtozi;
 
+import org.apache.commons.io.FileUtils;
 import org.geotools.TestData;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.data.DataSourceException;
 import org.geotools.data.FileServiceInfo;
+import org.geotools.factory.Hints;
 import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
 
+import javax.media.jai.ROI;
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.Raster;
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -107,4 +126,272 @@ public class OziMapReaderTest {
 
         assertEquals(range, coverage.getGridGeometry().getGridRange2D());
     }
+
+    @Test
+    public void lazyRasterOpenShouldTakeSizeFromMapFile() throws Exception {
+        AbstractGridCoverage2DReader lazyReader = new OziMapReader(TestData.file(CrsTest.class, MAP_FILE_PATH),
+                new Hints(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE));
+
+        try {
+            assertEquals(reader.getOriginalGridRange(), lazyReader.getOriginalGridRange());
+            assertEquals(reader.getOriginalEnvelope(), lazyReader.getOriginalEnvelope());
+            assertNotNull(lazyReader.read(null));
+        } finally {
+            lazyReader.dispose();
+        }
+    }
+
+    @Test
+    public void lazyRasterOpenShouldFailIfRasterSizeDiffersFromMapFile() throws Exception {
+        File dir = Files.createTempDirectory("gt-ozi").toFile();
+
+        try {
+            FileUtils.copyDirectory(TestData.file(CrsTest.class, "02-merc"), dir);
+
+            File mapFile = new File(dir, COVERAGE_NAME + ".map");
+
+            String map = new String(Files.readAllBytes(mapFile.toPath()), StandardCharsets.ISO_8859_1);
+
+            Files.write(mapFile.toPath(), map.replace("IWH,Map Image Width/Height,120,120", "IWH,Map Image Width/Height,240,120")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+
+            OziMapReader lazyReader = new OziMapReader(mapFile, new Hints(OziMapReader.LAZY_RASTER_OPEN, Boolean.TRUE));
+
+            try {
+                assertEquals(240, lazyReader.getOriginalGridRange().getSpan(0));
+                assertThrows(DataSourceException.class, () -> lazyReader.read(null));
+                // The raster is not left half open
+                assertThrows(DataSourceException.class, () -> lazyReader.read(null));
+            } finally {
+                lazyReader.dispose();
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void singleImageRasterShouldHaveNoOverviews() throws IOException {
+        assertEquals(1, reader.getResolutionLevels().length);
+
+        final ParameterValue<OverviewPolicy> policy = AbstractGridFormat.OVERVIEW_POLICY.createValue();
+        policy.setValue(OverviewPolicy.NEAREST);
+
+        GridCoverage2D coverage = reader.read(new GeneralParameterValue[]{policy});
+
+        assertEquals(reader.getOriginalGridRange(), coverage.getGridGeometry().getGridRange2D());
+    }
+
+    @Test
+    public void readAsyncShouldReturnDecodedPixels() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            GridCoverage2D expected = reader.read(null);
+            GridCoverage2D actual = ((OziMapReader) reader).readAsync(null, executor).get();
+
+            Raster expectedRaster = expected.getRenderedImage().getData();
+            Raster actualRaster = actual.getRenderedImage().getData();
+
+            assertEquals(expected.getGridGeometry(), actual.getGridGeometry());
+            assertArrayEquals(
+                    expectedRaster.getPixels(0, 0, expectedRaster.getWidth(), expectedRaster.getHeight(), (int[]) null),
+                    actualRaster.getPixels(0, 0, actualRaster.getWidth(), actualRaster.getHeight(), (int[]) null));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void readAsyncShouldPropagateRasterErrors() throws Exception {
+        File dir = Files.createTempDirectory("gt-ozi").toFile();
+
+        try {
+            FileUtils.copyDirectory(TestData.file(CrsTest.class, "02-merc"), dir);
+
+            OziMapReader brokenReader = new OziMapReader(new File(dir, COVERAGE_NAME + ".map"));
+
+            Files.write(new File(dir, COVERAGE_NAME + ".jpg").toPath(), new byte[]{1, 2, 3});
+
+            try {
+                brokenReader.readAsync(null, Runnable::run).get();
+                fail("Read of a broken raster should fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            } finally {
+                brokenReader.dispose();
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    @Test
+    public void readBatchShouldReturnTheSamePixelsAsRead() throws Exception {
+        GeneralEnvelope envelope = reader.getOriginalEnvelope();
+
+        GeneralEnvelope quarter = new GeneralEnvelope(
+                new double[]{envelope.getMinimum(0), envelope.getMinimum(1)},
+                new double[]{envelope.getMedian(0), envelope.getMedian(1)});
+        quarter.setCoordinateReferenceSystem(reader.getCoordinateReferenceSystem());
+
+        List<GridGeometry2D> requests = Arrays.asList(
+                new GridGeometry2D(new GridEnvelope2D(0, 0, 60, 60), envelope),
+                new GridGeometry2D(new GridEnvelope2D(0, 0, 60, 60), quarter),
+                new GridGeometry2D(new GridEnvelope2D(0, 0, 30, 30), quarter),
+                new GridGeometry2D(new GridEnvelope2D(0, 0, 40, 40), CRS.transform(quarter, DefaultGeographicCRS.WGS84)));
+
+        List<GridCoverage2D> coverages = ((OziMapReader) reader).readBatch(requests);
+
+        assertEquals(requests.size(), coverages.size());
+
+        // Only the window is read, with at most a pixel of margin
+        double resolutionX = envelope.getSpan(0) / reader.getOriginalGridRange().getSpan(0);
+        double resolutionY = envelope.getSpan(1) / reader.getOriginalGridRange().getSpan(1);
+
+        assertEquals(quarter.getMinimum(0), coverages.get(1).getEnvelope2D().getMinX(), 1.5 * resolutionX);
+        assertEquals(quarter.getMinimum(1), coverages.get(1).getEnvelope2D().getMinY(), 1.5 * resolutionY);
+        assertEquals(quarter.getMaximum(0), coverages.get(1).getEnvelope2D().getMaxX(), 1.5 * resolutionX);
+        assertEquals(quarter.getMaximum(1), coverages.get(1).getEnvelope2D().getMaxY(), 1.5 * resolutionY);
+
+        assertTrue(CRS.equalsIgnoreMetadata(DefaultGeographicCRS.WGS84, coverages.get(3).getCoordinateReferenceSystem2D()));
+
+        for (int i = 0; i < requests.size(); ++i) {
+            final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+            gg.setValue(requests.get(i));
+
+            GridCoverage2D expected = reader.read(new GeneralParameterValue[]{gg});
+
+            Raster expectedRaster = expected.getRenderedImage().getData();
+            Raster actualRaster = coverages.get(i).getRenderedImage().getData();
+
+            assertEquals(expected.getGridGeometry().getGridRange2D(), coverages.get(i).getGridGeometry().getGridRange2D());
+            assertEquals(expected.getEnvelope2D(), coverages.get(i).getEnvelope2D());
+            assertArrayEquals(
+                    expectedRaster.getPixels(0, 0, expectedRaster.getWidth(), expectedRaster.getHeight(), (int[]) null),
+                    actualRaster.getPixels(0, 0, actualRaster.getWidth(), actualRaster.getHeight(), (int[]) null));
+        }
+    }
+
+    @Test
+    public void readWithOtherCrsShouldReturnReprojectedCoverage() throws Exception {
+        GeneralEnvelope envelope = CRS.transform(reader.getOriginalEnvelope(), DefaultGeographicCRS.WGS84);
+
+        final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        gg.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, 100, 80), envelope));
+
+        GridCoverage2D coverage = reader.read(new GeneralParameterValue[]{gg});
+
+        assertTrue(CRS.equalsIgnoreMetadata(DefaultGeographicCRS.WGS84, coverage.getCoordinateReferenceSystem2D()));
+        assertEquals(new GridEnvelope2D(0, 0, 100, 80), coverage.getGridGeometry().getGridRange2D());
+        assertEquals(envelope.getMinimum(0), coverage.getEnvelope2D().getMinX(), 1e-9);
+        assertEquals(envelope.getMaximum(1), coverage.getEnvelope2D().getMaxY(), 1e-9);
+
+        // The map covers the middle of the requested envelope
+        Raster raster = coverage.getRenderedImage().getData();
+
+        assertTrue(Arrays.stream(raster.getPixels(40, 30, 20, 20, (int[]) null)).anyMatch(sample -> sample != 0));
+    }
+
+    @Test
+    public void reprojectedWindowShouldMatchTheWholeRead() throws Exception {
+        GeneralEnvelope envelope = CRS.transform(reader.getOriginalEnvelope(), DefaultGeographicCRS.WGS84);
+
+        GridGeometry2D whole = new GridGeometry2D(new GridEnvelope2D(0, 0, 100, 80), envelope);
+        // A window of the same pixels, the warp grid of the whole read is reused at an offset
+        GridGeometry2D window = new GridGeometry2D(new GridEnvelope2D(20, 10, 50, 40),
+                whole.getGridToCRS(PixelInCell.CELL_CENTER), DefaultGeographicCRS.WGS84);
+
+        final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+
+        gg.setValue(whole);
+        Raster wholeRaster = reader.read(new GeneralParameterValue[]{gg}).getRenderedImage().getData();
+
+        gg.setValue(window);
+        GridCoverage2D coverage = reader.read(new GeneralParameterValue[]{gg});
+
+        assertEquals(window.getEnvelope2D().getMinX(), coverage.getEnvelope2D().getMinX(), 1e-9);
+        assertEquals(window.getEnvelope2D().getMaxY(), coverage.getEnvelope2D().getMaxY(), 1e-9);
+
+        Raster windowRaster = coverage.getRenderedImage().getData();
+
+        assertArrayEquals(wholeRaster.getPixels(20, 10, 50, 40, (int[]) null),
+                windowRaster.getPixels(0, 0, 50, 40, (int[]) null));
+    }
+
+    @Test
+    public void readWithOtherCrsOutsideOfTheMapShouldReturnNull() throws Exception {
+        GeneralEnvelope envelope = new GeneralEnvelope(new double[]{10, 10}, new double[]{11, 11});
+        envelope.setCoordinateReferenceSystem(DefaultGeographicCRS.WGS84);
+
+        final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        gg.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, 16, 16), envelope));
+
+        assertNull(reader.read(new GeneralParameterValue[]{gg}));
+    }
+
+    @Test
+    public void gcpModelShouldBeExposedAsCalibrationTransform() throws Exception {
+        OziMapReader gcpReader = new OziMapReader(TestData.file(CrsTest.class, MAP_FILE_PATH),
+                new Hints(OziMapReader.GCP_MODEL, OziGcpModel.THIN_PLATE_SPLINE));
+
+        try {
+            MathTransform affine = reader.getOriginalGridToWorld(PixelInCell.CELL_CENTER);
+            MathTransform gcp = gcpReader.getCalibrationTransform(PixelInCell.CELL_CENTER);
+
+            assertFalse(gcp instanceof AffineTransform);
+
+            // The grid, envelope and overviews stay affine
+            assertEquals(affine, gcpReader.getOriginalGridToWorld(PixelInCell.CELL_CENTER));
+            assertEquals(reader.getOriginalEnvelope(), gcpReader.getOriginalEnvelope());
+
+            // Both models fit the same calibration points
+            double[] center = {reader.getOriginalGridRange().getSpan(0) / 2.0, reader.getOriginalGridRange().getSpan(1) / 2.0};
+            double[] affinePoint = new double[2];
+            double[] gcpPoint = new double[2];
+
+            affine.transform(center, 0, affinePoint, 0, 1);
+            gcp.transform(center, 0, gcpPoint, 0, 1);
+
+            assertEquals(affinePoint[0], gcpPoint[0], reader.getOriginalEnvelope().getSpan(0) * 0.01);
+            assertEquals(affinePoint[1], gcpPoint[1], reader.getOriginalEnvelope().getSpan(1) * 0.01);
+        } finally {
+            gcpReader.dispose();
+        }
+    }
+
+    @Test
+    public void gcpModelShouldRectifyOnlyWhenRequested() throws Exception {
+        OziMapReader gcpReader = new OziMapReader(TestData.file(CrsTest.class, MAP_FILE_PATH),
+                new Hints(OziMapReader.GCP_MODEL, OziGcpModel.THIN_PLATE_SPLINE));
+
+        try {
+            GridCoverage2D coverage = gcpReader.read(null);
+
+            assertEquals(reader.getOriginalGridRange(), coverage.getGridGeometry().getGridRange());
+            assertFalse(coverage.getProperty(OziMapReader.ROI_PROPERTY) instanceof ROI);
+
+            final ParameterValue<Boolean> rectify = OziMapFormat.RECTIFY.createValue();
+            rectify.setValue(Boolean.TRUE);
+
+            GridCoverage2D rectified = gcpReader.read(new GeneralParameterValue[]{rectify});
+
+            assertEquals(reader.getOriginalGridRange(), rectified.getGridGeometry().getGridRange());
+            assertTrue(rectified.getProperty(OziMapReader.ROI_PROPERTY) instanceof ROI);
+        } finally {
+            gcpReader.dispose();
+        }
+    }
+
+    @Test
+    public void gcpModelWithTooFewPointsShouldFallBackToAffine() throws Exception {
+        OziMapReader gcpReader = new OziMapReader(TestData.file(CrsTest.class, MAP_FILE_PATH),
+                new Hints(OziMapReader.GCP_MODEL, OziGcpModel.POLYNOMIAL_3));
+
+        try {
+            assertEquals(reader.getOriginalGridToWorld(PixelInCell.CELL_CENTER), gcpReader.getCalibrationTransform(PixelInCell.CELL_CENTER));
+        } finally {
+            gcpReader.dispose();
+        }
+    }
 }
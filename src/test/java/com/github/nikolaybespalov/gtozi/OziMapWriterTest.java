@@ -0,0 +1,112 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.data.DataSourceException;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import javax.imageio.ImageWriteParam;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class OziMapWriterTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writtenMapShouldBeReadBack() throws Exception {
+        assertRoundTrip("02-merc/merc-nad27.map", null);
+    }
+
+    @Test
+    public void writtenMapWithoutCompressionShouldBeReadBack() throws Exception {
+        OziMapWriteParams writeParams = new OziMapWriteParams();
+        writeParams.setCompressionMode(ImageWriteParam.MODE_DISABLED);
+        writeParams.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParams.setTiling(64, 32, 0, 0);
+
+        ParameterValue<?> parameter = AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.createValue();
+        parameter.setValue(writeParams);
+
+        assertRoundTrip("01-latlon/latlon-wgs84.map", new GeneralParameterValue[]{parameter});
+    }
+
+    @Test
+    public void unsupportedProjectionShouldThrowBeforeWriting() throws Exception {
+        GridCoverage2D coverage = new GridCoverageFactory().create("coverage",
+                new BufferedImage(16, 16, BufferedImage.TYPE_3BYTE_BGR),
+                new ReferencedEnvelope(0, 1000, 0, 1000, CRS.decode("EPSG:3857", true)));
+
+        File mapFile = new File(temporaryFolder.getRoot(), "pseudo-mercator.map");
+
+        OziMapWriter writer = new OziMapWriter(mapFile);
+
+        try {
+            writer.write(coverage, null);
+
+            fail();
+        } catch (DataSourceException e) {
+            assertFalse(mapFile.exists());
+            assertFalse(writer.getRasterFile().exists());
+        }
+    }
+
+    private void assertRoundTrip(String path, GeneralParameterValue[] parameters) throws Exception {
+        OziMapReader reader = new OziMapReader(TestData.file(OziMapWriterTest.class, path));
+        File mapFile = new File(temporaryFolder.getRoot(), "copy.map");
+
+        try {
+            GridCoverage2D expected = reader.read(null);
+
+            new OziMapWriter(mapFile).write(expected, parameters);
+
+            OziMapReader copyReader = new OziMapReader(mapFile);
+
+            try {
+                GridCoverage2D actual = copyReader.read(null);
+
+                assertTrue(CRS.equalsIgnoreMetadata(expected.getCoordinateReferenceSystem2D(), actual.getCoordinateReferenceSystem2D()));
+                assertEquals(expected.getGridGeometry().getGridRange2D(), actual.getGridGeometry().getGridRange2D());
+
+                double tolerance = expected.getEnvelope2D().getWidth() * 1e-6;
+
+                assertEquals(expected.getEnvelope2D().getMinX(), actual.getEnvelope2D().getMinX(), tolerance);
+                assertEquals(expected.getEnvelope2D().getMinY(), actual.getEnvelope2D().getMinY(), tolerance);
+                assertEquals(expected.getEnvelope2D().getMaxX(), actual.getEnvelope2D().getMaxX(), tolerance);
+                assertEquals(expected.getEnvelope2D().getMaxY(), actual.getEnvelope2D().getMaxY(), tolerance);
+
+                RenderedImage expectedImage = expected.getRenderedImage();
+                RenderedImage actualImage = actual.getRenderedImage();
+
+                for (int y = 0; y < expectedImage.getHeight(); y += 7) {
+                    for (int x = 0; x < expectedImage.getWidth(); x += 5) {
+                        assertEquals(getRGB(expectedImage, x, y), getRGB(actualImage, x, y));
+                    }
+                }
+            } finally {
+                copyReader.dispose();
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static int getRGB(RenderedImage image, int x, int y) {
+        int px = image.getMinX() + x;
+        int py = image.getMinY() + y;
+
+        return image.getColorModel().getRGB(image.getData(new Rectangle(px, py, 1, 1)).getDataElements(px, py, null));
+    }
+}
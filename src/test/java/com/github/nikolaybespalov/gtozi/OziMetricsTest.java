@@ -0,0 +1,104 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.data.DataSourceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+public class OziMetricsTest {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private OziMetricsMXBean metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        OziMetrics.enable();
+
+        metrics = JMX.newMXBeanProxy(server, new ObjectName(OziMetrics.DOMAIN + ":type=Metrics"), OziMetricsMXBean.class);
+        metrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        OziMetrics.disable();
+    }
+
+    @Test
+    public void readShouldBeRecorded() throws Exception {
+        long openReaders = metrics.getOpenReaders();
+
+        OziMapReader reader = new OziMapReader(TestData.file(OziMetricsTest.class, "02-merc/merc-nad27.map"));
+
+        assertEquals(openReaders + 1, metrics.getOpenReaders());
+
+        try {
+            // Eager, so the pixels are decoded by the read itself
+            reader.readAsync(null, Runnable::run).get();
+        } finally {
+            reader.dispose();
+        }
+
+        assertEquals(openReaders, metrics.getOpenReaders());
+        assertTrue(metrics.getBytesRead() > 0);
+        assertTrue(metrics.getTilesDecoded() > 0);
+
+        assertEquals(1, getTimer("type=Timer,name=MapFileReader").getCount());
+        assertEquals(1, getTimer("type=Timer,name=MapReader").getCount());
+
+        OziTimerMXBean read = getTimer("type=Timer,name=Read,level=0");
+
+        assertEquals(1, read.getCount());
+        assertTrue(read.getMaxMillis() > 0);
+        assertTrue(read.getPercentile99Millis() >= read.getPercentile50Millis());
+    }
+
+    @Test
+    public void errorsShouldBeCountedByCause() {
+        try {
+            new OziMapFileReader(new File("does-not-exist.map"));
+
+            fail();
+        } catch (DataSourceException e) {
+            assertEquals(Long.valueOf(1), metrics.getErrors().get("DataSourceException"));
+        }
+    }
+
+    @Test
+    public void disabledMetricsShouldNotBeRegistered() throws Exception {
+        OziMetrics.disable();
+
+        assertFalse(OziMetrics.isEnabled());
+        assertFalse(server.isRegistered(new ObjectName(OziMetrics.DOMAIN + ":type=Metrics")));
+        assertEquals(0, OziMetrics.start());
+    }
+
+    @Test
+    public void percentilesShouldBeBucketBounds() {
+        OziTimer timer = new OziTimer();
+
+        for (int i = 0; i < 99; ++i) {
+            timer.record(3_000);
+        }
+
+        timer.record(5_000_000);
+
+        assertEquals(100, timer.getCount());
+        // 3 us falls into the bucket below 4 us, 5 ms into the bucket below 8192 us
+        assertEquals(0.004, timer.getPercentile50Millis(), 1e-9);
+        assertEquals(0.004, timer.getPercentile99Millis(), 1e-9);
+        assertEquals(8.192, timer.getPercentileMillis(1.0), 1e-9);
+        assertEquals(5.0, timer.getMaxMillis(), 1e-9);
+    }
+
+    private OziTimerMXBean getTimer(String name) throws Exception {
+        return JMX.newMXBeanProxy(server, new ObjectName(OziMetrics.DOMAIN + ":" + name), OziTimerMXBean.class);
+    }
+}
@@ -0,0 +1,178 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.TestData;
+import org.geotools.coverage.grid.GridCoordinates2D;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.data.DataSourceException;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.referencing.CRS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import java.awt.*;
+import java.awt.image.RenderedImage;
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class OziMosaicReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File mosaicDir;
+
+    @Before
+    public void setUp() throws Exception {
+        mosaicDir = folder.newFolder("mosaic");
+
+        // Sheets in geographic NAD27, Mercator NAD27 and Mercator WGS 84, the first one is the CRS of the mosaic
+        for (String name : new String[]{"01-latlon/latlon-nad27", "02-merc/merc-nad27", "02-merc/merc-wgs84"}) {
+            FileUtils.copyFileToDirectory(TestData.file(OziMosaicReaderTest.class, name + ".map"), mosaicDir);
+            FileUtils.copyFileToDirectory(TestData.file(OziMosaicReaderTest.class, name + ".jpg"), mosaicDir);
+        }
+    }
+
+    @Test
+    public void mosaicShouldCoverEverySheet() throws Exception {
+        OziMosaicReader reader = new OziMosaicReader(mosaicDir);
+
+        try {
+            assertEquals(3, reader.getSheetCount());
+            assertEquals(0, reader.getOpenSheetCount());
+
+            OziMapReader first = new OziMapReader(new File(mosaicDir, "latlon-nad27.map"));
+
+            try {
+                assertTrue(CRS.equalsIgnoreMetadata(first.getCoordinateReferenceSystem(), reader.getCoordinateReferenceSystem()));
+                assertTrue(reader.getOriginalEnvelope().contains(first.getOriginalEnvelope(), true));
+            } finally {
+                first.dispose();
+            }
+
+            // merc-wgs84 lies south of the equator, the others in California
+            assertTrue(reader.getOriginalEnvelope().getMinimum(1) < -8);
+            assertTrue(reader.getOriginalEnvelope().getMaximum(1) > 33);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readOutsideShouldNotOpenAnySheet() throws Exception {
+        OziMosaicReader reader = new OziMosaicReader(mosaicDir);
+
+        try {
+            assertNull(reader.read(request(reader, -60, 10, -59, 11, 100, 100)));
+            assertEquals(0, reader.getOpenSheetCount());
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readShouldOpenOnlyIntersectingSheets() throws Exception {
+        OziMosaicReader reader = new OziMosaicReader(mosaicDir);
+
+        try {
+            GridCoverage2D coverage = reader.read(request(reader, 2, -6, 8, -2, 120, 80));
+
+            assertNotNull(coverage);
+            assertEquals(1, reader.getOpenSheetCount());
+
+            RenderedImage image = coverage.getRenderedImage();
+
+            assertEquals(120, image.getWidth());
+            assertEquals(80, image.getHeight());
+
+            // The center is covered by merc-wgs84
+            int argb = image.getColorModel().getRGB(image.getData().getDataElements(60, 40, null));
+
+            assertEquals(0xFF, argb >>> 24);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readShouldCompositeEverySheet() throws Exception {
+        OziMosaicReader reader = new OziMosaicReader(mosaicDir);
+
+        try {
+            GeneralEnvelope envelope = reader.getOriginalEnvelope();
+
+            GeneralParameterValue[] params = request(reader, envelope.getMinimum(0), envelope.getMinimum(1),
+                    envelope.getMaximum(0), envelope.getMaximum(1), 400, 300);
+
+            GridCoverage2D coverage = reader.read(params);
+
+            assertNotNull(coverage);
+            assertEquals(3, reader.getOpenSheetCount());
+            assertEquals(envelope.getMinimum(0), coverage.getEnvelope2D().getMinX(), 1e-9);
+            assertEquals(envelope.getMaximum(1), coverage.getEnvelope2D().getMaxY(), 1e-9);
+
+            // Centers of the geographic sheet and of the reprojected Mercator ones, each from its own sheet
+            assertSheetPixel(coverage, "latlon-nad27.map", params, -117.47, 33.76);
+            assertSheetPixel(coverage, "merc-nad27.map", params, -117.47, 28.62);
+            assertSheetPixel(coverage, "merc-wgs84.map", params, 5.35, -4.34);
+
+            // Between the sheets, not covered by the reprojected ones
+            assertEquals(0, getArgb(coverage, new DirectPosition2D(reader.getCoordinateReferenceSystem(), -50, 10)) >>> 24);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private void assertSheetPixel(GridCoverage2D mosaic, String mapFile, GeneralParameterValue[] params, double x, double y) throws Exception {
+        // Center of the mosaic pixel, which the sheet is sampled at
+        GridCoordinates2D cell = mosaic.getGridGeometry().worldToGrid(new DirectPosition2D(mosaic.getCoordinateReferenceSystem2D(), x, y));
+        DirectPosition2D position = new DirectPosition2D(mosaic.getGridGeometry().gridToWorld(cell));
+        position.setCoordinateReferenceSystem(mosaic.getCoordinateReferenceSystem2D());
+
+        OziMapReader sheetReader = new OziMapReader(new File(mosaicDir, mapFile), new Hints(Hints.FORCE_LONGITUDE_FIRST_AXIS_ORDER, Boolean.TRUE));
+
+        try {
+            int expected = getArgb(sheetReader.read(params), position);
+            int actual = getArgb(mosaic, position);
+
+            assertEquals(0xFF, actual >>> 24);
+            assertEquals(mapFile, Integer.toHexString(expected), Integer.toHexString(actual));
+        } finally {
+            sheetReader.dispose();
+        }
+    }
+
+    private static int getArgb(GridCoverage2D coverage, DirectPosition2D position) throws Exception {
+        GridCoordinates2D cell = coverage.getGridGeometry().worldToGrid(position);
+        RenderedImage image = coverage.getRenderedImage();
+
+        int x = image.getMinX() + cell.x;
+        int y = image.getMinY() + cell.y;
+
+        return image.getColorModel().getRGB(image.getData(new Rectangle(x, y, 1, 1)).getDataElements(x, y, null));
+    }
+
+    @Test(expected = DataSourceException.class)
+    public void directoryWithoutMapsShouldThrow() throws Exception {
+        new OziMosaicReader(folder.newFolder("empty"));
+    }
+
+    private static GeneralParameterValue[] request(OziMosaicReader reader, double minX, double minY, double maxX, double maxY, int width, int height) {
+        GeneralEnvelope envelope = new GeneralEnvelope(new double[]{minX, minY}, new double[]{maxX, maxY});
+        envelope.setCoordinateReferenceSystem(reader.getCoordinateReferenceSystem());
+
+        ParameterValue<GridGeometry2D> gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        gridGeometry.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, width, height), envelope));
+
+        return new GeneralParameterValue[]{gridGeometry};
+    }
+}
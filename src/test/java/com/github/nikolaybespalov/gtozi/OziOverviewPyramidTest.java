@@ -0,0 +1,194 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.apache.commons.io.FileUtils;
+import org.geotools.TestData;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.factory.Hints;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+public class OziOverviewPyramidTest {
+    private static final int RASTER_SIZE = 1100;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File mapFile;
+    private File rasterFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mapFile = temporaryFolder.newFile("merc-nad27.map");
+        rasterFile = new File(temporaryFolder.getRoot(), "merc-nad27.jpg");
+
+        FileUtils.copyFile(TestData.file(OziOverviewPyramidTest.class, "02-merc/merc-nad27.map"), mapFile);
+
+        BufferedImage image = new BufferedImage(RASTER_SIZE, RASTER_SIZE, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, RASTER_SIZE / 2, RASTER_SIZE);
+        graphics.dispose();
+
+        assertTrue(ImageIO.write(image, "jpeg", rasterFile));
+    }
+
+    @Test
+    public void buildShouldHalveLevelsUntilMinimumSize() throws Exception {
+        OziOverviewPyramid pyramid = OziOverviewPyramid.build(rasterFile);
+
+        assertNotNull(pyramid);
+
+        Dimension[] levels = pyramid.getLevels();
+
+        assertEquals(3, levels.length);
+        assertEquals(new Dimension(1100, 1100), levels[0]);
+        assertEquals(new Dimension(550, 550), levels[1]);
+        assertEquals(new Dimension(275, 275), levels[2]);
+
+        assertLastLevel(pyramid);
+    }
+
+    @Test
+    public void buildShouldReadSequentialRasterInBudgetedStrips() throws Exception {
+        // Strips of a single row of tiles, the JPEG is decoded once per strip
+        OziOverviewPyramid pyramid = OziOverviewPyramid.build(rasterFile, 1);
+
+        assertNotNull(pyramid);
+        assertEquals(3, pyramid.getLevels().length);
+
+        assertLastLevel(pyramid);
+    }
+
+    private static void assertLastLevel(OziOverviewPyramid pyramid) throws Exception {
+        try (ImageInputStream inStream = ImageIO.createImageInputStream(pyramid.getLevelFile(2))) {
+            ImageReader imageReader = ImageIO.getImageReaders(inStream).next();
+
+            try {
+                imageReader.setInput(inStream);
+
+                assertTrue(imageReader.isImageTiled(0));
+                assertEquals(275, imageReader.getWidth(0));
+                assertEquals(275, imageReader.getHeight(0));
+
+                // Left half orange, right half black, averaged with the JPEG noise
+                BufferedImage level = imageReader.read(0);
+
+                Color left = new Color(level.getRGB(50, 137));
+                Color right = new Color(level.getRGB(225, 137));
+
+                assertEquals(Color.ORANGE.getRed(), left.getRed(), 8);
+                assertEquals(Color.ORANGE.getGreen(), left.getGreen(), 8);
+                assertEquals(0, right.getRed(), 8);
+            } finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void buildShouldNotRebuildUpToDateOverviews() throws Exception {
+        File levelFile = OziOverviewPyramid.build(rasterFile).getLevelFile(2);
+
+        assertTrue(levelFile.setLastModified(levelFile.lastModified() - 10000));
+
+        long lastModified = levelFile.lastModified();
+
+        OziOverviewPyramid.build(rasterFile);
+
+        assertEquals(lastModified, levelFile.lastModified());
+    }
+
+    @Test
+    public void interruptedBuildShouldContinueFromLastLevel() throws Exception {
+        OziOverviewPyramid pyramid = OziOverviewPyramid.build(rasterFile);
+
+        File firstLevel = pyramid.getLevelFile(1);
+        File secondLevel = pyramid.getLevelFile(2);
+
+        // As if the build was interrupted while the second level was written
+        Path manifestFile = OziOverviewPyramid.getDirectory(rasterFile).resolve("pyramid.properties");
+
+        Properties manifest = new Properties();
+
+        try (InputStream in = Files.newInputStream(manifestFile)) {
+            manifest.load(in);
+        }
+
+        manifest.setProperty("levels", "1");
+
+        try (OutputStream out = Files.newOutputStream(manifestFile)) {
+            manifest.store(out, null);
+        }
+
+        assertTrue(secondLevel.delete());
+        assertTrue(firstLevel.setLastModified(firstLevel.lastModified() - 10000));
+
+        long lastModified = firstLevel.lastModified();
+
+        OziOverviewPyramid resumed = OziOverviewPyramid.build(rasterFile);
+
+        assertEquals(3, resumed.getLevels().length);
+        assertEquals(lastModified, firstLevel.lastModified());
+        assertTrue(secondLevel.isFile());
+    }
+
+    @Test
+    public void openShouldIgnoreOverviewsOfChangedRaster() throws Exception {
+        assertNull(OziOverviewPyramid.open(rasterFile));
+
+        OziOverviewPyramid.build(rasterFile);
+
+        assertNotNull(OziOverviewPyramid.open(rasterFile));
+
+        assertTrue(rasterFile.setLastModified(rasterFile.lastModified() - 10000));
+
+        assertNull(OziOverviewPyramid.open(rasterFile));
+
+        OziOverviewPyramid rebuilt = OziOverviewPyramid.build(rasterFile);
+
+        assertNotNull(rebuilt);
+        assertTrue(rebuilt.isUpToDate());
+    }
+
+    @Test
+    public void readerShouldServeLowResolutionReadsFromOverviews() throws Exception {
+        OziMapReader reader = new OziMapReader(mapFile, new Hints(OziMapReader.BUILD_OVERVIEWS, Boolean.TRUE));
+
+        try {
+            assertEquals(3, reader.getResolutionLevels().length);
+
+            final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+            final GridEnvelope2D range = new GridEnvelope2D(0, 0, 275, 275);
+            gg.setValue(new GridGeometry2D(range, reader.getOriginalEnvelope()));
+
+            GridCoverage2D coverage = reader.read(new GeneralParameterValue[]{gg});
+
+            assertEquals(275, coverage.getRenderedImage().getWidth());
+            assertEquals(275, coverage.getRenderedImage().getHeight());
+        } finally {
+            reader.dispose();
+        }
+    }
+}
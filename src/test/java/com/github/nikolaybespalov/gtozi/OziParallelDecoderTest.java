@@ -0,0 +1,247 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.Envelope2D;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class OziParallelDecoderTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static int[] pixels(Raster raster) {
+        return raster.getPixels(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(), (int[]) null);
+    }
+
+    private static BufferedImage createImage() {
+        BufferedImage image = new BufferedImage(1500, 1300, BufferedImage.TYPE_3BYTE_BGR);
+
+        Random random = new Random(42);
+
+        for (int y = 0; y < image.getHeight(); y += 10) {
+            for (int x = 0; x < image.getWidth(); x += 10) {
+                Graphics2D graphics = image.createGraphics();
+                graphics.setColor(new Color(random.nextInt()));
+                graphics.fillRect(x, y, 10, 10);
+                graphics.dispose();
+            }
+        }
+
+        return image;
+    }
+
+    private static BufferedImage createBinaryImage() {
+        BufferedImage image = new BufferedImage(1500, 1300, BufferedImage.TYPE_BYTE_BINARY);
+
+        Random random = new Random(42);
+
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                image.getRaster().setSample(x, y, 0, random.nextInt(2));
+            }
+        }
+
+        return image;
+    }
+
+    private File createTiledTiff() throws Exception {
+        return createTiledTiff(createImage(), "tiled.tif");
+    }
+
+    private File createTiledTiff(BufferedImage image, String name) throws Exception {
+        File file = temporaryFolder.newFile(name);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("tiff").next();
+
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            ImageWriteParam writeP = writer.getDefaultWriteParam();
+            writeP.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            writeP.setTiling(256, 256, 0, 0);
+
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), writeP);
+        } finally {
+            writer.dispose();
+        }
+
+        return file;
+    }
+
+    @Test
+    public void splitShouldFollowTileBoundaries() {
+        assertArrayEquals(new int[]{0, 512, 1024, 1500}, OziParallelDecoder.split(0, 1500, 1, 256));
+        assertArrayEquals(new int[]{0, 412, 924, 1000}, OziParallelDecoder.split(100, 1000, 1, 256));
+        assertArrayEquals(new int[]{0, 171, 342, 500}, OziParallelDecoder.split(0, 500, 3, 256));
+        assertArrayEquals(new int[]{0, 120}, OziParallelDecoder.split(0, 120, 1, 120));
+    }
+
+    @Test
+    public void parallelReadShouldReturnTheSamePixelsAsReader() throws Exception {
+        ImageReadParam readP = new ImageReadParam();
+        readP.setSourceRegion(new Rectangle(37, 101, 1400, 1111));
+        readP.setSourceSubsampling(3, 2, 0, 0);
+
+        assertParallelReadEqualsReader(createTiledTiff(), readP);
+    }
+
+    @Test
+    public void parallelReadOfPackedPixelsShouldReturnTheSamePixelsAsReader() throws Exception {
+        File file = createTiledTiff(createBinaryImage(), "binary.tif");
+
+        // Tile boundaries fall inside bytes of the destination
+        ImageReadParam readP = new ImageReadParam();
+        readP.setSourceRegion(new Rectangle(37, 101, 1400, 1111));
+
+        for (int i = 0; i < 10; ++i) {
+            assertParallelReadEqualsReader(file, readP);
+        }
+    }
+
+    private static void assertParallelReadEqualsReader(File file, ImageReadParam readP) throws Exception {
+        BufferedImage expected;
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = ImageIO.getImageReaders(in).next();
+
+            try {
+                reader.setInput(in);
+
+                expected = reader.read(0, readP);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            OziImageReaderPool readerPool = new OziImageReaderPool(file, OziRasterFiles.getInputStreamSpi(file),
+                    OziRasterFiles.getReaderSpi(file, in), 4);
+
+            BufferedImage actual = OziParallelDecoder.read(forkJoinPool, readerPool, 0, readP);
+
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            assertArrayEquals(pixels(expected.getRaster()), pixels(actual.getRaster()));
+
+            readerPool.clear();
+        } finally {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    @Test
+    public void readerWithParallelReadPoolShouldReturnTheSamePixels() throws Exception {
+        File mapFile = TestData.file(OziParallelDecoderTest.class, "02-merc/merc-nad27.map");
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+
+        OziMapReader reference = new OziMapReader(mapFile);
+        OziMapReader parallel = new OziMapReader(mapFile, new Hints(OziMapReader.PARALLEL_READ_POOL, forkJoinPool));
+
+        try {
+            assertArrayEquals(pixels(reference.read(null).getRenderedImage().getData()),
+                    pixels(parallel.read(null).getRenderedImage().getData()));
+        } finally {
+            reference.dispose();
+            parallel.dispose();
+            forkJoinPool.shutdown();
+        }
+    }
+
+    @Test
+    public void windowReadShouldDecodeFewerBlocksThanFullRead() throws Exception {
+        File mapFile = temporaryFolder.newFile("tiled.map");
+
+        new OziMapWriter(mapFile).write(new GridCoverageFactory().create("tiled", createImage(),
+                new ReferencedEnvelope(30, 45, 50, 63, DefaultGeographicCRS.WGS84)), null);
+
+        ForkJoinPool forkJoinPool = new ForkJoinPool(2);
+
+        OziMapReader reader = new OziMapReader(mapFile, new Hints(OziMapReader.PARALLEL_READ_POOL, forkJoinPool));
+
+        OziMetrics.enable();
+
+        try {
+            OziMetricsMXBean metrics = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                    new ObjectName(OziMetrics.DOMAIN + ":type=Metrics"), OziMetricsMXBean.class);
+            metrics.reset();
+
+            GridCoverage2D full = reader.read(null);
+
+            long fullBlocks = metrics.getTilesDecoded();
+
+            GeneralEnvelope envelope = reader.getOriginalEnvelope();
+            GeneralEnvelope window = new GeneralEnvelope(
+                    new double[]{envelope.getMinimum(0), envelope.getMinimum(1)},
+                    new double[]{envelope.getMedian(0), envelope.getMedian(1)});
+            window.setCoordinateReferenceSystem(reader.getCoordinateReferenceSystem());
+
+            final ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+            gg.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, 60, 60), window));
+
+            metrics.reset();
+
+            GridCoverage2D windowed = reader.read(new GeneralParameterValue[]{gg});
+
+            assertTrue(metrics.getTilesDecoded() < fullBlocks);
+
+            // The window with at most the pixel of margin around it
+            double resolutionX = envelope.getSpan(0) / full.getRenderedImage().getWidth();
+            double resolutionY = envelope.getSpan(1) / full.getRenderedImage().getHeight();
+
+            Envelope2D actual = windowed.getEnvelope2D();
+
+            assertEquals(window.getMinimum(0), actual.getMinX(), 1.5 * resolutionX);
+            assertEquals(window.getMinimum(1), actual.getMinY(), 1.5 * resolutionY);
+            assertEquals(window.getMaximum(0), actual.getMaxX(), 1.5 * resolutionX);
+            assertEquals(window.getMaximum(1), actual.getMaxY(), 1.5 * resolutionY);
+
+            // The window pixels are the pixels of the full read at the offset of the window
+            int offsetX = (int) Math.round((actual.getMinX() - envelope.getMinimum(0)) / resolutionX);
+            int offsetY = (int) Math.round((envelope.getMaximum(1) - actual.getMaxY()) / resolutionY);
+
+            Raster windowRaster = windowed.getRenderedImage().getData();
+
+            assertArrayEquals(
+                    full.getRenderedImage().getData().getPixels(offsetX, offsetY, windowRaster.getWidth(), windowRaster.getHeight(), (int[]) null),
+                    pixels(windowRaster));
+        } finally {
+            OziMetrics.disable();
+            reader.dispose();
+            forkJoinPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.geotools.factory.Hints;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageReadParam;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class OziTileCacheTest {
+    private static final int TILE_BYTES = OziTileCache.TILE_SIZE * OziTileCache.TILE_SIZE * 3;
+
+    private BufferedImage source;
+    private AtomicInteger decodeCount;
+    private AtomicInteger decodedPixels;
+    private OziTileCache.Decoder decoder;
+
+    @Before
+    public void setUp() {
+        source = new BufferedImage(600, 500, BufferedImage.TYPE_3BYTE_BGR);
+
+        Random random = new Random(42);
+
+        for (int y = 0; y < source.getHeight(); ++y) {
+            for (int x = 0; x < source.getWidth(); ++x) {
+                source.setRGB(x, y, random.nextInt());
+            }
+        }
+
+        decodeCount = new AtomicInteger();
+        decodedPixels = new AtomicInteger();
+        decoder = (region, xSubsampling, ySubsampling) -> {
+            decodeCount.incrementAndGet();
+
+            BufferedImage image = new BufferedImage((region.width + xSubsampling - 1) / xSubsampling,
+                    (region.height + ySubsampling - 1) / ySubsampling, BufferedImage.TYPE_3BYTE_BGR);
+
+            for (int y = 0; y < image.getHeight(); ++y) {
+                for (int x = 0; x < image.getWidth(); ++x) {
+                    image.setRGB(x, y, source.getRGB(region.x + x * xSubsampling, region.y + y * ySubsampling));
+                }
+            }
+
+            decodedPixels.addAndGet(image.getWidth() * image.getHeight());
+
+            return image;
+        };
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        Raster raster = image.getRaster();
+
+        return raster.getPixels(0, 0, raster.getWidth(), raster.getHeight(), (int[]) null);
+    }
+
+    @Test
+    public void readShouldMatchSubsampledSourceRegion() throws Exception {
+        OziTileCache cache = new OziTileCache(Long.MAX_VALUE);
+
+        ImageReadParam readP = new ImageReadParam();
+        readP.setSourceRegion(new Rectangle(100, 50, 400, 300));
+        readP.setSourceSubsampling(3, 2, 0, 0);
+
+        BufferedImage image = cache.read("raster", 0, new Dimension(600, 500), readP, decoder);
+
+        assertEquals(134, image.getWidth());
+        assertEquals(150, image.getHeight());
+
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                assertEquals(source.getRGB(100 + x * 3, 50 + y * 2), image.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void subsampledReadShouldDecodeSubsampledTiles() throws Exception {
+        OziTileCache cache = new OziTileCache(Long.MAX_VALUE);
+
+        ImageReadParam readP = new ImageReadParam();
+        readP.setSourceRegion(new Rectangle(0, 0, 600, 500));
+        readP.setSourceSubsampling(4, 4, 0, 0);
+
+        BufferedImage image = cache.read("raster", 0, new Dimension(600, 500), readP, decoder);
+
+        assertEquals(150, image.getWidth());
+        assertEquals(125, image.getHeight());
+
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                assertEquals(source.getRGB(x * 4, y * 4), image.getRGB(x, y));
+            }
+        }
+
+        // A single tile of the subsampled level, no full resolution pixel
+        assertEquals(1, cache.size());
+        assertEquals(150 * 125, decodedPixels.get());
+
+        cache.read("raster", 0, new Dimension(600, 500), readP, decoder);
+
+        assertEquals(1, decodeCount.get());
+
+        // Full resolution tiles are cached apart
+        cache.read("raster", 0, new Dimension(600, 500), new ImageReadParam(), decoder);
+
+        assertEquals(2, decodeCount.get());
+        assertEquals(7, cache.size());
+    }
+
+    @Test
+    public void secondReadShouldBeServedFromCache() throws Exception {
+        OziTileCache cache = new OziTileCache(Long.MAX_VALUE);
+
+        BufferedImage first = cache.read("raster", 0, new Dimension(600, 500), new ImageReadParam(), decoder);
+
+        assertEquals(1, decodeCount.get());
+        assertEquals(6, cache.size());
+        assertEquals(6, cache.getMissCount());
+
+        BufferedImage second = cache.read("raster", 0, new Dimension(600, 500), new ImageReadParam(), decoder);
+
+        assertEquals(1, decodeCount.get());
+        assertEquals(6, cache.getHitCount());
+        assertArrayEquals(pixels(first), pixels(second));
+
+        cache.read("other-raster", 0, new Dimension(600, 500), new ImageReadParam(), decoder);
+
+        assertEquals(2, decodeCount.get());
+    }
+
+    @Test
+    public void cacheShouldStayWithinByteBudget() throws Exception {
+        OziTileCache cache = new OziTileCache(2 * TILE_BYTES);
+
+        cache.read("raster", 0, new Dimension(600, 500), new ImageReadParam(), decoder);
+
+        assertTrue(cache.getSizeInBytes() <= cache.getMaxBytes());
+        assertTrue(cache.getEvictionCount() >= 4);
+    }
+
+    @Test
+    public void evictedTilesShouldBeFreedRightAway() throws Exception {
+        OziTileCache cache = new OziTileCache(2 * TILE_BYTES);
+
+        BufferPoolMXBean direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new);
+
+        long used = direct.getMemoryUsed();
+
+        for (int i = 0; i < 50; ++i) {
+            cache.read("raster" + i, 0, new Dimension(600, 500), new ImageReadParam(), decoder);
+        }
+
+        // 300 tiles were cached and evicted, without a collection only the last ones may still be allocated
+        assertTrue(direct.getMemoryUsed() - used <= cache.getMaxBytes());
+
+        cache.clear();
+
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void readersOfTheSameRasterShouldShareTiles() throws Exception {
+        OziTileCache cache = new OziTileCache(Long.MAX_VALUE);
+        Hints hints = new Hints(OziMapReader.TILE_CACHE, cache);
+
+        OziMapReader first = new OziMapReader(TestData.file(OziTileCacheTest.class, "02-merc/merc-nad27.map"), hints);
+        OziMapReader second = new OziMapReader(TestData.file(OziTileCacheTest.class, "02-merc/merc-nad27.map"), hints);
+        OziMapReader uncached = new OziMapReader(TestData.file(OziTileCacheTest.class, "02-merc/merc-nad27.map"));
+
+        try {
+            Raster expected = uncached.read(null).getRenderedImage().getData();
+
+            first.read(null);
+
+            long misses = cache.getMissCount();
+
+            Raster actual = second.read(null).getRenderedImage().getData();
+
+            assertEquals(misses, cache.getMissCount());
+            assertTrue(cache.getHitCount() > 0);
+            assertArrayEquals(
+                    expected.getPixels(0, 0, expected.getWidth(), expected.getHeight(), (int[]) null),
+                    actual.getPixels(0, 0, actual.getWidth(), actual.getHeight(), (int[]) null));
+        } finally {
+            first.dispose();
+            second.dispose();
+            uncached.dispose();
+        }
+    }
+}
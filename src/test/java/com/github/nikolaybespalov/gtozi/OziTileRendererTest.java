@@ -0,0 +1,151 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class OziTileRendererTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private OziMapReader reader;
+    private OziTileRenderer renderer;
+
+    @Before
+    public void setUp() throws Exception {
+        reader = new OziMapReader(TestData.file(OziTileRendererTest.class, "01-latlon/latlon-wgs84.map"));
+        renderer = new OziTileRenderer(reader);
+    }
+
+    @After
+    public void tearDown() {
+        reader.dispose();
+    }
+
+    /**
+     * Tile of the given zoom level that contains the center of the map.
+     */
+    private int[] centerTile(int z) {
+        double lon = reader.getOriginalEnvelope().getMedian(0);
+        double lat = Math.toRadians(reader.getOriginalEnvelope().getMedian(1));
+
+        int n = 1 << z;
+
+        int x = (int) Math.floor((lon + 180) / 360 * n);
+        int y = (int) Math.floor((1 - Math.log(Math.tan(lat) + 1 / Math.cos(lat)) / Math.PI) / 2 * n);
+
+        return new int[]{x, y};
+    }
+
+    @Test
+    public void renderShouldReturnEncodedTile() throws Exception {
+        int[] tile = centerTile(8);
+
+        for (OziTileRenderer.Format format : OziTileRenderer.Format.values()) {
+            byte[] bytes = renderer.render(8, tile[0], tile[1], format);
+
+            assertNotNull(bytes);
+
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+
+            assertEquals(OziTileRenderer.TILE_SIZE, image.getWidth());
+            assertEquals(OziTileRenderer.TILE_SIZE, image.getHeight());
+        }
+    }
+
+    @Test
+    public void tileCenterShouldBeInsideTheMap() throws Exception {
+        int[] tile = centerTile(12);
+
+        BufferedImage image = renderer.renderImage(12, tile[0], tile[1], OziTileRenderer.Format.PNG);
+
+        assertNotNull(image);
+
+        // Some pixels are opaque
+        boolean opaque = false;
+
+        for (int y = 0; y < image.getHeight() && !opaque; ++y) {
+            for (int x = 0; x < image.getWidth() && !opaque; ++x) {
+                opaque = (image.getRGB(x, y) >>> 24) != 0;
+            }
+        }
+
+        assertTrue(opaque);
+    }
+
+    @Test
+    public void renderShouldReturnNullOutsideOfTheMap() throws Exception {
+        int[] tile = centerTile(10);
+
+        int farX = (tile[0] + (1 << 9)) % (1 << 10);
+
+        assertNull(renderer.render(10, farX, tile[1], OziTileRenderer.Format.PNG));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void renderShouldRejectInvalidTile() throws Exception {
+        renderer.render(2, 4, 0, OziTileRenderer.Format.PNG);
+    }
+
+    @Test
+    public void paletteRasterShouldBeRenderedToPaletteTile() throws Exception {
+        // The default 256 entry palette, the map uses only some of the entries
+        BufferedImage raster = ImageIO.read(TestData.file(OziTileRendererTest.class, "02-merc/merc-wgs84.jpg"));
+        BufferedImage indexed = new BufferedImage(raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_BYTE_INDEXED);
+
+        Graphics2D graphics = indexed.createGraphics();
+        graphics.drawImage(raster, 0, 0, null);
+        graphics.dispose();
+
+        File mapFile = temporaryFolder.newFile("merc-wgs84.map");
+
+        ImageIO.write(indexed, "png", temporaryFolder.newFile("merc-wgs84.png"));
+
+        String map = new String(Files.readAllBytes(TestData.file(OziTileRendererTest.class, "02-merc/merc-wgs84.map").toPath()), StandardCharsets.ISO_8859_1);
+        Files.write(mapFile.toPath(), map.replace("merc-wgs84.jpg", "merc-wgs84.png").getBytes(StandardCharsets.ISO_8859_1));
+
+        OziMapReader paletteReader = new OziMapReader(mapFile);
+
+        try {
+            // The tile from 0 to 22.5 degrees east and south, the map covers its north west corner
+            BufferedImage image = new OziTileRenderer(paletteReader).renderImage(4, 8, 8, OziTileRenderer.Format.PNG);
+
+            assertNotNull(image);
+            assertTrue(image.getColorModel() instanceof IndexColorModel);
+            assertEquals(256, ((IndexColorModel) image.getColorModel()).getMapSize());
+
+            // Outside pixels are transparent and the map pixels are not
+            boolean transparent = false;
+            boolean opaque = false;
+
+            for (int y = 0; y < image.getHeight(); ++y) {
+                for (int x = 0; x < image.getWidth(); ++x) {
+                    if ((image.getRGB(x, y) >>> 24) == 0) {
+                        transparent = true;
+                    } else {
+                        opaque = true;
+                    }
+                }
+            }
+
+            assertTrue(transparent);
+            assertTrue(opaque);
+        } finally {
+            paletteReader.dispose();
+        }
+    }
+}
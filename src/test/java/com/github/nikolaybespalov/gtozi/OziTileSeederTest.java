@@ -0,0 +1,110 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.TestData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class OziTileSeederTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void seedShouldWriteEveryLevel() throws Exception {
+        Path mapDir = TestData.file(OziTileSeederTest.class, "01-latlon/latlon-wgs84.map").toPath().getParent();
+        Path outputDir = folder.newFolder().toPath();
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+
+        try {
+            OziTileSeeder seeder = new OziTileSeeder(outputDir, OziTileRenderer.Format.PNG, pool);
+
+            OziTileSeeder.Result result = seeder.seed(Collections.singletonList(mapDir), 6, 8);
+
+            assertTrue(result.getWrittenTiles() >= 3);
+            assertEquals(0, result.getSkippedTiles());
+
+            OziMapReader reader = new OziMapReader(mapDir.resolve("latlon-wgs84.map").toFile());
+
+            try {
+                for (int z = 6; z <= 8; ++z) {
+                    List<Point> tiles = OziTileSeeder.getTiles(reader, z);
+
+                    assertFalse(tiles.isEmpty());
+
+                    for (Point tile : tiles) {
+                        Path tileFile = seeder.getTileFile(z, tile);
+
+                        assertTrue(tileFile.toString(), Files.exists(tileFile));
+
+                        BufferedImage image = ImageIO.read(tileFile.toFile());
+
+                        assertEquals(OziTileRenderer.TILE_SIZE, image.getWidth());
+                        assertEquals(OziTileRenderer.TILE_SIZE, image.getHeight());
+                    }
+                }
+            } finally {
+                reader.dispose();
+            }
+
+            // A second run finds every tile in place
+            OziTileSeeder.Result resumed = seeder.seed(Collections.singletonList(mapDir), 6, 8);
+
+            assertEquals(0, resumed.getWrittenTiles());
+            assertEquals(result.getWrittenTiles(), resumed.getSkippedTiles());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void jpegTilesShouldBeCompositedBeforeFlattening() throws Exception {
+        Path mapFile = TestData.file(OziTileSeederTest.class, "02-merc/merc-wgs84.map").toPath();
+        Path copyDir = folder.newFolder().toPath();
+        Path outputDir = folder.newFolder().toPath();
+
+        // The same map twice, so the tile is a composite
+        Files.copy(mapFile, copyDir.resolve("merc-wgs84.map"));
+        Files.copy(mapFile.resolveSibling("merc-wgs84.jpg"), copyDir.resolve("merc-wgs84.jpg"));
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        OziTileCache tileCache = new OziTileCache(OziTileRenderer.DEFAULT_TILE_CACHE_BYTES);
+
+        try {
+            OziTileSeeder seeder = new OziTileSeeder(outputDir, OziTileRenderer.Format.JPEG, pool, tileCache);
+
+            seeder.seed(Arrays.asList(mapFile, copyDir.resolve("merc-wgs84.map")), 4, 4);
+
+            assertTrue(tileCache.getMissCount() > 0);
+
+            // The tile from 0 to 22.5 degrees east and south, the map covers its north west corner
+            BufferedImage image = ImageIO.read(seeder.getTileFile(4, new Point(8, 8)).toFile());
+
+            assertNotNull(image);
+
+            Color outside = new Color(image.getRGB(OziTileRenderer.TILE_SIZE - 1, OziTileRenderer.TILE_SIZE - 1));
+
+            assertTrue(outside.getRed() > 240 && outside.getGreen() > 240 && outside.getBlue() > 240);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void seedShouldRejectInvalidZoomRange() throws Exception {
+        new OziTileSeeder(folder.getRoot().toPath(), OziTileRenderer.Format.PNG, ForkJoinPool.commonPool())
+                .seed(Collections.emptyList(), 8, 6);
+    }
+}
@@ -0,0 +1,57 @@
+package com.github.nikolaybespalov.gtozi;
+
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.referencing.operation.transform.ConcatenatedTransform;
+import org.geotools.referencing.operation.transform.ProjectiveTransform;
+import org.junit.Test;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.awt.geom.AffineTransform;
+
+import static org.junit.Assert.*;
+
+public class OziWarpGridTest {
+    @Test
+    public void affineTransformShouldUseTheLargestCells() {
+        MathTransform pixel2Map = ProjectiveTransform.create(new AffineTransform(0.5, 0, 0, -0.5, 100, 200));
+
+        OziWarpGrid grid = OziWarpGrid.create(pixel2Map, 300, 200, new AffineTransform(), 0.1);
+
+        assertEquals(OziWarpGrid.MAX_STEP, grid.getStep());
+
+        double[] point = new double[2];
+
+        assertTrue(grid.interpolate(150.5, 99.5, point));
+        assertEquals(100 + 150.5 * 0.5, point[0], 1e-9);
+        assertEquals(200 - 99.5 * 0.5, point[1], 1e-9);
+    }
+
+    @Test
+    public void curvedTransformShouldStayWithinTheTolerance() throws Exception {
+        // Pixels of a whole hemisphere in Web Mercator
+        MathTransform pixel2Map = ConcatenatedTransform.create(
+                ProjectiveTransform.create(new AffineTransform(0.1, 0, 0, -0.1, -90, 80)),
+                CRS.findMathTransform(DefaultGeographicCRS.WGS84, CRS.decode("EPSG:3857", true), true));
+
+        // One source pixel per kilometer, the error is measured at the cell centers only
+        AffineTransform map2Source = AffineTransform.getScaleInstance(0.001, 0.001);
+
+        OziWarpGrid grid = OziWarpGrid.create(pixel2Map, 1800, 1600, map2Source, 0.5);
+
+        assertTrue(grid.getStep() < OziWarpGrid.MAX_STEP);
+
+        double[] exact = new double[2];
+        double[] approximate = new double[2];
+
+        for (int y = 3; y < 1600; y += 97) {
+            for (int x = 5; x < 1800; x += 89) {
+                pixel2Map.transform(new double[]{x, y}, 0, exact, 0, 1);
+
+                assertTrue(grid.interpolate(x, y, approximate));
+                assertEquals(exact[0], approximate[0], 750);
+                assertEquals(exact[1], approximate[1], 750);
+            }
+        }
+    }
+}